@@ -0,0 +1,112 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.facebookapi.benchmarks.Payloads;
+
+/**
+ * Measures BasicClient batching: encoding a full batch of queued calls into a method_feed, and a whole beginBatch / queue / executeBatch round against a
+ * CommunicationStrategy that answers with a recorded batch_run response. Lives in this package to reach the protected parts of BasicClient.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+	private static final String UIDS = "500455733,100000412345678,100000123456789,683211456,1284567321,100000987654321,723456891,1523456789";
+	private static final String FIELDS = "uid,first_name,last_name,name,pic_square,locale,current_location,hometown_location";
+
+	private List<BatchQuery> queries;
+	private BasicClient client;
+
+	@Setup
+	public void setup() {
+		queries = new ArrayList<BatchQuery>();
+		for ( int i = 0; i < BasicClient.BATCH_LIMIT; i++ ) {
+			SortedMap<String,String> params = new TreeMap<String,String>();
+			params.put( "api_key", "0123456789abcdef0123456789abcdef" );
+			params.put( "call_id", Long.toString( 1255555555555L + i ) );
+			params.put( "fields", FIELDS );
+			params.put( "format", "json" );
+			params.put( "method", FacebookMethod.USERS_GET_INFO.methodName() );
+			params.put( "session_key", "2.AbCdEfGhIjKlMnOp_.3600.1255555555-123456789" );
+			params.put( "uids", UIDS );
+			params.put( "v", "1.0" );
+			params.put( "sig", "0123456789abcdef0123456789abcdef" );
+			queries.add( new BatchQuery( FacebookMethod.USERS_GET_INFO, params ) );
+		}
+		client = new BasicClient( null, null, "0123456789abcdef0123456789abcdef", "0123456789abcdef0123456789abcdef", false, new CannedStrategy( Payloads
+				.string( "batch_run.json" ) ) );
+	}
+
+	@Benchmark
+	public String encodeMethods() throws Exception {
+		return BasicClient.encodeMethods( queries );
+	}
+
+	@Benchmark
+	public List<String> executeBatch() throws Exception {
+		client.beginBatch();
+		for ( int i = 0; i < BasicClient.BATCH_LIMIT; i++ ) {
+			client.callMethod( "json", FacebookMethod.USERS_GET_INFO, "2.AbCdEfGhIjKlMnOp_.3600.1255555555-123456789", Pairs.newPair( "uids", UIDS ), Pairs
+					.newPair( "fields", FIELDS ) );
+		}
+		return client.executeBatch( false );
+	}
+
+	private static class CannedStrategy implements CommunicationStrategy {
+
+		private final String response;
+
+		CannedStrategy( String response ) {
+			this.response = response;
+		}
+
+		public String postRequest( URL serverUrl, SortedMap<String,String> params ) throws IOException {
+			return response;
+		}
+
+		public String postRequest( URL serverUrl, SortedMap<String,String> params, String fileName, InputStream fileStream ) throws IOException {
+			return response;
+		}
+
+		public int getConnectionTimeout() {
+			return 0;
+		}
+
+		public void setConnectionTimeout( int connectTimeout ) {
+			// not connecting
+		}
+
+		public int getReadTimeout() {
+			return 0;
+		}
+
+		public void setReadTimeout( int readTimeout ) {
+			// not connecting
+		}
+
+	}
+
+}
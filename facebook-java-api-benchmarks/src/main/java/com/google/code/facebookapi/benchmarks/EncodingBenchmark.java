@@ -0,0 +1,73 @@
+package com.google.code.facebookapi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.facebookapi.BasicClientHelper;
+
+/**
+ * Measures building a request body: joining an id list into a parameter value, and form-encoding a signed parameter map the way
+ * DefaultCommunicationStrategy does before every POST.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodingBenchmark {
+
+	private List<Long> uids;
+	private SortedMap<String,String> params;
+	private String message;
+
+	@Setup
+	public void setup() {
+		uids = new ArrayList<Long>();
+		for ( int i = 0; i < 100; i++ ) {
+			uids.add( 100000000000000L + i * 7919L );
+		}
+		message = "Thanks for joining! Rendez-vous \u00e0 20h & bring a friend \u2014 it's free :)";
+		params = new TreeMap<String,String>();
+		params.put( "api_key", "0123456789abcdef0123456789abcdef" );
+		params.put( "call_id", "1255555555555" );
+		params.put( "fields", "uid,first_name,last_name,name,pic_square,locale,current_location,hometown_location" );
+		params.put( "format", "json" );
+		params.put( "method", "facebook.notifications.send" );
+		params.put( "notification", message );
+		params.put( "session_key", "2.AbCdEfGhIjKlMnOp_.3600.1255555555-123456789" );
+		params.put( "to_ids", BasicClientHelper.delimit( uids ).toString() );
+		params.put( "v", "1.0" );
+		params.put( "sig", "0123456789abcdef0123456789abcdef" );
+	}
+
+	@Benchmark
+	public String delimitIds() {
+		return BasicClientHelper.delimit( uids ).toString();
+	}
+
+	@Benchmark
+	public String encodeValue() {
+		return BasicClientHelper.encode( message );
+	}
+
+	@Benchmark
+	public String encodeParams() {
+		return BasicClientHelper.delimit( params.entrySet(), "&", "=", true ).toString();
+	}
+
+}
@@ -0,0 +1,55 @@
+package com.google.code.facebookapi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.facebookapi.FacebookJaxbRestClient;
+
+/**
+ * Unmarshals recorded XML responses into the schema POJOs through FacebookJaxbRestClientBase.getResponsePOJO, from a String and straight from a stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JaxbBenchmark {
+
+	@Param( { "users_getInfo.xml", "friends_get.xml" })
+	public String payload;
+
+	private String response;
+	private byte[] responseBytes;
+	private FacebookJaxbRestClient client;
+
+	@Setup
+	public void setup() {
+		response = Payloads.string( payload );
+		responseBytes = Payloads.bytes( payload );
+		client = new FacebookJaxbRestClient( "0123456789abcdef0123456789abcdef", "0123456789abcdef0123456789abcdef" );
+	}
+
+	@Benchmark
+	public Object fromString() {
+		return client.getResponsePOJO( response );
+	}
+
+	@Benchmark
+	public Object fromStream() {
+		return client.getResponsePOJO( new ByteArrayInputStream( responseBytes ) );
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.google.code.facebookapi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.code.facebookapi.JsonHelper;
+import com.google.code.facebookapi.JsonPullParser;
+
+/**
+ * Parses recorded JSON responses both into the org.json tree JsonHelper.parseCallResult builds, and by walking them with the streaming JsonPullParser.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonParseBenchmark {
+
+	@Param( { "users_getInfo.json", "friends_get.json" })
+	public String payload;
+
+	private String response;
+	private byte[] responseBytes;
+
+	@Setup
+	public void setup() {
+		response = Payloads.string( payload );
+		responseBytes = Payloads.bytes( payload );
+	}
+
+	@Benchmark
+	public Object parseCallResult() throws Exception {
+		return JsonHelper.parseCallResult( response );
+	}
+
+	@Benchmark
+	public void pullParse( Blackhole bh ) throws Exception {
+		JsonPullParser parser = JsonHelper.openCallResult( new ByteArrayInputStream( responseBytes ) );
+		try {
+			walk( parser, bh );
+		}
+		finally {
+			parser.close();
+		}
+	}
+
+	private static void walk( JsonPullParser parser, Blackhole bh ) throws Exception {
+		switch ( parser.peek() ) {
+			case BEGIN_ARRAY:
+				parser.beginArray();
+				while ( parser.hasNext() ) {
+					walk( parser, bh );
+				}
+				parser.endArray();
+				break;
+			case BEGIN_OBJECT:
+				parser.beginObject();
+				while ( parser.hasNext() ) {
+					bh.consume( parser.nextName() );
+					walk( parser, bh );
+				}
+				parser.endObject();
+				break;
+			default:
+				bh.consume( parser.readValue() );
+		}
+	}
+
+}
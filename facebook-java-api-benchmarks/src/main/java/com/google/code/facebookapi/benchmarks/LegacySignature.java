@@ -0,0 +1,58 @@
+package com.google.code.facebookapi.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.SortedMap;
+import java.util.Map.Entry;
+
+/**
+ * The signing code as it was before FacebookSignatureUtil moved to a per-thread digest, kept as the baseline for {@link SignatureBenchmark}.
+ */
+public final class LegacySignature {
+
+	private LegacySignature() {
+		// static only
+	}
+
+	public static String generateSignature( SortedMap<String,String> params, String secret ) {
+		StringBuilder sb = generateBaseString( params );
+		sb.append( secret );
+		return generateMD5( sb.toString() );
+	}
+
+	public static StringBuilder generateBaseString( SortedMap<String,String> params ) {
+		StringBuilder sb = new StringBuilder();
+		for ( Entry<String,String> entry : params.entrySet() ) {
+			String key = entry.getKey();
+			sb.append( key );
+			sb.append( "=" );
+			String value = entry.getValue();
+			sb.append( ( value == null ) ? "" : value );
+		}
+		return sb;
+	}
+
+	public static String generateMD5( String value ) {
+		try {
+			MessageDigest md = MessageDigest.getInstance( "MD5" );
+			byte[] bytes;
+			try {
+				bytes = value.getBytes( "UTF-8" );
+			}
+			catch ( UnsupportedEncodingException e1 ) {
+				bytes = value.getBytes();
+			}
+			StringBuilder result = new StringBuilder();
+			for ( byte b : md.digest( bytes ) ) {
+				result.append( Integer.toHexString( ( b & 0xf0 ) >>> 4 ) );
+				result.append( Integer.toHexString( b & 0x0f ) );
+			}
+			return result.toString();
+		}
+		catch ( NoSuchAlgorithmException ex ) {
+			throw new RuntimeException( ex );
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.google.code.facebookapi.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the recorded API responses kept next to the benchmarks, so that parsing is measured on realistic sizes and shapes rather than toy documents.
+ */
+public final class Payloads {
+
+	private Payloads() {
+		// static only
+	}
+
+	public static byte[] bytes( String name ) {
+		InputStream in = Payloads.class.getResourceAsStream( name );
+		if ( in == null ) {
+			throw new IllegalArgumentException( "No recorded payload " + name );
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ( ( n = in.read( buf ) ) != -1 ) {
+				out.write( buf, 0, n );
+			}
+			return out.toByteArray();
+		}
+		catch ( IOException ex ) {
+			throw new IllegalStateException( ex );
+		}
+		finally {
+			try {
+				in.close();
+			}
+			catch ( IOException ex ) {
+				// ignore
+			}
+		}
+	}
+
+	public static String string( String name ) {
+		try {
+			return new String( bytes( name ), "UTF-8" );
+		}
+		catch ( IOException ex ) {
+			throw new IllegalStateException( ex );
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.google.code.facebookapi.benchmarks;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.facebookapi.FacebookSignatureUtil;
+
+/**
+ * Compares FacebookSignatureUtil.generateSignature with the previous StringBuilder + MessageDigest.getInstance implementation, on a typical outgoing call and on
+ * a set of fb_sig parameters as verified for every incoming canvas request. Run with <code>-prof gc</code> to compare allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SignatureBenchmark {
+
+	private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+	@Param( { "call", "fb_sig" })
+	public String params;
+
+	private SortedMap<String,String> map;
+
+	@Setup
+	public void setup() {
+		map = new TreeMap<String,String>();
+		if ( "call".equals( params ) ) {
+			map.put( "api_key", "0123456789abcdef0123456789abcdef" );
+			map.put( "call_id", "1255555555555" );
+			map.put( "fields", "uid,first_name,last_name,name,pic_square,locale,current_location,hometown_location" );
+			map.put( "format", "json" );
+			map.put( "method", "facebook.users.getInfo" );
+			map.put( "session_key", "2.AbCdEfGhIjKlMnOp_.3600.1255555555-123456789" );
+			map.put( "uids", "123456789,223456789,323456789,423456789,523456789,623456789" );
+			map.put( "v", "1.0" );
+		} else {
+			map.put( "added", "1" );
+			map.put( "api_key", "0123456789abcdef0123456789abcdef" );
+			map.put( "app_id", "12345678901" );
+			map.put( "expires", "1255600000" );
+			map.put( "ext_perms", "status_update,photo_upload,video_upload,create_note,share_item,publish_stream" );
+			map.put( "friends", "223456789,323456789,423456789,523456789,623456789,723456789,823456789,923456789" );
+			map.put( "in_canvas", "1" );
+			map.put( "locale", "fr_FR" );
+			map.put( "profile_update_time", "1250000000" );
+			map.put( "request_method", "GET" );
+			map.put( "session_key", "2.AbCdEfGhIjKlMnOp_.3600.1255555555-123456789" );
+			map.put( "ss", "AbCdEfGhIjKlMnOpQrStUv__" );
+			map.put( "time", "1255555555.1234" );
+			map.put( "user", "123456789" );
+		}
+	}
+
+	@Benchmark
+	public String legacy() {
+		return LegacySignature.generateSignature( map, SECRET );
+	}
+
+	@Benchmark
+	public String current() {
+		return FacebookSignatureUtil.generateSignature( map, SECRET );
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.google.code.facebookapi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import com.google.code.facebookapi.XmlHelper;
+
+/**
+ * Compares XmlHelper.parseCallResult, which builds the DOM from a StAX stream and drops whitespace as it goes, with the previous DocumentBuilder parse followed
+ * by stripEmptyTextNodes, on recorded XML responses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class XmlParseBenchmark {
+
+	@Param( { "users_getInfo.xml", "friends_get.xml" })
+	public String payload;
+
+	private String response;
+	private byte[] responseBytes;
+	private DocumentBuilderFactory factory;
+
+	@Setup
+	public void setup() {
+		response = Payloads.string( payload );
+		responseBytes = Payloads.bytes( payload );
+		factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware( true );
+	}
+
+	@Benchmark
+	public Document legacy() throws Exception {
+		Document doc = factory.newDocumentBuilder().parse( new ByteArrayInputStream( responseBytes ) );
+		XmlHelper.stripEmptyTextNodes( doc );
+		return XmlHelper.parseCallResult( doc );
+	}
+
+	@Benchmark
+	public Document parseCallResult() throws Exception {
+		return XmlHelper.parseCallResult( response, factory );
+	}
+
+	@Benchmark
+	public Document parseCallResultStream() throws Exception {
+		return XmlHelper.parseCallResult( new ByteArrayInputStream( responseBytes ), factory );
+	}
+
+}
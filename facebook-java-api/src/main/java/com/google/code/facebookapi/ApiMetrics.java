@@ -0,0 +1,233 @@
+package com.google.code.facebookapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Records latency, request and response sizes, and outcomes of API calls, per method. Install it with {@link ExtensibleClient#setMetrics(ApiMetrics)} or
+ * {@link BasicClient#setMetrics(ApiMetrics)}; one instance can be shared by any number of clients.
+ *
+ * Recording uses striped counters, so it adds little to a call even when many threads make calls at once. Read the metrics with {@link #snapshot()}, or
+ * {@link #registerMBeans(MBeanServer, String) publish them over JMX}.
+ */
+public class ApiMetrics {
+
+	protected static Log log = LogFactory.getLog( ApiMetrics.class );
+
+	public static final String JMX_DOMAIN = "com.google.code.facebookapi";
+
+	private final ConcurrentMap<String,MethodMetrics> methods = new ConcurrentHashMap<String,MethodMetrics>();
+
+	private final Object jmxLock = new Object();
+	private MBeanServer mbeanServer;
+	private String jmxName;
+	private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+	/**
+	 * @return the live metrics for the given method, which are created if it hasn't been called yet
+	 */
+	public MethodMetrics getMethodMetrics( String methodName ) {
+		MethodMetrics metrics = methods.get( methodName );
+		if ( metrics == null ) {
+			MethodMetrics created = new MethodMetrics( methodName );
+			metrics = methods.putIfAbsent( methodName, created );
+			if ( metrics == null ) {
+				metrics = created;
+				register( created );
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Records a request that got a response.
+	 *
+	 * @param startNanos
+	 *            when the request was started, from {@link System#nanoTime()}
+	 */
+	public void record( IFacebookMethod method, long startNanos, Map<String,String> params, String response ) {
+		long responseBytes = response == null ? 0 : utf8Length( response );
+		getMethodMetrics( method.methodName() ).record( micros( startNanos ), requestSize( params ), responseBytes, false, errorCode( response ) );
+	}
+
+	/**
+	 * Records a request whose response was consumed as a stream, so that its size and outcome are known without it having been read into a String.
+	 *
+	 * @param errorCode
+	 *            the code of the error response, or 0 if it was not one
+	 */
+	public void record( IFacebookMethod method, long startNanos, Map<String,String> params, long responseBytes, int errorCode ) {
+		getMethodMetrics( method.methodName() ).record( micros( startNanos ), requestSize( params ), responseBytes, false, errorCode );
+	}
+
+	/**
+	 * Records a request that got no response.
+	 */
+	public void recordFailure( IFacebookMethod method, long startNanos, Map<String,String> params ) {
+		getMethodMetrics( method.methodName() ).record( micros( startNanos ), requestSize( params ), 0, true, 0 );
+	}
+
+	private static long micros( long startNanos ) {
+		return ( System.nanoTime() - startNanos ) / 1000;
+	}
+
+	/**
+	 * @return the size of the form-encoded request body, which a null value adds nothing to
+	 */
+	private static long requestSize( Map<String,String> params ) {
+		return FormEncoder.encodedSize( params );
+	}
+
+	/**
+	 * @return the size of the response in UTF-8, as it came over the wire
+	 */
+	static long utf8Length( String s ) {
+		int length = s.length();
+		long size = length;
+		for ( int i = 0; i < length; i++ ) {
+			char c = s.charAt( i );
+			if ( c < 0x80 ) {
+				continue;
+			}
+			if ( c < 0x800 ) {
+				size += 1;
+			} else if ( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( s.charAt( i + 1 ) ) ) {
+				// four bytes for the pair
+				i++ ;
+				size += 2;
+			} else if ( c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE ) {
+				// three bytes; an unpaired surrogate goes as a single '?'
+				size += 2;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Recognises an error response from its first few characters, without parsing it.
+	 *
+	 * @return the response's error code, or 0 if it is not an error response
+	 */
+	static int errorCode( String response ) {
+		if ( response == null ) {
+			return 0;
+		}
+		int start;
+		if ( response.startsWith( "{\"error_code\":" ) ) {
+			start = 14;
+		} else {
+			int root = response.indexOf( '<', response.startsWith( "<?" ) ? 2 : 0 );
+			if ( root == -1 || !response.startsWith( "<" + IFacebookRestClient.ERROR_TAG, root ) ) {
+				return 0;
+			}
+			start = response.indexOf( "<error_code>", root );
+			if ( start == -1 ) {
+				return ErrorCode.API_EC_UNKNOWN;
+			}
+			start += 12;
+		}
+		int code = 0;
+		for ( int i = start; i < response.length(); i++ ) {
+			char c = response.charAt( i );
+			if ( c >= '0' && c <= '9' ) {
+				code = code * 10 + ( c - '0' );
+			} else if ( c != ' ' && c != '"' ) {
+				break;
+			}
+		}
+		return code == 0 ? ErrorCode.API_EC_UNKNOWN : code;
+	}
+
+	/**
+	 * @return a snapshot of every method called so far, keyed and sorted by method name
+	 */
+	public SortedMap<String,MethodMetricsSnapshot> snapshot() {
+		SortedMap<String,MethodMetricsSnapshot> out = new TreeMap<String,MethodMetricsSnapshot>();
+		for ( MethodMetrics metrics : methods.values() ) {
+			out.put( metrics.getMethodName(), metrics.snapshot() );
+		}
+		return out;
+	}
+
+	/**
+	 * @return a snapshot of the given method, or null if it hasn't been called
+	 */
+	public MethodMetricsSnapshot snapshot( String methodName ) {
+		MethodMetrics metrics = methods.get( methodName );
+		return metrics == null ? null : metrics.snapshot();
+	}
+
+	/**
+	 * Publishes one {@link MethodMetricsMBean} per method, named <code>com.google.code.facebookapi:type=ApiMetrics,name=&lt;name&gt;,method=&lt;method&gt;</code>.
+	 * Methods first called later are published as they appear.
+	 *
+	 * @param name
+	 *            distinguishes this instance's MBeans from those of others registered with the same server
+	 */
+	public void registerMBeans( MBeanServer server, String name ) {
+		synchronized ( jmxLock ) {
+			if ( mbeanServer != null ) {
+				throw new IllegalStateException( "ApiMetrics MBeans are already registered as " + jmxName );
+			}
+			mbeanServer = server;
+			jmxName = name;
+			for ( MethodMetrics metrics : methods.values() ) {
+				register( metrics );
+			}
+		}
+	}
+
+	private void register( MethodMetrics metrics ) {
+		synchronized ( jmxLock ) {
+			if ( mbeanServer == null ) {
+				return;
+			}
+			try {
+				ObjectName objectName = new ObjectName( JMX_DOMAIN + ":type=ApiMetrics,name=" + ObjectName.quote( jmxName ) + ",method="
+						+ ObjectName.quote( metrics.getMethodName() ) );
+				if ( !registered.contains( objectName ) ) {
+					mbeanServer.registerMBean( metrics, objectName );
+					registered.add( objectName );
+				}
+			}
+			catch ( JMException ex ) {
+				log.warn( "Could not register metrics MBean for " + metrics.getMethodName(), ex );
+			}
+		}
+	}
+
+	/**
+	 * Removes the MBeans published by {@link #registerMBeans(MBeanServer, String)}.
+	 */
+	public void unregisterMBeans() {
+		synchronized ( jmxLock ) {
+			if ( mbeanServer == null ) {
+				return;
+			}
+			for ( ObjectName objectName : registered ) {
+				try {
+					mbeanServer.unregisterMBean( objectName );
+				}
+				catch ( JMException ex ) {
+					log.warn( "Could not unregister " + objectName, ex );
+				}
+			}
+			registered.clear();
+			mbeanServer = null;
+			jmxName = null;
+		}
+	}
+
+}
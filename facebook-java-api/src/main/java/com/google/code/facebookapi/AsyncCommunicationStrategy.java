@@ -0,0 +1,23 @@
+package com.google.code.facebookapi;
+
+import java.net.URL;
+import java.util.SortedMap;
+import java.util.concurrent.Future;
+
+/**
+ * A CommunicationStrategy that can also send requests without blocking the calling thread.
+ */
+public interface AsyncCommunicationStrategy extends CommunicationStrategy {
+
+	/**
+	 * Sends a post request to the specified URL without waiting for the response.
+	 *
+	 * @param serverUrl
+	 *            Target server URL.
+	 * @param params
+	 *            Parameters to include in POST body.
+	 * @return a Future for the String response; communication errors surface as an IOException cause of the ExecutionException thrown by get().
+	 */
+	public Future<String> postRequestAsync( URL serverUrl, SortedMap<String,String> params );
+
+}
@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.json.JSONObject;
@@ -48,6 +49,17 @@ public abstract class BaseAdapter {
 		getClient().beginBatch();
 	}
 
+	public CallContext getCallContext() {
+		return getClient().getCallContext();
+	}
+
+	/**
+	 * @see ExtensibleClient#bindCallContext(CallContext)
+	 */
+	public CallContext bindCallContext( CallContext context ) {
+		return getClient().bindCallContext( context );
+	}
+
 	public void beginPermissionsMode( String apiKey ) {
 		getClient().beginPermissionsMode( apiKey );
 	}
@@ -199,4 +211,60 @@ public abstract class BaseAdapter {
 	public void setCommunicationStrategy( CommunicationStrategy communicationStrategy ) {
 		getClient().setCommunicationStrategy( communicationStrategy );
 	}
+
+	/**
+	 * @see ExtensibleClient#users_getInfoBulk(Collection, Collection, int, boolean)
+	 */
+	public BulkResponse users_getInfoBulk( Collection<Long> userIds, Collection<ProfileField> fields, int chunkSize, boolean useBatchRun ) {
+		return getClient().users_getInfoBulk( userIds, fields, chunkSize, useBatchRun );
+	}
+
+	/**
+	 * @see ExtensibleClient#users_getInfoBulk(Collection, Set, int, boolean)
+	 */
+	public BulkResponse users_getInfoBulk( Collection<Long> userIds, Set<CharSequence> fields, int chunkSize, boolean useBatchRun ) {
+		return getClient().users_getInfoBulk( userIds, fields, chunkSize, useBatchRun );
+	}
+
+	/**
+	 * @see ExtensibleClient#friends_getIds()
+	 */
+	public LongList friends_getIds() throws FacebookException {
+		return getClient().friends_getIds();
+	}
+
+	/**
+	 * @see ExtensibleClient#friends_getIds(Long)
+	 */
+	public LongList friends_getIds( Long uid ) throws FacebookException {
+		return getClient().friends_getIds( uid );
+	}
+
+	/**
+	 * @see ExtensibleClient#friends_getAppUsersIds()
+	 */
+	public LongList friends_getAppUsersIds() throws FacebookException {
+		return getClient().friends_getAppUsersIds();
+	}
+
+	/**
+	 * @see ExtensibleClient#fql_queryColumnar(CharSequence)
+	 */
+	public FqlResultSet fql_queryColumnar( CharSequence query ) throws FacebookException {
+		return getClient().fql_queryColumnar( query );
+	}
+
+	/**
+	 * @see ExtensibleClient#fql_multiqueryColumnar(Map)
+	 */
+	public Map<String,FqlResultSet> fql_multiqueryColumnar( Map<String,String> queries ) throws FacebookException {
+		return getClient().fql_multiqueryColumnar( queries );
+	}
+
+	/**
+	 * @see ExtensibleClient#stream_getIterator(Long, List, Date, Date, int, String)
+	 */
+	public StreamIterator stream_getIterator( Long viewerId, List<Long> sourceIds, Date start, Date end, int pageSize, String filterKey ) {
+		return getClient().stream_getIterator( viewerId, sourceIds, start, end, pageSize, filterKey );
+	}
 }
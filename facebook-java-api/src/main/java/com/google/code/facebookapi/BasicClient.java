@@ -9,7 +9,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -23,6 +24,11 @@ public class BasicClient {
 
 	protected static Log log = LogFactory.getLog( BasicClient.class );
 
+	/**
+	 * The most methods facebook accepts in a single batch_run call.
+	 */
+	public static final int BATCH_LIMIT = 20;
+
 	protected URL serverUrl;
 	protected URL serverUrlHttps;
 	private CommunicationStrategy communicationStrategy;
@@ -34,6 +40,13 @@ public class BasicClient {
 	protected boolean batchMode;
 	protected List<BatchQuery> queries;
 	protected String permissionsApiKey;
+	private ExecutorService batchExecutor;
+	private volatile ApiMetrics metrics;
+	private volatile ResponseCache responseCache;
+	private volatile RetryPolicy retryPolicy;
+	private volatile RateLimiter rateLimiter;
+	private volatile RateLimiter.Priority priority = RateLimiter.Priority.NORMAL;
+	private volatile CircuitBreaker circuitBreaker;
 
 	public boolean isBatchMode() {
 		return batchMode;
@@ -126,46 +139,22 @@ public class BasicClient {
 
 	protected SortedMap<String,String> prepareRequestParams( String responseFormat, IFacebookMethod method, String sessionKey,
 			Collection<Pair<String,CharSequence>> paramPairs ) throws FacebookException {
-		SortedMap<String,String> params = new TreeMap<String,String>();
-
-		for ( Pair<String,CharSequence> p : paramPairs ) {
-			final String key = p.first;
-			CharSequence oldVal = params.put( key, BasicClientHelper.toString( p.second ) );
-			if ( oldVal != null ) {
-				log.warn( String.format( "For parameter %s, overwrote old value %s with new value %s.", key, oldVal, p.second ) );
-			}
-		}
-
-		if ( permissionsApiKey != null ) {
-			params.put( "call_as_apikey", permissionsApiKey );
-		}
-
-		params.put( "v", IFacebookRestClient.TARGET_API_VERSION );
-		params.put( "call_id", Long.toString( System.currentTimeMillis() ) );
-		params.put( "method", method.methodName() );
-		if ( responseFormat != null ) {
-			params.put( "format", responseFormat );
-		}
-
-		params.put( "api_key", apiKey );
-		boolean includeSession = sessionKey != null;
-		if ( includeSession ) {
-			params.put( "session_key", sessionKey );
-		}
-
+		RequestParams.Builder builder = RequestParams.Builder.forThread().args( paramPairs );
+		builder.callAsApiKey( permissionsApiKey );
+		builder.v( IFacebookRestClient.TARGET_API_VERSION ).callId( RequestParams.nextCallId() ).method( method.methodName() );
+		builder.format( responseFormat ).apiKey( apiKey ).sessionKey( sessionKey ).ss( sessionSecret );
+		// the common parameters override arguments of the same name, as they always have
+		SortedMap<String,String> params = builder.build( false );
 		params.remove( "sig" );
-		if ( sessionSecret ) {
-			params.put( "ss", "1" );
-		}
 		String signature = FacebookSignatureUtil.generateSignature( params, secret );
 		params.put( "sig", signature );
 
 		return params;
 	}
 
-	public String callMethod( String responseFormat, IFacebookMethod method, String sessionKey, Collection<Pair<String,CharSequence>> paramPairs, String fileName,
-			InputStream fileStream ) throws FacebookException {
-		SortedMap<String,String> params = prepareRequestParams( responseFormat, method, sessionKey, paramPairs );
+	public String callMethod( String responseFormat, final IFacebookMethod method, String sessionKey, Collection<Pair<String,CharSequence>> paramPairs,
+			final String fileName, final InputStream fileStream ) throws FacebookException {
+		final SortedMap<String,String> params = prepareRequestParams( responseFormat, method, sessionKey, paramPairs );
 		final boolean fileCall = fileName != null || fileStream != null;
 		if ( batchMode ) {
 			if ( fileCall ) {
@@ -199,28 +188,108 @@ public class BasicClient {
 			return null;
 		}
 
+		ResponseCache cache = fileCall ? null : responseCache;
+		String cacheKey = null;
+		if ( cache != null && cache.isCacheable( method ) ) {
+			cacheKey = ResponseCache.key( method, params );
+			String cached = cache.get( cacheKey );
+			if ( cached != null ) {
+				return cached;
+			}
+		}
+
 		try {
 			// FIXME when to use https?
 			// when called from desktop, some methods require https
 			boolean doHttps = FacebookMethod.AUTH_GET_SESSION.equals( method ) && "true".equals( params.get( "generate_session_secret" ) );
-			URL url = ( doHttps ) ? serverUrlHttps : serverUrl;
+			final URL url = ( doHttps ) ? serverUrlHttps : serverUrl;
+			final CircuitBreaker breaker = circuitBreaker;
+			String response;
 			if ( fileCall ) {
 				if ( log.isDebugEnabled() ) {
 					log.debug( method.methodName() + ": POST-FILE: " + url.toString() + ": " + params );
 				}
-				return communicationStrategy.postRequest( url, params, fileName, fileStream );
+				response = post( breaker, method, url, params, fileName, fileStream );
 			} else {
 				if ( log.isDebugEnabled() ) {
 					log.debug( method.methodName() + ": POST: " + url.toString() + ": " + params );
 				}
-				return communicationStrategy.postRequest( url, params );
+				RetryPolicy retry = retryPolicy;
+				if ( retry == null ) {
+					response = post( breaker, method, url, params, null, null );
+				} else {
+					response = retry.execute( method, new Callable<String>() {
+
+						private SortedMap<String,String> sent;
+
+						public String call() throws IOException {
+							// Facebook wants a greater call_id on every request, so each retry is signed afresh
+							sent = sent == null ? params : RequestParams.resign( sent, secret );
+							return post( breaker, method, url, sent, null, null );
+						}
+
+					} );
+				}
+			}
+			if ( cacheKey != null ) {
+				cache.put( method, cacheKey, response );
 			}
+			return response;
 		}
 		catch ( IOException ex ) {
 			throw BasicClientHelper.runtimeException( ex );
 		}
 	}
 
+	private String post( CircuitBreaker breaker, final IFacebookMethod method, final URL url, final SortedMap<String,String> params, final String fileName,
+			final InputStream fileStream ) throws IOException {
+		if ( breaker == null ) {
+			return send( method, url, params, fileName, fileStream );
+		}
+		return breaker.execute( method, new Callable<String>() {
+			public String call() throws IOException {
+				return send( method, url, params, fileName, fileStream );
+			}
+		} );
+	}
+
+	/**
+	 * Waits for the {@link RateLimiter}, if there is one, and sends the call. Only called once the {@link CircuitBreaker} has let the call in, so that a rejected
+	 * call does not use up a permit. Each attempt made by the {@link RetryPolicy} comes through here, and is recorded to the {@link ApiMetrics} on its own.
+	 */
+	private String send( IFacebookMethod method, URL url, SortedMap<String,String> params, String fileName, InputStream fileStream ) throws IOException {
+		RateLimiter limiter = rateLimiter;
+		if ( limiter != null ) {
+			limiter.acquireForIO( params, priority );
+		}
+		ApiMetrics m = metrics;
+		long start = System.nanoTime();
+		try {
+			String response;
+			if ( fileName == null && fileStream == null ) {
+				response = communicationStrategy.postRequest( url, params );
+			} else {
+				response = communicationStrategy.postRequest( url, params, fileName, fileStream );
+			}
+			if ( m != null ) {
+				m.record( method, start, params, response );
+			}
+			return response;
+		}
+		catch ( IOException ex ) {
+			if ( m != null ) {
+				m.recordFailure( method, start, params );
+			}
+			throw ex;
+		}
+		catch ( RuntimeException ex ) {
+			if ( m != null ) {
+				m.recordFailure( method, start, params );
+			}
+			throw ex;
+		}
+	}
+
 	public void beginBatch() {
 		batchMode = true;
 		queries = new ArrayList<BatchQuery>();
@@ -229,29 +298,108 @@ public class BasicClient {
 	/**
 	 * Returns a list of String raw responses which will be further broken down by the adapters into the actual individual responses. One string is returned per 20
 	 * methods in the batch.
+	 *
+	 * If a {@link #setBatchExecutor(ExecutorService) batch executor} is set, the chunks are sent concurrently on it, unless <code>serial</code> is requested: then
+	 * each chunk is sent only once the one before it has completed.
 	 */
-	public List<String> executeBatch( boolean serial ) throws FacebookException {
+	public List<String> executeBatch( final boolean serial ) throws FacebookException {
 		batchMode = false;
 		final List<BatchQuery> q = queries;
 		queries = null;
 
-		final int BATCH_LIMIT = 20;
-		final List<String> result = new ArrayList<String>();
-		List<BatchQuery> buffer = new ArrayList<BatchQuery>( BATCH_LIMIT );
-		while ( !q.isEmpty() ) {
-			buffer.add( q.remove( 0 ) );
-			boolean batchFull = buffer.size() >= BATCH_LIMIT;
-			if ( batchFull || ( q.isEmpty() ) ) {
-				List<String> batchRawResponse = batch_run( encodeMethods( buffer ), serial );
-				result.addAll( batchRawResponse );
-				if ( batchFull ) {
-					buffer = new ArrayList<BatchQuery>( BATCH_LIMIT );
-				}
+		List<List<String>> chunks = BatchDispatcher.dispatch( q, BATCH_LIMIT, serial ? null : batchExecutor, new BatchDispatcher.ChunkRunner<List<String>>() {
+			public List<String> run( List<BatchQuery> chunk ) throws FacebookException {
+				return batch_run( encodeMethods( chunk ), serial );
 			}
+		} );
+		final List<String> result = new ArrayList<String>( q.size() );
+		for ( List<String> chunk : chunks ) {
+			result.addAll( chunk );
 		}
 		return result;
 	}
 
+	public ApiMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Records the latency, size and outcome of every request this client sends in the given metrics. Null (the default) records nothing.
+	 */
+	public void setMetrics( ApiMetrics metrics ) {
+		this.metrics = metrics;
+	}
+
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * Answers read-only calls from the given cache where it holds a fresh response, and caches the responses it gets. Null (the default) caches nothing.
+	 */
+	public void setResponseCache( ResponseCache responseCache ) {
+		this.responseCache = responseCache;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Resends calls that fail transiently, as the given policy allows. Null (the default) sends every call once. File uploads are never resent.
+	 */
+	public void setRetryPolicy( RetryPolicy retryPolicy ) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Holds this client's calls to the rates of the given limiter. Null (the default) sends every call at once.
+	 */
+	public void setRateLimiter( RateLimiter rateLimiter ) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	public RateLimiter.Priority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @param priority
+	 *            the order in which this client's calls are let through the {@link RateLimiter} when calls are waiting; null means
+	 *            {@link RateLimiter.Priority#NORMAL}, the default
+	 */
+	public void setPriority( RateLimiter.Priority priority ) {
+		this.priority = priority == null ? RateLimiter.Priority.NORMAL : priority;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Caps this client's calls in flight per method family, and fails them fast while a family is failing, as the given breaker is configured. Null (the
+	 * default) sends every call.
+	 */
+	public void setCircuitBreaker( CircuitBreaker circuitBreaker ) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public ExecutorService getBatchExecutor() {
+		return batchExecutor;
+	}
+
+	/**
+	 * Sets the executor used to send the {@link #BATCH_LIMIT} sized chunks of a batch concurrently; null (the default) sends them one after another, as are the
+	 * chunks of a serial batch. Results keep the order the methods were queued in. The executor is not shut down by the client.
+	 */
+	public void setBatchExecutor( ExecutorService batchExecutor ) {
+		this.batchExecutor = batchExecutor;
+	}
+
 	@SuppressWarnings("unchecked")
 	protected List<String> batch_run( String methods, boolean serial ) throws FacebookException {
 		final String call = callMethod( "json", FacebookMethod.BATCH_RUN, null, Arrays.asList( Pairs.newPair( "method_feed", methods ), Pairs.newPair10( "serial_only",
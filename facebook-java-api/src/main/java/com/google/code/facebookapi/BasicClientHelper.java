@@ -6,9 +6,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
-import java.net.URLEncoder;
 import java.util.Collection;
 import java.util.Map;
 
@@ -25,7 +23,7 @@ public class BasicClientHelper {
 	public static String toString( InputStream data ) throws IOException {
 		Reader in = new BufferedReader( new InputStreamReader( data, "UTF-8" ) );
 		StringBuilder buffer = new StringBuilder();
-		char[] buf = new char[1000];
+		char[] buf = new char[8192];
 		int l = 0;
 		while ( l >= 0 ) {
 			buffer.append( buf, 0, l );
@@ -57,24 +55,34 @@ public class BasicClientHelper {
 		return buffer;
 	}
 
+	/**
+	 * @return the values separated by commas, or null if there are none, as for {@link #delimit(Iterable)}
+	 */
+	public static CharSequence delimit( long[] values ) {
+		if ( values == null || values.length == 0 ) {
+			return null;
+		}
+		StringBuilder buffer = new StringBuilder( values.length * 16 );
+		for ( int i = 0; i < values.length; i++ ) {
+			if ( i > 0 ) {
+				buffer.append( ',' );
+			}
+			buffer.append( values[i] );
+		}
+		return buffer;
+	}
+
 	public static String encode( CharSequence target ) {
 		if ( target == null ) {
 			return "";
 		}
-		String result = target.toString();
-		try {
-			result = URLEncoder.encode( result, "UTF8" );
-		}
-		catch ( UnsupportedEncodingException ex ) {
-			throw runtimeException( ex );
-		}
-		return result;
+		return FormEncoder.encode( target );
 	}
 
 	public static String getResponse( InputStream data ) throws IOException {
 		Reader in = new BufferedReader( new InputStreamReader( data, "UTF-8" ) );
 		StringBuilder buffer = new StringBuilder();
-		char[] buf = new char[1000];
+		char[] buf = new char[8192];
 		int l = 0;
 		while ( l >= 0 ) {
 			buffer.append( buf, 0, l );
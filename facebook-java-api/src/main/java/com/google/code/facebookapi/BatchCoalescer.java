@@ -0,0 +1,300 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Transparently groups independent calls made from any number of threads into batch_run requests. A call waits at most the configured window for others to join
+ * it; a batch is sent as soon as it holds {@link ExtensibleClient#BATCH_LIMIT} calls. Each caller gets a Future for its own raw response, exactly as
+ * {@link ExtensibleClient#callMethodAsync(IFacebookMethod, Pair...)} would have returned it.
+ *
+ * Only {@link FacebookMethod#isReadOnly() read-only} calls are batched; any other call is sent on its own, so that writes keep the order they were made in.
+ * Each call is signed in the client's {@link CallContext} at the time it is submitted, so one coalescer can serve calls for many users. Only calls made with the
+ * same session, session secret and permissions mode share a batch, and the batch_run is signed as they are, so no call is sent under another user's session. A
+ * batch is let through the client's {@link RateLimiter} at the most urgent priority of its calls.
+ *
+ * To route a client's asynchronous calls through a coalescer, see {@link ExtensibleClient#setBatchCoalescer(BatchCoalescer)}.
+ */
+public class BatchCoalescer {
+
+	protected static Log log = LogFactory.getLog( BatchCoalescer.class );
+
+	public static final long DEFAULT_WINDOW = 10;
+	private static final int DEFAULT_SENDER_THREADS = 4;
+
+	private final ExtensibleClient client;
+	private final long window;
+	private final ExecutorService sender;
+	private final boolean ownSender;
+	private final ScheduledExecutorService timer;
+
+	private final Object lock = new Object();
+	// calls waiting to be sent, grouped by who they are signed as
+	private final Map<String,Pending> pending = new HashMap<String,Pending>();
+	private boolean shutdown;
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	public BatchCoalescer( ExtensibleClient client ) {
+		this( client, DEFAULT_WINDOW, null );
+	}
+
+	/**
+	 * @param window
+	 *            the longest a call waits, in milliseconds, for others to share its batch
+	 * @param sender
+	 *            runs the batch_run requests; if null a small pool of daemon threads is created, and shut down by {@link #shutdown()}
+	 */
+	public BatchCoalescer( ExtensibleClient client, long window, ExecutorService sender ) {
+		this.client = client;
+		this.window = window;
+		this.ownSender = ( sender == null );
+		this.sender = ownSender ? Executors.newFixedThreadPool( DEFAULT_SENDER_THREADS, new DaemonThreadFactory( "BatchCoalescer-sender" ) ) : sender;
+		this.timer = Executors.newSingleThreadScheduledExecutor( new DaemonThreadFactory( "BatchCoalescer-timer" ) );
+	}
+
+	public Future<String> submit( IFacebookMethod method, Pair<String,CharSequence>... paramPairs ) throws FacebookException {
+		return submit( method, Arrays.asList( paramPairs ) );
+	}
+
+	public Future<String> submit( IFacebookMethod method, Collection<Pair<String,CharSequence>> paramPairs ) throws FacebookException {
+		if ( !isBatchable( method ) ) {
+			return client.sendAsync( method, paramPairs );
+		}
+		CallContext context = client.getCallContext();
+		Call call = new Call( method, context, client.prepareRequestParams( context, client.getResponseFormat(), method, paramPairs ) );
+		String group = groupOf( context );
+		calls.incrementAndGet();
+		List<Call> full = null;
+		synchronized ( lock ) {
+			if ( shutdown ) {
+				throw new IllegalStateException( "BatchCoalescer has been shut down" );
+			}
+			Pending waiting = pending.get( group );
+			if ( waiting == null ) {
+				final Pending created = new Pending( group );
+				created.flush = timer.schedule( new Runnable() {
+					public void run() {
+						flush( created );
+					}
+				}, window, TimeUnit.MILLISECONDS );
+				pending.put( group, created );
+				waiting = created;
+			}
+			waiting.calls.add( call );
+			if ( waiting.calls.size() >= ExtensibleClient.BATCH_LIMIT ) {
+				full = take( waiting );
+			}
+		}
+		if ( full != null ) {
+			send( full );
+		}
+		return call.future;
+	}
+
+	/**
+	 * Only read-only calls are batched: the server may run the calls of a batch_run in any order, and a bad batch response fails every call in it, which a caller
+	 * may safely retry only if the call had no side effects. This also leaves out file uploads, batch_run itself and auth_getSession.
+	 */
+	private static boolean isBatchable( IFacebookMethod method ) {
+		return method instanceof FacebookMethod && ( (FacebookMethod) method ).isReadOnly();
+	}
+
+	/**
+	 * @return the calls whose batch_run can be signed in the given context: those with the same session key, session secret and permissions api key
+	 */
+	private static String groupOf( CallContext context ) {
+		return context.getSessionKey() + "\n" + context.getSessionSecret() + "\n" + context.getPermissionsApiKey();
+	}
+
+	/**
+	 * Sends whatever calls are waiting now, without waiting for the window to close.
+	 */
+	public void flush() {
+		for ( List<Call> batch : takeAll() ) {
+			send( batch );
+		}
+	}
+
+	private void flush( Pending waiting ) {
+		List<Call> batch = null;
+		synchronized ( lock ) {
+			if ( pending.get( waiting.group ) == waiting ) {
+				batch = take( waiting );
+			}
+		}
+		if ( batch != null ) {
+			send( batch );
+		}
+	}
+
+	// called holding the lock
+	private List<Call> take( Pending waiting ) {
+		waiting.flush.cancel( false );
+		pending.remove( waiting.group );
+		return waiting.calls;
+	}
+
+	private List<List<Call>> takeAll() {
+		List<List<Call>> out = new ArrayList<List<Call>>();
+		synchronized ( lock ) {
+			for ( Pending waiting : new ArrayList<Pending>( pending.values() ) ) {
+				out.add( take( waiting ) );
+			}
+		}
+		return out;
+	}
+
+	private void send( final List<Call> batch ) {
+		try {
+			sender.execute( new Runnable() {
+				public void run() {
+					runBatch( batch );
+				}
+			} );
+		}
+		catch ( RejectedExecutionException ex ) {
+			fail( batch, ex );
+		}
+	}
+
+	private void runBatch( List<Call> batch ) {
+		batches.incrementAndGet();
+		if ( batch.size() == 1 ) {
+			// no point wrapping a lone call; send it as a plain call would be, through any cache, retry policy and so on
+			Call call = batch.get( 0 );
+			try {
+				call.future.set( client.postRequest( call.context, call.method, call.params, false, call.context.getPriority() ) );
+			}
+			catch ( IOException ex ) {
+				call.future.setException( ex );
+			}
+			catch ( RuntimeException ex ) {
+				call.future.setException( ex );
+			}
+			return;
+		}
+		try {
+			List<BatchQuery> queries = new ArrayList<BatchQuery>( batch.size() );
+			for ( Call call : batch ) {
+				queries.add( new BatchQuery( call.method, call.params ) );
+			}
+			List<Pair<String,CharSequence>> params = new ArrayList<Pair<String,CharSequence>>( 1 );
+			params.add( Pairs.newPair( "method_feed", client.encodeMethods( queries ) ) );
+			// sender threads have no context bound; every call in the batch is signed as the first one is
+			SortedMap<String,String> batchParams = client.prepareRequestParams( batch.get( 0 ).context, "json", FacebookMethod.BATCH_RUN, params );
+			RateLimiter.Priority priority = RateLimiter.Priority.BACKGROUND;
+			for ( Call call : batch ) {
+				if ( call.context.getPriority().compareTo( priority ) < 0 ) {
+					priority = call.context.getPriority();
+				}
+			}
+			if ( log.isDebugEnabled() ) {
+				log.debug( "Coalesced " + batch.size() + " calls into " + FacebookMethod.BATCH_RUN.methodName() );
+			}
+			String raw = client.postRequest( batch.get( 0 ).context, FacebookMethod.BATCH_RUN, batchParams, false, priority );
+			Object result = JsonHelper.parseCallResult( raw );
+			if ( ! ( result instanceof JSONArray ) || ( (JSONArray) result ).length() != batch.size() ) {
+				throw new FacebookException( ErrorCode.API_EC_UNKNOWN, "Unexpected batch_run response: " + raw );
+			}
+			JSONArray responses = (JSONArray) result;
+			for ( int i = 0; i < batch.size(); i++ ) {
+				batch.get( i ).future.set( responses.getString( i ) );
+			}
+		}
+		catch ( FacebookException ex ) {
+			fail( batch, ex );
+		}
+		catch ( IOException ex ) {
+			fail( batch, ex );
+		}
+		catch ( JSONException ex ) {
+			fail( batch, ex );
+		}
+		catch ( RuntimeException ex ) {
+			fail( batch, ex );
+		}
+	}
+
+	private static void fail( List<Call> batch, Throwable t ) {
+		for ( Call call : batch ) {
+			call.future.setException( t );
+		}
+	}
+
+	/**
+	 * @return the number of calls that went through batching so far
+	 */
+	public long getCallCount() {
+		return calls.get();
+	}
+
+	/**
+	 * @return the number of requests those calls were sent in
+	 */
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	/**
+	 * Sends any waiting calls and stops accepting new ones.
+	 */
+	public void shutdown() {
+		synchronized ( lock ) {
+			shutdown = true;
+		}
+		flush();
+		timer.shutdown();
+		if ( ownSender ) {
+			sender.shutdown();
+		}
+	}
+
+	private static class Pending {
+
+		private final String group;
+		private final List<Call> calls = new ArrayList<Call>( ExtensibleClient.BATCH_LIMIT );
+		private ScheduledFuture<?> flush;
+
+		private Pending( String group ) {
+			this.group = group;
+		}
+
+	}
+
+	private static class Call {
+
+		private final IFacebookMethod method;
+		private final CallContext context;
+		private final SortedMap<String,String> params;
+		private final FacebookFuture<String> future = new FacebookFuture<String>();
+
+		private Call( IFacebookMethod method, CallContext context, SortedMap<String,String> params ) {
+			this.method = method;
+			this.context = context;
+			this.params = params;
+		}
+
+	}
+
+}
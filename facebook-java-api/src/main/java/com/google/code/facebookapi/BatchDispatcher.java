@@ -0,0 +1,82 @@
+package com.google.code.facebookapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits queued batch queries into batch_run sized chunks, without copying or shifting the queue, and runs the chunks one after another or concurrently on an
+ * executor. Results are always returned in queue order.
+ */
+// package-level access intentional (at least for now)
+class BatchDispatcher {
+
+	/**
+	 * Sends one chunk of queries, returning its raw result.
+	 */
+	public interface ChunkRunner<T> {
+
+		public T run( List<BatchQuery> chunk ) throws FacebookException;
+
+	}
+
+	private BatchDispatcher() {
+		// static only
+	}
+
+	/**
+	 * @param executor
+	 *            runs chunks concurrently if not null; when null, or if there is a single chunk, chunks run on the calling thread
+	 * @return one result per chunk, in queue order
+	 */
+	public static <T> List<T> dispatch( List<BatchQuery> queries, int chunkSize, ExecutorService executor, final ChunkRunner<T> runner ) throws FacebookException {
+		int size = queries.size();
+		List<T> out = new ArrayList<T>( ( size + chunkSize - 1 ) / chunkSize );
+		if ( executor == null || size <= chunkSize ) {
+			for ( int from = 0; from < size; from += chunkSize ) {
+				out.add( runner.run( queries.subList( from, Math.min( size, from + chunkSize ) ) ) );
+			}
+			return out;
+		}
+
+		List<Future<T>> futures = new ArrayList<Future<T>>( ( size + chunkSize - 1 ) / chunkSize );
+		try {
+			for ( int from = 0; from < size; from += chunkSize ) {
+				final List<BatchQuery> chunk = queries.subList( from, Math.min( size, from + chunkSize ) );
+				futures.add( executor.submit( new Callable<T>() {
+					public T call() throws Exception {
+						return runner.run( chunk );
+					}
+				} ) );
+			}
+			for ( Future<T> future : futures ) {
+				out.add( future.get() );
+			}
+			return out;
+		}
+		catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		catch ( ExecutionException ex ) {
+			Throwable cause = ex.getCause();
+			if ( cause instanceof FacebookException ) {
+				throw (FacebookException) cause;
+			}
+			if ( cause instanceof Error ) {
+				throw (Error) cause;
+			}
+			throw BasicClientHelper.runtimeException( (Exception) cause );
+		}
+		finally {
+			// no-op for completed chunks; stops the rest if one failed
+			for ( Future<T> future : futures ) {
+				future.cancel( true );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,256 @@
+package com.google.code.facebookapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The result of a call that was split into chunks of ids, such as {@link ExtensibleClient#users_getInfoBulk(java.util.Collection, java.util.Collection, int, boolean)}. Iterating
+ * it yields the chunks in id order as each completes, so the first can be processed while later ones are still in flight. A chunk that failed is yielded like any
+ * other, carrying its failure instead of a response; failures never stop the others.
+ *
+ * Chunks are sent concurrently on an executor if one was given, and otherwise one at a time as iteration reaches them.
+ *
+ * The format adapters can also iterate the elements of every chunk, parsed as their other calls are, such as
+ * {@link FacebookJsonRestClientBase#bulkUsers(BulkResponse)}.
+ */
+public class BulkResponse implements Iterable<BulkResponse.Chunk> {
+
+	/**
+	 * The outcome of one chunk of ids.
+	 */
+	public static class Chunk {
+
+		private final int index;
+		private final List<Long> ids;
+		private final String response;
+		private final Exception failure;
+
+		Chunk( int index, List<Long> ids, String response, Exception failure ) {
+			this.index = index;
+			this.ids = ids;
+			this.response = response;
+			this.failure = failure;
+		}
+
+		/**
+		 * @return the position of this chunk among all chunks
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public List<Long> getIds() {
+			return ids;
+		}
+
+		/**
+		 * @return the raw response, in the client's format, or null if the chunk failed
+		 */
+		public String getResponse() {
+			return response;
+		}
+
+		/**
+		 * @return the {@link FacebookException} for an error response, the IOException or RuntimeException if the request failed, or null
+		 */
+		public Exception getFailure() {
+			return failure;
+		}
+
+		public boolean isFailed() {
+			return failure != null;
+		}
+
+		@Override
+		public String toString() {
+			return "Chunk[" + index + ", " + ids.size() + " ids" + ( failure == null ? "" : ", failed: " + failure ) + "]";
+		}
+
+	}
+
+	/**
+	 * Splits the response of one chunk into its elements, in the client's format.
+	 */
+	interface ElementParser<T> {
+
+		List<T> parse( String response ) throws FacebookException;
+
+	}
+
+	private final int chunkCount;
+	private final int chunksPerTask;
+	private final List<Callable<List<Chunk>>> tasks;
+	private final List<Future<List<Chunk>>> futures;
+	private final List<List<Chunk>> results;
+
+	/**
+	 * @param tasks
+	 *            each sends <code>chunksPerTask</code> consecutive chunks (the last may send fewer) and reports every one of them, failed or not
+	 */
+	BulkResponse( int chunkCount, int chunksPerTask, List<Callable<List<Chunk>>> tasks, ExecutorService executor ) {
+		this.chunkCount = chunkCount;
+		this.chunksPerTask = chunksPerTask;
+		this.tasks = tasks;
+		this.results = new ArrayList<List<Chunk>>( tasks.size() );
+		for ( int i = 0; i < tasks.size(); i++ ) {
+			results.add( null );
+		}
+		if ( executor == null ) {
+			this.futures = null;
+		} else {
+			this.futures = new ArrayList<Future<List<Chunk>>>( tasks.size() );
+			for ( Callable<List<Chunk>> task : tasks ) {
+				futures.add( executor.submit( task ) );
+			}
+		}
+	}
+
+	public int getChunkCount() {
+		return chunkCount;
+	}
+
+	/**
+	 * @return the given chunk, waiting for or sending it if needed
+	 */
+	public Chunk getChunk( int index ) {
+		if ( index < 0 || index >= chunkCount ) {
+			throw new IndexOutOfBoundsException( "chunk " + index + " of " + chunkCount );
+		}
+		return task( index / chunksPerTask ).get( index % chunksPerTask );
+	}
+
+	private synchronized List<Chunk> task( int t ) {
+		List<Chunk> result = results.get( t );
+		if ( result != null ) {
+			return result;
+		}
+		try {
+			result = futures == null ? tasks.get( t ).call() : futures.get( t ).get();
+		}
+		catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		catch ( CancellationException ex ) {
+			throw ex;
+		}
+		catch ( ExecutionException ex ) {
+			// tasks report their failures in their chunks, so this is a bug or an Error
+			Throwable cause = ex.getCause();
+			if ( cause instanceof Error ) {
+				throw (Error) cause;
+			}
+			throw BasicClientHelper.runtimeException( (Exception) cause );
+		}
+		catch ( Exception ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		results.set( t, result );
+		return result;
+	}
+
+	public Iterator<Chunk> iterator() {
+		return new Iterator<Chunk>() {
+
+			private int next;
+
+			public boolean hasNext() {
+				return next < chunkCount;
+			}
+
+			public Chunk next() {
+				if ( next >= chunkCount ) {
+					throw new NoSuchElementException();
+				}
+				return getChunk( next++ );
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+	}
+
+	/**
+	 * @return the elements of every chunk in id order, each chunk parsed as iteration reaches it. A chunk that failed throws its failure from {@link Iterator#next()},
+	 *         wrapped in a RuntimeException if need be; iteration can carry on past it to the later chunks.
+	 */
+	<T> Iterator<T> elements( final ElementParser<T> parser ) {
+		return new Iterator<T>() {
+
+			private int next;
+			private Iterator<T> current = Collections.<T> emptyList().iterator();
+			private Exception failure;
+
+			public boolean hasNext() {
+				while ( failure == null && !current.hasNext() && next < chunkCount ) {
+					Chunk chunk = getChunk( next++ );
+					if ( chunk.isFailed() ) {
+						failure = chunk.getFailure();
+					} else {
+						try {
+							current = parser.parse( chunk.getResponse() ).iterator();
+						}
+						catch ( FacebookException ex ) {
+							failure = ex;
+						}
+					}
+				}
+				return failure != null || current.hasNext();
+			}
+
+			public T next() {
+				if ( !hasNext() ) {
+					throw new NoSuchElementException();
+				}
+				if ( failure != null ) {
+					Exception ex = failure;
+					failure = null;
+					throw BasicClientHelper.runtimeException( ex );
+				}
+				return current.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+	}
+
+	/**
+	 * Waits for every chunk.
+	 *
+	 * @return the chunks that failed, in id order
+	 */
+	public List<Chunk> getFailures() {
+		List<Chunk> failures = new ArrayList<Chunk>();
+		for ( Chunk chunk : this ) {
+			if ( chunk.isFailed() ) {
+				failures.add( chunk );
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Stops chunks that have not been sent yet. Chunks already received can still be read; reading one that was stopped throws a CancellationException.
+	 */
+	public void cancel() {
+		if ( futures != null ) {
+			for ( Future<List<Chunk>> future : futures ) {
+				future.cancel( true );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.google.code.facebookapi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The per-user, per-request state of an {@link ExtensibleClient}: the session, permissions mode, the last raw response and any batch being built up.
+ *
+ * Every client has a context of its own, which it uses unless another has been bound to the calling thread with
+ * {@link ExtensibleClient#bindCallContext(CallContext)}. That lets one client be shared by all request threads of an application, each thread binding a context for
+ * the user it is serving:
+ *
+ * <pre>
+ * CallContext previous = client.bindCallContext( new CallContext( sessionKey ) );
+ * try {
+ * 	client.friends_get();
+ * }
+ * finally {
+ * 	client.bindCallContext( previous );
+ * }
+ * </pre>
+ *
+ * A CallContext is not itself thread-safe; it should only be used by one thread at a time.
+ */
+public class CallContext {
+
+	private String sessionKey;
+	private Long userId;
+	private Long sessionExpires;
+	private String sessionSecret;
+	private Boolean appUser;
+
+	private String permissionsApiKey;
+
+	private RateLimiter.Priority priority = RateLimiter.Priority.NORMAL;
+
+	private String rawResponse;
+
+	private boolean batchMode;
+	private List<BatchQuery> queries = new ArrayList<BatchQuery>();
+
+	public CallContext() {
+		// empty
+	}
+
+	public CallContext( String sessionKey ) {
+		this.sessionKey = sessionKey;
+	}
+
+	public CallContext( String sessionKey, Long userId, Long sessionExpires ) {
+		this.sessionKey = sessionKey;
+		this.userId = userId;
+		this.sessionExpires = sessionExpires;
+	}
+
+	public String getSessionKey() {
+		return sessionKey;
+	}
+
+	public void setSessionKey( String sessionKey ) {
+		this.sessionKey = sessionKey;
+	}
+
+	public Long getUserId() {
+		return userId;
+	}
+
+	public void setUserId( Long userId ) {
+		this.userId = userId;
+	}
+
+	public Long getSessionExpires() {
+		return sessionExpires;
+	}
+
+	public void setSessionExpires( Long sessionExpires ) {
+		this.sessionExpires = sessionExpires;
+	}
+
+	/**
+	 * @return the session secret handed out by auth_getSession to desktop applications, which calls in this context are signed with; null if there is none
+	 */
+	public String getSessionSecret() {
+		return sessionSecret;
+	}
+
+	public void setSessionSecret( String sessionSecret ) {
+		this.sessionSecret = sessionSecret;
+	}
+
+	public Boolean getAppUser() {
+		return appUser;
+	}
+
+	public void setAppUser( Boolean appUser ) {
+		this.appUser = appUser;
+	}
+
+	public String getPermissionsApiKey() {
+		return permissionsApiKey;
+	}
+
+	/**
+	 * @param permissionsApiKey
+	 *            the api key calls are made on behalf of, or null to leave permissions mode
+	 */
+	public void setPermissionsApiKey( String permissionsApiKey ) {
+		this.permissionsApiKey = permissionsApiKey;
+	}
+
+	public RateLimiter.Priority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @param priority
+	 *            the order in which calls made in this context are let through a {@link RateLimiter} when calls are waiting
+	 */
+	public void setPriority( RateLimiter.Priority priority ) {
+		this.priority = priority == null ? RateLimiter.Priority.NORMAL : priority;
+	}
+
+	public String getRawResponse() {
+		return rawResponse;
+	}
+
+	public void setRawResponse( String rawResponse ) {
+		this.rawResponse = rawResponse;
+	}
+
+	public boolean isBatchMode() {
+		return batchMode;
+	}
+
+	public List<BatchQuery> getQueries() {
+		return queries;
+	}
+
+	/**
+	 * Starts queueing calls made in this context instead of sending them.
+	 */
+	public void beginBatch() {
+		batchMode = true;
+		queries = new ArrayList<BatchQuery>();
+	}
+
+	/**
+	 * Leaves batch mode.
+	 *
+	 * @return the calls queued since {@link #beginBatch()}
+	 */
+	public List<BatchQuery> endBatch() {
+		batchMode = false;
+		List<BatchQuery> out = queries;
+		queries = new ArrayList<BatchQuery>();
+		return out;
+	}
+
+}
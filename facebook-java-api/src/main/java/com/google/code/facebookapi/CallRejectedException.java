@@ -0,0 +1,36 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a call that a {@link CircuitBreaker} turned away, either because its method family's circuit is open or because the family already
+ * has as many calls in flight as it is allowed. The call was not sent, so it had no effect.
+ */
+public class CallRejectedException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String family;
+	private final boolean circuitOpen;
+
+	public CallRejectedException( String family, boolean circuitOpen ) {
+		super( circuitOpen ? "Circuit for " + family + " methods is open" : "Too many " + family + " calls in flight" );
+		this.family = family;
+		this.circuitOpen = circuitOpen;
+	}
+
+	/**
+	 * @return the method family, such as "photos" for facebook.photos.upload
+	 */
+	public String getFamily() {
+		return family;
+	}
+
+	/**
+	 * @return true if the call was rejected because the circuit was open, false if the family had no room for another call
+	 */
+	public boolean isCircuitOpen() {
+		return circuitOpen;
+	}
+
+}
@@ -0,0 +1,279 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps a degraded part of the API from tying up every calling thread. Methods are grouped into families by the first part of their name after "facebook.", so
+ * that facebook.photos.upload and facebook.photos.get are both in the "photos" family. Each family has
+ * <ul>
+ * <li>a bulkhead, capping how many of its calls may be in flight at once; a call beyond the cap waits up to the configured time for room, and is then rejected</li>
+ * <li>a circuit breaker, which opens after a run of consecutive failures and rejects the family's calls until the open time has passed, then lets one trial call
+ * through to decide whether to close again</li>
+ * </ul>
+ * A failure is an IOException, such as a timeout, or an error response with one of the counted codes, by default {@link ErrorCode#API_EC_UNKNOWN} and
+ * {@link ErrorCode#API_EC_SERVICE}. Rejected calls throw {@link CallRejectedException} without being sent.
+ *
+ * Install it with {@link ExtensibleClient#setCircuitBreaker(CircuitBreaker)} or {@link BasicClient#setCircuitBreaker(CircuitBreaker)}; one instance can be
+ * shared by any number of clients. Each family's state and counts can be read from {@link #getFamily(String)}, or
+ * {@link #registerMBeans(MBeanServer, String) published over JMX}.
+ *
+ * The breaker cannot shorten a call that hangs; set the communication strategy's timeouts so that hung calls fail, and are counted.
+ */
+public class CircuitBreaker {
+
+	protected static Log log = LogFactory.getLog( CircuitBreaker.class );
+
+	public static final int DEFAULT_MAX_CONCURRENT = 20;
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	private final ConcurrentMap<String,MethodFamily> families = new ConcurrentHashMap<String,MethodFamily>();
+	private final ConcurrentMap<String,Integer> maxConcurrent = new ConcurrentHashMap<String,Integer>();
+	private final Set<Integer> failureCodes = new CopyOnWriteArraySet<Integer>();
+
+	private volatile int defaultMaxConcurrent = DEFAULT_MAX_CONCURRENT;
+	private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+	private volatile long openNanos = TimeUnit.SECONDS.toNanos( 30 );
+	private volatile long maxWaitMillis;
+
+	private final Object jmxLock = new Object();
+	private MBeanServer mbeanServer;
+	private String jmxName;
+	private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+	/**
+	 * A breaker allowing {@link #DEFAULT_MAX_CONCURRENT} calls per family, rejecting at once any call beyond that, and opening a family's circuit for 30 seconds
+	 * after {@link #DEFAULT_FAILURE_THRESHOLD} consecutive failures.
+	 */
+	public CircuitBreaker() {
+		failureCodes.add( ErrorCode.API_EC_UNKNOWN );
+		failureCodes.add( ErrorCode.API_EC_SERVICE );
+	}
+
+	/**
+	 * @return the family of the given method: the first part of its name after "facebook.", such as "photos" for facebook.photos.upload
+	 */
+	public static String familyOf( IFacebookMethod method ) {
+		String name = method.methodName();
+		int start = name.startsWith( "facebook." ) ? 9 : 0;
+		int end = name.indexOf( '.', start );
+		return end == -1 ? name.substring( start ) : name.substring( start, end );
+	}
+
+	/**
+	 * @return the live state of the given family, which is created if it hasn't been called yet
+	 */
+	public MethodFamily getFamily( String name ) {
+		MethodFamily family = families.get( name );
+		if ( family == null ) {
+			Integer max = maxConcurrent.get( name );
+			MethodFamily created = new MethodFamily( name, this, max == null ? defaultMaxConcurrent : max );
+			family = families.putIfAbsent( name, created );
+			if ( family == null ) {
+				family = created;
+				register( created );
+			}
+		}
+		return family;
+	}
+
+	MethodFamily getFamily( IFacebookMethod method ) {
+		return getFamily( familyOf( method ) );
+	}
+
+	/**
+	 * Sets the most calls of the given family that may be in flight at once, overriding the default.
+	 */
+	public void setMaxConcurrent( String family, int max ) {
+		if ( max < 1 ) {
+			throw new IllegalArgumentException( "max must be positive: " + max );
+		}
+		maxConcurrent.put( family, max );
+		MethodFamily existing = families.get( family );
+		if ( existing != null ) {
+			existing.setMaxConcurrent( max );
+		}
+	}
+
+	/**
+	 * Sets the most calls of any one family that may be in flight at once, for families without a limit of their own that haven't been called yet.
+	 */
+	public void setDefaultMaxConcurrent( int max ) {
+		if ( max < 1 ) {
+			throw new IllegalArgumentException( "max must be positive: " + max );
+		}
+		this.defaultMaxConcurrent = max;
+	}
+
+	/**
+	 * @param maxWait
+	 *            how long a call may wait for room in its family before it is rejected; 0 (the default) rejects it at once
+	 */
+	public void setMaxWait( long maxWait, TimeUnit unit ) {
+		this.maxWaitMillis = unit.toMillis( maxWait );
+	}
+
+	long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	/**
+	 * @param failureThreshold
+	 *            how many consecutive failures open a family's circuit
+	 */
+	public void setFailureThreshold( int failureThreshold ) {
+		if ( failureThreshold < 1 ) {
+			throw new IllegalArgumentException( "failureThreshold must be positive: " + failureThreshold );
+		}
+		this.failureThreshold = failureThreshold;
+	}
+
+	int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	/**
+	 * Sets how long a circuit stays open before a trial call is let through.
+	 */
+	public void setOpenTime( long openTime, TimeUnit unit ) {
+		this.openNanos = unit.toNanos( openTime );
+	}
+
+	long getOpenNanos() {
+		return openNanos;
+	}
+
+	/**
+	 * Sets whether error responses with the given {@link ErrorCode} count as failures.
+	 */
+	public void setFailure( int errorCode, boolean failure ) {
+		if ( failure ) {
+			failureCodes.add( errorCode );
+		} else {
+			failureCodes.remove( errorCode );
+		}
+	}
+
+	public boolean isFailure( int errorCode ) {
+		return failureCodes.contains( errorCode );
+	}
+
+	/**
+	 * Sends a call if its family lets it in, and records the outcome.
+	 *
+	 * @throws CallRejectedException
+	 *             if the family turned the call away
+	 */
+	String execute( IFacebookMethod method, Callable<String> request ) throws IOException {
+		MethodFamily family = getFamily( method );
+		boolean trial = family.enter();
+		boolean failed = true;
+		try {
+			String response = request.call();
+			failed = isFailure( ApiMetrics.errorCode( response ) );
+			return response;
+		}
+		catch ( IOException ex ) {
+			throw ex;
+		}
+		catch ( RuntimeException ex ) {
+			throw ex;
+		}
+		catch ( Exception ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		finally {
+			family.exit( trial, failed );
+		}
+	}
+
+	/**
+	 * @return every family called so far, keyed and sorted by name
+	 */
+	public SortedMap<String,MethodFamily> getFamilies() {
+		return new TreeMap<String,MethodFamily>( families );
+	}
+
+	/**
+	 * Publishes one {@link MethodFamilyMBean} per family, named <code>com.google.code.facebookapi:type=CircuitBreaker,name=&lt;name&gt;,family=&lt;family&gt;</code>.
+	 * Families first called later are published as they appear.
+	 *
+	 * @param name
+	 *            distinguishes this instance's MBeans from those of others registered with the same server
+	 */
+	public void registerMBeans( MBeanServer server, String name ) {
+		synchronized ( jmxLock ) {
+			if ( mbeanServer != null ) {
+				throw new IllegalStateException( "CircuitBreaker MBeans are already registered as " + jmxName );
+			}
+			mbeanServer = server;
+			jmxName = name;
+			for ( MethodFamily family : families.values() ) {
+				register( family );
+			}
+		}
+	}
+
+	private void register( MethodFamily family ) {
+		synchronized ( jmxLock ) {
+			if ( mbeanServer == null ) {
+				return;
+			}
+			try {
+				ObjectName objectName = new ObjectName( ApiMetrics.JMX_DOMAIN + ":type=CircuitBreaker,name=" + ObjectName.quote( jmxName ) + ",family="
+						+ ObjectName.quote( family.getName() ) );
+				if ( !registered.contains( objectName ) ) {
+					mbeanServer.registerMBean( family, objectName );
+					registered.add( objectName );
+				}
+			}
+			catch ( JMException ex ) {
+				log.warn( "Could not register circuit breaker MBean for " + family.getName(), ex );
+			}
+		}
+	}
+
+	/**
+	 * Removes the MBeans published by {@link #registerMBeans(MBeanServer, String)}.
+	 */
+	public void unregisterMBeans() {
+		synchronized ( jmxLock ) {
+			if ( mbeanServer == null ) {
+				return;
+			}
+			for ( ObjectName objectName : registered ) {
+				try {
+					mbeanServer.unregisterMBean( objectName );
+				}
+				catch ( JMException ex ) {
+					log.warn( "Could not unregister " + objectName, ex );
+				}
+			}
+			registered.clear();
+			mbeanServer = null;
+			jmxName = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CircuitBreaker" + getFamilies().values();
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.google.code.facebookapi;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it.
+ */
+// package-level access intentional (at least for now)
+class CountingInputStream extends FilterInputStream {
+
+	private long count;
+
+	CountingInputStream( InputStream in ) {
+		super( in );
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if ( b != -1 ) {
+			count++ ;
+		}
+		return b;
+	}
+
+	@Override
+	public int read( byte[] b, int off, int len ) throws IOException {
+		int n = super.read( b, off, len );
+		if ( n > 0 ) {
+			count += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip( long n ) throws IOException {
+		long skipped = super.skip( n );
+		count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	long getCount() {
+		return count;
+	}
+
+}
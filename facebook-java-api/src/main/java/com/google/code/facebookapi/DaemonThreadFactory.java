@@ -0,0 +1,25 @@
+package com.google.code.facebookapi;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so the library's background threads never keep an application's JVM alive.
+ */
+// package-level access intentional (at least for now)
+class DaemonThreadFactory implements ThreadFactory {
+
+	private final String name;
+	private final AtomicInteger count = new AtomicInteger();
+
+	public DaemonThreadFactory( String name ) {
+		this.name = name;
+	}
+
+	public Thread newThread( Runnable r ) {
+		Thread t = new Thread( r, name + "-" + count.incrementAndGet() );
+		t.setDaemon( true );
+		return t;
+	}
+
+}
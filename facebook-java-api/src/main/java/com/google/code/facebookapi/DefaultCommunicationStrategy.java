@@ -1,11 +1,15 @@
 package com.google.code.facebookapi;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Map;
 import java.util.SortedMap;
 
@@ -15,7 +19,7 @@ import org.apache.commons.logging.LogFactory;
 /**
  * CommunicationStrategy implementation that uses raw Java-API sockets.
  */
-public class DefaultCommunicationStrategy implements CommunicationStrategy {
+public class DefaultCommunicationStrategy implements FileUploadCommunicationStrategy, StreamingCommunicationStrategy {
 
 	protected static Log log = LogFactory.getLog( DefaultCommunicationStrategy.class );
 
@@ -24,9 +28,27 @@ public class DefaultCommunicationStrategy implements CommunicationStrategy {
 	protected static final String CRLF = "\r\n";
 	protected static final String PREF = "--";
 	protected static final int UPLOAD_BUFFER_SIZE = 1024;
+	protected static final int STREAMING_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Per-thread copy buffer for InputStream uploads, so concurrent uploads don't each allocate one.
+	 */
+	private static final ThreadLocal<byte[]> uploadBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[STREAMING_BUFFER_SIZE];
+		}
+	};
+
+	private static final ResponseHandler<String> TO_STRING = new ResponseHandler<String>() {
+		public String handle( InputStream in ) throws IOException {
+			return BasicClientHelper.toString( in );
+		}
+	};
 
 	private int connectionTimeout = -1;
 	private int readTimeout = -1;
+	private boolean chunkedUploads;
 
 	public int getConnectionTimeout() {
 		return connectionTimeout;
@@ -44,6 +66,19 @@ public class DefaultCommunicationStrategy implements CommunicationStrategy {
 		this.readTimeout = readTimeout;
 	}
 
+	public boolean isChunkedUploads() {
+		return chunkedUploads;
+	}
+
+	/**
+	 * Whether uploads from an InputStream use chunked transfer-encoding, rather than having HttpURLConnection buffer the whole request body in memory to work out
+	 * its Content-Length (the default). Chunking saves the memory, but not every server or proxy on the way accepts a chunked request body, so it is opt-in.
+	 * Uploads from a FileChannel always stream, with a fixed Content-Length.
+	 */
+	public void setChunkedUploads( boolean chunkedUploads ) {
+		this.chunkedUploads = chunkedUploads;
+	}
+
 	public DefaultCommunicationStrategy() {
 		// empty
 	}
@@ -54,6 +89,16 @@ public class DefaultCommunicationStrategy implements CommunicationStrategy {
 	}
 
 	public String postRequest( URL serverUrl, SortedMap<String,String> params ) throws IOException {
+		try {
+			return postRequest( serverUrl, params, TO_STRING );
+		}
+		catch ( FacebookException ex ) {
+			// TO_STRING never throws it
+			throw BasicClientHelper.runtimeException( ex );
+		}
+	}
+
+	public <T> T postRequest( URL serverUrl, SortedMap<String,String> params, ResponseHandler<T> handler ) throws IOException, FacebookException {
 		HttpURLConnection conn = null;
 		OutputStream out = null;
 		InputStream in = null;
@@ -70,10 +115,9 @@ public class DefaultCommunicationStrategy implements CommunicationStrategy {
 			conn.setDoOutput( true );
 			conn.connect();
 			out = conn.getOutputStream();
-			CharSequence paramString = ( null == params ) ? "" : BasicClientHelper.delimit( params.entrySet(), "&", "=", true );
-			out.write( paramString.toString().getBytes( ENCODING ) );
+			FormEncoder.forThread().params( params ).writeTo( out );
 			in = conn.getInputStream();
-			return BasicClientHelper.toString( in );
+			return handler.handle( in );
 		}
 		finally {
 			BasicClientHelper.close( in );
@@ -83,67 +127,132 @@ public class DefaultCommunicationStrategy implements CommunicationStrategy {
 	}
 
 	public String postRequest( URL serverUrl, SortedMap<String,String> params, String fileName, InputStream fileStream ) throws IOException {
+		String boundary = newBoundary();
+		byte[] head = multipartHead( boundary, params, fileName );
+		byte[] tail = multipartTail( boundary );
 		HttpURLConnection con = null;
-		OutputStream urlOut = null;
+		OutputStream out = null;
 		InputStream in = null;
 		try {
-			String boundary = Long.toString( System.currentTimeMillis(), 16 );
-			con = (HttpURLConnection) serverUrl.openConnection();
-			if ( connectionTimeout != -1 ) {
-				con.setConnectTimeout( connectionTimeout );
+			con = openMultipartConnection( serverUrl, boundary );
+			if ( chunkedUploads ) {
+				// the length of the stream is unknown, so chunk rather than let HttpURLConnection buffer the whole body
+				con.setChunkedStreamingMode( STREAMING_BUFFER_SIZE );
 			}
-			if ( readTimeout != -1 ) {
-				con.setReadTimeout( readTimeout );
+			out = con.getOutputStream();
+			out.write( head );
+			byte[] buf = uploadBuffer.get();
+			int len;
+			while ( ( len = fileStream.read( buf ) ) != -1 ) {
+				out.write( buf, 0, len );
 			}
-			con.setDoInput( true );
-			con.setDoOutput( true );
-			con.setUseCaches( false );
-			con.setRequestProperty( "Content-Type", "multipart/form-data; boundary=" + boundary );
-			con.setRequestProperty( "MIME-version", "1.0" );
-
-			urlOut = con.getOutputStream();
-			DataOutputStream out = new DataOutputStream( urlOut );
-
-			for ( Map.Entry<String,String> entry : params.entrySet() ) {
-				out.writeBytes( PREF + boundary + CRLF );
-
-				out.writeBytes( "Content-Type: text/plain;charset=utf-8" + CRLF );
-				// out.writeBytes( "Content-Transfer-Encoding: application/x-www-form-urlencoded" + CRLF );
-
-				// out.writeBytes( "Content-Type: text/plain;charset=utf-8" + CRLF );
-				// out.writeBytes( "Content-Transfer-Encoding: quoted-printable" + CRLF );
+			out.write( tail );
+			out.flush();
+			in = con.getInputStream();
+			return BasicClientHelper.toString( in );
+		}
+		finally {
+			BasicClientHelper.close( out );
+			BasicClientHelper.close( in );
+			BasicClientHelper.disconnect( con );
+		}
+	}
 
-				out.writeBytes( "Content-disposition: form-data; name=\"" + entry.getKey() + "\"" + CRLF );
-				out.writeBytes( CRLF );
-				byte[] valueBytes = entry.getValue().toString().getBytes( "UTF-8" );
-				out.write( valueBytes );
-				out.writeBytes( CRLF );
+	public String postRequest( URL serverUrl, SortedMap<String,String> params, String fileName, FileChannel fileChannel ) throws IOException {
+		String boundary = newBoundary();
+		byte[] head = multipartHead( boundary, params, fileName );
+		byte[] tail = multipartTail( boundary );
+		long position = fileChannel.position();
+		long fileLength = fileChannel.size() - position;
+		long contentLength = head.length + fileLength + tail.length;
+		HttpURLConnection con = null;
+		OutputStream out = null;
+		InputStream in = null;
+		try {
+			con = openMultipartConnection( serverUrl, boundary );
+			if ( contentLength <= Integer.MAX_VALUE ) {
+				con.setFixedLengthStreamingMode( (int) contentLength );
+			} else {
+				con.setChunkedStreamingMode( STREAMING_BUFFER_SIZE );
 			}
-
-			out.writeBytes( PREF + boundary + CRLF );
-			out.writeBytes( "Content-Type: image" + CRLF );
-			out.writeBytes( "Content-disposition: form-data; filename=\"" + fileName + "\"" + CRLF );
-			// out.writeBytes("Content-Transfer-Encoding: binary" + CRLF); // not necessary
-
-			// Write the file
-			out.writeBytes( CRLF );
-			byte buf[] = new byte[UPLOAD_BUFFER_SIZE];
-			int len = 0;
-			while ( len >= 0 ) {
-				out.write( buf, 0, len );
-				len = fileStream.read( buf );
+			out = con.getOutputStream();
+			out.write( head );
+			// HttpURLConnection only offers a stream, so this still copies through the connection's buffers; the channel saves a copy buffer of our own
+			WritableByteChannel target = Channels.newChannel( out );
+			long sent = 0;
+			while ( sent < fileLength ) {
+				long n = fileChannel.transferTo( position + sent, fileLength - sent, target );
+				if ( n <= 0 ) {
+					throw new IOException( "Unable to read " + fileName + " past byte " + sent + " of " + fileLength );
+				}
+				sent += n;
 			}
-
-			out.writeBytes( CRLF + PREF + boundary + PREF + CRLF );
+			out.write( tail );
 			out.flush();
 			in = con.getInputStream();
 			return BasicClientHelper.toString( in );
 		}
 		finally {
-			BasicClientHelper.close( urlOut );
+			BasicClientHelper.close( out );
 			BasicClientHelper.close( in );
 			BasicClientHelper.disconnect( con );
 		}
 	}
 
+	private HttpURLConnection openMultipartConnection( URL serverUrl, String boundary ) throws IOException {
+		HttpURLConnection con = (HttpURLConnection) serverUrl.openConnection();
+		if ( connectionTimeout != -1 ) {
+			con.setConnectTimeout( connectionTimeout );
+		}
+		if ( readTimeout != -1 ) {
+			con.setReadTimeout( readTimeout );
+		}
+		con.setRequestMethod( "POST" );
+		con.setDoInput( true );
+		con.setDoOutput( true );
+		con.setUseCaches( false );
+		con.setRequestProperty( "Content-Type", "multipart/form-data; boundary=" + boundary );
+		con.setRequestProperty( "MIME-version", "1.0" );
+		return con;
+	}
+
+	private static String newBoundary() {
+		return Long.toString( System.currentTimeMillis(), 16 );
+	}
+
+	/**
+	 * The parameter parts and the header of the file part, up to where the file data starts.
+	 */
+	private static byte[] multipartHead( String boundary, SortedMap<String,String> params, String fileName ) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream( 1024 );
+		DataOutputStream out = new DataOutputStream( buf );
+		for ( Map.Entry<String,String> entry : params.entrySet() ) {
+			out.writeBytes( PREF + boundary + CRLF );
+
+			out.writeBytes( "Content-Type: text/plain;charset=utf-8" + CRLF );
+			// out.writeBytes( "Content-Transfer-Encoding: application/x-www-form-urlencoded" + CRLF );
+
+			// out.writeBytes( "Content-Type: text/plain;charset=utf-8" + CRLF );
+			// out.writeBytes( "Content-Transfer-Encoding: quoted-printable" + CRLF );
+
+			out.writeBytes( "Content-disposition: form-data; name=\"" + entry.getKey() + "\"" + CRLF );
+			out.writeBytes( CRLF );
+			byte[] valueBytes = entry.getValue().toString().getBytes( ENCODING );
+			out.write( valueBytes );
+			out.writeBytes( CRLF );
+		}
+
+		out.writeBytes( PREF + boundary + CRLF );
+		out.writeBytes( "Content-Type: image" + CRLF );
+		out.writeBytes( "Content-disposition: form-data; filename=\"" + fileName + "\"" + CRLF );
+		// out.writeBytes("Content-Transfer-Encoding: binary" + CRLF); // not necessary
+		out.writeBytes( CRLF );
+		out.flush();
+		return buf.toByteArray();
+	}
+
+	private static byte[] multipartTail( String boundary ) throws IOException {
+		return ( CRLF + PREF + boundary + PREF + CRLF ).getBytes( "ISO-8859-1" );
+	}
+
 }
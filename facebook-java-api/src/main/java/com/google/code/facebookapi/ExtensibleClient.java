@@ -1,12 +1,15 @@
 package com.google.code.facebookapi;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -21,6 +24,11 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.Map.Entry;
 
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -46,6 +54,11 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 
 	private static final int MAX_DASHBOARD_NEW_ITEMS = 8;
 
+	/**
+	 * The most methods facebook accepts in a single batch_run call.
+	 */
+	public static final int BATCH_LIMIT = 20;
+
 	protected DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 
 	protected URL _serverUrl;
@@ -56,25 +69,51 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 	protected String _secret;
 	protected boolean _isDesktop;
 
+	/**
+	 * The fields below hold the state of the client's own {@link CallContext}, and are kept for subclasses written before there were contexts. They do not see
+	 * contexts bound with {@link #bindCallContext(CallContext)}.
+	 *
+	 * @deprecated use {@link #getCallContext()}
+	 */
+	@Deprecated
 	protected String cacheSessionKey;
+	@Deprecated
 	protected Long cacheUserId;
+	@Deprecated
 	protected Long cacheSessionExpires;
 
+	@Deprecated
 	protected String rawResponse;
+	@Deprecated
 	protected boolean batchMode;
 
+	private final CallContext defaultContext;
+	private final ThreadLocal<CallContext> boundContext = new ThreadLocal<CallContext>();
+	private volatile boolean shared;
+
 	public boolean isBatchMode() {
-		return batchMode;
+		return getCallContext().isBatchMode();
 	}
 
+	@Deprecated
 	protected List<BatchQuery> queries;
 
 	public List<BatchQuery> getQueries() {
-		return queries;
+		return getCallContext().getQueries();
 	}
 
+	@Deprecated
 	protected String permissionsApiKey = null;
 
+	private ExecutorService batchExecutor;
+	private volatile BatchCoalescer batchCoalescer;
+	private volatile ApiMetrics metrics;
+	private volatile ResponseCache responseCache;
+	private volatile RequestCoalescer requestCoalescer;
+	private volatile RetryPolicy retryPolicy;
+	private volatile RateLimiter rateLimiter;
+	private volatile CircuitBreaker circuitBreaker;
+
 
 	protected ExtensibleClient( String responseFormat, String apiKey, String secret ) {
 		this( responseFormat, apiKey, secret, null );
@@ -100,6 +139,144 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 
 		this.batchMode = false;
 		this.queries = new ArrayList<BatchQuery>();
+		this.defaultContext = new OwnContext();
+	}
+
+	/**
+	 * The client's own context, kept in the client's deprecated protected fields so that subclasses reading or writing them still see and change it.
+	 */
+	private class OwnContext extends CallContext {
+
+		@Override
+		public String getSessionKey() {
+			return cacheSessionKey;
+		}
+
+		@Override
+		public void setSessionKey( String sessionKey ) {
+			cacheSessionKey = sessionKey;
+		}
+
+		@Override
+		public Long getUserId() {
+			return cacheUserId;
+		}
+
+		@Override
+		public void setUserId( Long userId ) {
+			cacheUserId = userId;
+		}
+
+		@Override
+		public Long getSessionExpires() {
+			return cacheSessionExpires;
+		}
+
+		@Override
+		public void setSessionExpires( Long sessionExpires ) {
+			cacheSessionExpires = sessionExpires;
+		}
+
+		@Override
+		public Boolean getAppUser() {
+			return cacheAppUser;
+		}
+
+		@Override
+		public void setAppUser( Boolean appUser ) {
+			cacheAppUser = appUser;
+		}
+
+		@Override
+		public String getPermissionsApiKey() {
+			return permissionsApiKey;
+		}
+
+		@Override
+		public void setPermissionsApiKey( String apiKey ) {
+			permissionsApiKey = apiKey;
+		}
+
+		@Override
+		public String getRawResponse() {
+			return rawResponse;
+		}
+
+		@Override
+		public void setRawResponse( String response ) {
+			rawResponse = response;
+		}
+
+		@Override
+		public boolean isBatchMode() {
+			return batchMode;
+		}
+
+		@Override
+		public List<BatchQuery> getQueries() {
+			return queries;
+		}
+
+		@Override
+		public void beginBatch() {
+			batchMode = true;
+			queries = new ArrayList<BatchQuery>();
+		}
+
+		@Override
+		public List<BatchQuery> endBatch() {
+			batchMode = false;
+			List<BatchQuery> out = queries;
+			queries = new ArrayList<BatchQuery>();
+			return out;
+		}
+
+	}
+
+	/**
+	 * The context calls from the current thread are made in: the one bound to this thread, if any, otherwise the client's own.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the client is {@link #setShared(boolean) shared} and no context is bound to this thread
+	 */
+	public CallContext getCallContext() {
+		CallContext context = boundContext.get();
+		if ( context != null ) {
+			return context;
+		}
+		if ( shared ) {
+			throw new IllegalStateException( "No CallContext is bound to this thread, and the client is shared" );
+		}
+		return defaultContext;
+	}
+
+	/**
+	 * Makes calls from the current thread use the given context, until another is bound.
+	 * 
+	 * @param context
+	 *            the context to bind, or null to go back to the client's own
+	 * @return the context that was bound before, or null if there was none, so that it can be restored afterwards
+	 */
+	public CallContext bindCallContext( CallContext context ) {
+		CallContext previous = boundContext.get();
+		if ( context == null ) {
+			boundContext.remove();
+		} else {
+			boundContext.set( context );
+		}
+		return previous;
+	}
+
+	public boolean isShared() {
+		return shared;
+	}
+
+	/**
+	 * Marks this client as shared between threads serving different users. A shared client refuses to make calls from a thread that has no
+	 * {@link #bindCallContext(CallContext) bound context}, rather than letting them fall back to its own context, which every thread would see.
+	 */
+	public void setShared( boolean shared ) {
+		this.shared = shared;
 	}
 
 	public URL getServerUrl() {
@@ -160,16 +337,20 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		return _apiKey;
 	}
 
+	/**
+	 * @return the secret calls are signed with: the session secret in the current context if there is one, otherwise the application's secret
+	 */
 	public String getSecret() {
-		return _secret;
+		String sessionSecret = getCallContext().getSessionSecret();
+		return sessionSecret != null ? sessionSecret : _secret;
 	}
 
 	public void beginPermissionsMode( String apiKey ) {
-		this.permissionsApiKey = apiKey;
+		getCallContext().setPermissionsApiKey( apiKey );
 	}
 
 	public void endPermissionsMode() {
-		this.permissionsApiKey = null;
+		getCallContext().setPermissionsApiKey( null );
 	}
 
 	@Deprecated
@@ -177,12 +358,12 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 
 	@Deprecated
 	public Boolean getCacheAppUser() {
-		return cacheAppUser;
+		return getCallContext().getAppUser();
 	}
 
 	@Deprecated
 	public void setCacheAppUser( Boolean cacheAppUser ) {
-		this.cacheAppUser = cacheAppUser;
+		getCallContext().setAppUser( cacheAppUser );
 	}
 
 	public void setCacheSession( String cacheSessionKey, Long cacheUserId, Long cacheSessionExpires ) {
@@ -192,27 +373,27 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 	}
 
 	public Long getCacheSessionExpires() {
-		return cacheSessionExpires;
+		return getCallContext().getSessionExpires();
 	}
 
 	public void setCacheSessionExpires( Long cacheSessionExpires ) {
-		this.cacheSessionExpires = cacheSessionExpires;
+		getCallContext().setSessionExpires( cacheSessionExpires );
 	}
 
 	public String getCacheSessionKey() {
-		return cacheSessionKey;
+		return getCallContext().getSessionKey();
 	}
 
 	public void setCacheSessionKey( String cacheSessionKey ) {
-		this.cacheSessionKey = cacheSessionKey;
+		getCallContext().setSessionKey( cacheSessionKey );
 	}
 
 	public Long getCacheUserId() {
-		return cacheUserId;
+		return getCallContext().getUserId();
 	}
 
 	public void setCacheUserId( Long cacheUserId ) {
-		this.cacheUserId = cacheUserId;
+		getCallContext().setUserId( cacheUserId );
 	}
 
 	public Object friends_areFriends( long userId1, long userId2 ) throws FacebookException {
@@ -231,6 +412,18 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 				.delimit( userIds2 ) ) );
 	}
 
+	public Object friends_areFriends( long[] userIds1, long[] userIds2 ) throws FacebookException {
+		if ( userIds1 == null || userIds2 == null || userIds1.length == 0 || userIds2.length == 0 ) {
+			throw new IllegalArgumentException( "Arrays passed to friends_areFriends should not be null or empty" );
+		}
+		if ( userIds1.length != userIds2.length ) {
+			throw new IllegalArgumentException( String.format( "Arrays should be same size: got userIds1: %d elts; userIds2: %d elts", userIds1.length,
+					userIds2.length ) );
+		}
+		return callMethod( FacebookMethod.FRIENDS_ARE_FRIENDS, Pairs.newPair( "uids1", BasicClientHelper.delimit( userIds1 ) ), Pairs.newPair( "uids2", BasicClientHelper
+				.delimit( userIds2 ) ) );
+	}
+
 	public boolean fbml_refreshRefUrl( String url ) throws FacebookException {
 		try {
 			return fbml_refreshRefUrl( new URL( url ) );
@@ -282,15 +475,15 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		}
 		String rawResponse = callMethod( FacebookMethod.AUTH_GET_SESSION, params );
 		log.debug( "Facebook response:  " + rawResponse );
+		CallContext context = getCallContext();
 		if ( "json".equals( getResponseFormat() ) ) {
 			try {
 				JSONObject json = new JSONObject( rawResponse );
-				this.cacheSessionKey = json.getString( "session_key" );
-				this.cacheUserId = json.getLong( "uid" );
-				this.cacheSessionExpires = json.getLong( "expires" );
+				context.setSessionKey( json.getString( "session_key" ) );
+				context.setUserId( json.getLong( "uid" ) );
+				context.setSessionExpires( json.getLong( "expires" ) );
 				if ( json.has( "secret" ) ) {
-					this._secret = json.getString( "secret" );
-					this._isDesktop = true;
+					context.setSessionSecret( json.getString( "secret" ) );
 				}
 			}
 			catch ( JSONException ex ) {
@@ -299,16 +492,15 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		} else {
 			// Catch errors and return as FacebookException
 			Document d = XmlHelper.parseCallResult( rawResponse, factory );
-			this.cacheSessionKey = XmlHelper.extractString( d.getElementsByTagName( "session_key" ).item( 0 ) );
-			this.cacheUserId = XmlHelper.extractLong( d.getElementsByTagName( "uid" ).item( 0 ) );
-			this.cacheSessionExpires = XmlHelper.extractLong( d.getElementsByTagName( "expires" ).item( 0 ) );
+			context.setSessionKey( XmlHelper.extractString( d.getElementsByTagName( "session_key" ).item( 0 ) ) );
+			context.setUserId( XmlHelper.extractLong( d.getElementsByTagName( "uid" ).item( 0 ) ) );
+			context.setSessionExpires( XmlHelper.extractLong( d.getElementsByTagName( "expires" ).item( 0 ) ) );
 			NodeList secretList = d.getElementsByTagName( "secret" );
 			if ( secretList.getLength() > 0 ) {
-				this._secret = XmlHelper.extractString( secretList.item( 0 ) );
-				this._isDesktop = true;
+				context.setSessionSecret( XmlHelper.extractString( secretList.item( 0 ) ) );
 			}
 		}
-		return this.cacheSessionKey;
+		return context.getSessionKey();
 	}
 
 	@Deprecated
@@ -371,11 +563,73 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		return callMethod( FacebookMethod.FRIENDS_GET_APP_USERS );
 	}
 
+	/**
+	 * Retrieves the friends of the currently logged in user who use the calling application, read straight into a LongList without boxing.
+	 * 
+	 * @return the ids, or null in batch mode
+	 */
+	public LongList friends_getAppUsersIds() throws FacebookException {
+		return callMethodStreaming( FacebookMethod.FRIENDS_GET_APP_USERS, Collections.<Pair<String,CharSequence>> emptyList(), UidListHandler
+				.forFormat( responseFormat ) );
+	}
+
 	public Object fql_query( CharSequence query ) throws FacebookException {
 		assert ( null != query );
 		return callMethod( FacebookMethod.FQL_QUERY, Pairs.newPair( "query", query ) );
 	}
 
+	public Object fql_multiquery( Map<String,String> queries ) throws FacebookException {
+		assert ( null != queries );
+		return callMethod( FacebookMethod.FQL_MULTIQUERY, Pairs.newPair( "queries", JsonHelper.toJson( queries ) ) );
+	}
+
+	/**
+	 * Runs an FQL query and reads the result into columns. The query is made in JSON whatever the client's format.
+	 * 
+	 * @return the result
+	 * @throws FacebookException
+	 *             in batch mode, as the batch's results could not all be read in the client's format
+	 * @see FqlResultSet
+	 */
+	public FqlResultSet fql_queryColumnar( CharSequence query ) throws FacebookException {
+		assert ( null != query );
+		checkNotBatching( FacebookMethod.FQL_QUERY );
+		List<Pair<String,CharSequence>> params = new ArrayList<Pair<String,CharSequence>>( 1 );
+		params.add( Pairs.newPair( "query", query ) );
+		String response = callMethod( "json", FacebookMethod.FQL_QUERY, params, null, null );
+		return response == null ? null : FqlResultSet.parse( response );
+	}
+
+	/**
+	 * Runs several named FQL queries in one request, as {@link #fql_multiquery(Map)} does, and reads each result into columns. A query may refer to the results
+	 * of the others by name, as in <code>SELECT name FROM user WHERE uid IN (SELECT uid FROM #friends)</code>. The queries are made in JSON whatever the
+	 * client's format.
+	 * 
+	 * @param queries
+	 *            each query by its name
+	 * @return each result by query name
+	 * @throws FacebookException
+	 *             in batch mode, as the batch's results could not all be read in the client's format
+	 * @see FqlResultSet
+	 */
+	public Map<String,FqlResultSet> fql_multiqueryColumnar( Map<String,String> queries ) throws FacebookException {
+		assert ( null != queries );
+		checkNotBatching( FacebookMethod.FQL_MULTIQUERY );
+		List<Pair<String,CharSequence>> params = new ArrayList<Pair<String,CharSequence>>( 1 );
+		params.add( Pairs.newPair( "queries", JsonHelper.toJson( queries ) ) );
+		String response = callMethod( "json", FacebookMethod.FQL_MULTIQUERY, params, null, null );
+		return response == null ? null : FqlResultSet.parseMultiquery( response );
+	}
+
+	/**
+	 * Calls made in JSON whatever the client's format cannot join a batch, whose results are all read in the client's format.
+	 */
+	private void checkNotBatching( IFacebookMethod method ) throws FacebookException {
+		if ( getCallContext().isBatchMode() ) {
+			throw new FacebookException( ErrorCode.GEN_INVALID_PARAMETER, method.methodName() + " cannot be read into columns in batch mode" );
+		}
+	}
+
 	public Object groups_get( Long userId, Collection<Long> groupIds ) throws FacebookException {
 		boolean hasGroups = ( null != groupIds && !groupIds.isEmpty() );
 		if ( null != userId ) {
@@ -420,46 +674,35 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		return callMethod( responseFormat, method, paramPairs, fileName, fileStream );
 	}
 
-	protected String callMethod( String format, IFacebookMethod method, Collection<Pair<String,CharSequence>> paramPairs, String fileName, InputStream fileStream )
+	/**
+	 * Call the specified file upload method, streaming the file from the given channel. The channel is read from its current position and is not closed.
+	 */
+	protected String callMethod( IFacebookMethod method, Collection<Pair<String,CharSequence>> paramPairs, String fileName, FileChannel fileChannel )
 			throws FacebookException {
-		rawResponse = null;
-
-		SortedMap<String,String> params = new TreeMap<String,String>();
-
-		if ( permissionsApiKey != null ) {
-			params.put( "call_as_apikey", permissionsApiKey );
+		CallContext context = getCallContext();
+		if ( context.isBatchMode() ) {
+			return callMethod( responseFormat, method, paramPairs, fileName, Channels.newInputStream( fileChannel ) );
 		}
-
-		if ( isDesktop() ) {
-			params.put( "ss", "1" );
-		}
-
-		params.put( "method", method.methodName() );
-		params.put( "api_key", _apiKey );
-		params.put( "v", TARGET_API_VERSION );
-
-		if ( null != format ) {
-			params.put( "format", format );
+		context.setRawResponse( null );
+		SortedMap<String,String> params = prepareRequestParams( responseFormat, method, paramPairs );
+		try {
+			String rawResponse = postFileRequest( method, params, fileName, fileChannel );
+			context.setRawResponse( rawResponse );
+			return rawResponse;
 		}
-
-		params.put( "call_id", Long.toString( System.currentTimeMillis() ) );
-		boolean includeSession = !method.requiresNoSession() && cacheSessionKey != null;
-		if ( includeSession ) {
-			params.put( "session_key", cacheSessionKey );
+		catch ( IOException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
 		}
+	}
 
-		for ( Pair<String,CharSequence> p : paramPairs ) {
-			CharSequence oldVal = params.put( p.first, BasicClientHelper.toString( p.second ) );
-			if ( oldVal != null ) {
-				log.warn( String.format( "For parameter %s, overwrote old value %s with new value %s.", p.first, oldVal, p.second ) );
-			}
-		}
+	protected String callMethod( String format, IFacebookMethod method, Collection<Pair<String,CharSequence>> paramPairs, String fileName, InputStream fileStream )
+			throws FacebookException {
+		CallContext context = getCallContext();
+		context.setRawResponse( null );
 
-		assert ( !params.containsKey( "sig" ) );
-		String signature = FacebookSignatureUtil.generateSignature( params, _secret );
-		params.put( "sig", signature );
+		SortedMap<String,String> params = prepareRequestParams( format, method, paramPairs );
 
-		if ( batchMode ) {
+		if ( context.isBatchMode() ) {
 			// if we are running in batch mode, don't actually execute the query now, just add it to the list
 			boolean addToBatch = true;
 			// FIXME what the heck is going on here??
@@ -481,14 +724,16 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 				}
 			}
 			if ( addToBatch ) {
-				queries.add( new BatchQuery( method, params ) );
+				context.getQueries().add( new BatchQuery( method, params ) );
 			}
 			return null;
 		}
 
-		boolean doHttps = FacebookMethod.AUTH_GET_SESSION.equals( method ) && "true".equals( params.get( "generate_session_secret" ) );
+		boolean doHttps = isHttpsRequest( method, params );
 		try {
-			rawResponse = method.takesFile() ? postFileRequest( method, params, fileName, fileStream ) : postRequest( method, params, doHttps );
+			String rawResponse = method.takesFile() ? postFileRequest( method, params, fileName, fileStream ) : postRequest( context, method, params, doHttps,
+					context.getPriority() );
+			context.setRawResponse( rawResponse );
 			return rawResponse;
 		}
 		catch ( IOException ex ) {
@@ -496,6 +741,378 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		}
 	}
 
+	/**
+	 * Call the specified method, passing the response body to the handler as it is read rather than returning it as a String. Use a {@link JsonResponseHandler} to
+	 * pull-parse large JSON responses.
+	 * 
+	 * The raw response is not kept, so {@link #getRawResponse()} is null afterwards. In batch mode the call is queued as usual and null is returned.
+	 * 
+	 * @param method
+	 *            the fieldName of the method
+	 * @param handler
+	 *            consumes the response body
+	 * @param paramPairs
+	 *            a list of arguments to the method
+	 * @return what the handler returned
+	 */
+	public <T> T callMethodStreaming( IFacebookMethod method, ResponseHandler<T> handler, Pair<String,CharSequence>... paramPairs ) throws FacebookException {
+		return callMethodStreaming( method, Arrays.asList( paramPairs ), handler );
+	}
+
+	public <T> T callMethodStreaming( IFacebookMethod method, Collection<Pair<String,CharSequence>> paramPairs, ResponseHandler<T> handler ) throws FacebookException {
+		if ( method.takesFile() ) {
+			throw new FacebookException( ErrorCode.GEN_INVALID_PARAMETER, method.methodName() + " uploads a file and cannot be streamed" );
+		}
+		CallContext context = getCallContext();
+		if ( context.isBatchMode() ) {
+			callMethod( responseFormat, method, paramPairs, null, null );
+			return null;
+		}
+		context.setRawResponse( null );
+		SortedMap<String,String> params = prepareRequestParams( responseFormat, method, paramPairs );
+		URL serverUrl = isHttpsRequest( method, params ) ? FacebookApiUrls.getDefaultHttpsServerUrl() : _serverUrl;
+		if ( log.isDebugEnabled() ) {
+			log.debug( method.methodName() + ": POST-STREAMING: " + serverUrl.toString() + ": " + params );
+		}
+		CircuitBreaker breaker = circuitBreaker;
+		MethodFamily family = null;
+		boolean trial = false;
+		try {
+			if ( breaker != null ) {
+				family = breaker.getFamily( method );
+				trial = family.enter();
+			}
+		}
+		catch ( IOException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		try {
+			// only once the family has let the call in, so that a rejected call does not use up a permit
+			acquirePermit( params, context.getPriority() );
+		}
+		catch ( IOException ex ) {
+			if ( family != null ) {
+				family.exit( trial, true );
+			}
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		ApiMetrics m = metrics;
+		MeteredResponseHandler<T> metered = null;
+		if ( m != null ) {
+			metered = new MeteredResponseHandler<T>( handler );
+			handler = metered;
+		}
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			T out;
+			CommunicationStrategy strategy = getCommunicationStrategy();
+			if ( strategy instanceof StreamingCommunicationStrategy ) {
+				out = ( (StreamingCommunicationStrategy) strategy ).postRequest( serverUrl, params, handler );
+			} else {
+				InputStream in = new ByteArrayInputStream( strategy.postRequest( serverUrl, params ).getBytes( "UTF-8" ) );
+				out = handler.handle( in );
+			}
+			if ( metered != null ) {
+				m.record( method, start, params, metered.bytes, 0 );
+			}
+			failed = false;
+			return out;
+		}
+		catch ( FacebookException ex ) {
+			failed = breaker != null && breaker.isFailure( ex.getCode() );
+			if ( metered != null ) {
+				m.record( method, start, params, metered.bytes, ex.getCode() );
+			}
+			throw ex;
+		}
+		catch ( IOException ex ) {
+			if ( m != null ) {
+				m.recordFailure( method, start, params );
+			}
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		finally {
+			if ( family != null ) {
+				family.exit( trial, failed );
+			}
+		}
+	}
+
+	/**
+	 * Counts the bytes of a streamed response for {@link ApiMetrics}.
+	 */
+	private static final class MeteredResponseHandler<T> implements ResponseHandler<T> {
+
+		private final ResponseHandler<T> handler;
+		private long bytes;
+
+		private MeteredResponseHandler( ResponseHandler<T> handler ) {
+			this.handler = handler;
+		}
+
+		public T handle( InputStream in ) throws IOException, FacebookException {
+			CountingInputStream counting = new CountingInputStream( in );
+			try {
+				return handler.handle( counting );
+			}
+			finally {
+				bytes = counting.getCount();
+			}
+		}
+
+	}
+
+	/**
+	 * Call the specified method without blocking the calling thread. The request is sent through the {@link AsyncCommunicationStrategy} if one is configured,
+	 * otherwise it is sent synchronously and an already completed Future is returned.
+	 * 
+	 * Unlike {@link #callMethod(IFacebookMethod, Pair...)} this does not update {@link #getRawResponse()}, as any number of calls may be in flight at once. In batch
+	 * mode the call is queued as usual and the returned Future holds null.
+	 * 
+	 * @param method
+	 *            the fieldName of the method
+	 * @param paramPairs
+	 *            a list of arguments to the method
+	 * @return a Future for the raw response; communication errors surface as the cause of the ExecutionException thrown by get()
+	 * @throws FacebookException
+	 *             if the method uploads a file, which is only supported synchronously
+	 */
+	public Future<String> callMethodAsync( IFacebookMethod method, Pair<String,CharSequence>... paramPairs ) throws FacebookException {
+		return callMethodAsync( method, Arrays.asList( paramPairs ) );
+	}
+
+	public Future<String> callMethodAsync( IFacebookMethod method, Collection<Pair<String,CharSequence>> paramPairs ) throws FacebookException {
+		if ( method.takesFile() ) {
+			throw new FacebookException( ErrorCode.GEN_INVALID_PARAMETER, method.methodName() + " uploads a file and cannot be called asynchronously" );
+		}
+		if ( getCallContext().isBatchMode() ) {
+			callMethod( responseFormat, method, paramPairs, null, null );
+			return FacebookFuture.completed( null );
+		}
+		BatchCoalescer coalescer = batchCoalescer;
+		if ( coalescer != null ) {
+			return coalescer.submit( method, paramPairs );
+		}
+		return sendAsync( method, paramPairs );
+	}
+
+	/**
+	 * Sends a single call asynchronously, bypassing batch mode and any coalescer.
+	 */
+	Future<String> sendAsync( final IFacebookMethod method, Collection<Pair<String,CharSequence>> paramPairs ) {
+		CallContext context = getCallContext();
+		RateLimiter.Priority priority = context.getPriority();
+		final SortedMap<String,String> params = prepareRequestParams( context, responseFormat, method, paramPairs );
+		final URL serverUrl = isHttpsRequest( method, params ) ? FacebookApiUrls.getDefaultHttpsServerUrl() : _serverUrl;
+		if ( log.isDebugEnabled() ) {
+			log.debug( method.methodName() + ": POST-ASYNC: " + serverUrl.toString() + ": " + params );
+		}
+		CommunicationStrategy strategy = getCommunicationStrategy();
+		if ( strategy instanceof AsyncCommunicationStrategy ) {
+			final AsyncCommunicationStrategy async = (AsyncCommunicationStrategy) strategy;
+			final ResponseCache cache = responseCache;
+			final String key;
+			if ( cache != null && cache.isCacheable( method ) ) {
+				key = ResponseCache.key( method, params );
+				String cached = cache.get( key );
+				if ( cached != null ) {
+					return FacebookFuture.completed( cached );
+				}
+			} else {
+				key = null;
+			}
+			CircuitBreaker breaker = circuitBreaker;
+			if ( breaker == null ) {
+				return sendWhenPermitted( async, serverUrl, method, params, priority, cache, key );
+			}
+			MethodFamily family = breaker.getFamily( method );
+			boolean trial;
+			try {
+				trial = family.enter();
+			}
+			catch ( IOException ex ) {
+				return FacebookFuture.failed( ex );
+			}
+			Future<String> out;
+			try {
+				out = sendWhenPermitted( async, serverUrl, method, params, priority, cache, key );
+			}
+			catch ( RuntimeException ex ) {
+				family.exit( trial, true );
+				throw ex;
+			}
+			return exitWhenDone( breaker, family, trial, out );
+		}
+		try {
+			return FacebookFuture.completed( postRequest( context, method, params, isHttpsRequest( method, params ), priority ) );
+		}
+		catch ( IOException ex ) {
+			return FacebookFuture.failed( ex );
+		}
+	}
+
+	/**
+	 * Sends a call through the AsyncCommunicationStrategy once the rate limiter, if there is one, lets it through.
+	 */
+	private Future<String> sendWhenPermitted( final AsyncCommunicationStrategy async, final URL serverUrl, final IFacebookMethod method,
+			final SortedMap<String,String> params, RateLimiter.Priority priority, final ResponseCache cache, final String key ) {
+		RateLimiter limiter = rateLimiter;
+		final FacebookFuture<Void> permit = limiter == null ? null : limiter.acquireAsync( params, priority );
+		if ( permit == null || permit.isDone() ) {
+			return postAsync( async, serverUrl, method, params, cache, key );
+		}
+		// send once the limiter lets the call through, without holding up its thread
+		final FacebookFuture<String> out = new FacebookFuture<String>();
+		permit.addListener( new Runnable() {
+			public void run() {
+				if ( permit.isCancelled() ) {
+					return;
+				}
+				final Future<String> sent = postAsync( async, serverUrl, method, params, cache, key );
+				if ( sent instanceof FacebookFuture<?> ) {
+					( (FacebookFuture<String>) sent ).addListener( new Runnable() {
+						public void run() {
+							forward( sent, out );
+						}
+					} );
+				} else {
+					forward( sent, out );
+				}
+			}
+		} );
+		out.addListener( new Runnable() {
+			public void run() {
+				if ( out.isCancelled() ) {
+					permit.cancel( false );
+				}
+			}
+		} );
+		return out;
+	}
+
+	/**
+	 * Records the outcome of an asynchronous call let in by the family once the call completes, as {@link CircuitBreaker} does for a blocking one.
+	 */
+	private static Future<String> exitWhenDone( final CircuitBreaker breaker, final MethodFamily family, final boolean trial, final Future<String> future ) {
+		if ( !( future instanceof FacebookFuture<?> ) ) {
+			// there is no completing the call without a thread to wait for it, so the family only covers sending it
+			family.exit( trial, false );
+			return future;
+		}
+		( (FacebookFuture<String>) future ).addListener( new Runnable() {
+			public void run() {
+				boolean failed = true;
+				try {
+					failed = breaker.isFailure( ApiMetrics.errorCode( future.get() ) );
+				}
+				catch ( CancellationException ex ) {
+					failed = false;
+				}
+				catch ( ExecutionException ex ) {
+					// a communication error
+				}
+				catch ( InterruptedException ex ) {
+					Thread.currentThread().interrupt();
+				}
+				finally {
+					family.exit( trial, failed );
+				}
+			}
+		} );
+		return future;
+	}
+
+	private Future<String> postAsync( AsyncCommunicationStrategy strategy, URL serverUrl, final IFacebookMethod method, final SortedMap<String,String> params,
+			final ResponseCache cache, final String key ) {
+		final long start = System.nanoTime();
+		final Future<String> future = strategy.postRequestAsync( serverUrl, params );
+		final ApiMetrics m = metrics;
+		if ( ( m != null || key != null ) && future instanceof FacebookFuture<?> ) {
+			( (FacebookFuture<String>) future ).addListener( new Runnable() {
+				public void run() {
+					String response;
+					try {
+						response = future.get();
+					}
+					catch ( Exception ex ) {
+						if ( m != null ) {
+							m.recordFailure( method, start, params );
+						}
+						return;
+					}
+					if ( m != null ) {
+						m.record( method, start, params, response );
+					}
+					if ( key != null ) {
+						cache.put( method, key, response );
+					}
+				}
+			} );
+		}
+		return future;
+	}
+
+	/**
+	 * Completes <code>to</code> as <code>from</code> completed, waiting for it if need be.
+	 */
+	private static void forward( Future<String> from, FacebookFuture<String> to ) {
+		try {
+			to.set( from.get() );
+		}
+		catch ( ExecutionException ex ) {
+			to.setException( ex.getCause() );
+		}
+		catch ( CancellationException ex ) {
+			to.cancel( false );
+		}
+		catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+			to.setException( ex );
+		}
+	}
+
+	/**
+	 * Builds the signed parameter map sent for a call to the given method.
+	 */
+	protected SortedMap<String,String> prepareRequestParams( String format, IFacebookMethod method, Collection<Pair<String,CharSequence>> paramPairs ) {
+		return prepareRequestParams( getCallContext(), format, method, paramPairs );
+	}
+
+	/**
+	 * Builds the signed parameter map sent for a call to the given method on behalf of the given context, which need not be the one bound to this thread.
+	 */
+	protected SortedMap<String,String> prepareRequestParams( CallContext context, String format, IFacebookMethod method,
+			Collection<Pair<String,CharSequence>> paramPairs ) {
+		RequestParams.Builder builder = RequestParams.Builder.forThread();
+		builder.callAsApiKey( context.getPermissionsApiKey() );
+		builder.ss( _isDesktop || context.getSessionSecret() != null );
+		builder.method( method.methodName() ).apiKey( _apiKey ).v( TARGET_API_VERSION ).format( format );
+		builder.callId( RequestParams.nextCallId() );
+		boolean includeSession = !method.requiresNoSession() && context.getSessionKey() != null;
+		if ( includeSession ) {
+			builder.sessionKey( context.getSessionKey() );
+		}
+		// arguments override the common parameters, as they always have
+		SortedMap<String,String> params = builder.args( paramPairs ).build( true );
+
+		assert ( !params.containsKey( "sig" ) );
+		String signature = FacebookSignatureUtil.generateSignature( params, secretOf( context ) );
+		params.put( "sig", signature );
+		return params;
+	}
+
+	/**
+	 * @return the secret calls made on behalf of the given context are signed with
+	 */
+	private String secretOf( CallContext context ) {
+		return context.getSessionSecret() != null ? context.getSessionSecret() : _secret;
+	}
+
+	private static boolean isHttpsRequest( IFacebookMethod method, SortedMap<String,String> params ) {
+		return FacebookMethod.AUTH_GET_SESSION.equals( method ) && "true".equals( params.get( "generate_session_secret" ) );
+	}
+
 	/**
 	 * The ExtensibleClient shouldn't be responsible for error checking. Instead, it should just return the raw response that Facebook gives it.
 	 * 
@@ -517,12 +1134,112 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		}
 	}
 
-	private String postRequest( IFacebookMethod method, SortedMap<String,String> params, boolean doHttps ) throws IOException {
-		URL serverUrl = ( doHttps ) ? FacebookApiUrls.getDefaultHttpsServerUrl() : _serverUrl;
+	/**
+	 * Sends a call as a plain call is sent: answered from the response cache or joined to an identical call in flight if possible, otherwise sent under the
+	 * client's retry policy, rate limiter and circuit breaker, and recorded in its metrics.
+	 * 
+	 * @param context
+	 *            the context the params were prepared for, whose secret signs them again for each retry
+	 */
+	String postRequest( final CallContext context, final IFacebookMethod method, final SortedMap<String,String> params, final boolean doHttps,
+			final RateLimiter.Priority priority ) throws IOException {
+		final ResponseCache cache = responseCache;
+		final boolean cacheable = cache != null && cache.isCacheable( method );
+		RequestCoalescer coalescer = requestCoalescer;
+		final boolean coalescable = coalescer != null && coalescer.isCoalescable( method );
+		if ( !cacheable && !coalescable ) {
+			return sendRequest( context, method, params, doHttps, priority );
+		}
+		final String key = ResponseCache.key( method, params );
+		if ( cacheable ) {
+			String cached = cache.get( key );
+			if ( cached != null ) {
+				return cached;
+			}
+		}
+		if ( !coalescable ) {
+			String response = sendRequest( context, method, params, doHttps, priority );
+			cache.put( method, key, response );
+			return response;
+		}
+		return coalescer.execute( key, new Callable<String>() {
+			public String call() throws IOException {
+				String response = sendRequest( context, method, params, doHttps, priority );
+				if ( cacheable ) {
+					cache.put( method, key, response );
+				}
+				return response;
+			}
+		} );
+	}
+
+	private String sendRequest( final CallContext context, final IFacebookMethod method, final SortedMap<String,String> params, final boolean doHttps,
+			final RateLimiter.Priority priority ) throws IOException {
+		RetryPolicy retry = retryPolicy;
+		if ( retry == null ) {
+			return sendOnce( method, params, doHttps, priority );
+		}
+		return retry.execute( method, new Callable<String>() {
+
+			private SortedMap<String,String> sent;
+
+			public String call() throws IOException {
+				// Facebook wants a greater call_id on every request, so each retry is signed afresh
+				sent = sent == null ? params : RequestParams.resign( sent, secretOf( context ) );
+				return sendOnce( method, sent, doHttps, priority );
+			}
+
+		} );
+	}
+
+	private String sendOnce( final IFacebookMethod method, final SortedMap<String,String> params, boolean doHttps, final RateLimiter.Priority priority )
+			throws IOException {
+		final URL serverUrl = ( doHttps ) ? FacebookApiUrls.getDefaultHttpsServerUrl() : _serverUrl;
 		if ( log.isDebugEnabled() ) {
 			log.debug( method.methodName() + ": POST: " + serverUrl.toString() + ": " + params );
 		}
-		return getCommunicationStrategy().postRequest( serverUrl, params );
+		CircuitBreaker breaker = circuitBreaker;
+		if ( breaker == null ) {
+			return post( method, serverUrl, params, priority );
+		}
+		return breaker.execute( method, new Callable<String>() {
+			public String call() throws IOException {
+				return post( method, serverUrl, params, priority );
+			}
+		} );
+	}
+
+	private String post( IFacebookMethod method, URL serverUrl, SortedMap<String,String> params, RateLimiter.Priority priority ) throws IOException {
+		acquirePermit( params, priority );
+		ApiMetrics m = metrics;
+		if ( m == null ) {
+			return getCommunicationStrategy().postRequest( serverUrl, params );
+		}
+		long start = System.nanoTime();
+		try {
+			String response = getCommunicationStrategy().postRequest( serverUrl, params );
+			m.record( method, start, params, response );
+			return response;
+		}
+		catch ( IOException ex ) {
+			m.recordFailure( method, start, params );
+			throw ex;
+		}
+		catch ( RuntimeException ex ) {
+			m.recordFailure( method, start, params );
+			throw ex;
+		}
+	}
+
+	/**
+	 * Waits for the {@link RateLimiter}, if there is one, to let the call through. Called only once the {@link CircuitBreaker} has let the call in, so that a
+	 * rejected call does not use up a permit.
+	 */
+	private void acquirePermit( SortedMap<String,String> params, RateLimiter.Priority priority ) throws IOException {
+		RateLimiter limiter = rateLimiter;
+		if ( limiter != null ) {
+			limiter.acquireForIO( params, priority );
+		}
 	}
 
 	/**
@@ -537,11 +1254,93 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 	 * @return an InputStream with the request response
 	 * @see #photos_upload
 	 */
-	protected String postFileRequest( IFacebookMethod method, SortedMap<String,String> params, String fileName, InputStream fileStream ) throws IOException {
+	protected String postFileRequest( final IFacebookMethod method, final SortedMap<String,String> params, final String fileName, final InputStream fileStream )
+			throws IOException {
+		if ( log.isDebugEnabled() ) {
+			log.debug( method.methodName() + ": POST-FILE: " + _serverUrl.toString() + ": " + params );
+		}
+		final RateLimiter.Priority priority = getCallContext().getPriority();
+		CircuitBreaker breaker = circuitBreaker;
+		if ( breaker == null ) {
+			return postFile( method, params, fileName, fileStream, priority );
+		}
+		return breaker.execute( method, new Callable<String>() {
+			public String call() throws IOException {
+				return postFile( method, params, fileName, fileStream, priority );
+			}
+		} );
+	}
+
+	private String postFile( IFacebookMethod method, SortedMap<String,String> params, String fileName, InputStream fileStream, RateLimiter.Priority priority )
+			throws IOException {
+		acquirePermit( params, priority );
+		ApiMetrics m = metrics;
+		if ( m == null ) {
+			return getCommunicationStrategy().postRequest( _serverUrl, params, fileName, fileStream );
+		}
+		long start = System.nanoTime();
+		try {
+			String response = getCommunicationStrategy().postRequest( _serverUrl, params, fileName, fileStream );
+			m.record( method, start, params, response );
+			return response;
+		}
+		catch ( IOException ex ) {
+			m.recordFailure( method, start, params );
+			throw ex;
+		}
+		catch ( RuntimeException ex ) {
+			m.recordFailure( method, start, params );
+			throw ex;
+		}
+	}
+
+	/**
+	 * Helper function for posting a request that includes a file read from a FileChannel. Strategies that implement {@link FileUploadCommunicationStrategy} stream
+	 * the channel directly; others are given an InputStream over it.
+	 */
+	protected String postFileRequest( final IFacebookMethod method, final SortedMap<String,String> params, final String fileName, final FileChannel fileChannel )
+			throws IOException {
 		if ( log.isDebugEnabled() ) {
 			log.debug( method.methodName() + ": POST-FILE: " + _serverUrl.toString() + ": " + params );
 		}
-		return getCommunicationStrategy().postRequest( _serverUrl, params, fileName, fileStream );
+		CommunicationStrategy strategy = getCommunicationStrategy();
+		if ( ! ( strategy instanceof FileUploadCommunicationStrategy ) ) {
+			return postFileRequest( method, params, fileName, new BufferedInputStream( Channels.newInputStream( fileChannel ) ) );
+		}
+		final FileUploadCommunicationStrategy uploader = (FileUploadCommunicationStrategy) strategy;
+		final RateLimiter.Priority priority = getCallContext().getPriority();
+		CircuitBreaker breaker = circuitBreaker;
+		if ( breaker == null ) {
+			return postFile( uploader, method, params, fileName, fileChannel, priority );
+		}
+		return breaker.execute( method, new Callable<String>() {
+			public String call() throws IOException {
+				return postFile( uploader, method, params, fileName, fileChannel, priority );
+			}
+		} );
+	}
+
+	private String postFile( FileUploadCommunicationStrategy strategy, IFacebookMethod method, SortedMap<String,String> params, String fileName,
+			FileChannel fileChannel, RateLimiter.Priority priority ) throws IOException {
+		acquirePermit( params, priority );
+		ApiMetrics m = metrics;
+		if ( m == null ) {
+			return strategy.postRequest( _serverUrl, params, fileName, fileChannel );
+		}
+		long start = System.nanoTime();
+		try {
+			String response = strategy.postRequest( _serverUrl, params, fileName, fileChannel );
+			m.record( method, start, params, response );
+			return response;
+		}
+		catch ( IOException ex ) {
+			m.recordFailure( method, start, params );
+			throw ex;
+		}
+		catch ( RuntimeException ex ) {
+			m.recordFailure( method, start, params );
+			throw ex;
+		}
 	}
 
 	public boolean fbml_refreshRefUrl( URL url ) throws FacebookException {
@@ -580,27 +1379,154 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 				.delimit( fields ) ) );
 	}
 
+	/**
+	 * Retrieves the requested profile fields for any number of users, splitting the ids into chunks of <code>chunkSize</code>. Chunks are sent concurrently on the
+	 * {@link #setBatchExecutor(ExecutorService) batch executor} if one is set, and otherwise one at a time as the result is iterated. With
+	 * <code>useBatchRun</code>, up to {@link #BATCH_LIMIT} chunks share each request as a batch_run.
+	 * 
+	 * @return each chunk's raw response in id order; a chunk that fails, with an error response or a failed request, reports its failure without affecting the
+	 *         others
+	 */
+	public BulkResponse users_getInfoBulk( Collection<Long> userIds, Collection<ProfileField> fields, int chunkSize, boolean useBatchRun ) {
+		return bulk( FacebookMethod.USERS_GET_INFO, userIds, Pairs.newPair( "fields", BasicClientHelper.delimit( fields ) ), chunkSize, useBatchRun );
+	}
+
+	/**
+	 * @see #users_getInfoBulk(Collection, Collection, int, boolean)
+	 */
+	public BulkResponse users_getInfoBulk( Collection<Long> userIds, Set<CharSequence> fields, int chunkSize, boolean useBatchRun ) {
+		return bulk( FacebookMethod.USERS_GET_INFO, userIds, Pairs.newPair( "fields", BasicClientHelper.delimit( fields ) ), chunkSize, useBatchRun );
+	}
+
+	private BulkResponse bulk( final IFacebookMethod method, Collection<Long> ids, final Pair<String,CharSequence> extra, int chunkSize, final boolean useBatchRun ) {
+		if ( chunkSize < 1 ) {
+			throw new IllegalArgumentException( "chunkSize must be positive: " + chunkSize );
+		}
+		// chunks may run on threads that don't have the caller's context bound
+		final CallContext context = getCallContext();
+		final List<Long> all = new ArrayList<Long>( ids );
+		final int chunkCount = ( all.size() + chunkSize - 1 ) / chunkSize;
+		final int chunksPerTask = useBatchRun ? BATCH_LIMIT : 1;
+		List<Callable<List<BulkResponse.Chunk>>> tasks = new ArrayList<Callable<List<BulkResponse.Chunk>>>();
+		for ( int first = 0; first < chunkCount; first += chunksPerTask ) {
+			final List<List<Long>> group = new ArrayList<List<Long>>( chunksPerTask );
+			for ( int c = first; c < Math.min( chunkCount, first + chunksPerTask ); c++ ) {
+				group.add( all.subList( c * chunkSize, Math.min( all.size(), ( c + 1 ) * chunkSize ) ) );
+			}
+			final int firstIndex = first;
+			tasks.add( new Callable<List<BulkResponse.Chunk>>() {
+				public List<BulkResponse.Chunk> call() {
+					if ( useBatchRun ) {
+						return sendBulkBatch( context, method, firstIndex, group, extra );
+					}
+					return Collections.singletonList( sendBulkChunk( context, method, firstIndex, group.get( 0 ), extra ) );
+				}
+			} );
+		}
+		return new BulkResponse( chunkCount, chunksPerTask, tasks, batchExecutor );
+	}
+
+	private List<Pair<String,CharSequence>> bulkParams( List<Long> ids, Pair<String,CharSequence> extra ) {
+		List<Pair<String,CharSequence>> params = new ArrayList<Pair<String,CharSequence>>( 2 );
+		params.add( Pairs.newPair( "uids", BasicClientHelper.delimit( ids ) ) );
+		params.add( extra );
+		return params;
+	}
+
+	private BulkResponse.Chunk sendBulkChunk( CallContext context, IFacebookMethod method, int index, List<Long> ids, Pair<String,CharSequence> extra ) {
+		try {
+			SortedMap<String,String> params = prepareRequestParams( context, responseFormat, method, bulkParams( ids, extra ) );
+			String response = postRequest( context, method, params, false, context.getPriority() );
+			return bulkChunk( index, ids, response );
+		}
+		catch ( IOException ex ) {
+			return new BulkResponse.Chunk( index, ids, null, ex );
+		}
+		catch ( RuntimeException ex ) {
+			return new BulkResponse.Chunk( index, ids, null, ex );
+		}
+	}
+
+	/**
+	 * Sends a group of chunks as one batch_run. The batch_run itself is always requested as JSON; the calls in it use the client's format.
+	 */
+	private List<BulkResponse.Chunk> sendBulkBatch( CallContext context, IFacebookMethod method, int firstIndex, List<List<Long>> group,
+			Pair<String,CharSequence> extra ) {
+		List<BulkResponse.Chunk> out = new ArrayList<BulkResponse.Chunk>( group.size() );
+		Exception failure;
+		try {
+			JSONArray feed = new JSONArray();
+			for ( List<Long> ids : group ) {
+				SortedMap<String,String> params = prepareRequestParams( context, responseFormat, method, bulkParams( ids, extra ) );
+				feed.put( BasicClientHelper.delimit( params.entrySet(), "&", "=", true ) );
+			}
+			List<Pair<String,CharSequence>> batchParams = new ArrayList<Pair<String,CharSequence>>( 1 );
+			batchParams.add( Pairs.newPair( "method_feed", feed.toString() ) );
+			String response = postRequest( context, FacebookMethod.BATCH_RUN, prepareRequestParams( context, "json", FacebookMethod.BATCH_RUN, batchParams ), false,
+					context.getPriority() );
+			JSONArray responses = (JSONArray) JsonHelper.parseCallResult( response );
+			for ( int i = 0; i < group.size(); i++ ) {
+				out.add( bulkChunk( firstIndex + i, group.get( i ), responses.getString( i ) ) );
+			}
+			return out;
+		}
+		catch ( FacebookException ex ) {
+			failure = ex;
+		}
+		catch ( IOException ex ) {
+			failure = ex;
+		}
+		catch ( JSONException ex ) {
+			failure = ex;
+		}
+		catch ( RuntimeException ex ) {
+			failure = ex;
+		}
+		// the whole batch_run failed, so every chunk in it did
+		out.clear();
+		for ( int i = 0; i < group.size(); i++ ) {
+			out.add( new BulkResponse.Chunk( firstIndex + i, group.get( i ), null, failure ) );
+		}
+		return out;
+	}
+
+	private BulkResponse.Chunk bulkChunk( int index, List<Long> ids, String response ) {
+		if ( ApiMetrics.errorCode( response ) != 0 ) {
+			try {
+				validateVoidResponse( response );
+			}
+			catch ( FacebookException ex ) {
+				return new BulkResponse.Chunk( index, ids, null, ex );
+			}
+		}
+		return new BulkResponse.Chunk( index, ids, response, null );
+	}
+
 	/**
 	 * Retrieves the user ID of the user logged in to this API session
 	 * 
 	 * @return the Facebook user ID of the logged-in user
 	 */
 	public long users_getLoggedInUser() throws FacebookException {
-		if ( cacheUserId == null || cacheUserId == -1 || batchMode ) {
-			cacheUserId = extractLong( callMethod( FacebookMethod.USERS_GET_LOGGED_IN_USER ) );
+		CallContext context = getCallContext();
+		Long userId = context.getUserId();
+		if ( userId == null || userId == -1 || context.isBatchMode() ) {
+			userId = extractLong( callMethod( FacebookMethod.USERS_GET_LOGGED_IN_USER ) );
+			context.setUserId( userId );
 		}
-		return cacheUserId;
+		return userId;
 	}
 
 	public boolean isDesktop() {
-		return _isDesktop;
+		return _isDesktop || getCallContext().getSessionSecret() != null;
 	}
 
 	public boolean users_isAppUser() throws FacebookException {
-		if ( cacheAppUser == null ) {
-			cacheAppUser = extractBoolean( callMethod( FacebookMethod.USERS_IS_APP_USER ) );
+		CallContext context = getCallContext();
+		if ( context.getAppUser() == null ) {
+			context.setAppUser( extractBoolean( callMethod( FacebookMethod.USERS_IS_APP_USER ) ) );
 		}
-		return cacheAppUser;
+		return context.getAppUser();
 	}
 
 	public boolean users_isAppUser( Long userId ) throws FacebookException {
@@ -644,6 +1570,29 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		}
 	}
 
+	/**
+	 * Retrieves the friends of the currently logged in user, read straight into a LongList without boxing.
+	 * 
+	 * @return the ids, or null in batch mode
+	 */
+	public LongList friends_getIds() throws FacebookException {
+		return friends_getIds( null );
+	}
+
+	/**
+	 * Retrieves the friends of the given user, or of the currently logged in user if it is null, read straight into a LongList without boxing.
+	 * 
+	 * @return the ids, or null in batch mode
+	 */
+	public LongList friends_getIds( Long uid ) throws FacebookException {
+		List<Pair<String,CharSequence>> params = new ArrayList<Pair<String,CharSequence>>( 1 );
+		if ( uid != null ) {
+			params.add( Pairs.newPair( "uid", uid ) );
+		}
+		return callMethodStreaming( uid != null ? FacebookMethod.FRIENDS_GET_NOSESSION : FacebookMethod.FRIENDS_GET, params, UidListHandler
+				.forFormat( responseFormat ) );
+	}
+
 	public Object friends_getMutualFriends( Long targetId ) throws FacebookException {
 		return callMethod( FacebookMethod.FRIENDS_GET_MUTUAL_FRIENDS, Pairs.newPair( "targetId", targetId ) );
 	}
@@ -662,7 +1611,7 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 	}
 
 	public String getRawResponse() {
-		return rawResponse;
+		return getCallContext().getRawResponse();
 	}
 
 	@Deprecated
@@ -789,7 +1738,7 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 			throw new IllegalArgumentException( "fields cannot be empty or null" );
 		}
 		if ( userId == null ) {
-			userId = cacheUserId;
+			userId = getCallContext().getUserId();
 		}
 		if ( userId == null ) {
 			return callMethod( FacebookMethod.PAGES_GET_INFO, Pairs.newPair( "fields", BasicClientHelper.delimit( fields ) ) );
@@ -812,7 +1761,7 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 			throw new IllegalArgumentException( "fields cannot be empty or null" );
 		}
 		if ( userId == null ) {
-			userId = cacheUserId;
+			userId = getCallContext().getUserId();
 		}
 		if ( userId == null ) {
 			return callMethod( FacebookMethod.PAGES_GET_INFO, Pairs.newPair( "fields", BasicClientHelper.delimit( fields ) ) );
@@ -1353,8 +2302,7 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 	}
 
 	public void beginBatch() {
-		batchMode = true;
-		queries = new ArrayList<BatchQuery>();
+		getCallContext().beginBatch();
 	}
 
 	protected String encodeMethods( List<BatchQuery> queryList ) throws FacebookException {
@@ -1877,6 +2825,40 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 
 	public Object stream_get( final Long viewerId, final List<Long> sourceIds, final Date start, final Date end, final Integer limit, final String filterKey,
 			final List<String> metadata ) throws FacebookException {
+		return callMethod( FacebookMethod.STREAM_GET, streamParams( viewerId, sourceIds, start, end, limit, filterKey, metadata ) );
+	}
+
+	/**
+	 * Walks back through a stream from <code>end</code> (or now) to <code>start</code> (or as far as Facebook goes), one post at a time. Pages of
+	 * <code>pageSize</code> posts are fetched with stream_get as they are needed, each ending where the previous one left off, and the next page is fetched in the
+	 * background while the current one is consumed. At most two pages are held at once, however much of the stream is read.
+	 * 
+	 * Pages are requested as JSON whatever the client's format, in the client's {@link CallContext} as it is when this is called. The next page is fetched on the
+	 * {@link #setBatchExecutor(ExecutorService) batch executor} if one is set, and otherwise on a thread of the iterator's own.
+	 * 
+	 * @see #stream_get(Long, List, Date, Date, Integer, String, List)
+	 */
+	public StreamIterator stream_getIterator( Long viewerId, List<Long> sourceIds, Date start, Date end, int pageSize, String filterKey ) {
+		return new StreamIterator( this, getCallContext(), batchExecutor, viewerId, sourceIds, start, end, pageSize, filterKey );
+	}
+
+	/**
+	 * Fetches one page of stream_get as JSON in the given context.
+	 * 
+	 * @return the page, with no posts if the stream has nothing more
+	 */
+	JSONObject stream_getPage( CallContext context, Long viewerId, List<Long> sourceIds, Date start, Date end, Integer limit, String filterKey )
+			throws FacebookException, IOException {
+		FacebookMethod method = FacebookMethod.STREAM_GET;
+		String response = postRequest( context, method, prepareRequestParams( context, "json", method, streamParams( viewerId, sourceIds, start, end, limit, filterKey,
+				null ) ), false, context.getPriority() );
+		Object page = JsonHelper.parseCallResult( response );
+		// an empty stream comes back as an empty array rather than an object
+		return page instanceof JSONObject ? (JSONObject) page : new JSONObject();
+	}
+
+	private static Collection<Pair<String,CharSequence>> streamParams( Long viewerId, List<Long> sourceIds, Date start, Date end, Integer limit, String filterKey,
+			List<String> metadata ) {
 		Collection<Pair<String,CharSequence>> params = new ArrayList<Pair<String,CharSequence>>();
 
 		if ( viewerId != null ) {
@@ -1916,7 +2898,7 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 			params.add( Pairs.newPair( "metadata", jsonMetadata ) );
 		}
 
-		return callMethod( FacebookMethod.STREAM_GET, params );
+		return params;
 	}
 
 	public String stream_publish( final String message, final Attachment attachment, final Collection<BundleActionLink> actionLinks, final Long targetId,
@@ -2043,7 +3025,8 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 			}
 			return Boolean.parseBoolean( String.valueOf( out ) );
 		} else {
-			return XmlHelper.extractBoolean( XmlHelper.parseCallResult( result, factory ) );
+			String text = XmlHelper.parseScalarResult( result );
+			return text != null && 1 == Integer.parseInt( text );
 		}
 	}
 
@@ -2061,7 +3044,8 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		if ( "json".equals( responseFormat ) ) {
 			return ( (Number) JsonHelper.parseCallResult( result ) ).intValue();
 		} else {
-			return XmlHelper.extractInt( XmlHelper.parseCallResult( result, factory ) );
+			String text = XmlHelper.parseScalarResult( result );
+			return text == null ? 0 : Integer.parseInt( text );
 		}
 	}
 
@@ -2075,7 +3059,8 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		if ( "json".equals( responseFormat ) ) {
 			return ( (Number) JsonHelper.parseCallResult( result ) ).longValue();
 		} else {
-			return XmlHelper.extractLong( XmlHelper.parseCallResult( result, factory ) );
+			String text = XmlHelper.parseScalarResult( result );
+			return text == null ? 0 : Long.parseLong( text );
 		}
 	}
 
@@ -2090,7 +3075,7 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		if ( "json".equals( responseFormat ) ) {
 			return String.valueOf( JsonHelper.parseCallResult( result ) );
 		} else {
-			return XmlHelper.extractString( XmlHelper.parseCallResult( result, factory ) );
+			return XmlHelper.parseScalarResult( result );
 		}
 	}
 
@@ -2394,12 +3379,10 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 	public Object photos_upload( Long userId, File photo, String caption, String albumId ) throws FacebookException {
 		try {
 			FileInputStream fileInputStream = new FileInputStream( photo );
-			BufferedInputStream fileStream = new BufferedInputStream( fileInputStream );
 			try {
-				return photos_upload( userId, caption, albumId, photo.getName(), fileStream );
+				return photos_upload( userId, caption, albumId, photo.getName(), fileInputStream.getChannel() );
 			}
 			finally {
-				BasicClientHelper.close( fileStream );
 				BasicClientHelper.close( fileInputStream );
 			}
 		}
@@ -2420,6 +3403,18 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 		return callMethod( method, params, fileName, fileStream );
 	}
 
+	public Object photos_upload( Long userId, String caption, String albumId, String fileName, FileChannel fileChannel ) throws FacebookException {
+		if ( fileChannel == null ) {
+			throw new FacebookException( ErrorCode.GEN_INVALID_PARAMETER, "fileChannel specified was null. fileName was specified as " + fileName );
+		}
+		List<Pair<String,CharSequence>> params = new ArrayList<Pair<String,CharSequence>>( 3 );
+		Pairs.addParamIfNotBlank( "aid", albumId, params );
+		Pairs.addParamIfNotBlank( "caption", caption, params );
+		boolean uid = Pairs.addParamIfNotBlankZero( "uid", userId, params );
+		FacebookMethod method = uid ? FacebookMethod.PHOTOS_UPLOAD_NOSESSION : FacebookMethod.PHOTOS_UPLOAD;
+		return callMethod( method, params, fileName, fileChannel );
+	}
+
 	public Object payments_getOrders( String status, long startTime, long endTime ) throws FacebookException {
 		List<Pair<String,CharSequence>> params = new ArrayList<Pair<String,CharSequence>>( 3 );
 		Pairs.addParam( "status", status, params );
@@ -2454,16 +3449,36 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 
 	@Deprecated
 	public Collection<String> notifications_send( Collection<Long> recipientIds, String notification, boolean isAppToUser ) throws FacebookException {
+		return notificationsSent( extractString( callMethod( FacebookMethod.NOTIFICATIONS_SEND, notificationParams( recipientIds, notification, isAppToUser ) ) ) );
+	}
+
+	/**
+	 * Sends one notifications_send in the given context, for callers that fan chunks of recipients out over other threads.
+	 * 
+	 * @see NotificationFanout
+	 */
+	@SuppressWarnings("deprecation")
+	Collection<String> notifications_send( CallContext context, Collection<Long> recipientIds, String notification, boolean isAppToUser ) throws FacebookException,
+			IOException {
 		FacebookMethod method = FacebookMethod.NOTIFICATIONS_SEND;
+		String response = postRequest( context, method, prepareRequestParams( context, responseFormat, method, notificationParams( recipientIds, notification, isAppToUser ) ),
+				false, context.getPriority() );
+		return notificationsSent( extractString( response ) );
+	}
+
+	private static List<Pair<String,CharSequence>> notificationParams( Collection<Long> recipientIds, String notification, boolean isAppToUser ) {
 		List<Pair<String,CharSequence>> params = new ArrayList<Pair<String,CharSequence>>( 3 );
 		Pairs.addParam( "type", ( isAppToUser ? "app_to_user" : "user_to_user" ), params );
 		Pairs.addParam( "notification", notification, params );
 		Pairs.addParamDelimitIfNotBlankEmpty( "to_ids", recipientIds, params );
-		String outString = extractString( callMethod( method, params ) );
-		if ( outString.trim().length() == 0 ) {
+		return params;
+	}
+
+	private static Collection<String> notificationsSent( String outString ) {
+		if ( outString == null || outString.trim().length() == 0 ) {
 			return Collections.emptySet();
 		}
-		return new TreeSet( Arrays.asList( outString.split( "," ) ) );
+		return new TreeSet<String>( Arrays.asList( outString.split( "," ) ) );
 	}
 
 	// ========== SEND EMAIL ==========
@@ -2535,33 +3550,138 @@ public class ExtensibleClient implements IFacebookRestClient<Object> {
 	}
 
 	/**
-	 * Returns a list of String raw responses which will be further broken down by the adapters into the actual individual responses. One string is returned per 20
-	 * methods in the batch.
+	 * Returns a list of String raw responses which will be further broken down by the adapters into the actual individual responses. One string is returned per
+	 * {@link #BATCH_LIMIT} methods in the batch, in the order the methods were queued.
+	 * 
+	 * If a {@link #setBatchExecutor(ExecutorService) batch executor} is set, the batch_run calls for each chunk are sent concurrently on it, unless
+	 * <code>serial</code> is requested: then each chunk is sent only once the one before it has completed, so that every method runs after the ones queued before
+	 * it.
 	 */
-	public List<String> executeBatch( boolean serial ) throws FacebookException {
-		int BATCH_LIMIT = 20;
-		this.batchMode = false;
-		List<String> result = new ArrayList<String>();
-		List<BatchQuery> buffer = new ArrayList<BatchQuery>();
+	public List<String> executeBatch( final boolean serial ) throws FacebookException {
+		final CallContext context = getCallContext();
+		List<BatchQuery> q = context.endBatch();
+
+		final ExecutorService executor = serial ? null : batchExecutor;
+		return BatchDispatcher.dispatch( q, BATCH_LIMIT, executor, new BatchDispatcher.ChunkRunner<String>() {
+			public String run( List<BatchQuery> chunk ) throws FacebookException {
+				String methods = encodeMethods( chunk );
+				if ( executor == null ) {
+					return batch_run( methods, serial );
+				}
+				// concurrent chunks must not race on rawResponse, and run on threads that don't have the caller's context bound
+				List<Pair<String,CharSequence>> params = new ArrayList<Pair<String,CharSequence>>( 2 );
+				params.add( Pairs.newPair( "method_feed", methods ) );
+				if ( serial ) {
+					params.add( Pairs.newPair( "serial_only", "1" ) );
+				}
+				try {
+					return postRequest( context, FacebookMethod.BATCH_RUN, prepareRequestParams( context, responseFormat, FacebookMethod.BATCH_RUN, params ), false,
+							context.getPriority() );
+				}
+				catch ( IOException ex ) {
+					throw BasicClientHelper.runtimeException( ex );
+				}
+			}
+		} );
+	}
+
+	public BatchCoalescer getBatchCoalescer() {
+		return batchCoalescer;
+	}
 
-		while ( !this.queries.isEmpty() ) {
-			buffer.add( this.queries.remove( 0 ) );
-			if ( ( buffer.size() == BATCH_LIMIT ) || ( this.queries.isEmpty() ) ) {
-				// we can only actually batch up to 20 at once
+	/**
+	 * Routes this client's {@link #callMethodAsync(IFacebookMethod, Pair...) asynchronous calls} through the given coalescer, so that calls made concurrently from
+	 * different threads share batch_run requests. Null (the default) sends each call on its own.
+	 */
+	public void setBatchCoalescer( BatchCoalescer batchCoalescer ) {
+		this.batchCoalescer = batchCoalescer;
+	}
 
-				String batchRawResponse = batch_run( encodeMethods( buffer ), serial );
-				result.add( batchRawResponse );
+	public ApiMetrics getMetrics() {
+		return metrics;
+	}
 
-				if ( buffer.size() == BATCH_LIMIT ) {
-					log.debug( "Clearing buffer for the next run." );
-					buffer.clear();
-				} else {
-					log.trace( "No need to clear buffer, this is the final iteration of the batch" );
-				}
-			}
-		}
+	/**
+	 * Records the latency, size and outcome of every request this client sends in the given metrics. Null (the default) records nothing.
+	 */
+	public void setMetrics( ApiMetrics metrics ) {
+		this.metrics = metrics;
+	}
+
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * Answers read-only calls from the given cache where it holds a fresh response, and caches the responses it gets. Null (the default) caches nothing. Streamed
+	 * calls and file uploads always go to the server.
+	 */
+	public void setResponseCache( ResponseCache responseCache ) {
+		this.responseCache = responseCache;
+	}
+
+	public RequestCoalescer getRequestCoalescer() {
+		return requestCoalescer;
+	}
+
+	/**
+	 * Makes this client's identical read-only calls share one request while it is in flight, with each other and with those of any other client using the same
+	 * coalescer. Null (the default) sends every call. Only synchronous, non-streamed calls are coalesced.
+	 */
+	public void setRequestCoalescer( RequestCoalescer requestCoalescer ) {
+		this.requestCoalescer = requestCoalescer;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Resends calls that fail transiently, as the given policy allows. Null (the default) sends every call once. Streamed and asynchronous calls and file uploads
+	 * are never resent.
+	 */
+	public void setRetryPolicy( RetryPolicy retryPolicy ) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Holds this client's calls to the rates of the given limiter, in the priority of their {@link CallContext}. Null (the default) sends every call at once.
+	 * Calls queued in batch mode wait when the batch is run. Asynchronous calls wait without blocking when the communication strategy is asynchronous.
+	 */
+	public void setRateLimiter( RateLimiter rateLimiter ) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
 
-		return result;
+	/**
+	 * Caps this client's calls in flight per method family, and fails them fast while a family is failing, as the given breaker is configured. Null (the
+	 * default) sends every call. Rejected calls fail with a {@link CallRejectedException}.
+	 *
+	 * Asynchronous calls hold their family's place until their future completes, and count as failed if it fails or holds an error response the breaker counts;
+	 * a cancelled call counts as a success. When the strategy's futures are not {@link FacebookFuture}s, a call only holds its place while it is sent, and
+	 * always counts as a success.
+	 */
+	public void setCircuitBreaker( CircuitBreaker circuitBreaker ) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public ExecutorService getBatchExecutor() {
+		return batchExecutor;
+	}
+
+	/**
+	 * Sets the executor used to send the chunks of a batch concurrently; null (the default) sends them one after another on the calling thread, as are the chunks
+	 * of a serial batch. The executor is not shut down by the client.
+	 */
+	public void setBatchExecutor( ExecutorService batchExecutor ) {
+		this.batchExecutor = batchExecutor;
 	}
 
 	// CUSTOM TAGS
@@ -0,0 +1,177 @@
+package com.google.code.facebookapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A Future that is completed explicitly, by whoever produces the value (an I/O thread, a batch dispatcher, ...), rather than by running a task. Listeners registered
+ * with {@link #addListener(Runnable)} run once the future is done, on the completing thread.
+ *
+ * Only the first of {@link #set(Object)}, {@link #setException(Throwable)} and {@link #cancel(boolean)} has any effect.
+ *
+ * @param <V>
+ *            the result type
+ */
+public class FacebookFuture<V> implements Future<V> {
+
+	protected static Log log = LogFactory.getLog( FacebookFuture.class );
+
+	private final CountDownLatch latch = new CountDownLatch( 1 );
+
+	// guarded by this; listeners is null once the future is done
+	private List<Runnable> listeners = new ArrayList<Runnable>( 2 );
+	private V value;
+	private Throwable exception;
+	private boolean cancelled;
+
+	/**
+	 * @return an already completed future holding the given value
+	 */
+	public static <V> FacebookFuture<V> completed( V value ) {
+		FacebookFuture<V> out = new FacebookFuture<V>();
+		out.set( value );
+		return out;
+	}
+
+	/**
+	 * @return an already failed future
+	 */
+	public static <V> FacebookFuture<V> failed( Throwable t ) {
+		FacebookFuture<V> out = new FacebookFuture<V>();
+		out.setException( t );
+		return out;
+	}
+
+	public void set( V v ) {
+		List<Runnable> toRun;
+		synchronized ( this ) {
+			if ( listeners == null ) {
+				return;
+			}
+			value = v;
+			toRun = finish();
+		}
+		done( toRun );
+	}
+
+	public void setException( Throwable t ) {
+		List<Runnable> toRun;
+		synchronized ( this ) {
+			if ( listeners == null ) {
+				return;
+			}
+			exception = t;
+			toRun = finish();
+		}
+		done( toRun );
+	}
+
+	/**
+	 * There is no task to interrupt, so <code>mayInterruptIfRunning</code> is ignored; whoever would have completed the future finds it already done.
+	 */
+	public boolean cancel( boolean mayInterruptIfRunning ) {
+		List<Runnable> toRun;
+		synchronized ( this ) {
+			if ( listeners == null ) {
+				return false;
+			}
+			cancelled = true;
+			toRun = finish();
+		}
+		done( toRun );
+		return true;
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	public boolean isDone() {
+		return latch.getCount() == 0;
+	}
+
+	public V get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return result();
+	}
+
+	public V get( long timeout, TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException {
+		if ( !latch.await( timeout, unit ) ) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private synchronized V result() throws ExecutionException {
+		if ( cancelled ) {
+			throw new CancellationException();
+		}
+		if ( exception != null ) {
+			throw new FailedException( exception );
+		}
+		return value;
+	}
+
+	/**
+	 * Marks the future done, under its lock.
+	 *
+	 * @return the listeners to run, once the lock is released
+	 */
+	private List<Runnable> finish() {
+		List<Runnable> toRun = listeners;
+		listeners = null;
+		latch.countDown();
+		return toRun;
+	}
+
+	/**
+	 * Registers a callback to run once this future is done (successfully, exceptionally or cancelled). Runs immediately if it already is.
+	 */
+	public void addListener( Runnable listener ) {
+		synchronized ( this ) {
+			if ( listeners != null ) {
+				listeners.add( listener );
+				return;
+			}
+		}
+		runListener( listener );
+	}
+
+	private static void done( List<Runnable> toRun ) {
+		for ( Runnable listener : toRun ) {
+			runListener( listener );
+		}
+	}
+
+	private static void runListener( Runnable listener ) {
+		try {
+			listener.run();
+		}
+		catch ( RuntimeException ex ) {
+			log.warn( "Future listener failed", ex );
+		}
+	}
+
+	/**
+	 * ExecutionException's cause constructor is protected on Java 5.
+	 */
+	private static class FailedException extends ExecutionException {
+
+		private static final long serialVersionUID = 1L;
+
+		private FailedException( Throwable cause ) {
+			super( cause == null ? null : cause.toString(), cause );
+		}
+
+	}
+
+}
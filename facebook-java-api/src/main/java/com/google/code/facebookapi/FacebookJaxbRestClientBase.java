@@ -28,26 +28,27 @@
 package com.google.code.facebookapi;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 import com.google.code.facebookapi.schema.FacebookApiException;
+import com.google.code.facebookapi.schema.User;
+import com.google.code.facebookapi.schema.UsersGetInfoResponse;
 
 /**
  * A FacebookRestClient that JAXB response objects. This means results from calls to the Facebook API are returned as XML and transformed into JAXB Java objects.
@@ -140,11 +141,11 @@ public abstract class FacebookJaxbRestClientBase extends SpecificReturnTypeAdapt
 	}
 
 	public Object getResponsePOJO( String rawResponse ) {
-		if ( JAXB_CONTEXT == null ) {
+		Unmarshaller unmarshaller = getUnmarshaller();
+		if ( unmarshaller == null ) {
 			return null;
 		}
 		try {
-			Unmarshaller unmarshaller = JAXB_CONTEXT.createUnmarshaller();
 			return unmarshaller.unmarshal( new StringReader( rawResponse ) );
 		}
 		catch ( Exception ex ) {
@@ -152,6 +153,75 @@ public abstract class FacebookJaxbRestClientBase extends SpecificReturnTypeAdapt
 		}
 	}
 
+	/**
+	 * Unmarshals a response straight from its body, without accumulating it into a String first.
+	 */
+	public Object getResponsePOJO( InputStream rawResponse ) {
+		Unmarshaller unmarshaller = getUnmarshaller();
+		if ( unmarshaller == null ) {
+			return null;
+		}
+		try {
+			return unmarshaller.unmarshal( rawResponse );
+		}
+		catch ( Exception ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+	}
+
+	/**
+	 * Unmarshals the element the given StAX reader is positioned on, leaving the reader just after it.
+	 */
+	public Object getResponsePOJO( XMLStreamReader rawResponse ) {
+		Unmarshaller unmarshaller = getUnmarshaller();
+		if ( unmarshaller == null ) {
+			return null;
+		}
+		try {
+			return unmarshaller.unmarshal( rawResponse );
+		}
+		catch ( Exception ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+	}
+
+	private static final ThreadLocal<CachedUnmarshaller> UNMARSHALLER = new ThreadLocal<CachedUnmarshaller>();
+
+	/**
+	 * Creating an Unmarshaller is expensive, and one can't be shared between threads, so each thread keeps its own for the current JAXB context.
+	 * 
+	 * @return this thread's Unmarshaller, or null if there is no JAXB context
+	 */
+	protected static Unmarshaller getUnmarshaller() {
+		JAXBContext context = JAXB_CONTEXT;
+		if ( context == null ) {
+			return null;
+		}
+		CachedUnmarshaller cached = UNMARSHALLER.get();
+		if ( cached == null || cached.context != context ) {
+			try {
+				cached = new CachedUnmarshaller( context, context.createUnmarshaller() );
+			}
+			catch ( JAXBException ex ) {
+				throw BasicClientHelper.runtimeException( ex );
+			}
+			UNMARSHALLER.set( cached );
+		}
+		return cached.unmarshaller;
+	}
+
+	private static class CachedUnmarshaller {
+
+		private final JAXBContext context;
+		private final Unmarshaller unmarshaller;
+
+		private CachedUnmarshaller( JAXBContext context, Unmarshaller unmarshaller ) {
+			this.context = context;
+			this.unmarshaller = unmarshaller;
+		}
+
+	}
+
 	/**
 	 * Parses the result of an API call from XML into JAXB Objects.
 	 * 
@@ -170,7 +240,10 @@ public abstract class FacebookJaxbRestClientBase extends SpecificReturnTypeAdapt
 			return null;
 		}
 		log.debug( "Facebook response:  " + rawResponse );
-		Object out = getResponsePOJO( (String) rawResponse );
+		return toCallResult( getResponsePOJO( (String) rawResponse ) );
+	}
+
+	private static Object toCallResult( Object out ) throws FacebookException {
 		if ( out instanceof JAXBElement<?> ) {
 			JAXBElement<?> jbe = (JAXBElement<?>) out;
 			out = jbe.getValue();
@@ -184,6 +257,46 @@ public abstract class FacebookJaxbRestClientBase extends SpecificReturnTypeAdapt
 		return out;
 	}
 
+	/**
+	 * Iterates the users of every chunk of a {@link #users_getInfoBulk(java.util.Collection, java.util.Collection, int, boolean)}, in id order.
+	 * 
+	 * @see BulkResponse
+	 */
+	public Iterator<User> bulkUsers( BulkResponse response ) {
+		return response.elements( new BulkResponse.ElementParser<User>() {
+			public List<User> parse( String rawResponse ) throws FacebookException {
+				return ( (UsersGetInfoResponse) parseCallResult( rawResponse ) ).getUser();
+			}
+		} );
+	}
+
+	/**
+	 * Calls the given API method without blocking; the response is unmarshalled into JAXB Objects once the Future's result is requested.
+	 * 
+	 * @see ExtensibleClient#callMethodAsync(IFacebookMethod, Pair...)
+	 */
+	public Future<Object> callMethodAsync( IFacebookMethod method, Pair<String,CharSequence>... paramPairs ) throws FacebookException {
+		return new ParsingFuture<Object>( client.callMethodAsync( method, paramPairs ) ) {
+			@Override
+			protected Object parse( String rawResponse ) throws FacebookException {
+				return parseCallResult( rawResponse );
+			}
+		};
+	}
+
+	/**
+	 * Calls the given API method and unmarshals the response into JAXB Objects as it arrives, rather than after it has been accumulated into a String.
+	 * 
+	 * @see ExtensibleClient#callMethodStreaming(IFacebookMethod, ResponseHandler, Pair...)
+	 */
+	public Object callMethodStreaming( IFacebookMethod method, Pair<String,CharSequence>... paramPairs ) throws FacebookException {
+		return client.callMethodStreaming( method, new ResponseHandler<Object>() {
+			public Object handle( InputStream in ) throws FacebookException {
+				return toCallResult( getResponsePOJO( in ) );
+			}
+		}, paramPairs );
+	}
+
 	/**
 	 * Executes a batch of queries. You define the queries to execute by calling 'beginBatch' and then invoking the desired API methods that you want to execute as part
 	 * of your batch as normal. Invoking this method will then execute the API calls you made in the interim as a single batch query.
@@ -205,31 +318,28 @@ public abstract class FacebookJaxbRestClientBase extends SpecificReturnTypeAdapt
 	public List<? extends Object> executeBatch( boolean serial ) throws FacebookException {
 		List<String> clientResults = client.executeBatch( serial );
 		List<Object> result = new ArrayList<Object>();
-		try {
-			DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-			for ( String clientResult : clientResults ) {
-				Document doc = builder.parse( new InputSource( new StringReader( clientResult ) ) );
-				NodeList responses = doc.getElementsByTagName( "batch_run_response_elt" );
-				for ( int count = 0; count < responses.getLength(); count++ ) {
-					String response = XmlHelper.extractString( responses.item( count ) );
-					try {
-						Object pojo = parseCallResult( response );
-						result.add( pojo );
-					}
-					catch ( Exception e ) {
-						result.add( null );
+		for ( String clientResult : clientResults ) {
+			XMLStreamReader reader = XmlHelper.createReader( new StringReader( clientResult ) );
+			try {
+				while ( reader.hasNext() ) {
+					if ( reader.next() == XMLStreamConstants.START_ELEMENT && "batch_run_response_elt".equals( reader.getLocalName() ) ) {
+						String response = reader.getElementText();
+						try {
+							Object pojo = parseCallResult( response );
+							result.add( pojo );
+						}
+						catch ( Exception e ) {
+							result.add( null );
+						}
 					}
 				}
 			}
-		}
-		catch ( ParserConfigurationException ex ) {
-			throw new RuntimeException( "Error parsing batch response", ex );
-		}
-		catch ( SAXException ex ) {
-			throw new RuntimeException( "Error parsing batch response", ex );
-		}
-		catch ( IOException ex ) {
-			throw new RuntimeException( "Error parsing batch response", ex );
+			catch ( XMLStreamException ex ) {
+				throw new RuntimeException( "Error parsing batch response", ex );
+			}
+			finally {
+				XmlHelper.close( reader );
+			}
 		}
 
 		return result;
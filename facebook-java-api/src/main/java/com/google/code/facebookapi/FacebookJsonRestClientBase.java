@@ -2,7 +2,9 @@ package com.google.code.facebookapi;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -67,6 +69,47 @@ public abstract class FacebookJsonRestClientBase extends SpecificReturnTypeAdapt
 		return (T) out;
 	}
 
+	/**
+	 * Calls the given API method, pull-parsing the response straight off the connection with the handler instead of building it into a String and a JSON tree.
+	 * 
+	 * @see ExtensibleClient#callMethodStreaming(IFacebookMethod, ResponseHandler, Pair...)
+	 */
+	public <T> T callMethodStreaming( IFacebookMethod method, JsonResponseHandler<T> handler, Pair<String,CharSequence>... paramPairs ) throws FacebookException {
+		return client.callMethodStreaming( method, handler, paramPairs );
+	}
+
+	/**
+	 * Iterates the users of every chunk of a {@link #users_getInfoBulk(java.util.Collection, java.util.Collection, int, boolean)}, in id order.
+	 * 
+	 * @see BulkResponse
+	 */
+	public Iterator<JSONObject> bulkUsers( BulkResponse response ) {
+		return response.elements( new BulkResponse.ElementParser<JSONObject>() {
+			public List<JSONObject> parse( String rawResponse ) throws FacebookException {
+				JSONArray users = parseCallResult( JSONArray.class, rawResponse );
+				List<JSONObject> out = new ArrayList<JSONObject>( users.length() );
+				for ( int i = 0; i < users.length(); i++ ) {
+					out.add( users.optJSONObject( i ) );
+				}
+				return out;
+			}
+		} );
+	}
+
+	/**
+	 * Calls the given API method without blocking, parsing the response as {@link #parseCallResult(Class, Object)} does once the Future's result is requested.
+	 * 
+	 * @see ExtensibleClient#callMethodAsync(IFacebookMethod, Pair...)
+	 */
+	public <T> Future<T> callMethodAsync( final Class<T> type, IFacebookMethod method, Pair<String,CharSequence>... paramPairs ) throws FacebookException {
+		return new ParsingFuture<T>( client.callMethodAsync( method, paramPairs ) ) {
+			@Override
+			protected T parse( String rawResponse ) throws FacebookException {
+				return parseCallResult( type, rawResponse );
+			}
+		};
+	}
+
 
 	/**
 	 * Executes a batch of queries. You define the queries to execute by calling 'beginBatch' and then invoking the desired API methods that you want to execute as part
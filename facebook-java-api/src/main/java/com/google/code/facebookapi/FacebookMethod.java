@@ -33,6 +33,8 @@
 package com.google.code.facebookapi;
 
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Enumeration that maps API method names to the (maximal) number of parameters that each method will send.
@@ -56,6 +58,7 @@ public enum FacebookMethod implements IFacebookMethod, CharSequence {
 
 	// FQL Query
 	FQL_QUERY("facebook.fql.query"),
+	FQL_MULTIQUERY("facebook.fql.multiquery"),
 
 	// Events
 	EVENTS_GET("facebook.events.get"),
@@ -253,6 +256,8 @@ public enum FacebookMethod implements IFacebookMethod, CharSequence {
 
 	private static final EnumSet<FacebookMethod> listSessionNone;
 	private static final EnumSet<FacebookMethod> listTakesFile;
+	private static final EnumSet<FacebookMethod> listReadOnly;
+	private static final Set<String> readOnlyNames;
 
 	static {
 		listSessionNone = EnumSet.of( USERS_IS_APP_USER_NOSESSION, PROFILE_SET_FBML_NOSESSION, PROFILE_GET_FBML_NOSESSION, USERS_SET_STATUS_NOSESSION,
@@ -262,6 +267,20 @@ public enum FacebookMethod implements IFacebookMethod, CharSequence {
 				FBML_REGISTER_CUSTOM_TAGS, DASHBOARD_MULTI_ADD_NEWS, DASHBOARD_ADD_GLOBAL_NEWS, DASHBOARD_MULTI_INCREMENT_COUNT, DASHBOARD_CLEAR_GLOBAL_NEWS,
 				DASHBOARD_MULTI_CLEAR_NEWS );
 		listTakesFile = EnumSet.of( PHOTOS_UPLOAD, PHOTOS_UPLOAD_NOSESSION );
+		listReadOnly = EnumSet.of( CONNECT_GET_UNCONNECTED_FRIENDS_COUNT, FQL_QUERY, FQL_MULTIQUERY, EVENTS_GET, EVENTS_GET_MEMBERS, FRIENDS_GET_APP_USERS, FRIENDS_GET_REQUESTS,
+				FRIENDS_ARE_FRIENDS, FRIENDS_GET, FRIENDS_GET_NOSESSION, FRIENDS_GET_MUTUAL_FRIENDS, FRIENDS_GET_MUTUAL_FRIENDS_NOSESSION, FRIENDS_GET_LISTS,
+				USERS_GET_INFO, USERS_GET_STANDARD_INFO, USERS_GET_LOGGED_IN_USER, USERS_IS_APP_USER, USERS_IS_APP_USER_NOSESSION, USERS_HAS_APP_PERMISSION,
+				USERS_HAS_APP_PERMISSION_NOSESSION, PHOTOS_GET, PHOTOS_GET_ALBUMS, PHOTOS_GET_TAGS, NOTIFICATIONS_GET, GROUPS_GET, GROUPS_GET_MEMBERS,
+				PROFILE_GET_FBML, PROFILE_GET_FBML_NOSESSION, PROFILE_GET_INFO, PROFILE_GET_INFO_OPTIONS, FBML_GET_CUSTOM_TAGS, FEED_GET_TEMPLATES,
+				FEED_GET_TEMPLATE_BY_ID, DATA_GET_COOKIES, DATA_GET_USER_PREFERENCE, DATA_GET_USER_PREFERENCES, DATA_GET_OBJECT_TYPES, DATA_GET_OBJECT_TYPE,
+				DATA_GET_OBJECT, DATA_GET_OBJECTS, DATA_GET_OBJECT_PROPERTY, DATA_GET_ASSOCIATED_OBJECT_COUNT, DATA_GET_ASSOCIATION_DEFINITION,
+				DATA_GET_ASSOCIATION_DEFINITIONS, SMS_CAN_SEND, PAGES_IS_APP_ADDED, PAGES_IS_ADMIN, PAGES_IS_FAN, PAGES_GET_INFO, ADMIN_GET_APP_PROPERTIES,
+				ADMIN_GET_ALLOCATION, ADMIN_GET_DAILY_METRICS, ADMIN_GET_METRICS, ADMIN_GET_RESTRICTION_INFO, PERM_CHECK_AVAILABLE_API_ACCESS,
+				PERM_CHECK_GRANTED_API_ACCESS, APPLICATION_GET_PUBLIC_INFO, STREAM_GET, STREAM_GET_COMMENTS, STREAM_GET_FILTERS, PAYMENTS_GET_ORDERS );
+		readOnlyNames = new HashSet<String>();
+		for ( FacebookMethod method : listReadOnly ) {
+			readOnlyNames.add( method.methodName() );
+		}
 	}
 
 
@@ -293,6 +312,20 @@ public enum FacebookMethod implements IFacebookMethod, CharSequence {
 		return listTakesFile.contains( this );
 	}
 
+	/**
+	 * @return true if this API call only reads data, so that repeating it or reusing an earlier response has no side effects
+	 */
+	public boolean isReadOnly() {
+		return listReadOnly.contains( this );
+	}
+
+	/**
+	 * @return true if the method with the given name (such as the "method" request parameter) is known to be read only
+	 */
+	static boolean isReadOnly( String methodName ) {
+		return readOnlyNames.contains( methodName );
+	}
+
 	/* Implementing CharSequence */
 	public char charAt( int index ) {
 		return this.methodName.charAt( index );
@@ -1,8 +1,5 @@
 package com.google.code.facebookapi;
 
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.Map;
 import java.util.SortedMap;
@@ -67,10 +64,23 @@ public final class FacebookSignatureUtil {
 		return null;
 	}
 
+	/**
+	 * Computes the md5 signature of the given parameters: the hex md5 of each key=value pair, in key order, followed by the secret. The UTF-8 bytes are fed to a
+	 * per-thread digest as they are encoded, so no intermediate base string is built.
+	 */
 	public static String generateSignature( SortedMap<String,String> params, String secret ) {
-		StringBuilder sb = generateBaseString( params );
-		sb.append( secret );
-		return generateMD5( sb.toString() );
+		SignatureDigest digest = SignatureDigest.get();
+		if ( params instanceof RequestParams ) {
+			RequestParams flat = (RequestParams) params;
+			for ( int i = 0; i < flat.size(); i++ ) {
+				digest.update( flat.keyAt( i ) ).update( '=' ).update( flat.valueAt( i ) );
+			}
+			return digest.update( secret ).hexDigest();
+		}
+		for ( Entry<String,String> entry : params.entrySet() ) {
+			digest.update( entry.getKey() ).update( '=' ).update( entry.getValue() );
+		}
+		return digest.update( secret ).hexDigest();
 	}
 
 	public static StringBuilder generateBaseString( SortedMap<String,String> params ) {
@@ -86,25 +96,7 @@ public final class FacebookSignatureUtil {
 	}
 
 	public static String generateMD5( String value ) {
-		try {
-			MessageDigest md = MessageDigest.getInstance( "MD5" );
-			byte[] bytes;
-			try {
-				bytes = value.getBytes( "UTF-8" );
-			}
-			catch ( UnsupportedEncodingException e1 ) {
-				bytes = value.getBytes();
-			}
-			StringBuilder result = new StringBuilder();
-			for ( byte b : md.digest( bytes ) ) {
-				result.append( Integer.toHexString( ( b & 0xf0 ) >>> 4 ) );
-				result.append( Integer.toHexString( b & 0x0f ) );
-			}
-			return result.toString();
-		}
-		catch ( NoSuchAlgorithmException ex ) {
-			throw new RuntimeException( ex );
-		}
+		return SignatureDigest.get().update( value ).hexDigest();
 	}
 
 	/**
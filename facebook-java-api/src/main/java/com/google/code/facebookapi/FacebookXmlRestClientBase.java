@@ -1,21 +1,21 @@
 package com.google.code.facebookapi;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Future;
 
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 /**
  * A FacebookRestClient that uses the XML result format. This means results from calls to the Facebook API are returned as XML and transformed into instances of
@@ -57,6 +57,63 @@ public abstract class FacebookXmlRestClientBase extends SpecificReturnTypeAdapte
 		return XmlHelper.parseCallResult( rawResponse, factory );
 	}
 
+	/**
+	 * Calls the given API method without blocking; the response is parsed into a Document once the Future's result is requested.
+	 * 
+	 * @see ExtensibleClient#callMethodAsync(IFacebookMethod, Pair...)
+	 */
+	public Future<Document> callMethodAsync( IFacebookMethod method, Pair<String,CharSequence>... paramPairs ) throws FacebookException {
+		return new ParsingFuture<Document>( client.callMethodAsync( method, paramPairs ) ) {
+			@Override
+			protected Document parse( String rawResponse ) throws FacebookException {
+				return parseCallResult( rawResponse );
+			}
+		};
+	}
+
+	/**
+	 * Iterates the <code>user</code> elements of every chunk of a {@link #users_getInfoBulk(java.util.Collection, java.util.Collection, int, boolean)}, in id order.
+	 * 
+	 * @see BulkResponse
+	 */
+	public Iterator<Element> bulkUsers( BulkResponse response ) {
+		return response.elements( new BulkResponse.ElementParser<Element>() {
+			public List<Element> parse( String rawResponse ) throws FacebookException {
+				List<Element> out = new ArrayList<Element>();
+				NodeList children = parseCallResult( rawResponse ).getDocumentElement().getChildNodes();
+				for ( int i = 0; i < children.getLength(); i++ ) {
+					Node child = children.item( i );
+					String name = child.getLocalName() == null ? child.getNodeName() : child.getLocalName();
+					if ( child.getNodeType() == Node.ELEMENT_NODE && "user".equals( name ) ) {
+						out.add( (Element) child );
+					}
+				}
+				return out;
+			}
+		} );
+	}
+
+	/**
+	 * Calls the given API method and hands the response to the given handler as a StAX reader, without parsing it into a Document. Where the communication
+	 * strategy supports it, the response is read straight off the connection.
+	 * 
+	 * @see ExtensibleClient#callMethodStreaming(IFacebookMethod, ResponseHandler, Pair...)
+	 */
+	public <T> T callMethodStreaming( IFacebookMethod method, XmlResponseHandler<T> handler, Pair<String,CharSequence>... paramPairs ) throws FacebookException {
+		return client.callMethodStreaming( method, handler, paramPairs );
+	}
+
+	/**
+	 * Calls the given API method and parses the response into a Document as it arrives, rather than after it has been accumulated into a String.
+	 */
+	public Document callMethodStreaming( IFacebookMethod method, Pair<String,CharSequence>... paramPairs ) throws FacebookException {
+		return client.callMethodStreaming( method, new ResponseHandler<Document>() {
+			public Document handle( InputStream in ) throws FacebookException {
+				return XmlHelper.parseCallResult( in, factory );
+			}
+		}, paramPairs );
+	}
+
 	/**
 	 * Prints out the DOM tree.
 	 */
@@ -89,36 +146,23 @@ public abstract class FacebookXmlRestClientBase extends SpecificReturnTypeAdapte
 	public List<Document> executeBatch( boolean serial ) throws FacebookException {
 		List<String> clientResults = client.executeBatch( serial );
 		List<Document> result = new ArrayList<Document>();
-		try {
-			DocumentBuilder builder = factory.newDocumentBuilder();
-
-			for ( String clientResult : clientResults ) {
-				Document doc = builder.parse( new InputSource( new StringReader( clientResult ) ) );
-				NodeList responses = doc.getElementsByTagName( "batch_run_response_elt" );
-				for ( int count = 0; count < responses.getLength(); count++ ) {
-					Node responseNode = responses.item( count );
-					Document respDoc = builder.newDocument();
-					responseNode = respDoc.importNode( responseNode, true );
-					respDoc.appendChild( responseNode );
-					try {
-						respDoc = XmlHelper.parseCallResult( respDoc );
-						result.add( respDoc );
-					}
-					catch ( FacebookException ignored ) {
-						result.add( null );
-					}
+		for ( String clientResult : clientResults ) {
+			Document doc = XmlHelper.parseDocument( new StringReader( clientResult ), factory.isNamespaceAware() );
+			NodeList responses = doc.getElementsByTagName( "batch_run_response_elt" );
+			for ( int count = 0; count < responses.getLength(); count++ ) {
+				Node responseNode = responses.item( count );
+				Document respDoc = doc.getImplementation().createDocument( null, null, null );
+				responseNode = respDoc.importNode( responseNode, true );
+				respDoc.appendChild( responseNode );
+				try {
+					respDoc = XmlHelper.parseCallResult( respDoc );
+					result.add( respDoc );
+				}
+				catch ( FacebookException ignored ) {
+					result.add( null );
 				}
 			}
 		}
-		catch ( ParserConfigurationException ex ) {
-			throw new RuntimeException( "Error parsing batch response", ex );
-		}
-		catch ( SAXException ex ) {
-			throw new RuntimeException( "Error parsing batch response", ex );
-		}
-		catch ( IOException ex ) {
-			throw new RuntimeException( "Error parsing batch response", ex );
-		}
 
 		return result;
 	}
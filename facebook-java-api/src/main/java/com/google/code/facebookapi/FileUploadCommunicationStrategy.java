@@ -0,0 +1,28 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.SortedMap;
+
+/**
+ * A CommunicationStrategy that can stream file uploads from a FileChannel, knowing the length of the upload before it is sent.
+ */
+public interface FileUploadCommunicationStrategy extends CommunicationStrategy {
+
+	/**
+	 * Posts a multipart request whose file part is read from the channel's current position to its end. The channel is not closed.
+	 *
+	 * @param serverUrl
+	 *            Target server URL.
+	 * @param params
+	 *            request parameters (not including the file)
+	 * @param fileName
+	 * @param fileChannel
+	 * @return String response.
+	 * @throws IOException
+	 *             Thrown on any communication-related error.
+	 */
+	public String postRequest( URL serverUrl, SortedMap<String,String> params, String fileName, FileChannel fileChannel ) throws IOException;
+
+}
@@ -0,0 +1,271 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Writes application/x-www-form-urlencoded request bodies as bytes, percent-encoding each value's UTF-8 straight from its characters. The output is exactly what
+ * URLEncoder.encode( value, "UTF-8" ) would give, without looking up a charset or building the intermediate Strings and byte arrays for each value, and
+ * without turning the whole body into a String and then into bytes again.
+ *
+ * Each thread has one encoder whose buffer is reused from request to request; see {@link #forThread()}.
+ */
+// package-level access intentional (at least for now)
+class FormEncoder {
+
+	/**
+	 * A thread's buffer is dropped after a body larger than this, so one big upload of JSON doesn't pin the memory for good.
+	 */
+	private static final int MAX_RETAINED = 64 * 1024;
+
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	/**
+	 * The characters URLEncoder leaves as they are.
+	 */
+	private static final boolean[] UNRESERVED = new boolean[128];
+	static {
+		for ( char c = 'a'; c <= 'z'; c++ ) {
+			UNRESERVED[c] = true;
+		}
+		for ( char c = 'A'; c <= 'Z'; c++ ) {
+			UNRESERVED[c] = true;
+		}
+		for ( char c = '0'; c <= '9'; c++ ) {
+			UNRESERVED[c] = true;
+		}
+		UNRESERVED['.'] = true;
+		UNRESERVED['-'] = true;
+		UNRESERVED['*'] = true;
+		UNRESERVED['_'] = true;
+	}
+
+	private static final ThreadLocal<FormEncoder> LOCAL = new ThreadLocal<FormEncoder>() {
+		@Override
+		protected FormEncoder initialValue() {
+			return new FormEncoder( 1024 );
+		}
+	};
+
+	private byte[] buf;
+	private int count;
+
+	FormEncoder( int capacity ) {
+		buf = new byte[capacity];
+	}
+
+	/**
+	 * @return this thread's encoder, emptied; what it holds is only good until the thread next calls this
+	 */
+	public static FormEncoder forThread() {
+		FormEncoder encoder = LOCAL.get();
+		if ( encoder.buf.length > MAX_RETAINED ) {
+			encoder.buf = new byte[1024];
+		}
+		encoder.count = 0;
+		return encoder;
+	}
+
+	/**
+	 * @return the value form-encoded, which is the value itself if nothing in it needs escaping
+	 */
+	public static String encode( CharSequence value ) {
+		int length = value.length();
+		int i = 0;
+		while ( i < length ) {
+			char c = value.charAt( i );
+			if ( c >= 128 || !UNRESERVED[c] ) {
+				break;
+			}
+			i++ ;
+		}
+		if ( i == length ) {
+			return value.toString();
+		}
+		FormEncoder encoder = new FormEncoder( length + 16 + ( length - i ) * 2 );
+		encoder.appendEncoded( value );
+		char[] chars = new char[encoder.count];
+		for ( int j = 0; j < chars.length; j++ ) {
+			chars[j] = (char) encoder.buf[j];
+		}
+		return new String( chars );
+	}
+
+	/**
+	 * @return the number of bytes {@link #params(Map)} writes for the given parameters, worked out without writing them
+	 */
+	public static long encodedSize( Map<String,String> params ) {
+		if ( params == null ) {
+			return 0;
+		}
+		long size = 0;
+		for ( Map.Entry<String,String> e : params.entrySet() ) {
+			// the '=', and the '&' before every parameter but the first
+			size += e.getKey().length() + ( size == 0 ? 1 : 2 );
+			if ( e.getValue() != null ) {
+				size += encodedLength( e.getValue() );
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes {@link #appendEncoded(CharSequence)} writes for the given value
+	 */
+	public static int encodedLength( CharSequence s ) {
+		int length = s.length();
+		int size = 0;
+		for ( int i = 0; i < length; i++ ) {
+			char c = s.charAt( i );
+			if ( c < 128 ) {
+				size += UNRESERVED[c] || c == ' ' ? 1 : 3;
+			} else if ( c < 0x800 ) {
+				size += 6;
+			} else if ( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( s.charAt( i + 1 ) ) ) {
+				i++ ;
+				size += 12;
+			} else if ( c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE ) {
+				size += 3;
+			} else {
+				size += 9;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Writes <code>name=value&amp;...</code> for every parameter, encoding the values. Names are written as they are, as they are always plain ASCII.
+	 */
+	public FormEncoder params( Map<String,String> params ) {
+		if ( params == null ) {
+			return this;
+		}
+		if ( params instanceof RequestParams ) {
+			RequestParams flat = (RequestParams) params;
+			for ( int i = 0; i < flat.size(); i++ ) {
+				if ( i > 0 ) {
+					put( (byte) '&' );
+				}
+				appendAscii( flat.keyAt( i ) );
+				put( (byte) '=' );
+				if ( flat.valueAt( i ) != null ) {
+					appendEncoded( flat.valueAt( i ) );
+				}
+			}
+			return this;
+		}
+		boolean first = true;
+		for ( Map.Entry<String,String> e : params.entrySet() ) {
+			if ( !first ) {
+				put( (byte) '&' );
+			}
+			first = false;
+			appendAscii( e.getKey() );
+			put( (byte) '=' );
+			if ( e.getValue() != null ) {
+				appendEncoded( e.getValue() );
+			}
+		}
+		return this;
+	}
+
+	public FormEncoder appendAscii( String s ) {
+		int length = s.length();
+		ensure( length );
+		for ( int i = 0; i < length; i++ ) {
+			buf[count++ ] = (byte) s.charAt( i );
+		}
+		return this;
+	}
+
+	public FormEncoder appendEncoded( CharSequence s ) {
+		int length = s.length();
+		ensure( length );
+		for ( int i = 0; i < length; i++ ) {
+			char c = s.charAt( i );
+			if ( c < 128 ) {
+				if ( UNRESERVED[c] ) {
+					put( (byte) c );
+				} else if ( c == ' ' ) {
+					put( (byte) '+' );
+				} else {
+					escape( c );
+				}
+			} else if ( c < 0x800 ) {
+				escape( 0xC0 | ( c >> 6 ) );
+				escape( 0x80 | ( c & 0x3F ) );
+			} else if ( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( s.charAt( i + 1 ) ) ) {
+				int cp = Character.toCodePoint( c, s.charAt( ++i ) );
+				escape( 0xF0 | ( cp >> 18 ) );
+				escape( 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+				escape( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+				escape( 0x80 | ( cp & 0x3F ) );
+			} else if ( c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE ) {
+				// an unpaired surrogate can't be encoded; the UTF-8 encoder URLEncoder uses replaces it with '?'
+				escape( '?' );
+			} else {
+				escape( 0xE0 | ( c >> 12 ) );
+				escape( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+				escape( 0x80 | ( c & 0x3F ) );
+			}
+		}
+		return this;
+	}
+
+	private void escape( int b ) {
+		ensure( 3 );
+		buf[count++ ] = '%';
+		buf[count++ ] = HEX[( b >> 4 ) & 0xF];
+		buf[count++ ] = HEX[b & 0xF];
+	}
+
+	private void put( byte b ) {
+		ensure( 1 );
+		buf[count++ ] = b;
+	}
+
+	private void ensure( int more ) {
+		if ( count + more > buf.length ) {
+			byte[] grown = new byte[Math.max( count + more, buf.length * 2 )];
+			System.arraycopy( buf, 0, grown, 0, count );
+			buf = grown;
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the encoder's own buffer, holding {@link #size()} bytes of output; it is overwritten by the next use of the encoder
+	 */
+	byte[] buffer() {
+		return buf;
+	}
+
+	public void writeTo( OutputStream out ) throws IOException {
+		out.write( buf, 0, count );
+	}
+
+	public void writeTo( ByteBuffer out ) {
+		out.put( buf, 0, count );
+	}
+
+	public byte[] toByteArray() {
+		byte[] out = new byte[count];
+		System.arraycopy( buf, 0, out, 0, count );
+		return out;
+	}
+
+	@Override
+	public String toString() {
+		char[] chars = new char[count];
+		for ( int i = 0; i < count; i++ ) {
+			chars[i] = (char) buf[i];
+		}
+		return new String( chars );
+	}
+
+}
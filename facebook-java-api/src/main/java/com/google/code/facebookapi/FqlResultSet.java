@@ -0,0 +1,315 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+
+/**
+ * The rows of an FQL result held column by column. A column whose values are all integers, such as uid, eid or gid, is a plain long[]; any other column is a
+ * String[] whose short values are shared, so the many repeats of a sex, locale or status in a large result cost one String each. Values that are objects or
+ * arrays are kept as their JSON text.
+ *
+ * Built straight from a JSON response with {@link JsonPullParser}, without a JSONObject per row. Missing and null values read as null, or 0 from a long column,
+ * as {@link #isNull(int, String)} tells.
+ */
+public class FqlResultSet {
+
+	/**
+	 * Longer strings are unlikely to repeat, so aren't worth sharing.
+	 */
+	private static final int MAX_SHARED_LENGTH = 64;
+
+	private final int rowCount;
+	private final Map<String,Column> columns;
+
+	private FqlResultSet( int rowCount, Map<String,Column> columns ) {
+		this.rowCount = rowCount;
+		this.columns = columns;
+	}
+
+	/**
+	 * Reads the rows of an fql_query response in JSON.
+	 *
+	 * @throws FacebookException
+	 *             if the response is an error
+	 */
+	public static FqlResultSet parse( String json ) throws FacebookException {
+		checkError( json );
+		JsonPullParser parser = new JsonPullParser( new StringReader( json ) );
+		try {
+			return read( parser, new HashMap<String,String>() );
+		}
+		catch ( IOException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		catch ( JSONException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+	}
+
+	/**
+	 * Reads each named result of an fql_multiquery response in JSON. The results share their strings.
+	 *
+	 * @return the results by query name, in response order
+	 * @throws FacebookException
+	 *             if the response is an error
+	 */
+	public static Map<String,FqlResultSet> parseMultiquery( String json ) throws FacebookException {
+		checkError( json );
+		JsonPullParser parser = new JsonPullParser( new StringReader( json ) );
+		Map<String,String> shared = new HashMap<String,String>();
+		Map<String,FqlResultSet> out = new LinkedHashMap<String,FqlResultSet>();
+		try {
+			parser.beginArray();
+			while ( parser.hasNext() ) {
+				String name = null;
+				FqlResultSet result = null;
+				parser.beginObject();
+				while ( parser.hasNext() ) {
+					String key = parser.nextName();
+					if ( "name".equals( key ) ) {
+						name = parser.nextString();
+					} else if ( "fql_result_set".equals( key ) ) {
+						result = read( parser, shared );
+					} else {
+						parser.skipValue();
+					}
+				}
+				parser.endObject();
+				out.put( name, result == null ? new FqlResultSet( 0, new LinkedHashMap<String,Column>() ) : result );
+			}
+			parser.endArray();
+			return out;
+		}
+		catch ( IOException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		catch ( JSONException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+	}
+
+	private static void checkError( String json ) throws FacebookException {
+		if ( ApiMetrics.errorCode( json ) != 0 ) {
+			JsonHelper.parseCallResult( json );
+		}
+	}
+
+	/**
+	 * Reads an array of row objects; anything else, such as the empty object some empty results come back as, has no rows.
+	 */
+	private static FqlResultSet read( JsonPullParser parser, Map<String,String> shared ) throws IOException, JSONException {
+		Map<String,Column> columns = new LinkedHashMap<String,Column>();
+		if ( parser.peek() != JsonPullParser.Token.BEGIN_ARRAY ) {
+			parser.skipValue();
+			return new FqlResultSet( 0, columns );
+		}
+		int row = 0;
+		parser.beginArray();
+		while ( parser.hasNext() ) {
+			parser.beginObject();
+			while ( parser.hasNext() ) {
+				String name = parser.nextName();
+				Column column = columns.get( name );
+				if ( column == null ) {
+					column = new Column();
+					columns.put( name, column );
+				}
+				column.read( row, parser, shared );
+			}
+			parser.endObject();
+			row++ ;
+		}
+		parser.endArray();
+		for ( Column column : columns.values() ) {
+			column.trim( row );
+		}
+		return new FqlResultSet( row, columns );
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the column names, in the order they first appeared
+	 */
+	public List<String> getColumnNames() {
+		return Collections.unmodifiableList( new ArrayList<String>( columns.keySet() ) );
+	}
+
+	public boolean hasColumn( String name ) {
+		return columns.containsKey( name );
+	}
+
+	/**
+	 * @return true if every value of the column is an integer or null
+	 */
+	public boolean isLongColumn( String name ) {
+		return column( name ).strings == null;
+	}
+
+	/**
+	 * @return the column's values, one per row, with 0 for null; the array is the result set's own and must not be changed
+	 * @throws IllegalArgumentException
+	 *             if the column is not a {@link #isLongColumn(String) long column}
+	 */
+	public long[] getLongColumn( String name ) {
+		Column column = column( name );
+		if ( column.strings != null ) {
+			throw new IllegalArgumentException( "Column " + name + " is not numeric" );
+		}
+		return column.longs;
+	}
+
+	/**
+	 * @return the value, or 0 if it is null
+	 * @throws IllegalArgumentException
+	 *             if the column is not a {@link #isLongColumn(String) long column}
+	 */
+	public long getLong( int row, String name ) {
+		checkRow( row );
+		return getLongColumn( name )[row];
+	}
+
+	/**
+	 * @return the value as text, whatever the column's type, or null
+	 */
+	public String getString( int row, String name ) {
+		checkRow( row );
+		Column column = column( name );
+		if ( !column.present.get( row ) ) {
+			return null;
+		}
+		return column.strings == null ? String.valueOf( column.longs[row] ) : column.strings[row];
+	}
+
+	public boolean isNull( int row, String name ) {
+		checkRow( row );
+		return !column( name ).present.get( row );
+	}
+
+	private Column column( String name ) {
+		Column column = columns.get( name );
+		if ( column == null ) {
+			throw new IllegalArgumentException( "No column " + name + " in " + columns.keySet() );
+		}
+		return column;
+	}
+
+	private void checkRow( int row ) {
+		if ( row < 0 || row >= rowCount ) {
+			throw new IndexOutOfBoundsException( "row " + row + " of " + rowCount );
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FqlResultSet[" + rowCount + " rows, columns=" + columns.keySet() + "]";
+	}
+
+	/**
+	 * One column, stored as longs until a value that isn't an integer turns up, and as strings from then on.
+	 */
+	private static class Column {
+
+		long[] longs = new long[16];
+		String[] strings;
+		final BitSet present = new BitSet();
+
+		void read( int row, JsonPullParser parser, Map<String,String> shared ) throws IOException, JSONException {
+			JsonPullParser.Token token = parser.peek();
+			if ( token == JsonPullParser.Token.NULL ) {
+				parser.nextNull();
+				return;
+			}
+			present.set( row );
+			if ( strings == null && token == JsonPullParser.Token.NUMBER ) {
+				String text = parser.nextString();
+				try {
+					ensureCapacity( row );
+					longs[row] = Long.parseLong( text );
+					return;
+				}
+				catch ( NumberFormatException ex ) {
+					toStrings();
+					store( row, text, shared );
+					return;
+				}
+			}
+			if ( strings == null ) {
+				toStrings();
+			}
+			String text;
+			if ( token == JsonPullParser.Token.BEGIN_OBJECT || token == JsonPullParser.Token.BEGIN_ARRAY ) {
+				text = parser.readValue().toString();
+			} else {
+				text = parser.nextString();
+			}
+			store( row, text, shared );
+		}
+
+		private void store( int row, String text, Map<String,String> shared ) {
+			ensureCapacity( row );
+			if ( text.length() <= MAX_SHARED_LENGTH ) {
+				String existing = shared.get( text );
+				if ( existing == null ) {
+					shared.put( text, text );
+				} else {
+					text = existing;
+				}
+			}
+			strings[row] = text;
+		}
+
+		private void toStrings() {
+			strings = new String[longs.length];
+			for ( int i = present.nextSetBit( 0 ); i >= 0 && i < longs.length; i = present.nextSetBit( i + 1 ) ) {
+				strings[i] = String.valueOf( longs[i] );
+			}
+			longs = null;
+		}
+
+		private void ensureCapacity( int row ) {
+			int length = strings == null ? longs.length : strings.length;
+			if ( row < length ) {
+				return;
+			}
+			int capacity = Math.max( row + 1, length * 2 );
+			if ( strings == null ) {
+				long[] grown = new long[capacity];
+				System.arraycopy( longs, 0, grown, 0, longs.length );
+				longs = grown;
+			} else {
+				String[] grown = new String[capacity];
+				System.arraycopy( strings, 0, grown, 0, strings.length );
+				strings = grown;
+			}
+		}
+
+		/**
+		 * Cuts the arrays to exactly one value per row, so a long column can be handed out as is.
+		 */
+		void trim( int rows ) {
+			if ( strings == null ) {
+				long[] exact = new long[rows];
+				System.arraycopy( longs, 0, exact, 0, Math.min( rows, longs.length ) );
+				longs = exact;
+			} else {
+				String[] exact = new String[rows];
+				System.arraycopy( strings, 0, exact, 0, Math.min( rows, strings.length ) );
+				strings = exact;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,253 @@
+package com.google.code.facebookapi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+
+/**
+ * Minimal HTTP/1.1 message handling for {@link NioCommunicationStrategy}, which cannot use HttpURLConnection: writes a POST request head and reads back a
+ * response delimited by Content-Length, chunked transfer-encoding or connection close.
+ */
+// package-level access intentional (at least for now)
+class HttpResponse {
+
+	private static final String CRLF = "\r\n";
+
+	private final int status;
+	private final byte[] body;
+	private final boolean keepAlive;
+
+	private HttpResponse( int status, byte[] body, boolean keepAlive ) {
+		this.status = status;
+		this.body = body;
+		this.keepAlive = keepAlive;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	public boolean isSuccess() {
+		return status >= 200 && status < 300;
+	}
+
+	/**
+	 * @throws IOException
+	 *             mirroring HttpURLConnection, if the status is not 2xx
+	 */
+	public byte[] getBodyOrThrow( URL url ) throws IOException {
+		if ( !isSuccess() ) {
+			throw new IOException( "Server returned HTTP response code: " + status + " for URL: " + url );
+		}
+		return body;
+	}
+
+	public static byte[] requestHead( URL url, String contentType, long contentLength, boolean keepAlive ) {
+		return requestHead( url, false, contentType, contentLength, keepAlive );
+	}
+
+	/**
+	 * @param absoluteUri
+	 *            whether to name the full url in the request line, as a request to an HTTP proxy must
+	 */
+	public static byte[] requestHead( URL url, boolean absoluteUri, String contentType, long contentLength, boolean keepAlive ) {
+		String path = url.getFile();
+		if ( path == null || path.length() == 0 ) {
+			path = "/";
+		}
+		if ( absoluteUri ) {
+			path = url.getProtocol() + "://" + url.getAuthority() + path;
+		}
+		StringBuilder head = new StringBuilder( 256 );
+		head.append( "POST " ).append( path ).append( " HTTP/1.1" ).append( CRLF );
+		head.append( "Host: " ).append( url.getHost() );
+		if ( url.getPort() != -1 ) {
+			head.append( ':' ).append( url.getPort() );
+		}
+		head.append( CRLF );
+		head.append( "Content-Type: " ).append( contentType ).append( CRLF );
+		head.append( "Content-Length: " ).append( contentLength ).append( CRLF );
+		head.append( "Connection: " ).append( keepAlive ? "keep-alive" : "close" ).append( CRLF );
+		head.append( CRLF );
+		try {
+			return head.toString().getBytes( "ISO-8859-1" );
+		}
+		catch ( UnsupportedEncodingException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+	}
+
+	/**
+	 * Reads the status line, skipping any leading blank lines.
+	 */
+	public static String readStatusLine( InputStream in ) throws IOException {
+		String statusLine = readLine( in );
+		while ( statusLine.length() == 0 ) {
+			statusLine = readLine( in );
+		}
+		return statusLine;
+	}
+
+	/**
+	 * Reads the remainder of a response (headers and body) whose status line has already been consumed.
+	 */
+	public static HttpResponse read( InputStream in, String statusLine ) throws IOException {
+		int status = parseStatus( statusLine );
+		boolean http10 = statusLine.startsWith( "HTTP/1.0" );
+		while ( status == 100 ) {
+			// skip interim 100-continue responses
+			skipHeaders( in );
+			statusLine = readLine( in );
+			status = parseStatus( statusLine );
+		}
+
+		long contentLength = -1;
+		boolean chunked = false;
+		boolean keepAlive = !http10;
+		String line;
+		while ( ( line = readLine( in ) ).length() > 0 ) {
+			int colon = line.indexOf( ':' );
+			if ( colon <= 0 ) {
+				continue;
+			}
+			String name = line.substring( 0, colon ).trim();
+			String value = line.substring( colon + 1 ).trim();
+			if ( "Content-Length".equalsIgnoreCase( name ) ) {
+				contentLength = Long.parseLong( value );
+			} else if ( "Transfer-Encoding".equalsIgnoreCase( name ) ) {
+				chunked = value.toLowerCase().indexOf( "chunked" ) != -1;
+			} else if ( "Connection".equalsIgnoreCase( name ) ) {
+				if ( "close".equalsIgnoreCase( value ) ) {
+					keepAlive = false;
+				} else if ( "keep-alive".equalsIgnoreCase( value ) ) {
+					keepAlive = true;
+				}
+			}
+		}
+
+		byte[] body;
+		if ( chunked ) {
+			body = readChunked( in );
+		} else if ( contentLength >= 0 ) {
+			body = readFully( in, contentLength );
+		} else {
+			body = readToEof( in );
+			keepAlive = false;
+		}
+		return new HttpResponse( status, body, keepAlive );
+	}
+
+	public static HttpResponse read( InputStream in ) throws IOException {
+		return read( in, readStatusLine( in ) );
+	}
+
+	static int parseStatus( String statusLine ) throws IOException {
+		int start = statusLine.indexOf( ' ' );
+		if ( !statusLine.startsWith( "HTTP/" ) || start == -1 ) {
+			throw new IOException( "Invalid HTTP status line: " + statusLine );
+		}
+		int end = statusLine.indexOf( ' ', start + 1 );
+		if ( end == -1 ) {
+			end = statusLine.length();
+		}
+		try {
+			return Integer.parseInt( statusLine.substring( start + 1, end ) );
+		}
+		catch ( NumberFormatException ex ) {
+			throw new IOException( "Invalid HTTP status line: " + statusLine );
+		}
+	}
+
+	static void skipHeaders( InputStream in ) throws IOException {
+		while ( readLine( in ).length() > 0 ) {
+			// skip
+		}
+	}
+
+	private static String readLine( InputStream in ) throws IOException {
+		StringBuilder sb = new StringBuilder( 64 );
+		int c;
+		while ( ( c = in.read() ) != -1 ) {
+			if ( c == '\n' ) {
+				int l = sb.length();
+				if ( l > 0 && sb.charAt( l - 1 ) == '\r' ) {
+					sb.setLength( l - 1 );
+				}
+				return sb.toString();
+			}
+			sb.append( (char) c );
+		}
+		throw new EOFException( "Connection closed by peer" );
+	}
+
+	private static byte[] readFully( InputStream in, long length ) throws IOException {
+		if ( length > Integer.MAX_VALUE ) {
+			throw new IOException( "Response too large: " + length );
+		}
+		byte[] buf = new byte[(int) length];
+		int off = 0;
+		while ( off < buf.length ) {
+			int r = in.read( buf, off, buf.length - off );
+			if ( r < 0 ) {
+				throw new EOFException( "Connection closed by peer after " + off + " of " + length + " bytes" );
+			}
+			off += r;
+		}
+		return buf;
+	}
+
+	private static byte[] readChunked( InputStream in ) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream( 4096 );
+		byte[] buf = new byte[4096];
+		while ( true ) {
+			String sizeLine = readLine( in );
+			int semi = sizeLine.indexOf( ';' );
+			if ( semi != -1 ) {
+				sizeLine = sizeLine.substring( 0, semi );
+			}
+			int size;
+			try {
+				size = Integer.parseInt( sizeLine.trim(), 16 );
+			}
+			catch ( NumberFormatException ex ) {
+				throw new IOException( "Invalid chunk size: " + sizeLine );
+			}
+			if ( size == 0 ) {
+				// trailers
+				skipHeaders( in );
+				return body.toByteArray();
+			}
+			while ( size > 0 ) {
+				int r = in.read( buf, 0, Math.min( buf.length, size ) );
+				if ( r < 0 ) {
+					throw new EOFException( "Connection closed by peer inside chunk" );
+				}
+				body.write( buf, 0, r );
+				size -= r;
+			}
+			readLine( in );
+		}
+	}
+
+	private static byte[] readToEof( InputStream in ) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream( 4096 );
+		byte[] buf = new byte[4096];
+		int r;
+		while ( ( r = in.read( buf ) ) != -1 ) {
+			body.write( buf, 0, r );
+		}
+		return body.toByteArray();
+	}
+
+}
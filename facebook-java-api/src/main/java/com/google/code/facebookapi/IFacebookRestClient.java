@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -513,6 +514,14 @@ public interface IFacebookRestClient<T> {
 	@FacebookReturnType(JAXB = FriendsAreFriendsResponse.class)
 	public T friends_areFriends( Collection<Long> userIds1, Collection<Long> userIds2 ) throws FacebookException;
 
+	/**
+	 * Retrieves whether pairs of users are friends, as {@link #friends_areFriends(Collection, Collection)} does, for ids held in arrays.
+	 * 
+	 * @see http://wiki.developers.facebook.com/index.php/Friends.areFriends
+	 */
+	@FacebookReturnType(JAXB = FriendsAreFriendsResponse.class)
+	public T friends_areFriends( long[] userIds1, long[] userIds2 ) throws FacebookException;
+
 	/**
 	 * Retrieves the friends of the currently logged in user.
 	 * 
@@ -1131,6 +1140,24 @@ public interface IFacebookRestClient<T> {
 	@FacebookReturnType(JAXB = Photo.class, JSON = JSONObject.class)
 	public T photos_upload( Long userId, String caption, String albumId, String fileName, InputStream fileStream ) throws FacebookException;
 
+	/**
+	 * Uploads a photo to Facebook, streaming the image from a FileChannel. The channel is read from its current position and is not closed.
+	 * 
+	 * @param userId
+	 *            the id of the user uploading the photo
+	 * @param caption
+	 *            a description of the image contents
+	 * @param albumId
+	 *            the album into which the photo should be uploaded
+	 * @param fileName
+	 * @param fileChannel
+	 * 
+	 * @return a T with the standard Facebook photo information
+	 * @see <a href="http://wiki.developers.facebook.com/index.php/Photos.upload"> Developers wiki: Photos.upload</a>
+	 */
+	@FacebookReturnType(JAXB = Photo.class, JSON = JSONObject.class)
+	public T photos_upload( Long userId, String caption, String albumId, String fileName, FileChannel fileChannel ) throws FacebookException;
+
 	/**
 	 * Retrieves the groups associated with a user
 	 * 
@@ -1163,6 +1190,17 @@ public interface IFacebookRestClient<T> {
 	@FacebookReturnType
 	public T fql_query( CharSequence query ) throws FacebookException;
 
+	/**
+	 * Retrieves the results of several Facebook Query Language queries in one request. A query can use the results of the others by referring to them by name,
+	 * as in <code>SELECT name FROM user WHERE uid IN (SELECT uid FROM #friends)</code>.
+	 * 
+	 * @param queries
+	 *            each FQL query statement by its name
+	 * @return the result of each query, with its name
+	 */
+	@FacebookReturnType(JSON = JSONArray.class)
+	public T fql_multiquery( Map<String,String> queries ) throws FacebookException;
+
 	/**
 	 * Call this function and store the result, using it to generate the appropriate login url and then to retrieve the session information.
 	 * 
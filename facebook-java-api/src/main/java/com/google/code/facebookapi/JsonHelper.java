@@ -1,6 +1,7 @@
 package com.google.code.facebookapi;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.Map;
 
@@ -66,6 +67,44 @@ public class JsonHelper {
 		return json;
 	}
 
+	/**
+	 * Opens a streaming parser over the response of an API call. An error response is detected from its first member and thrown as a FacebookException before
+	 * anything else is read; otherwise the returned parser is positioned before the top-level value.
+	 * 
+	 * @param in
+	 *            the response body
+	 * @throws FacebookException
+	 *             if the response is an error
+	 */
+	public static JsonPullParser openCallResult( InputStream in ) throws IOException, FacebookException {
+		JsonPullParser parser = new JsonPullParser( in );
+		try {
+			if ( parser.peek() == JsonPullParser.Token.BEGIN_OBJECT ) {
+				parser.beginObject();
+				if ( "error_code".equals( parser.peekName() ) ) {
+					int code = 0;
+					String message = null;
+					while ( parser.hasNext() ) {
+						String name = parser.nextName();
+						if ( "error_code".equals( name ) ) {
+							code = parser.nextInt();
+						} else if ( "error_msg".equals( name ) ) {
+							message = parser.nextString();
+						} else {
+							parser.skipValue();
+						}
+					}
+					throw new FacebookException( code, message );
+				}
+				parser.unreadBeginObject();
+			}
+		}
+		catch ( JSONException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		return parser;
+	}
+
 	/**
 	 * Determines the correct datatype for a json string and converts it. The json.org library really should have a method to do this.
 	 */
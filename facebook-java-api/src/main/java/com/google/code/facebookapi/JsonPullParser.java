@@ -0,0 +1,482 @@
+package com.google.code.facebookapi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A pull parser reading JSON tokens straight off a Reader, so large responses can be consumed element by element instead of being held as a String and a full
+ * JSONObject/JSONArray tree at the same time.
+ *
+ * Structural tokens are consumed with {@link #beginObject()}/{@link #endObject()} and {@link #beginArray()}/{@link #endArray()}; {@link #hasNext()} tells
+ * whether the current object or array has more members. {@link #readValue()} materializes just the next value as org.json objects, for callers that want a tree
+ * for each element of a large array. Syntax errors surface as JSONException, like the rest of the org.json API.
+ *
+ * @see JsonHelper#openCallResult(InputStream)
+ */
+public class JsonPullParser implements Closeable {
+
+	public enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private final Reader in;
+	private final char[] buf = new char[8192];
+	private int pos;
+	private int limit;
+
+	private int[] stack = new int[32];
+	private int depth;
+
+	private Token peeked;
+	private String peekedValue;
+
+	private boolean replayBeginObject;
+	private Token savedPeeked;
+	private String savedPeekedValue;
+
+	private final StringBuilder text = new StringBuilder( 64 );
+
+	public JsonPullParser( Reader in ) {
+		this.in = in;
+		stack[depth++] = EMPTY_DOCUMENT;
+	}
+
+	public JsonPullParser( InputStream in ) throws IOException {
+		this( new InputStreamReader( in, "UTF-8" ) );
+	}
+
+	/**
+	 * @return the type of the next token, without consuming it
+	 */
+	public Token peek() throws IOException, JSONException {
+		if ( peeked == null ) {
+			peeked = doPeek();
+		}
+		return peeked;
+	}
+
+	/**
+	 * @return the current nesting depth; 0 at the top level, 1 inside the outermost object or array
+	 */
+	public int getDepth() {
+		return depth - ( replayBeginObject ? 2 : 1 );
+	}
+
+	public void beginObject() throws IOException, JSONException {
+		expect( Token.BEGIN_OBJECT );
+		if ( replayBeginObject ) {
+			replayBeginObject = false;
+			peeked = savedPeeked;
+			peekedValue = savedPeekedValue;
+			savedPeeked = null;
+			savedPeekedValue = null;
+		} else {
+			push( EMPTY_OBJECT );
+		}
+	}
+
+	/**
+	 * @return the name of the next member, without consuming it; null if the next token is not a name
+	 */
+	public String peekName() throws IOException, JSONException {
+		return ( peek() == Token.NAME ) ? peekedValue : null;
+	}
+
+	/**
+	 * Undoes the {@link #beginObject()} just made, after looking at the object's first member with peek(), so the caller sees the object from its start. Used to
+	 * check for an error response without disturbing the parser.
+	 */
+	void unreadBeginObject() {
+		if ( replayBeginObject || stack[depth - 1] == NONEMPTY_OBJECT ) {
+			throw new IllegalStateException( "Can only unread an object that has not been read into" );
+		}
+		savedPeeked = peeked;
+		savedPeekedValue = peekedValue;
+		peeked = Token.BEGIN_OBJECT;
+		peekedValue = null;
+		replayBeginObject = true;
+	}
+
+	public void endObject() throws IOException, JSONException {
+		expect( Token.END_OBJECT );
+		depth-- ;
+	}
+
+	public void beginArray() throws IOException, JSONException {
+		expect( Token.BEGIN_ARRAY );
+		push( EMPTY_ARRAY );
+	}
+
+	public void endArray() throws IOException, JSONException {
+		expect( Token.END_ARRAY );
+		depth-- ;
+	}
+
+	/**
+	 * @return true if the current object or array has another member
+	 */
+	public boolean hasNext() throws IOException, JSONException {
+		Token t = peek();
+		return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+	}
+
+	public String nextName() throws IOException, JSONException {
+		return expect( Token.NAME );
+	}
+
+	/**
+	 * @return the next string value; numbers and booleans are returned as their literal text
+	 */
+	public String nextString() throws IOException, JSONException {
+		Token t = peek();
+		if ( t != Token.STRING && t != Token.NUMBER && t != Token.BOOLEAN ) {
+			throw syntaxError( "Expected a string but was " + t );
+		}
+		return expect( t );
+	}
+
+	public long nextLong() throws IOException, JSONException {
+		String s = nextString();
+		try {
+			return Long.parseLong( s );
+		}
+		catch ( NumberFormatException ex ) {
+			try {
+				double d = Double.parseDouble( s );
+				if ( d == (long) d ) {
+					return (long) d;
+				}
+			}
+			catch ( NumberFormatException ignored ) {
+				// fall through
+			}
+			throw syntaxError( "Expected a long but was " + s );
+		}
+	}
+
+	public int nextInt() throws IOException, JSONException {
+		long l = nextLong();
+		if ( l != (int) l ) {
+			throw syntaxError( "Expected an int but was " + l );
+		}
+		return (int) l;
+	}
+
+	public double nextDouble() throws IOException, JSONException {
+		String s = nextString();
+		try {
+			return Double.parseDouble( s );
+		}
+		catch ( NumberFormatException ex ) {
+			throw syntaxError( "Expected a double but was " + s );
+		}
+	}
+
+	public boolean nextBoolean() throws IOException, JSONException {
+		return "true".equals( expect( Token.BOOLEAN ) );
+	}
+
+	public void nextNull() throws IOException, JSONException {
+		expect( Token.NULL );
+	}
+
+	/**
+	 * Skips the next value, including everything nested in it.
+	 */
+	public void skipValue() throws IOException, JSONException {
+		int count = 0;
+		do {
+			Token t = peek();
+			if ( t == Token.BEGIN_OBJECT ) {
+				beginObject();
+				count++ ;
+			} else if ( t == Token.BEGIN_ARRAY ) {
+				beginArray();
+				count++ ;
+			} else if ( t == Token.END_OBJECT ) {
+				endObject();
+				count-- ;
+			} else if ( t == Token.END_ARRAY ) {
+				endArray();
+				count-- ;
+			} else if ( t == Token.END_DOCUMENT ) {
+				throw syntaxError( "Unexpected end of input" );
+			} else {
+				expect( t );
+			}
+		} while ( count != 0 );
+	}
+
+	/**
+	 * Reads the next value as the equivalent org.json value: a JSONObject, JSONArray, String, Long, Double, Boolean or JSONObject.NULL.
+	 */
+	public Object readValue() throws IOException, JSONException {
+		Token t = peek();
+		switch ( t ) {
+			case BEGIN_OBJECT: {
+				JSONObject out = new JSONObject();
+				beginObject();
+				while ( hasNext() ) {
+					String name = nextName();
+					out.put( name, readValue() );
+				}
+				endObject();
+				return out;
+			}
+			case BEGIN_ARRAY: {
+				JSONArray out = new JSONArray();
+				beginArray();
+				while ( hasNext() ) {
+					out.put( readValue() );
+				}
+				endArray();
+				return out;
+			}
+			case STRING:
+				return nextString();
+			case NUMBER: {
+				String s = nextString();
+				if ( s.indexOf( '.' ) == -1 && s.indexOf( 'e' ) == -1 && s.indexOf( 'E' ) == -1 ) {
+					try {
+						return Long.valueOf( s );
+					}
+					catch ( NumberFormatException ex ) {
+						// too big for a long
+					}
+				}
+				return Double.valueOf( s );
+			}
+			case BOOLEAN:
+				return Boolean.valueOf( nextBoolean() );
+			case NULL:
+				nextNull();
+				return JSONObject.NULL;
+			default:
+				throw syntaxError( "Expected a value but was " + t );
+		}
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private String expect( Token expected ) throws IOException, JSONException {
+		Token t = peek();
+		if ( t != expected ) {
+			throw syntaxError( "Expected " + expected + " but was " + t );
+		}
+		String out = peekedValue;
+		peeked = null;
+		peekedValue = null;
+		return out;
+	}
+
+	private void push( int scope ) {
+		if ( depth == stack.length ) {
+			int[] grown = new int[depth * 2];
+			System.arraycopy( stack, 0, grown, 0, depth );
+			stack = grown;
+		}
+		stack[depth++] = scope;
+	}
+
+	private Token doPeek() throws IOException, JSONException {
+		int scope = stack[depth - 1];
+		if ( scope == EMPTY_ARRAY || scope == NONEMPTY_ARRAY ) {
+			int c = nextNonWhitespace();
+			if ( c == ']' ) {
+				return Token.END_ARRAY;
+			}
+			if ( scope == NONEMPTY_ARRAY ) {
+				if ( c != ',' ) {
+					throw syntaxError( "Expected ',' or ']'" );
+				}
+				c = nextNonWhitespace();
+			}
+			stack[depth - 1] = NONEMPTY_ARRAY;
+			return readValueToken( c );
+		}
+		if ( scope == EMPTY_OBJECT || scope == NONEMPTY_OBJECT ) {
+			int c = nextNonWhitespace();
+			if ( c == '}' ) {
+				return Token.END_OBJECT;
+			}
+			if ( scope == NONEMPTY_OBJECT ) {
+				if ( c != ',' ) {
+					throw syntaxError( "Expected ',' or '}'" );
+				}
+				c = nextNonWhitespace();
+			}
+			if ( c != '"' ) {
+				throw syntaxError( "Expected a name" );
+			}
+			peekedValue = readString();
+			stack[depth - 1] = DANGLING_NAME;
+			return Token.NAME;
+		}
+		if ( scope == DANGLING_NAME ) {
+			if ( nextNonWhitespace() != ':' ) {
+				throw syntaxError( "Expected ':'" );
+			}
+			stack[depth - 1] = NONEMPTY_OBJECT;
+			return readValueToken( nextNonWhitespace() );
+		}
+		if ( scope == EMPTY_DOCUMENT ) {
+			stack[depth - 1] = NONEMPTY_DOCUMENT;
+			return readValueToken( nextNonWhitespace() );
+		}
+		// NONEMPTY_DOCUMENT
+		int c = nextNonWhitespace();
+		if ( c == -1 ) {
+			return Token.END_DOCUMENT;
+		}
+		throw syntaxError( "Unexpected content after the top-level value" );
+	}
+
+	private Token readValueToken( int c ) throws IOException, JSONException {
+		switch ( c ) {
+			case -1:
+				return Token.END_DOCUMENT;
+			case '{':
+				return Token.BEGIN_OBJECT;
+			case '[':
+				return Token.BEGIN_ARRAY;
+			case '"':
+				peekedValue = readString();
+				return Token.STRING;
+			default:
+				pos-- ;
+				String literal = readLiteral();
+				if ( literal.length() == 0 ) {
+					throw syntaxError( "Unexpected character '" + (char) c + "'" );
+				}
+				if ( "null".equals( literal ) ) {
+					return Token.NULL;
+				}
+				peekedValue = literal;
+				if ( "true".equals( literal ) || "false".equals( literal ) ) {
+					return Token.BOOLEAN;
+				}
+				char first = literal.charAt( 0 );
+				if ( first == '-' || ( first >= '0' && first <= '9' ) ) {
+					return Token.NUMBER;
+				}
+				// lenient, like JSONTokener: an unquoted string
+				return Token.STRING;
+		}
+	}
+
+	private boolean fill() throws IOException {
+		limit = in.read( buf, 0, buf.length );
+		pos = 0;
+		if ( limit <= 0 ) {
+			limit = 0;
+			return false;
+		}
+		return true;
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		while ( pos < limit || fill() ) {
+			char c = buf[pos++];
+			if ( c != ' ' && c != '\n' && c != '\r' && c != '\t' ) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	private String readLiteral() throws IOException {
+		text.setLength( 0 );
+		while ( pos < limit || fill() ) {
+			char c = buf[pos];
+			if ( c == ',' || c == ':' || c == ']' || c == '}' || c == '[' || c == '{' || c == '"' || c == ' ' || c == '\n' || c == '\r' || c == '\t' ) {
+				break;
+			}
+			text.append( c );
+			pos++ ;
+		}
+		return text.toString();
+	}
+
+	private String readString() throws IOException, JSONException {
+		text.setLength( 0 );
+		while ( true ) {
+			int start = pos;
+			while ( pos < limit ) {
+				char c = buf[pos++];
+				if ( c == '"' ) {
+					text.append( buf, start, pos - start - 1 );
+					return text.toString();
+				}
+				if ( c == '\\' ) {
+					text.append( buf, start, pos - start - 1 );
+					text.append( readEscape() );
+					start = pos;
+				}
+			}
+			text.append( buf, start, pos - start );
+			if ( !fill() ) {
+				throw syntaxError( "Unterminated string" );
+			}
+		}
+	}
+
+	private char readEscape() throws IOException, JSONException {
+		int c = read();
+		switch ( c ) {
+			case 'b':
+				return '\b';
+			case 't':
+				return '\t';
+			case 'n':
+				return '\n';
+			case 'f':
+				return '\f';
+			case 'r':
+				return '\r';
+			case 'u': {
+				int value = 0;
+				for ( int i = 0; i < 4; i++ ) {
+					int h = Character.digit( read(), 16 );
+					if ( h == -1 ) {
+						throw syntaxError( "Invalid unicode escape" );
+					}
+					value = ( value << 4 ) | h;
+				}
+				return (char) value;
+			}
+			case -1:
+				throw syntaxError( "Unterminated escape" );
+			default:
+				return (char) c;
+		}
+	}
+
+	private int read() throws IOException {
+		if ( pos < limit || fill() ) {
+			return buf[pos++];
+		}
+		return -1;
+	}
+
+	private JSONException syntaxError( String message ) {
+		return new JSONException( message + " at depth " + getDepth() );
+	}
+
+}
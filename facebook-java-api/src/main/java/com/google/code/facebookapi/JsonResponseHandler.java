@@ -0,0 +1,29 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.json.JSONException;
+
+/**
+ * A ResponseHandler for JSON responses that is given a {@link JsonPullParser} over the body. Error responses have already been turned into a FacebookException
+ * by the time {@link #handle(JsonPullParser)} is called.
+ *
+ * @param <T>
+ *            what the handler makes of the response
+ */
+public abstract class JsonResponseHandler<T> implements ResponseHandler<T> {
+
+	public final T handle( InputStream in ) throws IOException, FacebookException {
+		JsonPullParser parser = JsonHelper.openCallResult( in );
+		try {
+			return handle( parser );
+		}
+		catch ( JSONException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+	}
+
+	protected abstract T handle( JsonPullParser parser ) throws IOException, JSONException, FacebookException;
+
+}
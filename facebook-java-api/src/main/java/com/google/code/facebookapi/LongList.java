@@ -0,0 +1,169 @@
+package com.google.code.facebookapi;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable list of ids held in a long[], so that large friend lists cost eight bytes an id instead of a Long object each. Parsers fill it directly; use
+ * {@link #asList()} to pass it where a Collection&lt;Long&gt; is expected.
+ *
+ * Once {@link #sortDistinct()} has been called, {@link #contains(long)} is a binary search, so the list can serve as a compact set.
+ */
+public class LongList {
+
+	private long[] values;
+	private int size;
+	private boolean sorted;
+
+	public LongList() {
+		this( 16 );
+	}
+
+	public LongList( int capacity ) {
+		values = new long[Math.max( 1, capacity )];
+	}
+
+	/**
+	 * @return a list holding a copy of the given values
+	 */
+	public static LongList of( long... values ) {
+		LongList out = new LongList( values.length );
+		System.arraycopy( values, 0, out.values, 0, values.length );
+		out.size = values.length;
+		return out;
+	}
+
+	public void add( long value ) {
+		if ( size == values.length ) {
+			long[] grown = new long[values.length * 2];
+			System.arraycopy( values, 0, grown, 0, size );
+			values = grown;
+		}
+		values[size++ ] = value;
+		sorted = false;
+	}
+
+	public long get( int index ) {
+		if ( index < 0 || index >= size ) {
+			throw new IndexOutOfBoundsException( "index " + index + " of " + size );
+		}
+		return values[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return true if the list holds the value; a binary search if the list is {@link #sortDistinct() sorted}, and a scan otherwise
+	 */
+	public boolean contains( long value ) {
+		if ( sorted ) {
+			return binarySearch( value );
+		}
+		for ( int i = 0; i < size; i++ ) {
+			if ( values[i] == value ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Arrays.binarySearch over a range is Java 6
+	private boolean binarySearch( long value ) {
+		int low = 0;
+		int high = size - 1;
+		while ( low <= high ) {
+			int mid = ( low + high ) >>> 1;
+			long midValue = values[mid];
+			if ( midValue < value ) {
+				low = mid + 1;
+			} else if ( midValue > value ) {
+				high = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sorts the values in place and drops duplicates.
+	 */
+	public void sortDistinct() {
+		Arrays.sort( values, 0, size );
+		int out = 0;
+		for ( int i = 0; i < size; i++ ) {
+			if ( out == 0 || values[i] != values[out - 1] ) {
+				values[out++ ] = values[i];
+			}
+		}
+		size = out;
+		sorted = true;
+	}
+
+	/**
+	 * @return a copy of the values
+	 */
+	public long[] toArray() {
+		long[] out = new long[size];
+		System.arraycopy( values, 0, out, 0, size );
+		return out;
+	}
+
+	/**
+	 * @return a read-only view of the values, boxing each one only as it is read
+	 */
+	public List<Long> asList() {
+		return new AbstractList<Long>() {
+
+			@Override
+			public Long get( int index ) {
+				return LongList.this.get( index );
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+		};
+	}
+
+	@Override
+	public boolean equals( Object o ) {
+		if ( ! ( o instanceof LongList ) ) {
+			return false;
+		}
+		LongList other = (LongList) o;
+		if ( other.size != size ) {
+			return false;
+		}
+		for ( int i = 0; i < size; i++ ) {
+			if ( values[i] != other.values[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = 1;
+		for ( int i = 0; i < size; i++ ) {
+			h = 31 * h + (int) ( values[i] ^ ( values[i] >>> 32 ) );
+		}
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return "LongList[" + size + ( sorted ? ", sorted" : "" ) + "]";
+	}
+
+}
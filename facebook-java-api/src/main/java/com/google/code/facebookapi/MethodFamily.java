@@ -0,0 +1,236 @@
+package com.google.code.facebookapi;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The circuit breaker and bulkhead of one method family. Obtain it from {@link CircuitBreaker#getFamily(String)}.
+ *
+ * The circuit starts closed. After the breaker's threshold of consecutive failures it opens, and calls are rejected without being sent. Once it has been open for
+ * the breaker's open time it is half open: one call is let through as a trial, and the circuit closes if it succeeds or opens again if it fails.
+ */
+public class MethodFamily implements MethodFamilyMBean {
+
+	protected static Log log = LogFactory.getLog( MethodFamily.class );
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final int CALLS = 0;
+	private static final int FAILURES = 1;
+	private static final int REJECTED_OPEN = 2;
+	private static final int REJECTED_FULL = 3;
+
+	private final String name;
+	private final CircuitBreaker breaker;
+	private final Bulkhead slots;
+	private final StripedCounters counters = new StripedCounters( 4 );
+
+	// guarded by this
+	private int maxConcurrent;
+	private State state = State.CLOSED;
+	private long openedAt;
+	private long lastStateChange;
+	private int consecutiveFailures;
+	private boolean trialInFlight;
+	private long timesOpened;
+	private long timesClosed;
+
+	MethodFamily( String name, CircuitBreaker breaker, int maxConcurrent ) {
+		this.name = name;
+		this.breaker = breaker;
+		this.maxConcurrent = maxConcurrent;
+		this.slots = new Bulkhead( maxConcurrent );
+	}
+
+	/**
+	 * Lets a call in, or rejects it.
+	 *
+	 * @return whether the call is the trial of a half open circuit, to be passed to {@link #exit(boolean, boolean)}
+	 * @throws CallRejectedException
+	 *             if the circuit is open, or the family has no room for the call
+	 */
+	boolean enter() throws CallRejectedException, InterruptedIOException {
+		boolean trial = false;
+		synchronized ( this ) {
+			if ( state == State.OPEN && System.nanoTime() - openedAt >= breaker.getOpenNanos() ) {
+				transition( State.HALF_OPEN );
+			}
+			if ( state == State.OPEN || ( state == State.HALF_OPEN && trialInFlight ) ) {
+				counters.increment( REJECTED_OPEN );
+				throw new CallRejectedException( name, true );
+			}
+			if ( state == State.HALF_OPEN ) {
+				trialInFlight = true;
+				trial = true;
+			}
+		}
+		boolean entered = false;
+		try {
+			long wait = breaker.getMaxWaitMillis();
+			entered = wait > 0 ? slots.tryAcquire( wait, TimeUnit.MILLISECONDS ) : slots.tryAcquire();
+		}
+		catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException iex = new InterruptedIOException( "interrupted waiting for room for a " + name + " call" );
+			iex.initCause( ex );
+			endTrial( trial );
+			throw iex;
+		}
+		if ( !entered ) {
+			counters.increment( REJECTED_FULL );
+			endTrial( trial );
+			throw new CallRejectedException( name, false );
+		}
+		counters.increment( CALLS );
+		return trial;
+	}
+
+	private synchronized void endTrial( boolean trial ) {
+		if ( trial ) {
+			trialInFlight = false;
+		}
+	}
+
+	/**
+	 * Records the outcome of a call let in by {@link #enter()}.
+	 */
+	void exit( boolean trial, boolean failed ) {
+		slots.release();
+		if ( failed ) {
+			counters.increment( FAILURES );
+		}
+		synchronized ( this ) {
+			if ( trial ) {
+				trialInFlight = false;
+			}
+			if ( !failed ) {
+				consecutiveFailures = 0;
+				if ( trial && state == State.HALF_OPEN ) {
+					transition( State.CLOSED );
+				}
+				return;
+			}
+			consecutiveFailures++ ;
+			if ( ( trial && state == State.HALF_OPEN ) || ( state == State.CLOSED && consecutiveFailures >= breaker.getFailureThreshold() ) ) {
+				transition( State.OPEN );
+			}
+		}
+	}
+
+	// called holding the lock
+	private void transition( State to ) {
+		if ( to == State.OPEN ) {
+			openedAt = System.nanoTime();
+			timesOpened++ ;
+			log.warn( "Opening the circuit for " + name + " methods after " + consecutiveFailures + " consecutive failures" );
+		} else if ( to == State.CLOSED ) {
+			timesClosed++ ;
+			log.info( "Closing the circuit for " + name + " methods" );
+		} else if ( log.isDebugEnabled() ) {
+			log.debug( "Trying a call to " + name + " methods" );
+		}
+		state = to;
+		lastStateChange = System.currentTimeMillis();
+	}
+
+	/**
+	 * Sets the most calls of this family that may be in flight at once. Calls already in flight are not affected.
+	 */
+	public void setMaxConcurrent( int maxConcurrent ) {
+		if ( maxConcurrent < 1 ) {
+			throw new IllegalArgumentException( "maxConcurrent must be positive: " + maxConcurrent );
+		}
+		synchronized ( this ) {
+			int delta = maxConcurrent - this.maxConcurrent;
+			if ( delta > 0 ) {
+				slots.release( delta );
+			} else if ( delta < 0 ) {
+				slots.reducePermits( -delta );
+			}
+			this.maxConcurrent = maxConcurrent;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized State getCircuitState() {
+		return state;
+	}
+
+	public String getState() {
+		return getCircuitState().name();
+	}
+
+	public synchronized long getLastStateChange() {
+		return lastStateChange;
+	}
+
+	public synchronized long getTimesOpened() {
+		return timesOpened;
+	}
+
+	public synchronized long getTimesClosed() {
+		return timesClosed;
+	}
+
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	public synchronized int getActiveCalls() {
+		return maxConcurrent - slots.availablePermits();
+	}
+
+	public synchronized int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	public long getCalls() {
+		return counters.sum( CALLS );
+	}
+
+	public long getFailures() {
+		return counters.sum( FAILURES );
+	}
+
+	public long getRejectedOpen() {
+		return counters.sum( REJECTED_OPEN );
+	}
+
+	public long getRejectedFull() {
+		return counters.sum( REJECTED_FULL );
+	}
+
+	@Override
+	public String toString() {
+		return "MethodFamily[" + name + ", state=" + getState() + ", active=" + getActiveCalls() + "/" + getMaxConcurrent() + ", calls=" + getCalls()
+				+ ", failures=" + getFailures() + ", rejectedOpen=" + getRejectedOpen() + ", rejectedFull=" + getRejectedFull() + "]";
+	}
+
+	/**
+	 * A semaphore whose permits can be taken away, so the family's limit can be lowered.
+	 */
+	private static class Bulkhead extends Semaphore {
+
+		private static final long serialVersionUID = 1L;
+
+		Bulkhead( int permits ) {
+			super( permits );
+		}
+
+		@Override
+		protected void reducePermits( int reduction ) {
+			super.reducePermits( reduction );
+		}
+
+	}
+
+}
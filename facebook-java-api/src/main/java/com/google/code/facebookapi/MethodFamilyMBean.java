@@ -0,0 +1,46 @@
+package com.google.code.facebookapi;
+
+/**
+ * JMX view of the circuit breaker and bulkhead of one method family.
+ *
+ * @see CircuitBreaker#registerMBeans(javax.management.MBeanServer, String)
+ */
+public interface MethodFamilyMBean {
+
+	public String getName();
+
+	/**
+	 * @return CLOSED, OPEN or HALF_OPEN
+	 */
+	public String getState();
+
+	/**
+	 * @return when the state last changed, in milliseconds since the epoch, or 0 if it never has
+	 */
+	public long getLastStateChange();
+
+	public long getTimesOpened();
+
+	public long getTimesClosed();
+
+	public int getConsecutiveFailures();
+
+	public int getActiveCalls();
+
+	public int getMaxConcurrent();
+
+	public long getCalls();
+
+	public long getFailures();
+
+	/**
+	 * @return calls turned away because the circuit was open
+	 */
+	public long getRejectedOpen();
+
+	/**
+	 * @return calls turned away because the family had no room for another
+	 */
+	public long getRejectedFull();
+
+}
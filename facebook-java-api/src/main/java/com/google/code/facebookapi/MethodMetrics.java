@@ -0,0 +1,118 @@
+package com.google.code.facebookapi;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The live metrics for one API method. Obtain them from {@link ApiMetrics}; the getters here each take a fresh snapshot, so use {@link #snapshot()} to read
+ * several values consistently.
+ */
+public class MethodMetrics implements MethodMetricsMBean {
+
+	private static final int CALLS = 0;
+	private static final int FAILURES = 1;
+	private static final int API_ERRORS = 2;
+	private static final int REQUEST_BYTES = 3;
+	private static final int RESPONSE_BYTES = 4;
+	private static final int LATENCY_MICROS = 5;
+	private static final int HISTOGRAM = 6;
+
+	private final String methodName;
+	private final StripedCounters counters = new StripedCounters( HISTOGRAM + MethodMetricsSnapshot.BUCKETS );
+	private final AtomicLong maxLatencyMicros = new AtomicLong();
+	// error responses are rare, so these needn't be striped
+	private final ConcurrentMap<Integer,AtomicLong> errorsByCode = new ConcurrentHashMap<Integer,AtomicLong>();
+
+	MethodMetrics( String methodName ) {
+		this.methodName = methodName;
+	}
+
+	void record( long latencyMicros, long requestBytes, long responseBytes, boolean failed, int errorCode ) {
+		counters.increment( CALLS );
+		counters.add( REQUEST_BYTES, requestBytes );
+		counters.add( RESPONSE_BYTES, responseBytes );
+		counters.add( LATENCY_MICROS, latencyMicros );
+		counters.increment( HISTOGRAM + MethodMetricsSnapshot.bucket( latencyMicros ) );
+		long max = maxLatencyMicros.get();
+		while ( latencyMicros > max && !maxLatencyMicros.compareAndSet( max, latencyMicros ) ) {
+			max = maxLatencyMicros.get();
+		}
+		if ( failed ) {
+			counters.increment( FAILURES );
+		} else if ( errorCode != 0 ) {
+			counters.increment( API_ERRORS );
+			AtomicLong count = errorsByCode.get( errorCode );
+			if ( count == null ) {
+				AtomicLong created = new AtomicLong();
+				count = errorsByCode.putIfAbsent( errorCode, created );
+				if ( count == null ) {
+					count = created;
+				}
+			}
+			count.incrementAndGet();
+		}
+	}
+
+	public MethodMetricsSnapshot snapshot() {
+		long[] histogram = new long[MethodMetricsSnapshot.BUCKETS];
+		counters.sum( HISTOGRAM, histogram );
+		Map<Integer,Long> byCode = new TreeMap<Integer,Long>();
+		for ( Map.Entry<Integer,AtomicLong> e : errorsByCode.entrySet() ) {
+			byCode.put( e.getKey(), e.getValue().get() );
+		}
+		return new MethodMetricsSnapshot( methodName, counters.sum( CALLS ), counters.sum( FAILURES ), counters.sum( API_ERRORS ), byCode, counters
+				.sum( REQUEST_BYTES ), counters.sum( RESPONSE_BYTES ), counters.sum( LATENCY_MICROS ), maxLatencyMicros.get(), histogram );
+	}
+
+	public String getMethodName() {
+		return methodName;
+	}
+
+	public long getCalls() {
+		return counters.sum( CALLS );
+	}
+
+	public long getFailures() {
+		return counters.sum( FAILURES );
+	}
+
+	public long getApiErrors() {
+		return counters.sum( API_ERRORS );
+	}
+
+	public Map<Integer,Long> getApiErrorsByCode() {
+		return snapshot().getApiErrorsByCode();
+	}
+
+	public long getRequestBytes() {
+		return counters.sum( REQUEST_BYTES );
+	}
+
+	public long getResponseBytes() {
+		return counters.sum( RESPONSE_BYTES );
+	}
+
+	public double getMeanLatency() {
+		return snapshot().getMeanLatency();
+	}
+
+	public double getMaxLatency() {
+		return maxLatencyMicros.get() / 1000.0;
+	}
+
+	public double get50thPercentileLatency() {
+		return snapshot().getLatencyPercentile( 50 );
+	}
+
+	public double get95thPercentileLatency() {
+		return snapshot().getLatencyPercentile( 95 );
+	}
+
+	public double get99thPercentileLatency() {
+		return snapshot().getLatencyPercentile( 99 );
+	}
+
+}
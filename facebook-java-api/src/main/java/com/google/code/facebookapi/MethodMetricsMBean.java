@@ -0,0 +1,39 @@
+package com.google.code.facebookapi;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics recorded for one API method. Latencies are in milliseconds.
+ *
+ * @see ApiMetrics#registerMBeans(javax.management.MBeanServer, String)
+ */
+public interface MethodMetricsMBean {
+
+	public String getMethodName();
+
+	public long getCalls();
+
+	public long getFailures();
+
+	public long getApiErrors();
+
+	/**
+	 * @return the number of error responses, keyed by their {@link ErrorCode}
+	 */
+	public Map<Integer,Long> getApiErrorsByCode();
+
+	public long getRequestBytes();
+
+	public long getResponseBytes();
+
+	public double getMeanLatency();
+
+	public double getMaxLatency();
+
+	public double get50thPercentileLatency();
+
+	public double get95thPercentileLatency();
+
+	public double get99thPercentileLatency();
+
+}
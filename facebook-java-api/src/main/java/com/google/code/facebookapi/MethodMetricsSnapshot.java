@@ -0,0 +1,148 @@
+package com.google.code.facebookapi;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Point-in-time snapshot of the metrics recorded for one API method.
+ *
+ * Latencies are kept in a histogram whose buckets are a quarter of a power of two wide, so percentiles are accurate to within about 20%. Request and response
+ * sizes are counted in bytes: the form-encoded request body, as {@link FormEncoder#encodedSize(java.util.Map)} counts it, and the response as UTF-8.
+ */
+@SuppressWarnings("serial")
+public class MethodMetricsSnapshot implements Serializable {
+
+	// values below 4 microseconds get a bucket each, after which each power of two is split into 4
+	static final int SUB_BUCKET_BITS = 2;
+	static final int BUCKETS = 128;
+
+	private final String methodName;
+	private final long calls;
+	private final long failures;
+	private final long apiErrors;
+	private final Map<Integer,Long> apiErrorsByCode;
+	private final long requestBytes;
+	private final long responseBytes;
+	private final long totalLatencyMicros;
+	private final long maxLatencyMicros;
+	private final long[] histogram;
+
+	MethodMetricsSnapshot( String methodName, long calls, long failures, long apiErrors, Map<Integer,Long> apiErrorsByCode, long requestBytes, long responseBytes,
+			long totalLatencyMicros, long maxLatencyMicros, long[] histogram ) {
+		this.methodName = methodName;
+		this.calls = calls;
+		this.failures = failures;
+		this.apiErrors = apiErrors;
+		this.apiErrorsByCode = Collections.unmodifiableMap( apiErrorsByCode );
+		this.requestBytes = requestBytes;
+		this.responseBytes = responseBytes;
+		this.totalLatencyMicros = totalLatencyMicros;
+		this.maxLatencyMicros = maxLatencyMicros;
+		this.histogram = histogram;
+	}
+
+	static int bucket( long micros ) {
+		if ( micros < ( 1 << SUB_BUCKET_BITS ) ) {
+			return micros < 0 ? 0 : (int) micros;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros( micros );
+		int sub = (int) ( micros >>> ( exp - SUB_BUCKET_BITS ) ) & ( ( 1 << SUB_BUCKET_BITS ) - 1 );
+		return Math.min( ( ( exp - 1 ) << SUB_BUCKET_BITS ) + sub, BUCKETS - 1 );
+	}
+
+	/**
+	 * @return the smallest value, in microseconds, that falls in a later bucket
+	 */
+	static long bucketLimit( int bucket ) {
+		if ( bucket < ( 1 << SUB_BUCKET_BITS ) ) {
+			return bucket + 1;
+		}
+		int exp = ( bucket >>> SUB_BUCKET_BITS ) + 1;
+		int sub = bucket & ( ( 1 << SUB_BUCKET_BITS ) - 1 );
+		return ( (long) ( ( 1 << SUB_BUCKET_BITS ) + sub + 1 ) ) << ( exp - SUB_BUCKET_BITS );
+	}
+
+	public String getMethodName() {
+		return methodName;
+	}
+
+	/**
+	 * @return the number of requests sent, whatever their outcome
+	 */
+	public long getCalls() {
+		return calls;
+	}
+
+	/**
+	 * @return the number of requests that got no response, because of an IOException or similar
+	 */
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return the number of requests answered with an error response, which surface as a FacebookException
+	 */
+	public long getApiErrors() {
+		return apiErrors;
+	}
+
+	/**
+	 * @return the number of error responses, keyed by their {@link ErrorCode}
+	 */
+	public Map<Integer,Long> getApiErrorsByCode() {
+		return apiErrorsByCode;
+	}
+
+	public long getRequestBytes() {
+		return requestBytes;
+	}
+
+	public long getResponseBytes() {
+		return responseBytes;
+	}
+
+	/**
+	 * @return the mean latency in milliseconds, or 0 if there have been no calls
+	 */
+	public double getMeanLatency() {
+		return calls == 0 ? 0 : totalLatencyMicros / 1000.0 / calls;
+	}
+
+	public double getMaxLatency() {
+		return maxLatencyMicros / 1000.0;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return the latency in milliseconds that the given percentage of calls completed within, or 0 if there have been no calls
+	 */
+	public double getLatencyPercentile( double percentile ) {
+		long total = 0;
+		for ( long count : histogram ) {
+			total += count;
+		}
+		if ( total == 0 ) {
+			return 0;
+		}
+		long rank = (long) Math.ceil( total * percentile / 100.0 );
+		long seen = 0;
+		for ( int i = 0; i < histogram.length; i++ ) {
+			seen += histogram[i];
+			if ( seen >= rank && histogram[i] > 0 ) {
+				return Math.min( bucketLimit( i ), maxLatencyMicros ) / 1000.0;
+			}
+		}
+		return getMaxLatency();
+	}
+
+	@Override
+	public String toString() {
+		return String.format( "[%s calls: %d; failures: %d; apiErrors: %d %s; mean: %.1fms; p50: %.1fms; p99: %.1fms; max: %.1fms; sent: %d; received: %d]",
+				methodName, calls, failures, apiErrors, apiErrorsByCode, getMeanLatency(), getLatencyPercentile( 50 ), getLatencyPercentile( 99 ), getMaxLatency(),
+				requestBytes, responseBytes );
+	}
+
+}
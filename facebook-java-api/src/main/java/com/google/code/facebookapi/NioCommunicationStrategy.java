@@ -0,0 +1,405 @@
+package com.google.code.facebookapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * AsyncCommunicationStrategy implementation built on non-blocking NIO socket channels. A single selector thread drives every in-flight request, so a handful of
+ * threads can keep thousands of calls outstanding.
+ *
+ * Only plain http is handled on the selector. https requests (eg auth_getSession with generate_session_secret) and file uploads are rare, and are handed to a
+ * {@link DefaultCommunicationStrategy}; asynchronous https requests run on a small fixed thread pool.
+ *
+ * Proxies are chosen by the default ProxySelector, which follows the <code>http.proxyHost</code> system properties unless replaced. Requests through an HTTP
+ * proxy are sent to the proxy on the selector; requests through a SOCKS proxy are handed to the DefaultCommunicationStrategy like https ones.
+ */
+public class NioCommunicationStrategy implements AsyncCommunicationStrategy, FileUploadCommunicationStrategy {
+
+	protected static Log log = LogFactory.getLog( NioCommunicationStrategy.class );
+
+	private static final String ENCODING = "UTF-8";
+	private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+	private static final long SELECT_TIMEOUT = 250;
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	private static final int BLOCKING_THREADS = 4;
+
+	private volatile int connectionTimeout = -1;
+	private volatile int readTimeout = -1;
+
+	private final DefaultCommunicationStrategy blockingStrategy = new DefaultCommunicationStrategy();
+	private final Queue<Exchange> newExchanges = new ConcurrentLinkedQueue<Exchange>();
+
+	private Selector selector;
+	private Thread ioThread;
+	private ExecutorService blockingExecutor;
+	private volatile boolean running;
+
+	public NioCommunicationStrategy() {
+		// empty
+	}
+
+	public NioCommunicationStrategy( int connectionTimeout, int readTimeout ) {
+		setConnectionTimeout( connectionTimeout );
+		setReadTimeout( readTimeout );
+	}
+
+	public int getConnectionTimeout() {
+		return connectionTimeout;
+	}
+
+	public void setConnectionTimeout( int connectionTimeout ) {
+		this.connectionTimeout = connectionTimeout;
+		blockingStrategy.setConnectionTimeout( connectionTimeout );
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout( int readTimeout ) {
+		this.readTimeout = readTimeout;
+		blockingStrategy.setReadTimeout( readTimeout );
+	}
+
+	public String postRequest( URL serverUrl, SortedMap<String,String> params ) throws IOException {
+		if ( !isSelectable( serverUrl, selectProxy( serverUrl ) ) ) {
+			return blockingStrategy.postRequest( serverUrl, params );
+		}
+		try {
+			return postRequestAsync( serverUrl, params ).get();
+		}
+		catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+			throw toIOException( ex );
+		}
+		catch ( ExecutionException ex ) {
+			throw toIOException( ex.getCause() );
+		}
+	}
+
+	public String postRequest( URL serverUrl, SortedMap<String,String> params, String fileName, InputStream fileStream ) throws IOException {
+		return blockingStrategy.postRequest( serverUrl, params, fileName, fileStream );
+	}
+
+	public String postRequest( URL serverUrl, SortedMap<String,String> params, String fileName, FileChannel fileChannel ) throws IOException {
+		return blockingStrategy.postRequest( serverUrl, params, fileName, fileChannel );
+	}
+
+	public Future<String> postRequestAsync( final URL serverUrl, final SortedMap<String,String> params ) {
+		Proxy proxy = selectProxy( serverUrl );
+		if ( !isSelectable( serverUrl, proxy ) ) {
+			return getBlockingExecutor().submit( new Callable<String>() {
+				public String call() throws Exception {
+					return blockingStrategy.postRequest( serverUrl, params );
+				}
+			} );
+		}
+		FacebookFuture<String> future = new FacebookFuture<String>();
+		try {
+			FormEncoder body = FormEncoder.forThread().params( params );
+			boolean viaProxy = proxy.type() == Proxy.Type.HTTP;
+			byte[] head = HttpResponse.requestHead( serverUrl, viaProxy, FORM_CONTENT_TYPE, body.size(), false );
+			ByteBuffer request = ByteBuffer.allocate( head.length + body.size() );
+			request.put( head );
+			body.writeTo( request );
+			request.flip();
+			// resolved here, so that a slow lookup holds up only this caller and not every exchange on the selector thread
+			InetSocketAddress address;
+			if ( viaProxy ) {
+				InetSocketAddress proxyAddress = (InetSocketAddress) proxy.address();
+				address = proxyAddress.isUnresolved() ? new InetSocketAddress( proxyAddress.getHostName(), proxyAddress.getPort() ) : proxyAddress;
+			} else {
+				int port = serverUrl.getPort() == -1 ? serverUrl.getDefaultPort() : serverUrl.getPort();
+				address = new InetSocketAddress( serverUrl.getHost(), port );
+			}
+			if ( address.isUnresolved() ) {
+				throw new UnknownHostException( address.getHostName() );
+			}
+			Exchange exchange = new Exchange( serverUrl, address, request, future );
+			Selector sel;
+			synchronized ( this ) {
+				sel = ensureStarted();
+				newExchanges.add( exchange );
+			}
+			sel.wakeup();
+		}
+		catch ( IOException ex ) {
+			future.setException( ex );
+		}
+		return future;
+	}
+
+	/**
+	 * @return whether the request can be sent on the selector: plain http, directly or through an HTTP proxy
+	 */
+	private static boolean isSelectable( URL url, Proxy proxy ) {
+		return "http".equalsIgnoreCase( url.getProtocol() ) && proxy.type() != Proxy.Type.SOCKS;
+	}
+
+	/**
+	 * @return the first proxy the default ProxySelector picks for the url, as HttpURLConnection would use
+	 */
+	private static Proxy selectProxy( URL url ) {
+		ProxySelector proxySelector = ProxySelector.getDefault();
+		if ( proxySelector == null ) {
+			return Proxy.NO_PROXY;
+		}
+		List<Proxy> proxies;
+		try {
+			proxies = proxySelector.select( url.toURI() );
+		}
+		catch ( URISyntaxException ex ) {
+			return Proxy.NO_PROXY;
+		}
+		return proxies == null || proxies.isEmpty() ? Proxy.NO_PROXY : proxies.get( 0 );
+	}
+
+	private synchronized ExecutorService getBlockingExecutor() {
+		if ( blockingExecutor == null ) {
+			blockingExecutor = Executors.newFixedThreadPool( BLOCKING_THREADS, new DaemonThreadFactory( "NioCommunicationStrategy-blocking" ) );
+		}
+		return blockingExecutor;
+	}
+
+	// called holding the lock, which is also held while queueing exchanges, so that a selector thread that is dying fails only exchanges queued for it
+	private Selector ensureStarted() throws IOException {
+		if ( !running ) {
+			selector = Selector.open();
+			running = true;
+			ioThread = new DaemonThreadFactory( "NioCommunicationStrategy-io" ).newThread( new Runnable() {
+				public void run() {
+					ioLoop();
+				}
+			} );
+			ioThread.start();
+		}
+		return selector;
+	}
+
+	/**
+	 * Stops the selector thread, failing any request still in flight. The strategy restarts itself if used again.
+	 */
+	public void shutdown() {
+		Thread t;
+		synchronized ( this ) {
+			if ( !running ) {
+				return;
+			}
+			running = false;
+			selector.wakeup();
+			t = ioThread;
+			if ( blockingExecutor != null ) {
+				blockingExecutor.shutdown();
+				blockingExecutor = null;
+			}
+		}
+		try {
+			t.join( 5000 );
+		}
+		catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void ioLoop() {
+		final Selector sel = selector;
+		final ByteBuffer readBuffer = ByteBuffer.allocateDirect( READ_BUFFER_SIZE );
+		try {
+			while ( running ) {
+				sel.select( SELECT_TIMEOUT );
+				registerNewExchanges( sel );
+				Iterator<SelectionKey> it = sel.selectedKeys().iterator();
+				while ( it.hasNext() ) {
+					SelectionKey key = it.next();
+					it.remove();
+					Exchange exchange = (Exchange) key.attachment();
+					try {
+						handle( key, exchange, readBuffer );
+					}
+					catch ( IOException ex ) {
+						exchange.fail( ex );
+					}
+				}
+				expireTimedOut( sel );
+			}
+		}
+		catch ( IOException ex ) {
+			log.error( "Selector failure", ex );
+		}
+		catch ( RuntimeException ex ) {
+			log.error( "Selector failure", ex );
+		}
+		finally {
+			IOException closed = new IOException( "NioCommunicationStrategy shut down" );
+			for ( SelectionKey key : sel.keys() ) {
+				( (Exchange) key.attachment() ).fail( closed );
+			}
+			synchronized ( this ) {
+				// unless shut down and restarted meanwhile, mark the loop stopped, so the next request starts another
+				if ( selector == sel ) {
+					running = false;
+					Exchange pending;
+					while ( ( pending = newExchanges.poll() ) != null ) {
+						pending.fail( closed );
+					}
+				}
+			}
+			try {
+				sel.close();
+			}
+			catch ( IOException ex ) {
+				log.warn( "Trouble closing selector", ex );
+			}
+		}
+	}
+
+	private void registerNewExchanges( Selector sel ) {
+		Exchange exchange;
+		while ( ( exchange = newExchanges.poll() ) != null ) {
+			try {
+				SocketChannel channel = SocketChannel.open();
+				exchange.channel = channel;
+				channel.configureBlocking( false );
+				channel.socket().setTcpNoDelay( true );
+				boolean connected = channel.connect( exchange.address );
+				exchange.touch();
+				channel.register( sel, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, exchange );
+				exchange.connected = connected;
+			}
+			catch ( IOException ex ) {
+				exchange.fail( ex );
+			}
+		}
+	}
+
+	private void handle( SelectionKey key, Exchange exchange, ByteBuffer readBuffer ) throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		if ( key.isConnectable() ) {
+			channel.finishConnect();
+			exchange.connected = true;
+			exchange.touch();
+			key.interestOps( SelectionKey.OP_WRITE );
+		} else if ( key.isWritable() ) {
+			channel.write( exchange.request );
+			exchange.touch();
+			if ( !exchange.request.hasRemaining() ) {
+				key.interestOps( SelectionKey.OP_READ );
+			}
+		} else if ( key.isReadable() ) {
+			readBuffer.clear();
+			int r = channel.read( readBuffer );
+			exchange.touch();
+			if ( r > 0 ) {
+				readBuffer.flip();
+				exchange.append( readBuffer );
+			} else if ( r < 0 ) {
+				// we asked for Connection: close, so EOF delimits the response
+				key.cancel();
+				exchange.complete();
+			}
+		}
+	}
+
+	private void expireTimedOut( Selector sel ) {
+		long now = System.currentTimeMillis();
+		for ( SelectionKey key : sel.keys() ) {
+			Exchange exchange = (Exchange) key.attachment();
+			int timeout = exchange.connected ? readTimeout : connectionTimeout;
+			if ( timeout > 0 && now - exchange.lastActivity > timeout ) {
+				key.cancel();
+				exchange.fail( new SocketTimeoutException( ( exchange.connected ? "Read" : "Connect" ) + " timed out: " + exchange.url ) );
+			}
+		}
+	}
+
+	private static IOException toIOException( Throwable t ) {
+		if ( t instanceof IOException ) {
+			return (IOException) t;
+		}
+		IOException out = new IOException( String.valueOf( t ) );
+		out.initCause( t );
+		return out;
+	}
+
+	/**
+	 * State of one request/response exchange; only touched by the selector thread once queued.
+	 */
+	private static class Exchange {
+
+		private final URL url;
+		private final InetSocketAddress address;
+		private final ByteBuffer request;
+		private final FacebookFuture<String> future;
+		private final ByteArrayOutputStream response = new ByteArrayOutputStream( 1024 );
+		private SocketChannel channel;
+		private boolean connected;
+		private long lastActivity;
+
+		private Exchange( URL url, InetSocketAddress address, ByteBuffer request, FacebookFuture<String> future ) {
+			this.url = url;
+			this.address = address;
+			this.request = request;
+			this.future = future;
+			touch();
+		}
+
+		private void touch() {
+			lastActivity = System.currentTimeMillis();
+		}
+
+		private void append( ByteBuffer buf ) {
+			if ( buf.hasArray() ) {
+				response.write( buf.array(), buf.arrayOffset() + buf.position(), buf.remaining() );
+			} else {
+				byte[] tmp = new byte[buf.remaining()];
+				buf.get( tmp );
+				response.write( tmp, 0, tmp.length );
+			}
+		}
+
+		private void complete() {
+			BasicClientHelper.close( channel );
+			try {
+				HttpResponse http = HttpResponse.read( new ByteArrayInputStream( response.toByteArray() ) );
+				future.set( new String( http.getBodyOrThrow( url ), ENCODING ) );
+			}
+			catch ( IOException ex ) {
+				future.setException( ex );
+			}
+		}
+
+		private void fail( Throwable t ) {
+			BasicClientHelper.close( channel );
+			future.setException( t );
+		}
+
+	}
+
+}
@@ -0,0 +1,454 @@
+package com.google.code.facebookapi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Sends one notification to any number of recipients. It splits the recipients into chunks that notifications_send accepts, sends the chunks concurrently
+ * within a budget of requests per second, and records which recipients Facebook accepted. A chunk that fails doesn't stop the others.
+ *
+ * If a checkpoint file is given, each chunk that succeeds is appended to it as it completes. Sending the same notification to the same recipients again, with
+ * the same chunk size, skips every chunk already recorded, so a job that was interrupted or had failures can simply be run again. A checkpoint written for a
+ * different job is refused rather than overwritten.
+ */
+public class NotificationFanout {
+
+	protected static Log log = LogFactory.getLog( NotificationFanout.class );
+
+	/**
+	 * The most recipients sent in one notifications_send, unless changed with {@link #setChunkSize(int)}.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 100;
+	private static final int DEFAULT_THREADS = 4;
+
+	private static final String CHECKPOINT_HEADER = "notifications_send checkpoint ";
+
+	/**
+	 * Told of each chunk as it completes, from the thread that sent it.
+	 */
+	public interface ProgressListener {
+
+		/**
+		 * @param chunk
+		 *            the chunk just completed, with the accepted ids as its response if it succeeded
+		 */
+		public void chunkDone( BulkResponse.Chunk chunk, Result progress );
+
+	}
+
+	/**
+	 * The progress of a fan-out, which is its outcome once {@link NotificationFanout#send(Collection, String, boolean)} has returned.
+	 */
+	public static class Result {
+
+		private final int chunkCount;
+		private final int recipientCount;
+		private int chunksDone;
+		private int chunksResumed;
+		private final Set<Long> accepted = new HashSet<Long>();
+		private final List<BulkResponse.Chunk> failures = new ArrayList<BulkResponse.Chunk>();
+
+		Result( int chunkCount, int recipientCount ) {
+			this.chunkCount = chunkCount;
+			this.recipientCount = recipientCount;
+		}
+
+		public int getChunkCount() {
+			return chunkCount;
+		}
+
+		public int getRecipientCount() {
+			return recipientCount;
+		}
+
+		/**
+		 * @return chunks completed, failed or not, including those skipped because the checkpoint recorded them
+		 */
+		public synchronized int getChunksDone() {
+			return chunksDone;
+		}
+
+		/**
+		 * @return chunks skipped because the checkpoint recorded them
+		 */
+		public synchronized int getChunksResumed() {
+			return chunksResumed;
+		}
+
+		/**
+		 * @return the recipients Facebook accepted, including those recorded in the checkpoint
+		 */
+		public synchronized Set<Long> getAccepted() {
+			return new HashSet<Long>( accepted );
+		}
+
+		public synchronized int getAcceptedCount() {
+			return accepted.size();
+		}
+
+		/**
+		 * @return the chunks that failed, in recipient order; each has the {@link FacebookException} or IOException it failed with
+		 */
+		public synchronized List<BulkResponse.Chunk> getFailures() {
+			List<BulkResponse.Chunk> out = new ArrayList<BulkResponse.Chunk>( failures );
+			Collections.sort( out, new Comparator<BulkResponse.Chunk>() {
+				public int compare( BulkResponse.Chunk a, BulkResponse.Chunk b ) {
+					return a.getIndex() - b.getIndex();
+				}
+			} );
+			return out;
+		}
+
+		/**
+		 * @return true if every chunk has been sent successfully
+		 */
+		public synchronized boolean isComplete() {
+			return chunksDone == chunkCount && failures.isEmpty();
+		}
+
+		synchronized void resumed( Collection<Long> ids ) {
+			accepted.addAll( ids );
+			chunksResumed++ ;
+			chunksDone++ ;
+		}
+
+		synchronized void done( BulkResponse.Chunk chunk, Collection<Long> ids ) {
+			if ( chunk.isFailed() ) {
+				failures.add( chunk );
+			} else {
+				accepted.addAll( ids );
+			}
+			chunksDone++ ;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return "Result[" + chunksDone + "/" + chunkCount + " chunks, " + accepted.size() + "/" + recipientCount + " accepted, " + failures.size() + " failed]";
+		}
+
+	}
+
+	private final ExtensibleClient client;
+	private final File checkpoint;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int threads = DEFAULT_THREADS;
+	private double requestsPerSecond;
+	private ProgressListener listener;
+
+	/**
+	 * @param checkpoint
+	 *            the file completed chunks are recorded in, or null to keep no record
+	 */
+	public NotificationFanout( ExtensibleClient client, File checkpoint ) {
+		this.client = client;
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Sends through the client behind one of the Xml, Json or Jaxb clients.
+	 */
+	public NotificationFanout( BaseAdapter client, File checkpoint ) {
+		this( client.getClient(), checkpoint );
+	}
+
+	/**
+	 * Sets how many recipients each notifications_send is sent to. The chunk size is part of the job a checkpoint was written for, so {@link #send} refuses to
+	 * resume a checkpoint written with another; to change it, the old checkpoint must be deleted, and recipients it recorded will be notified again.
+	 */
+	public void setChunkSize( int chunkSize ) {
+		if ( chunkSize < 1 ) {
+			throw new IllegalArgumentException( "chunkSize must be positive: " + chunkSize );
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets how many chunks are sent at once.
+	 */
+	public void setThreads( int threads ) {
+		if ( threads < 1 ) {
+			throw new IllegalArgumentException( "threads must be positive: " + threads );
+		}
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Limits how many notifications_send requests are started per second, across all threads. Zero, the default, means no limit.
+	 */
+	public void setRequestsPerSecond( double requestsPerSecond ) {
+		if ( requestsPerSecond < 0 ) {
+			throw new IllegalArgumentException( "requestsPerSecond must not be negative: " + requestsPerSecond );
+		}
+		this.requestsPerSecond = requestsPerSecond;
+	}
+
+	public double getRequestsPerSecond() {
+		return requestsPerSecond;
+	}
+
+	public void setProgressListener( ProgressListener listener ) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sends the notification to every recipient not already recorded in the checkpoint, and waits for all of them. The notification is sent in the client's
+	 * {@link CallContext} as it is when this is called.
+	 *
+	 * @throws IOException
+	 *             if the checkpoint can't be read or written, or belongs to another job
+	 * @throws InterruptedIOException
+	 *             if the calling thread is interrupted; chunks not yet sent are abandoned, and those completed are in the checkpoint
+	 */
+	public Result send( Collection<Long> recipientIds, final String notification, final boolean isAppToUser ) throws IOException {
+		final List<Long> all = new ArrayList<Long>( recipientIds );
+		int chunkCount = ( all.size() + chunkSize - 1 ) / chunkSize;
+		final Result result = new Result( chunkCount, all.size() );
+		String header = CHECKPOINT_HEADER + fingerprint( all, notification, isAppToUser );
+		BitSet done = checkpoint == null ? new BitSet() : readCheckpoint( header, result );
+		final Writer out = checkpoint == null ? null : openCheckpoint( header );
+		final CallContext context = client.getCallContext();
+		final Pacer pacer = new Pacer( requestsPerSecond );
+		ExecutorService executor = Executors.newFixedThreadPool( threads, new DaemonThreadFactory( "NotificationFanout" ) );
+		List<Future<?>> futures = new ArrayList<Future<?>>( chunkCount - done.cardinality() );
+		try {
+			for ( int c = 0; c < chunkCount; c++ ) {
+				if ( done.get( c ) ) {
+					continue;
+				}
+				final int index = c;
+				final List<Long> ids = all.subList( c * chunkSize, Math.min( all.size(), ( c + 1 ) * chunkSize ) );
+				futures.add( executor.submit( new Callable<Object>() {
+					public Object call() throws Exception {
+						pacer.acquire();
+						sendChunk( context, index, ids, notification, isAppToUser, result, out );
+						return null;
+					}
+				} ) );
+			}
+			for ( Future<?> future : futures ) {
+				future.get();
+			}
+			return result;
+		}
+		catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException iex = new InterruptedIOException( "interrupted after " + result.getChunksDone() + " of " + chunkCount + " chunks" );
+			iex.initCause( ex );
+			throw iex;
+		}
+		catch ( ExecutionException ex ) {
+			// chunks report their own failures, so only a checkpoint write can end up here
+			Throwable cause = ex.getCause();
+			if ( cause instanceof IOException ) {
+				throw (IOException) cause;
+			}
+			if ( cause instanceof Error ) {
+				throw (Error) cause;
+			}
+			throw BasicClientHelper.runtimeException( (Exception) cause );
+		}
+		finally {
+			executor.shutdownNow();
+			BasicClientHelper.close( out );
+		}
+	}
+
+	private void sendChunk( CallContext context, int index, List<Long> ids, String notification, boolean isAppToUser, Result result, Writer out )
+			throws IOException {
+		BulkResponse.Chunk chunk;
+		List<Long> accepted = null;
+		try {
+			Collection<String> sent = client.notifications_send( context, ids, notification, isAppToUser );
+			accepted = new ArrayList<Long>( sent.size() );
+			for ( String id : sent ) {
+				accepted.add( Long.valueOf( id.trim() ) );
+			}
+			CharSequence delimited = BasicClientHelper.delimit( accepted );
+			chunk = new BulkResponse.Chunk( index, ids, delimited == null ? "" : delimited.toString(), null );
+		}
+		catch ( FacebookException ex ) {
+			chunk = new BulkResponse.Chunk( index, ids, null, ex );
+		}
+		catch ( IOException ex ) {
+			chunk = new BulkResponse.Chunk( index, ids, null, ex );
+		}
+		catch ( RuntimeException ex ) {
+			chunk = new BulkResponse.Chunk( index, ids, null, ex );
+		}
+		if ( chunk.isFailed() ) {
+			log.warn( "notifications_send failed for chunk " + index + ": " + chunk.getFailure() );
+		} else if ( out != null ) {
+			synchronized ( out ) {
+				// the trailing ';' marks a complete line, so one cut short by a crash is ignored on resume, and cut off before appending
+				out.write( index + " " + chunk.getResponse() + ";\n" );
+				out.flush();
+			}
+		}
+		result.done( chunk, accepted );
+		ProgressListener l = listener;
+		if ( l != null ) {
+			l.chunkDone( chunk, result );
+		}
+	}
+
+	/**
+	 * @return identifies a job, so that a checkpoint is only resumed by the job that wrote it
+	 */
+	private String fingerprint( List<Long> ids, String notification, boolean isAppToUser ) {
+		SignatureDigest digest = SignatureDigest.get();
+		for ( Long id : ids ) {
+			digest.update( id.toString() ).update( ',' );
+		}
+		digest.update( '\n' ).update( notification );
+		return ( isAppToUser ? "app_to_user" : "user_to_user" ) + " " + ids.size() + " " + chunkSize + " " + digest.hexDigest();
+	}
+
+	private BitSet readCheckpoint( String header, Result result ) throws IOException {
+		BitSet done = new BitSet();
+		if ( !checkpoint.exists() ) {
+			return done;
+		}
+		BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( checkpoint ), "UTF-8" ) );
+		try {
+			String line = in.readLine();
+			if ( line == null ) {
+				return done;
+			}
+			if ( !header.equals( line ) ) {
+				throw new IOException( "Checkpoint " + checkpoint + " was written for another job: " + line );
+			}
+			while ( ( line = in.readLine() ) != null ) {
+				int space = line.indexOf( ' ' );
+				if ( space < 0 || !line.endsWith( ";" ) ) {
+					continue;
+				}
+				int index;
+				List<Long> accepted = new ArrayList<Long>();
+				try {
+					index = Integer.parseInt( line.substring( 0, space ) );
+					for ( String id : line.substring( space + 1, line.length() - 1 ).split( "," ) ) {
+						if ( id.length() > 0 ) {
+							accepted.add( Long.valueOf( id ) );
+						}
+					}
+				}
+				catch ( NumberFormatException ex ) {
+					log.warn( "Ignoring unreadable line in checkpoint " + checkpoint + ": " + line );
+					continue;
+				}
+				if ( index < 0 || index >= result.getChunkCount() || done.get( index ) ) {
+					continue;
+				}
+				done.set( index );
+				result.resumed( accepted );
+			}
+			log.info( "Resuming from " + checkpoint + ": " + done.cardinality() + " of " + result.getChunkCount() + " chunks already sent" );
+			return done;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private Writer openCheckpoint( String header ) throws IOException {
+		boolean exists = checkpoint.exists() && cutTornLine() > 0;
+		Writer out = new OutputStreamWriter( new FileOutputStream( checkpoint, exists ), "UTF-8" );
+		if ( !exists ) {
+			out.write( header + "\n" );
+			out.flush();
+		}
+		return out;
+	}
+
+	/**
+	 * Cuts the checkpoint back to its last complete line, so that a line left unfinished by a crash is not run into the next one appended.
+	 * 
+	 * @return the length of the checkpoint afterwards
+	 */
+	private long cutTornLine() throws IOException {
+		RandomAccessFile file = new RandomAccessFile( checkpoint, "rw" );
+		try {
+			long end = file.length();
+			while ( end > 0 ) {
+				file.seek( end - 1 );
+				if ( file.read() == '\n' ) {
+					break;
+				}
+				end-- ;
+			}
+			if ( end < file.length() ) {
+				log.info( "Cutting an unfinished line off checkpoint " + checkpoint );
+				file.setLength( end );
+			}
+			return end;
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Spaces out request starts evenly to stay within a rate.
+	 */
+	private static class Pacer {
+
+		private final long interval;
+		private long next;
+
+		Pacer( double perSecond ) {
+			this.interval = perSecond > 0 ? (long) ( TimeUnit.SECONDS.toNanos( 1 ) / perSecond ) : 0;
+			this.next = System.nanoTime();
+		}
+
+		void acquire() throws InterruptedException {
+			if ( interval == 0 ) {
+				return;
+			}
+			long slot;
+			synchronized ( this ) {
+				long now = System.nanoTime();
+				slot = Math.max( now, next );
+				next = slot + interval;
+			}
+			long wait = slot - System.nanoTime();
+			if ( wait > 0 ) {
+				TimeUnit.NANOSECONDS.sleep( wait );
+			}
+		}
+
+	}
+
+}
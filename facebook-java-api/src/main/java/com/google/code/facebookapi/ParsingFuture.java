@@ -0,0 +1,78 @@
+package com.google.code.facebookapi;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Adapts a Future for a raw response into a Future for the parsed result. Parsing happens once, on the first thread to call get(); a FacebookException raised by
+ * the parser surfaces as the cause of an ExecutionException, just like a communication error.
+ *
+ * @param <V>
+ *            the parsed result type
+ */
+// package-level access intentional (at least for now)
+abstract class ParsingFuture<V> implements Future<V> {
+
+	private final Future<String> raw;
+	private boolean parsed;
+	private V value;
+	private FacebookException error;
+
+	public ParsingFuture( Future<String> raw ) {
+		this.raw = raw;
+	}
+
+	protected abstract V parse( String rawResponse ) throws FacebookException;
+
+	public boolean cancel( boolean mayInterruptIfRunning ) {
+		return raw.cancel( mayInterruptIfRunning );
+	}
+
+	public boolean isCancelled() {
+		return raw.isCancelled();
+	}
+
+	public boolean isDone() {
+		return raw.isDone();
+	}
+
+	public V get() throws InterruptedException, ExecutionException {
+		return result( raw.get() );
+	}
+
+	public V get( long timeout, TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException {
+		return result( raw.get( timeout, unit ) );
+	}
+
+	private synchronized V result( String rawResponse ) throws ExecutionException {
+		if ( !parsed ) {
+			try {
+				value = parse( rawResponse );
+			}
+			catch ( FacebookException ex ) {
+				error = ex;
+			}
+			parsed = true;
+		}
+		if ( error != null ) {
+			throw new ParseException( error );
+		}
+		return value;
+	}
+
+	/**
+	 * ExecutionException's cause constructor is protected on Java 5.
+	 */
+	private static class ParseException extends ExecutionException {
+
+		private static final long serialVersionUID = 1L;
+
+		private ParseException( FacebookException cause ) {
+			super( cause.getMessage(), cause );
+		}
+
+	}
+
+}
@@ -0,0 +1,226 @@
+package com.google.code.facebookapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * CommunicationStrategy implementation that keeps HTTP connections alive between calls, using HttpURLConnection's own keep-alive cache. Saves the TCP (and TLS)
+ * handshake that {@link DefaultCommunicationStrategy} pays on every call by disconnecting once the call is done.
+ *
+ * A connection only goes back to the cache once its response has been read to the end and its stream closed, so every response, error responses included, is
+ * read in full. The cache keeps up to <code>http.maxConnections</code> (5 by default) idle connections per host, for as long as the server's Keep-Alive header
+ * allows; both are JVM wide settings. So that calls don't open connections the cache would then close, no more than <code>maxPerRoute</code> calls to a host
+ * are in flight at once; further calls wait for one to finish.
+ *
+ * Being plain HttpURLConnections, the connections honour the proxy settings, the default SSLSocketFactory and the default HostnameVerifier as any other does.
+ * Requests are streamed with a fixed length, so HttpURLConnection never silently resends one; a call that fails on a connection the server had already closed
+ * throws an IOException, which a {@link RetryPolicy} resends signed afresh.
+ *
+ * File uploads are rare and large, so they are delegated to a {@link DefaultCommunicationStrategy} configured with the same timeouts.
+ */
+public class PooledCommunicationStrategy implements FileUploadCommunicationStrategy, StreamingCommunicationStrategy {
+
+	protected static Log log = LogFactory.getLog( PooledCommunicationStrategy.class );
+
+	public static final int DEFAULT_MAX_PER_ROUTE = 5;
+
+	private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+	private static final String ENCODING = "UTF-8";
+
+	private final int maxPerRoute;
+	private final ConcurrentMap<String,Semaphore> routes = new ConcurrentHashMap<String,Semaphore>();
+	private final DefaultCommunicationStrategy uploadStrategy;
+
+	private int connectionTimeout = -1;
+	private int readTimeout = -1;
+
+	public PooledCommunicationStrategy() {
+		this( DEFAULT_MAX_PER_ROUTE );
+	}
+
+	/**
+	 * @param maxPerRoute
+	 *            the most calls to one scheme, host and port in flight at once; best no higher than <code>http.maxConnections</code>
+	 */
+	public PooledCommunicationStrategy( int maxPerRoute ) {
+		if ( maxPerRoute < 1 ) {
+			throw new IllegalArgumentException( "maxPerRoute must be positive: " + maxPerRoute );
+		}
+		this.maxPerRoute = maxPerRoute;
+		this.uploadStrategy = new DefaultCommunicationStrategy();
+	}
+
+	public int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+
+	/**
+	 * @return the number of calls to the url's host in flight now
+	 */
+	public int getActive( URL url ) {
+		Semaphore route = routes.get( routeOf( url ) );
+		return route == null ? 0 : maxPerRoute - route.availablePermits();
+	}
+
+	/**
+	 * @return the number of calls to the url's host waiting for another to finish
+	 */
+	public int getPending( URL url ) {
+		Semaphore route = routes.get( routeOf( url ) );
+		return route == null ? 0 : route.getQueueLength();
+	}
+
+	public int getConnectionTimeout() {
+		return connectionTimeout;
+	}
+
+	public void setConnectionTimeout( int connectionTimeout ) {
+		this.connectionTimeout = connectionTimeout;
+		uploadStrategy.setConnectionTimeout( connectionTimeout );
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout( int readTimeout ) {
+		this.readTimeout = readTimeout;
+		uploadStrategy.setReadTimeout( readTimeout );
+	}
+
+	public String postRequest( URL serverUrl, SortedMap<String,String> params ) throws IOException {
+		return new String( post( serverUrl, params ), ENCODING );
+	}
+
+	/**
+	 * The response is read in full before the handler is called, so the connection can go back to the cache straight away; the handler still saves building a
+	 * String of it.
+	 */
+	public <T> T postRequest( URL serverUrl, SortedMap<String,String> params, ResponseHandler<T> handler ) throws IOException, FacebookException {
+		return handler.handle( new ByteArrayInputStream( post( serverUrl, params ) ) );
+	}
+
+	private byte[] post( URL serverUrl, SortedMap<String,String> params ) throws IOException {
+		Semaphore route = routeFor( serverUrl );
+		try {
+			route.acquire();
+		}
+		catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException iex = new InterruptedIOException( "interrupted waiting to call " + serverUrl );
+			iex.initCause( ex );
+			throw iex;
+		}
+		try {
+			FormEncoder body = FormEncoder.forThread().params( params );
+			HttpURLConnection conn = (HttpURLConnection) serverUrl.openConnection();
+			if ( connectionTimeout != -1 ) {
+				conn.setConnectTimeout( connectionTimeout );
+			}
+			if ( readTimeout != -1 ) {
+				conn.setReadTimeout( readTimeout );
+			}
+			conn.setRequestMethod( "POST" );
+			conn.setRequestProperty( "Content-Type", FORM_CONTENT_TYPE );
+			conn.setDoOutput( true );
+			conn.setFixedLengthStreamingMode( body.size() );
+			OutputStream out = conn.getOutputStream();
+			try {
+				body.writeTo( out );
+			}
+			finally {
+				BasicClientHelper.close( out );
+			}
+			return readResponse( conn );
+		}
+		finally {
+			route.release();
+		}
+	}
+
+	/**
+	 * Reads the response to the end and closes its stream, without disconnecting, so that the connection can be kept alive.
+	 */
+	private static byte[] readResponse( HttpURLConnection conn ) throws IOException {
+		InputStream in;
+		try {
+			in = conn.getInputStream();
+		}
+		catch ( IOException ex ) {
+			// an error response must be read too, or its connection is not reused
+			InputStream error = conn.getErrorStream();
+			if ( error != null ) {
+				try {
+					readFully( error );
+				}
+				catch ( IOException ignored ) {
+					// the original failure is the one to report
+				}
+				finally {
+					BasicClientHelper.close( error );
+				}
+			}
+			throw ex;
+		}
+		try {
+			return readFully( in );
+		}
+		finally {
+			BasicClientHelper.close( in );
+		}
+	}
+
+	private static byte[] readFully( InputStream in ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream( 1024 );
+		byte[] buf = new byte[4096];
+		int len;
+		while ( ( len = in.read( buf ) ) != -1 ) {
+			out.write( buf, 0, len );
+		}
+		return out.toByteArray();
+	}
+
+	private Semaphore routeFor( URL url ) {
+		String key = routeOf( url );
+		Semaphore route = routes.get( key );
+		if ( route == null ) {
+			Semaphore created = new Semaphore( maxPerRoute, true );
+			route = routes.putIfAbsent( key, created );
+			if ( route == null ) {
+				route = created;
+			}
+		}
+		return route;
+	}
+
+	private static String routeOf( URL url ) {
+		int port = url.getPort();
+		if ( port == -1 ) {
+			port = url.getDefaultPort();
+		}
+		return url.getProtocol() + "://" + url.getHost() + ":" + port;
+	}
+
+	public String postRequest( URL serverUrl, SortedMap<String,String> params, String fileName, InputStream fileStream ) throws IOException {
+		return uploadStrategy.postRequest( serverUrl, params, fileName, fileStream );
+	}
+
+	public String postRequest( URL serverUrl, SortedMap<String,String> params, String fileName, FileChannel fileChannel ) throws IOException {
+		return uploadStrategy.postRequest( serverUrl, params, fileName, fileChannel );
+	}
+
+}
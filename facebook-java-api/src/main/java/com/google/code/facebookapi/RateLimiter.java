@@ -0,0 +1,441 @@
+package com.google.code.facebookapi;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Smooths calls to the rates Facebook allows, so that a burst of work waits on the client instead of coming back as throttling errors. Each application
+ * (api_key) has a token bucket, and optionally so does each session (session_key); a call takes a token from both, waiting until there is one. Install it with
+ * {@link ExtensibleClient#setRateLimiter(RateLimiter)} or {@link BasicClient#setRateLimiter(RateLimiter)}; one instance can be shared by any number of clients,
+ * and should be, so that they share the application's budget.
+ *
+ * When calls have to wait, they are let through in order of {@link Priority}, then of arrival: calls made while rendering a page for a user go ahead of
+ * background jobs. A client's calls take the priority of their {@link CallContext#setPriority(Priority) CallContext}.
+ *
+ * Calls can wait by blocking, with {@link #acquire(Map, Priority)}, or without blocking, with {@link #acquireAsync(Map, Priority)}; the two share one queue.
+ */
+public class RateLimiter {
+
+	/**
+	 * Who goes first when calls are waiting, highest first.
+	 */
+	public enum Priority {
+		/**
+		 * A user is waiting for the result, as in rendering a page.
+		 */
+		INTERACTIVE,
+		/**
+		 * The default.
+		 */
+		NORMAL,
+		/**
+		 * Work that can wait, such as a batch job.
+		 */
+		BACKGROUND
+	}
+
+	// sessions idle long enough to refill are forgotten once there are this many
+	private static final int MAX_SESSIONS = 10000;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final double appRate;
+	private final int appBurst;
+	private double sessionRate;
+	private int sessionBurst;
+	private final Map<String,Bucket> apps = new HashMap<String,Bucket>();
+	private final Map<String,Bucket> sessions = new HashMap<String,Bucket>();
+	private final TreeSet<Waiter> queue = new TreeSet<Waiter>();
+	private long sequence;
+
+	private ScheduledExecutorService timer;
+	private ScheduledFuture<?> wakeup;
+	private long wakeupAt;
+
+	private long granted;
+	private long delayed;
+	private long waitNanos;
+
+	/**
+	 * @param callsPerSecond
+	 *            the rate each application's calls are held to
+	 * @param burst
+	 *            the most calls an application can make at once after being idle
+	 */
+	public RateLimiter( double callsPerSecond, int burst ) {
+		if ( callsPerSecond <= 0 || burst < 1 ) {
+			throw new IllegalArgumentException( "Invalid rate: " + callsPerSecond + "/s, burst " + burst );
+		}
+		this.appRate = callsPerSecond;
+		this.appBurst = burst;
+	}
+
+	/**
+	 * Also holds each session's calls to the given rate. A rate of zero (the default) leaves sessions unlimited. Sessions already seen keep their old rate.
+	 */
+	public void setSessionRate( double callsPerSecond, int burst ) {
+		if ( callsPerSecond < 0 || ( callsPerSecond > 0 && burst < 1 ) ) {
+			throw new IllegalArgumentException( "Invalid rate: " + callsPerSecond + "/s, burst " + burst );
+		}
+		lock.lock();
+		try {
+			this.sessionRate = callsPerSecond;
+			this.sessionBurst = burst;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until a call with the given signed parameters may be sent.
+	 */
+	public void acquire( Map<String,String> params, Priority priority ) throws InterruptedException {
+		long start = System.nanoTime();
+		Waiter waiter;
+		lock.lock();
+		try {
+			waiter = newWaiter( params, priority, start );
+			if ( tryGrant( waiter, start ) ) {
+				return;
+			}
+			waiter.signal = lock.newCondition();
+			enqueue( waiter, start );
+			try {
+				while ( !waiter.granted ) {
+					waiter.signal.await();
+				}
+			}
+			catch ( InterruptedException ex ) {
+				if ( waiter.granted ) {
+					// too late to give the token back; let the call go and leave the interrupt for later
+					Thread.currentThread().interrupt();
+					return;
+				}
+				queue.remove( waiter );
+				throw ex;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * As {@link #acquire(Map, Priority)}, but throws an InterruptedIOException, for callers whose failures are IOExceptions.
+	 */
+	void acquireForIO( Map<String,String> params, Priority priority ) throws InterruptedIOException {
+		try {
+			acquire( params, priority );
+		}
+		catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException iex = new InterruptedIOException( "interrupted waiting to be let through the rate limit" );
+			iex.initCause( ex );
+			throw iex;
+		}
+	}
+
+	/**
+	 * Asks to send a call with the given signed parameters, without blocking.
+	 *
+	 * @return a future that completes when the call may be sent, which may be at once; if it had to wait, listeners added to it run on the limiter's timer
+	 *         thread, so should only start the call and not wait for it. Cancelling the future gives up the call's place in the queue.
+	 */
+	public FacebookFuture<Void> acquireAsync( Map<String,String> params, Priority priority ) {
+		long start = System.nanoTime();
+		FacebookFuture<Void> future = new FacebookFuture<Void>();
+		lock.lock();
+		try {
+			Waiter waiter = newWaiter( params, priority, start );
+			if ( !tryGrant( waiter, start ) ) {
+				waiter.future = future;
+				enqueue( waiter, start );
+				return future;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		future.set( null );
+		return future;
+	}
+
+	private Waiter newWaiter( Map<String,String> params, Priority priority, long now ) {
+		Waiter waiter = new Waiter( priority == null ? Priority.NORMAL : priority, sequence++ , now );
+		String apiKey = params.get( "api_key" );
+		waiter.app = bucket( apps, apiKey == null ? "" : apiKey, appRate, appBurst, now );
+		String sessionKey = params.get( "session_key" );
+		if ( sessionKey != null && sessionRate > 0 ) {
+			if ( sessions.size() >= MAX_SESSIONS ) {
+				forgetIdleSessions( now );
+			}
+			waiter.session = bucket( sessions, sessionKey, sessionRate, sessionBurst, now );
+		}
+		return waiter;
+	}
+
+	private static Bucket bucket( Map<String,Bucket> buckets, String key, double rate, int burst, long now ) {
+		Bucket bucket = buckets.get( key );
+		if ( bucket == null ) {
+			bucket = new Bucket( rate, burst, now );
+			buckets.put( key, bucket );
+		}
+		return bucket;
+	}
+
+	private void forgetIdleSessions( long now ) {
+		for ( Iterator<Bucket> it = sessions.values().iterator(); it.hasNext(); ) {
+			if ( it.next().isFull( now ) ) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Lets a new call straight through if nobody is queued and it has its tokens.
+	 */
+	private boolean tryGrant( Waiter waiter, long now ) {
+		if ( !queue.isEmpty() || !waiter.available( now ) ) {
+			return false;
+		}
+		waiter.take();
+		granted++ ;
+		return true;
+	}
+
+	/**
+	 * Queues a call that can't go straight through. Queued calls are only ever let through by the timer, so listeners on their futures never run under the lock.
+	 */
+	private void enqueue( Waiter waiter, long now ) {
+		delayed++ ;
+		queue.add( waiter );
+		scheduleWakeup( now + waiter.nanosUntilAvailable( now ) );
+	}
+
+	/**
+	 * Lets through every queued call that can go, in priority order, and arranges to be run again when the next token comes due.
+	 *
+	 * @return the futures of the asynchronous calls let through, to be completed outside the lock
+	 */
+	private List<FacebookFuture<Void>> dispatch() {
+		List<FacebookFuture<Void>> ready = new ArrayList<FacebookFuture<Void>>( 0 );
+		long now = System.nanoTime();
+		long next = Long.MAX_VALUE;
+		for ( Iterator<Waiter> it = queue.iterator(); it.hasNext(); ) {
+			Waiter waiter = it.next();
+			if ( waiter.future != null && waiter.future.isCancelled() ) {
+				it.remove();
+				continue;
+			}
+			if ( !waiter.available( now ) ) {
+				next = Math.min( next, now + waiter.nanosUntilAvailable( now ) );
+				continue;
+			}
+			waiter.take();
+			it.remove();
+			waiter.granted = true;
+			granted++ ;
+			waitNanos += now - waiter.enqueued;
+			if ( waiter.signal != null ) {
+				waiter.signal.signal();
+			} else {
+				ready.add( waiter.future );
+			}
+		}
+		if ( next != Long.MAX_VALUE ) {
+			scheduleWakeup( next );
+		}
+		return ready;
+	}
+
+	private void scheduleWakeup( long at ) {
+		if ( wakeup != null && !wakeup.isDone() && wakeupAt <= at ) {
+			return;
+		}
+		if ( wakeup != null ) {
+			wakeup.cancel( false );
+		}
+		if ( timer == null ) {
+			timer = Executors.newSingleThreadScheduledExecutor( new DaemonThreadFactory( "RateLimiter" ) );
+		}
+		wakeupAt = at;
+		wakeup = timer.schedule( new Runnable() {
+			public void run() {
+				List<FacebookFuture<Void>> ready;
+				lock.lock();
+				try {
+					wakeup = null;
+					ready = dispatch();
+				}
+				finally {
+					lock.unlock();
+				}
+				complete( ready );
+			}
+		}, Math.max( 0, at - System.nanoTime() ), TimeUnit.NANOSECONDS );
+	}
+
+	private static void complete( List<FacebookFuture<Void>> ready ) {
+		for ( FacebookFuture<Void> future : ready ) {
+			future.set( null );
+		}
+	}
+
+	/**
+	 * @return calls let through so far
+	 */
+	public long getGranted() {
+		lock.lock();
+		try {
+			return granted;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return calls that had to wait to be let through, including any still waiting
+	 */
+	public long getDelayed() {
+		lock.lock();
+		try {
+			return delayed;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the total time calls let through spent waiting, in milliseconds
+	 */
+	public long getWaitMillis() {
+		lock.lock();
+		try {
+			return TimeUnit.NANOSECONDS.toMillis( waitNanos );
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return calls waiting now
+	 */
+	public int getQueueLength() {
+		lock.lock();
+		try {
+			return queue.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimiter[granted=" + getGranted() + ", delayed=" + getDelayed() + ", waitMillis=" + getWaitMillis() + ", queued=" + getQueueLength() + "]";
+	}
+
+	/**
+	 * Tokens accrue at a steady rate up to a limit; a call spends one.
+	 */
+	private static class Bucket {
+
+		private final double perNano;
+		private final int capacity;
+		private double tokens;
+		private long refilled;
+
+		Bucket( double perSecond, int capacity, long now ) {
+			this.perNano = perSecond / TimeUnit.SECONDS.toNanos( 1 );
+			this.capacity = capacity;
+			this.tokens = capacity;
+			this.refilled = now;
+		}
+
+		private void refill( long now ) {
+			if ( now > refilled ) {
+				tokens = Math.min( capacity, tokens + ( now - refilled ) * perNano );
+				refilled = now;
+			}
+		}
+
+		boolean available( long now ) {
+			refill( now );
+			return tokens >= 1;
+		}
+
+		long nanosUntilAvailable( long now ) {
+			refill( now );
+			return tokens >= 1 ? 0 : (long) Math.ceil( ( 1 - tokens ) / perNano );
+		}
+
+		boolean isFull( long now ) {
+			refill( now );
+			return tokens >= capacity;
+		}
+
+		void take() {
+			tokens -= 1;
+		}
+
+	}
+
+	/**
+	 * A call waiting for tokens: a blocked thread, signalled through its condition, or an asynchronous caller, told through its future.
+	 */
+	private static class Waiter implements Comparable<Waiter> {
+
+		final Priority priority;
+		final long sequence;
+		final long enqueued;
+		Bucket app;
+		Bucket session;
+		Condition signal;
+		FacebookFuture<Void> future;
+		boolean granted;
+
+		Waiter( Priority priority, long sequence, long enqueued ) {
+			this.priority = priority;
+			this.sequence = sequence;
+			this.enqueued = enqueued;
+		}
+
+		boolean available( long now ) {
+			return app.available( now ) && ( session == null || session.available( now ) );
+		}
+
+		long nanosUntilAvailable( long now ) {
+			return Math.max( app.nanosUntilAvailable( now ), session == null ? 0 : session.nanosUntilAvailable( now ) );
+		}
+
+		void take() {
+			app.take();
+			if ( session != null ) {
+				session.take();
+			}
+		}
+
+		public int compareTo( Waiter o ) {
+			if ( priority != o.priority ) {
+				return priority.compareTo( o.priority );
+			}
+			return sequence < o.sequence ? -1 : sequence > o.sequence ? 1 : 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes identical read-only calls that are in flight at the same time share one request. The first caller sends it; callers arriving before its response wait
+ * for it and get the same raw response, or the very exception the sender's request failed with. Calls are identical when they have the same method and
+ * signed parameters apart from call_id and sig, as for {@link ResponseCache}.
+ *
+ * Install it with {@link ExtensibleClient#setRequestCoalescer(RequestCoalescer)}; one instance can be shared by any number of clients. Only
+ * {@link FacebookMethod#isReadOnly() read-only} methods are coalesced.
+ */
+public class RequestCoalescer {
+
+	private final ConcurrentMap<String,Flight> inFlight = new ConcurrentHashMap<String,Flight>();
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong joined = new AtomicLong();
+
+	boolean isCoalescable( IFacebookMethod method ) {
+		return method instanceof FacebookMethod && ( (FacebookMethod) method ).isReadOnly();
+	}
+
+	/**
+	 * Runs <code>request</code> unless an identical one is already in flight, in which case waits for and returns its response.
+	 */
+	String execute( String key, Callable<String> request ) throws IOException {
+		Flight flight = new Flight();
+		Flight existing = inFlight.putIfAbsent( key, flight );
+		if ( existing != null ) {
+			joined.incrementAndGet();
+			return existing.await();
+		}
+		requests.incrementAndGet();
+		try {
+			flight.response = request.call();
+			return flight.response;
+		}
+		catch ( IOException ex ) {
+			flight.failure = ex;
+			throw ex;
+		}
+		catch ( RuntimeException ex ) {
+			flight.failure = ex;
+			throw ex;
+		}
+		catch ( Exception ex ) {
+			RuntimeException rex = BasicClientHelper.runtimeException( ex );
+			flight.failure = rex;
+			throw rex;
+		}
+		finally {
+			// later callers must send their own request, as the response may already be stale for them
+			inFlight.remove( key, flight );
+			flight.done.countDown();
+		}
+	}
+
+	/**
+	 * @return the number of requests sent
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of calls that were answered by another caller's request instead of sending their own
+	 */
+	public long getJoined() {
+		return joined.get();
+	}
+
+	/**
+	 * @return the number of distinct requests currently in flight
+	 */
+	public int getInFlight() {
+		return inFlight.size();
+	}
+
+	@Override
+	public String toString() {
+		return "RequestCoalescer[requests=" + getRequests() + ", joined=" + getJoined() + ", inFlight=" + getInFlight() + "]";
+	}
+
+	private static class Flight {
+
+		final CountDownLatch done = new CountDownLatch( 1 );
+		// published by the countDown / await pair
+		String response;
+		// an IOException or a RuntimeException
+		Exception failure;
+
+		/**
+		 * @throws InterruptedIOException
+		 *             if the caller is interrupted while it waits; the request carries on for any other callers
+		 */
+		String await() throws IOException {
+			try {
+				done.await();
+			}
+			catch ( InterruptedException ex ) {
+				Thread.currentThread().interrupt();
+				InterruptedIOException iex = new InterruptedIOException( "interrupted waiting for an identical call in flight" );
+				iex.initCause( ex );
+				throw iex;
+			}
+			if ( failure == null ) {
+				return response;
+			}
+			// every caller sees the exception the sender got, as all the callers of a FutureTask do
+			if ( failure instanceof IOException ) {
+				throw (IOException) failure;
+			}
+			throw (RuntimeException) failure;
+		}
+
+	}
+
+}
@@ -0,0 +1,462 @@
+package com.google.code.facebookapi;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The signed parameters of one request, as two parallel arrays sorted by name. It is still a SortedMap, so communication strategies, caches and batch queries
+ * take it as before, but signing and encoding walk the arrays with {@link #keyAt(int)} and {@link #valueAt(int)} instead of iterating map entries.
+ *
+ * Built by a per-thread {@link Builder}, which keeps the parameters every call has in fixed slots and sorts the call's own arguments once. The builder's
+ * scratch space is reused from call to call; the RequestParams it builds is the caller's to keep.
+ *
+ * headMap, tailMap and subMap return copies rather than views.
+ */
+// package-level access intentional (at least for now)
+class RequestParams extends AbstractMap<String,String> implements SortedMap<String,String> {
+
+	protected static Log log = LogFactory.getLog( RequestParams.class );
+
+	private static final AtomicLong lastCallId = new AtomicLong();
+
+	private String[] keys;
+	private String[] values;
+	private int size;
+
+	RequestParams( int capacity ) {
+		keys = new String[Math.max( 1, capacity )];
+		values = new String[keys.length];
+	}
+
+	public String keyAt( int index ) {
+		return keys[index];
+	}
+
+	public String valueAt( int index ) {
+		return values[index];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private int indexOf( Object key ) {
+		int lo = 0;
+		int hi = size - 1;
+		String k = (String) key;
+		while ( lo <= hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			int c = keys[mid].compareTo( k );
+			if ( c < 0 ) {
+				lo = mid + 1;
+			} else if ( c > 0 ) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return - ( lo + 1 );
+	}
+
+	@Override
+	public boolean containsKey( Object key ) {
+		return key instanceof String && indexOf( key ) >= 0;
+	}
+
+	@Override
+	public String get( Object key ) {
+		if ( ! ( key instanceof String ) ) {
+			return null;
+		}
+		int i = indexOf( key );
+		return i >= 0 ? values[i] : null;
+	}
+
+	@Override
+	public String put( String key, String value ) {
+		int i = indexOf( key );
+		if ( i >= 0 ) {
+			String old = values[i];
+			values[i] = value;
+			return old;
+		}
+		i = -i - 1;
+		if ( size == keys.length ) {
+			String[] k = new String[size * 2];
+			String[] v = new String[size * 2];
+			System.arraycopy( keys, 0, k, 0, size );
+			System.arraycopy( values, 0, v, 0, size );
+			keys = k;
+			values = v;
+		}
+		System.arraycopy( keys, i, keys, i + 1, size - i );
+		System.arraycopy( values, i, values, i + 1, size - i );
+		keys[i] = key;
+		values[i] = value;
+		size++ ;
+		return null;
+	}
+
+	@Override
+	public String remove( Object key ) {
+		if ( ! ( key instanceof String ) ) {
+			return null;
+		}
+		int i = indexOf( key );
+		if ( i < 0 ) {
+			return null;
+		}
+		String old = values[i];
+		removeAt( i );
+		return old;
+	}
+
+	private void removeAt( int i ) {
+		System.arraycopy( keys, i + 1, keys, i, size - i - 1 );
+		System.arraycopy( values, i + 1, values, i, size - i - 1 );
+		size-- ;
+		keys[size] = null;
+		values[size] = null;
+	}
+
+	@Override
+	public void clear() {
+		for ( int i = 0; i < size; i++ ) {
+			keys[i] = null;
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String,String>> entrySet() {
+		return new AbstractSet<Map.Entry<String,String>>() {
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public Iterator<Map.Entry<String,String>> iterator() {
+				return new Iterator<Map.Entry<String,String>>() {
+
+					private int next;
+					private int last = -1;
+
+					public boolean hasNext() {
+						return next < size;
+					}
+
+					public Map.Entry<String,String> next() {
+						if ( next >= size ) {
+							throw new NoSuchElementException();
+						}
+						last = next++ ;
+						return new Slot( last );
+					}
+
+					public void remove() {
+						if ( last < 0 ) {
+							throw new IllegalStateException();
+						}
+						removeAt( last );
+						next = last;
+						last = -1;
+					}
+
+				};
+			}
+
+		};
+	}
+
+	public Comparator<? super String> comparator() {
+		return null;
+	}
+
+	public String firstKey() {
+		if ( size == 0 ) {
+			throw new NoSuchElementException();
+		}
+		return keys[0];
+	}
+
+	public String lastKey() {
+		if ( size == 0 ) {
+			throw new NoSuchElementException();
+		}
+		return keys[size - 1];
+	}
+
+	public SortedMap<String,String> headMap( String toKey ) {
+		return new TreeMap<String,String>( this ).headMap( toKey );
+	}
+
+	public SortedMap<String,String> tailMap( String fromKey ) {
+		return new TreeMap<String,String>( this ).tailMap( fromKey );
+	}
+
+	public SortedMap<String,String> subMap( String fromKey, String toKey ) {
+		return new TreeMap<String,String>( this ).subMap( fromKey, toKey );
+	}
+
+	/**
+	 * @return a call_id for a new request: the time in milliseconds, or one more than the last handed out, so that call_ids always increase as Facebook requires
+	 */
+	static String nextCallId() {
+		while ( true ) {
+			long last = lastCallId.get();
+			long next = Math.max( System.currentTimeMillis(), last + 1 );
+			if ( lastCallId.compareAndSet( last, next ) ) {
+				return Long.toString( next );
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the given parameters with a new call_id, signed again with the given secret, for sending the call once more as a new request
+	 */
+	static SortedMap<String,String> resign( SortedMap<String,String> params, String secret ) {
+		RequestParams out = new RequestParams( params.size() );
+		for ( Map.Entry<String,String> e : params.entrySet() ) {
+			if ( !"sig".equals( e.getKey() ) ) {
+				out.put( e.getKey(), e.getValue() );
+			}
+		}
+		out.put( "call_id", nextCallId() );
+		out.put( "sig", FacebookSignatureUtil.generateSignature( out, secret ) );
+		return out;
+	}
+
+	/**
+	 * An entry that reads and writes the arrays in place.
+	 */
+	private class Slot implements Map.Entry<String,String> {
+
+		private final int index;
+
+		Slot( int index ) {
+			this.index = index;
+		}
+
+		public String getKey() {
+			return keys[index];
+		}
+
+		public String getValue() {
+			return values[index];
+		}
+
+		public String setValue( String value ) {
+			String old = values[index];
+			values[index] = value;
+			return old;
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			if ( ! ( o instanceof Map.Entry ) ) {
+				return false;
+			}
+			Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+			return getKey().equals( e.getKey() ) && ( getValue() == null ? e.getValue() == null : getValue().equals( e.getValue() ) );
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ ( getValue() == null ? 0 : getValue().hashCode() );
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+
+	}
+
+	/**
+	 * Collects the parameters of a call. The parameters common to every call go in fixed slots, already in name order; the call's own arguments are sorted once
+	 * and merged with them by {@link #build(boolean)}.
+	 */
+	static class Builder {
+
+		private static final ThreadLocal<Builder> LOCAL = new ThreadLocal<Builder>() {
+			@Override
+			protected Builder initialValue() {
+				return new Builder();
+			}
+		};
+
+		// the fixed parameters in name order, so they merge without sorting
+		private static final String[] FIXED_KEYS = { "api_key", "call_as_apikey", "call_id", "format", "method", "session_key", "ss", "v" };
+		private static final int API_KEY = 0;
+		private static final int CALL_AS_APIKEY = 1;
+		private static final int CALL_ID = 2;
+		private static final int FORMAT = 3;
+		private static final int METHOD = 4;
+		private static final int SESSION_KEY = 5;
+		private static final int SS = 6;
+		private static final int V = 7;
+
+		private final String[] fixed = new String[FIXED_KEYS.length];
+		private String[] argKeys = new String[16];
+		private String[] argValues = new String[16];
+		private int args;
+
+		/**
+		 * @return this thread's builder, emptied
+		 */
+		static Builder forThread() {
+			Builder builder = LOCAL.get();
+			for ( int i = 0; i < builder.fixed.length; i++ ) {
+				builder.fixed[i] = null;
+			}
+			for ( int i = 0; i < builder.args; i++ ) {
+				builder.argKeys[i] = null;
+				builder.argValues[i] = null;
+			}
+			builder.args = 0;
+			return builder;
+		}
+
+		Builder apiKey( String value ) {
+			fixed[API_KEY] = value;
+			return this;
+		}
+
+		Builder callAsApiKey( String value ) {
+			fixed[CALL_AS_APIKEY] = value;
+			return this;
+		}
+
+		Builder callId( String value ) {
+			fixed[CALL_ID] = value;
+			return this;
+		}
+
+		Builder format( String value ) {
+			fixed[FORMAT] = value;
+			return this;
+		}
+
+		Builder method( String value ) {
+			fixed[METHOD] = value;
+			return this;
+		}
+
+		Builder sessionKey( String value ) {
+			fixed[SESSION_KEY] = value;
+			return this;
+		}
+
+		Builder ss( boolean ss ) {
+			fixed[SS] = ss ? "1" : null;
+			return this;
+		}
+
+		Builder v( String value ) {
+			fixed[V] = value;
+			return this;
+		}
+
+		Builder args( Collection<Pair<String,CharSequence>> pairs ) {
+			for ( Pair<String,CharSequence> p : pairs ) {
+				arg( p.first, BasicClientHelper.toString( p.second ) );
+			}
+			return this;
+		}
+
+		Builder arg( String key, String value ) {
+			if ( args == argKeys.length ) {
+				String[] k = new String[args * 2];
+				String[] v = new String[args * 2];
+				System.arraycopy( argKeys, 0, k, 0, args );
+				System.arraycopy( argValues, 0, v, 0, args );
+				argKeys = k;
+				argValues = v;
+			}
+			argKeys[args] = key;
+			argValues[args] = value;
+			args++ ;
+			return this;
+		}
+
+		/**
+		 * @param argsWin
+		 *            whether an argument named like a fixed parameter replaces it, with a warning, or is dropped in its favour; either way a repeated argument
+		 *            replaces the earlier one with a warning
+		 * @return the parameters, with room for the signature
+		 */
+		RequestParams build( boolean argsWin ) {
+			// a stable insertion sort: calls have few arguments, and a repeated name keeps its order so the last one wins
+			for ( int i = 1; i < args; i++ ) {
+				String k = argKeys[i];
+				String v = argValues[i];
+				int j = i - 1;
+				while ( j >= 0 && argKeys[j].compareTo( k ) > 0 ) {
+					argKeys[j + 1] = argKeys[j];
+					argValues[j + 1] = argValues[j];
+					j-- ;
+				}
+				argKeys[j + 1] = k;
+				argValues[j + 1] = v;
+			}
+			RequestParams out = new RequestParams( FIXED_KEYS.length + args + 1 );
+			int f = 0;
+			int a = 0;
+			while ( f < FIXED_KEYS.length || a < args ) {
+				if ( f < FIXED_KEYS.length && fixed[f] == null ) {
+					f++ ;
+					continue;
+				}
+				if ( a + 1 < args && argKeys[a].equals( argKeys[a + 1] ) ) {
+					warn( argKeys[a], argValues[a], argValues[a + 1] );
+					a++ ;
+					continue;
+				}
+				int c = f == FIXED_KEYS.length ? 1 : a == args ? -1 : FIXED_KEYS[f].compareTo( argKeys[a] );
+				if ( c < 0 ) {
+					out.append( FIXED_KEYS[f], fixed[f++ ] );
+				} else if ( c > 0 ) {
+					out.append( argKeys[a], argValues[a++ ] );
+				} else if ( argsWin ) {
+					warn( argKeys[a], fixed[f++ ], argValues[a] );
+					out.append( argKeys[a], argValues[a++ ] );
+				} else {
+					out.append( FIXED_KEYS[f], fixed[f++ ] );
+					a++ ;
+				}
+			}
+			return out;
+		}
+
+		private static void warn( String key, String oldValue, String newValue ) {
+			log.warn( String.format( "For parameter %s, overwrote old value %s with new value %s.", key, oldValue, newValue ) );
+		}
+
+	}
+
+	/**
+	 * Adds a key known to sort after every key present.
+	 */
+	private void append( String key, String value ) {
+		keys[size] = key;
+		values[size] = value;
+		size++ ;
+	}
+
+}
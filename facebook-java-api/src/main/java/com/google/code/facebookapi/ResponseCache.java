@@ -0,0 +1,243 @@
+package com.google.code.facebookapi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the raw responses of read-only calls for a configurable time, so that repeated calls for slowly changing data (users_getInfo, friends_get, pages_getInfo
+ * and the like) are answered without a request. Install it with {@link ExtensibleClient#setResponseCache(ResponseCache)} or
+ * {@link BasicClient#setResponseCache(ResponseCache)}; one instance can be shared by any number of clients.
+ *
+ * Only methods given a TTL with {@link #setTtl(FacebookMethod, long, TimeUnit)} are cached, and only {@link FacebookMethod#isReadOnly() read-only} methods can be
+ * given one. Responses are keyed on the method and every signed parameter except call_id and sig, so calls for different sessions, formats or arguments never
+ * share an entry. Error responses are not cached. When full, the least recently used entry is evicted.
+ */
+public class ResponseCache {
+
+	private static final int SEGMENTS = 16;
+
+	private static final int HITS = 0;
+	private static final int MISSES = 1;
+	private static final int EVICTIONS = 2;
+	private static final int EXPIRATIONS = 3;
+
+	private final ConcurrentMap<IFacebookMethod,Long> ttls = new ConcurrentHashMap<IFacebookMethod,Long>();
+	private final Segment[] segments;
+	private final StripedCounters counters = new StripedCounters( 4 );
+
+	/**
+	 * @param maxEntries
+	 *            the most responses kept at once
+	 */
+	public ResponseCache( int maxEntries ) {
+		if ( maxEntries < 1 ) {
+			throw new IllegalArgumentException( "maxEntries must be positive: " + maxEntries );
+		}
+		int segmentCount = Math.min( SEGMENTS, maxEntries );
+		segments = new Segment[segmentCount];
+		for ( int i = 0; i < segmentCount; i++ ) {
+			// spread the remainder so the capacities add up to maxEntries
+			segments[i] = new Segment( maxEntries / segmentCount + ( i < maxEntries % segmentCount ? 1 : 0 ) );
+		}
+	}
+
+	/**
+	 * @return a cache with TTLs set for the common reads of slowly changing data: a minute for events, five for users, friends and pages, and an hour for
+	 *         application and admin properties
+	 */
+	public static ResponseCache withDefaultTtls( int maxEntries ) {
+		ResponseCache cache = new ResponseCache( maxEntries );
+		cache.setTtl( FacebookMethod.EVENTS_GET, 60, TimeUnit.SECONDS );
+		for ( FacebookMethod method : new FacebookMethod[] { FacebookMethod.USERS_GET_INFO, FacebookMethod.USERS_GET_STANDARD_INFO, FacebookMethod.FRIENDS_GET,
+				FacebookMethod.FRIENDS_GET_NOSESSION, FacebookMethod.PAGES_GET_INFO } ) {
+			cache.setTtl( method, 300, TimeUnit.SECONDS );
+		}
+		cache.setTtl( FacebookMethod.APPLICATION_GET_PUBLIC_INFO, 3600, TimeUnit.SECONDS );
+		cache.setTtl( FacebookMethod.ADMIN_GET_APP_PROPERTIES, 3600, TimeUnit.SECONDS );
+		return cache;
+	}
+
+	/**
+	 * Caches responses to the given method for the given time. A TTL of zero stops it being cached.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the method is not read-only
+	 */
+	public void setTtl( FacebookMethod method, long ttl, TimeUnit unit ) {
+		if ( !method.isReadOnly() ) {
+			throw new IllegalArgumentException( method.name() + " is not read-only and cannot be cached" );
+		}
+		if ( ttl <= 0 ) {
+			ttls.remove( method );
+		} else {
+			ttls.put( method, unit.toNanos( ttl ) );
+		}
+	}
+
+	/**
+	 * @return the TTL of the given method in milliseconds, or 0 if it isn't cached
+	 */
+	public long getTtl( IFacebookMethod method ) {
+		Long ttl = ttls.get( method );
+		return ttl == null ? 0 : TimeUnit.NANOSECONDS.toMillis( ttl );
+	}
+
+	boolean isCacheable( IFacebookMethod method ) {
+		return ttls.containsKey( method );
+	}
+
+	/**
+	 * @return the key for a call with the given signed parameters: the method name, then every parameter but call_id and sig in order
+	 */
+	static String key( IFacebookMethod method, Map<String,String> params ) {
+		StringBuilder sb = new StringBuilder( 256 );
+		appendField( sb, method.methodName() );
+		for ( Map.Entry<String,String> e : params.entrySet() ) {
+			String name = e.getKey();
+			if ( "call_id".equals( name ) || "sig".equals( name ) ) {
+				continue;
+			}
+			appendField( sb, name );
+			appendField( sb, e.getValue() );
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the length of the (raw, unencoded) value before it, so that no name or value can be read as part of its neighbours, whatever characters it holds.
+	 */
+	private static void appendField( StringBuilder sb, String value ) {
+		if ( value == null ) {
+			sb.append( '-' );
+			return;
+		}
+		sb.append( value.length() ).append( ':' ).append( value );
+	}
+
+	/**
+	 * @return the cached response, or null if there is none or it has expired
+	 */
+	String get( String key ) {
+		Segment segment = segmentFor( key );
+		Cached entry;
+		synchronized ( segment ) {
+			entry = segment.get( key );
+			if ( entry != null && System.nanoTime() - entry.expires >= 0 ) {
+				segment.remove( key );
+				counters.increment( EXPIRATIONS );
+				entry = null;
+			}
+		}
+		counters.increment( entry == null ? MISSES : HITS );
+		return entry == null ? null : entry.response;
+	}
+
+	/**
+	 * Caches the response to a call, unless it is an error or the method isn't cached.
+	 */
+	void put( IFacebookMethod method, String key, String response ) {
+		Long ttl = ttls.get( method );
+		if ( ttl == null || response == null || ApiMetrics.errorCode( response ) != 0 ) {
+			return;
+		}
+		Segment segment = segmentFor( key );
+		synchronized ( segment ) {
+			segment.put( key, new Cached( response, System.nanoTime() + ttl ) );
+		}
+	}
+
+	private Segment segmentFor( String key ) {
+		int h = key.hashCode();
+		h ^= ( h >>> 16 );
+		return segments[( h & 0x7fffffff ) % segments.length];
+	}
+
+	/**
+	 * Drops every cached response.
+	 */
+	public void clear() {
+		for ( Segment segment : segments ) {
+			synchronized ( segment ) {
+				segment.clear();
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for ( Segment segment : segments ) {
+			synchronized ( segment ) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return counters.sum( HITS );
+	}
+
+	/**
+	 * @return lookups of cached methods that found nothing, including those that found an expired entry
+	 */
+	public long getMisses() {
+		return counters.sum( MISSES );
+	}
+
+	/**
+	 * @return entries dropped to make room for newer ones
+	 */
+	public long getEvictions() {
+		return counters.sum( EVICTIONS );
+	}
+
+	/**
+	 * @return entries dropped because they were found expired
+	 */
+	public long getExpirations() {
+		return counters.sum( EXPIRATIONS );
+	}
+
+	@Override
+	public String toString() {
+		return "ResponseCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", expirations="
+				+ getExpirations() + "]";
+	}
+
+	private static class Cached {
+
+		final String response;
+		final long expires;
+
+		Cached( String response, long expires ) {
+			this.response = response;
+			this.expires = expires;
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	private class Segment extends LinkedHashMap<String,Cached> {
+
+		private final int capacity;
+
+		Segment( int capacity ) {
+			super( 16, 0.75f, true );
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry( Map.Entry<String,Cached> eldest ) {
+			if ( size() > capacity ) {
+				counters.increment( EVICTIONS );
+				return true;
+			}
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,21 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Consumes the body of an API response as it arrives, instead of having it accumulated into a String first.
+ *
+ * @param <T>
+ *            what the handler makes of the response
+ * @see StreamingCommunicationStrategy
+ */
+public interface ResponseHandler<T> {
+
+	/**
+	 * @param in
+	 *            the response body, as UTF-8 bytes; it is closed by the caller once this returns
+	 */
+	public T handle( InputStream in ) throws IOException, FacebookException;
+
+}
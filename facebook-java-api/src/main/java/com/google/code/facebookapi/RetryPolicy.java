@@ -0,0 +1,332 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Resends calls that failed for a reason that may well have passed: a transient error response such as {@link ErrorCode#API_EC_SERVICE} or
+ * {@link ErrorCode#GAPI_EC_TOO_MANY_CALLS}, or an IOException. Install it with {@link ExtensibleClient#setRetryPolicy(RetryPolicy)} or
+ * {@link BasicClient#setRetryPolicy(RetryPolicy)}; one instance can be shared by any number of clients.
+ *
+ * Attempts are spaced by exponential backoff with full jitter: before retry <i>n</i> the caller sleeps for a random time up to
+ * <code>min( maxDelay, baseDelay * 2<sup>n-1</sup> )</code>, so that clients that failed together don't all come back together.
+ *
+ * Only idempotent methods are retried after any transient failure; by default those are the {@link FacebookMethod#isReadOnly() read-only} ones. Other methods,
+ * such as stream_publish, are only retried when the request certainly had no effect: the connection could not be made, or the server refused the call for
+ * exceeding a rate limit. When the attempts run out the last error response is returned, or the last IOException thrown, as if there had been no retries.
+ *
+ * Streamed calls, asynchronous calls and file uploads are not retried.
+ */
+public class RetryPolicy {
+
+	protected static Log log = LogFactory.getLog( RetryPolicy.class );
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	// codes meaning the call was turned away before it was run
+	private static final int[] REFUSED_CODES = { ErrorCode.GAPI_EC_TOO_MANY_CALLS, ErrorCode.API_EC_RATE };
+
+	private static final int CALLS = 0;
+	private static final int RETRIES = 1;
+	private static final int RECOVERED = 2;
+	private static final int EXHAUSTED = 3;
+	private static final int NOT_IDEMPOTENT = 4;
+	private static final int BACKOFF_MILLIS = 5;
+
+	private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private volatile long baseDelayMillis = 200;
+	private volatile long maxDelayMillis = 10000;
+	private final Set<Integer> retryableCodes = new CopyOnWriteArraySet<Integer>();
+	private final ConcurrentMap<IFacebookMethod,Boolean> idempotent = new ConcurrentHashMap<IFacebookMethod,Boolean>();
+
+	private final Random random = new Random();
+	private final StripedCounters counters = new StripedCounters( 6 );
+	// retries are rare, so these needn't be striped
+	private final ConcurrentMap<Integer,AtomicLong> retriesByCode = new ConcurrentHashMap<Integer,AtomicLong>();
+
+	/**
+	 * A policy making up to {@link #DEFAULT_MAX_ATTEMPTS} attempts, backing off from 200ms up to 10s, that retries {@link ErrorCode#API_EC_UNKNOWN},
+	 * {@link ErrorCode#API_EC_SERVICE} and {@link ErrorCode#GAPI_EC_TOO_MANY_CALLS} responses as well as IOExceptions.
+	 */
+	public RetryPolicy() {
+		retryableCodes.add( ErrorCode.API_EC_UNKNOWN );
+		retryableCodes.add( ErrorCode.API_EC_SERVICE );
+		retryableCodes.add( ErrorCode.GAPI_EC_TOO_MANY_CALLS );
+	}
+
+	/**
+	 * @param maxAttempts
+	 *            the most times a call is sent, including the first; 1 disables retries
+	 */
+	public void setMaxAttempts( int maxAttempts ) {
+		if ( maxAttempts < 1 ) {
+			throw new IllegalArgumentException( "maxAttempts must be positive: " + maxAttempts );
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param baseDelay
+	 *            the longest wait before the first retry; the limit doubles for each retry after it
+	 * @param maxDelay
+	 *            the longest wait before any retry
+	 */
+	public void setBackoff( long baseDelay, long maxDelay, TimeUnit unit ) {
+		if ( baseDelay < 0 || maxDelay < baseDelay ) {
+			throw new IllegalArgumentException( "Invalid backoff: " + baseDelay + " to " + maxDelay );
+		}
+		this.baseDelayMillis = unit.toMillis( baseDelay );
+		this.maxDelayMillis = unit.toMillis( maxDelay );
+	}
+
+	/**
+	 * Sets whether error responses with the given {@link ErrorCode} are retried.
+	 */
+	public void setRetryable( int errorCode, boolean retryable ) {
+		if ( retryable ) {
+			retryableCodes.add( errorCode );
+		} else {
+			retryableCodes.remove( errorCode );
+		}
+	}
+
+	public boolean isRetryable( int errorCode ) {
+		return retryableCodes.contains( errorCode );
+	}
+
+	/**
+	 * Declares whether calling the given method twice has the same effect as calling it once, overriding the default of {@link FacebookMethod#isReadOnly()}.
+	 * Declare a write idempotent only if repeating it is harmless, as in setting a preference to a value.
+	 */
+	public void setIdempotent( IFacebookMethod method, boolean idempotent ) {
+		this.idempotent.put( method, idempotent );
+	}
+
+	public boolean isIdempotent( IFacebookMethod method ) {
+		Boolean declared = idempotent.get( method );
+		if ( declared != null ) {
+			return declared;
+		}
+		return method instanceof FacebookMethod && ( (FacebookMethod) method ).isReadOnly();
+	}
+
+	/**
+	 * @return whether an error response with the given code may be resent for the given method
+	 */
+	boolean shouldRetry( IFacebookMethod method, int errorCode ) {
+		if ( !retryableCodes.contains( errorCode ) ) {
+			return false;
+		}
+		if ( isIdempotent( method ) ) {
+			return true;
+		}
+		for ( int refused : REFUSED_CODES ) {
+			if ( errorCode == refused ) {
+				return true;
+			}
+		}
+		counters.increment( NOT_IDEMPOTENT );
+		return false;
+	}
+
+	/**
+	 * @return whether a request that failed with the given exception may be resent for the given method
+	 */
+	boolean shouldRetry( IFacebookMethod method, IOException ex ) {
+		if ( ex instanceof CallRejectedException ) {
+			// the circuit breaker turned it away; resending would only wait out its decision
+			return false;
+		}
+		if ( isIdempotent( method ) || notSent( ex ) ) {
+			return true;
+		}
+		counters.increment( NOT_IDEMPOTENT );
+		return false;
+	}
+
+	/**
+	 * @return whether the exception shows that the request never reached the server
+	 */
+	static boolean notSent( IOException ex ) {
+		return ex instanceof ConnectException || ex instanceof UnknownHostException || ex instanceof NoRouteToHostException;
+	}
+
+	/**
+	 * @param retry
+	 *            the number of the retry about to be made, from 1
+	 * @return how long to wait before it, in milliseconds
+	 */
+	long backoff( int retry ) {
+		long limit = baseDelayMillis << Math.min( retry - 1, 30 );
+		if ( limit > maxDelayMillis || limit < 0 ) {
+			limit = maxDelayMillis;
+		}
+		if ( limit == 0 ) {
+			return 0;
+		}
+		synchronized ( random ) {
+			return (long) ( random.nextDouble() * ( limit + 1 ) );
+		}
+	}
+
+	/**
+	 * Sends a call, and resends it as this policy allows.
+	 *
+	 * @return the raw response, which is the last error response if every attempt got one
+	 */
+	String execute( IFacebookMethod method, Callable<String> request ) throws IOException {
+		counters.increment( CALLS );
+		int attempts = maxAttempts;
+		for ( int attempt = 1;; attempt++ ) {
+			String response;
+			try {
+				response = request.call();
+			}
+			catch ( IOException ex ) {
+				if ( !shouldRetry( method, ex ) ) {
+					throw ex;
+				}
+				if ( attempt >= attempts ) {
+					counters.increment( EXHAUSTED );
+					throw ex;
+				}
+				if ( !pause( method, attempt, 0, ex ) ) {
+					throw ex;
+				}
+				continue;
+			}
+			catch ( RuntimeException ex ) {
+				throw ex;
+			}
+			catch ( Exception ex ) {
+				throw BasicClientHelper.runtimeException( ex );
+			}
+			int code = ApiMetrics.errorCode( response );
+			if ( code == 0 ) {
+				if ( attempt > 1 ) {
+					counters.increment( RECOVERED );
+				}
+				return response;
+			}
+			if ( !shouldRetry( method, code ) ) {
+				return response;
+			}
+			if ( attempt >= attempts ) {
+				counters.increment( EXHAUSTED );
+				return response;
+			}
+			if ( !pause( method, attempt, code, null ) ) {
+				return response;
+			}
+		}
+	}
+
+	/**
+	 * Waits before the next attempt and counts the retry.
+	 *
+	 * @return false if the thread was interrupted while waiting, in which case the call should not be retried
+	 */
+	private boolean pause( IFacebookMethod method, int attempt, int code, IOException ex ) {
+		long delay = backoff( attempt );
+		if ( log.isDebugEnabled() ) {
+			log.debug( method.methodName() + ": retrying in " + delay + "ms after " + ( ex != null ? ex.toString() : "error " + code ) );
+		}
+		if ( delay > 0 ) {
+			try {
+				Thread.sleep( delay );
+			}
+			catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			counters.add( BACKOFF_MILLIS, delay );
+		}
+		counters.increment( RETRIES );
+		AtomicLong count = retriesByCode.get( code );
+		if ( count == null ) {
+			AtomicLong created = new AtomicLong();
+			count = retriesByCode.putIfAbsent( code, created );
+			if ( count == null ) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return the number of calls sent under this policy, not counting retries
+	 */
+	public long getCalls() {
+		return counters.sum( CALLS );
+	}
+
+	public long getRetries() {
+		return counters.sum( RETRIES );
+	}
+
+	/**
+	 * @return the number of retries, keyed by the {@link ErrorCode} of the response that was retried, or 0 for an IOException
+	 */
+	public Map<Integer,Long> getRetriesByCode() {
+		Map<Integer,Long> out = new TreeMap<Integer,Long>();
+		for ( Map.Entry<Integer,AtomicLong> e : retriesByCode.entrySet() ) {
+			out.put( e.getKey(), e.getValue().get() );
+		}
+		return out;
+	}
+
+	/**
+	 * @return calls that failed at first but succeeded on a retry
+	 */
+	public long getRecovered() {
+		return counters.sum( RECOVERED );
+	}
+
+	/**
+	 * @return calls given up because every attempt failed
+	 */
+	public long getExhausted() {
+		return counters.sum( EXHAUSTED );
+	}
+
+	/**
+	 * @return transient failures that were not retried because the method is not idempotent
+	 */
+	public long getNotIdempotent() {
+		return counters.sum( NOT_IDEMPOTENT );
+	}
+
+	/**
+	 * @return the total time spent waiting between attempts, in milliseconds
+	 */
+	public long getBackoffMillis() {
+		return counters.sum( BACKOFF_MILLIS );
+	}
+
+	@Override
+	public String toString() {
+		return "RetryPolicy[calls=" + getCalls() + ", retries=" + getRetries() + ", recovered=" + getRecovered() + ", exhausted=" + getExhausted()
+				+ ", notIdempotent=" + getNotIdempotent() + ", backoffMillis=" + getBackoffMillis() + "]";
+	}
+
+}
@@ -0,0 +1,133 @@
+package com.google.code.facebookapi;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Per-thread MD5 digest that is fed characters directly, encoding them to UTF-8 into a small reusable buffer rather than building an intermediate String and byte
+ * array. Produces the same lowercase hex digest as <code>generateMD5( value )</code> on the concatenated input.
+ *
+ * Obtain an instance with {@link #get()}; it is reset and ready for use. Instances must not be shared between threads or held across calls.
+ */
+// package-level access intentional (at least for now)
+final class SignatureDigest {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final int BUFFER_SIZE = 512;
+
+	private static final ThreadLocal<SignatureDigest> digests = new ThreadLocal<SignatureDigest>() {
+		@Override
+		protected SignatureDigest initialValue() {
+			return new SignatureDigest();
+		}
+	};
+
+	private final MessageDigest md;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private final byte[] digest = new byte[16];
+	private final char[] hex = new char[32];
+	private int pos;
+
+	private SignatureDigest() {
+		try {
+			md = MessageDigest.getInstance( "MD5" );
+		}
+		catch ( NoSuchAlgorithmException ex ) {
+			throw new RuntimeException( ex );
+		}
+	}
+
+	public static SignatureDigest get() {
+		SignatureDigest out = digests.get();
+		out.reset();
+		return out;
+	}
+
+	public void reset() {
+		md.reset();
+		pos = 0;
+	}
+
+	public SignatureDigest update( CharSequence s ) {
+		if ( s == null ) {
+			return this;
+		}
+		int len = s.length();
+		for ( int i = 0; i < len; i++ ) {
+			char c = s.charAt( i );
+			if ( c < 0x80 ) {
+				if ( pos == BUFFER_SIZE ) {
+					flush();
+				}
+				buf[pos++] = (byte) c;
+			} else if ( Character.isHighSurrogate( c ) && i + 1 < len && Character.isLowSurrogate( s.charAt( i + 1 ) ) ) {
+				writeCodePoint( Character.toCodePoint( c, s.charAt( ++i ) ) );
+			} else if ( Character.isHighSurrogate( c ) || Character.isLowSurrogate( c ) ) {
+				// unpaired surrogate, String.getBytes( "UTF-8" ) substitutes '?'
+				writeCodePoint( '?' );
+			} else {
+				writeCodePoint( c );
+			}
+		}
+		return this;
+	}
+
+	public SignatureDigest update( char c ) {
+		if ( c < 0x80 ) {
+			if ( pos == BUFFER_SIZE ) {
+				flush();
+			}
+			buf[pos++] = (byte) c;
+		} else {
+			update( String.valueOf( c ) );
+		}
+		return this;
+	}
+
+	private void writeCodePoint( int cp ) {
+		if ( pos + 4 > BUFFER_SIZE ) {
+			flush();
+		}
+		if ( cp < 0x80 ) {
+			buf[pos++] = (byte) cp;
+		} else if ( cp < 0x800 ) {
+			buf[pos++] = (byte) ( 0xc0 | ( cp >> 6 ) );
+			buf[pos++] = (byte) ( 0x80 | ( cp & 0x3f ) );
+		} else if ( cp < 0x10000 ) {
+			buf[pos++] = (byte) ( 0xe0 | ( cp >> 12 ) );
+			buf[pos++] = (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3f ) );
+			buf[pos++] = (byte) ( 0x80 | ( cp & 0x3f ) );
+		} else {
+			buf[pos++] = (byte) ( 0xf0 | ( cp >> 18 ) );
+			buf[pos++] = (byte) ( 0x80 | ( ( cp >> 12 ) & 0x3f ) );
+			buf[pos++] = (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3f ) );
+			buf[pos++] = (byte) ( 0x80 | ( cp & 0x3f ) );
+		}
+	}
+
+	private void flush() {
+		md.update( buf, 0, pos );
+		pos = 0;
+	}
+
+	/**
+	 * Completes the digest and returns it as 32 lowercase hex characters. The digest is reset afterwards.
+	 */
+	public String hexDigest() {
+		flush();
+		try {
+			md.digest( digest, 0, digest.length );
+		}
+		catch ( DigestException ex ) {
+			throw new RuntimeException( ex );
+		}
+		for ( int i = 0; i < digest.length; i++ ) {
+			int b = digest[i];
+			hex[i << 1] = HEX[( b >>> 4 ) & 0x0f];
+			hex[( i << 1 ) + 1] = HEX[b & 0x0f];
+		}
+		return new String( hex );
+	}
+
+}
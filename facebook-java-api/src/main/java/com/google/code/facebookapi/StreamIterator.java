@@ -0,0 +1,198 @@
+package com.google.code.facebookapi;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The posts of a stream, newest first, fetched a page at a time with stream_get. Create one with
+ * {@link ExtensibleClient#stream_getIterator(Long, List, Date, Date, int, String)}.
+ *
+ * Each page ends at the created_time of the oldest post of the one before. Posts at that boundary which Facebook returns again are skipped. Should a full page
+ * hold nothing new, because more than a page of posts share the boundary's created_time, the next page ends a second before it; the rest of those posts cannot
+ * be reached by time, and are left out. Iteration ends at the first page that is neither full nor holds anything new.
+ *
+ * Only the current page and the one being fetched are held. A failed fetch is thrown from {@link #hasNext()} or {@link #next()} as a RuntimeException with the
+ * FacebookException or IOException as its cause, and ends the iteration. Without an executor of the caller's, pages are fetched on a thread of the iterator's
+ * own, which ends once it has been idle for {@link #KEEP_ALIVE} milliseconds, so an iterator that is abandoned rather than closed does not hold on to it.
+ */
+public class StreamIterator implements Iterator<JSONObject> {
+
+	public static final long KEEP_ALIVE = 60 * 1000L;
+
+	private final ExtensibleClient client;
+	private final CallContext context;
+	private final ExecutorService executor;
+	private final boolean ownExecutor;
+	private final Long viewerId;
+	private final List<Long> sourceIds;
+	private final Date start;
+	private final int pageSize;
+	private final String filterKey;
+
+	private List<JSONObject> page = new ArrayList<JSONObject>( 0 );
+	private int position;
+	private Future<JSONObject> nextPage;
+	private long boundaryTime = -1;
+	private Set<String> boundaryIds = new HashSet<String>();
+	private int pages;
+	private boolean exhausted;
+
+	StreamIterator( ExtensibleClient client, CallContext context, ExecutorService executor, Long viewerId, List<Long> sourceIds, Date start, Date end,
+			int pageSize, String filterKey ) {
+		if ( pageSize < 1 ) {
+			throw new IllegalArgumentException( "pageSize must be positive: " + pageSize );
+		}
+		this.client = client;
+		this.context = context;
+		this.ownExecutor = ( executor == null );
+		this.executor = ownExecutor ? newOwnExecutor() : executor;
+		this.viewerId = viewerId;
+		this.sourceIds = sourceIds == null ? null : new ArrayList<Long>( sourceIds );
+		this.start = start;
+		this.pageSize = pageSize;
+		this.filterKey = filterKey;
+		fetch( end );
+	}
+
+	private static ExecutorService newOwnExecutor() {
+		// no core thread, so the idle thread dies on Java 5 too (allowCoreThreadTimeOut is Java 6). A hand-off queue is enough, as only one fetch is ever
+		// outstanding; should the next fetch come before the thread is back waiting for it, the fetch runs on the caller's thread instead
+		return new ThreadPoolExecutor( 0, 1, KEEP_ALIVE, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), new DaemonThreadFactory( "StreamIterator" ),
+				new ThreadPoolExecutor.CallerRunsPolicy() );
+	}
+
+	private void fetch( final Date end ) {
+		nextPage = executor.submit( new Callable<JSONObject>() {
+			public JSONObject call() throws Exception {
+				return client.stream_getPage( context, viewerId, sourceIds, start, end, pageSize, filterKey );
+			}
+		} );
+	}
+
+	public boolean hasNext() {
+		while ( position >= page.size() ) {
+			if ( exhausted ) {
+				return false;
+			}
+			advance();
+		}
+		return true;
+	}
+
+	public JSONObject next() {
+		if ( !hasNext() ) {
+			throw new NoSuchElementException();
+		}
+		return page.get( position++ );
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return the number of pages fetched so far
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	/**
+	 * Stops fetching. Posts of the current page can still be read; after them the iteration ends.
+	 */
+	public void close() {
+		exhausted = true;
+		if ( nextPage != null ) {
+			nextPage.cancel( true );
+			nextPage = null;
+		}
+		if ( ownExecutor ) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Takes the page being fetched, keeps its new posts, and starts fetching the one after it.
+	 */
+	private void advance() {
+		JSONArray posts;
+		try {
+			JSONObject result = nextPage.get();
+			posts = result.optJSONArray( "posts" );
+		}
+		catch ( InterruptedException ex ) {
+			Thread.currentThread().interrupt();
+			close();
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		catch ( ExecutionException ex ) {
+			close();
+			Throwable cause = ex.getCause();
+			if ( cause instanceof Error ) {
+				throw (Error) cause;
+			}
+			throw BasicClientHelper.runtimeException( (Exception) cause );
+		}
+		pages++ ;
+		List<JSONObject> fresh = new ArrayList<JSONObject>( posts == null ? 0 : posts.length() );
+		long oldest = Long.MAX_VALUE;
+		try {
+			for ( int i = 0; posts != null && i < posts.length(); i++ ) {
+				JSONObject post = posts.getJSONObject( i );
+				long created = post.getLong( "created_time" );
+				if ( created == boundaryTime && boundaryIds.contains( post.getString( "post_id" ) ) ) {
+					continue;
+				}
+				fresh.add( post );
+				oldest = Math.min( oldest, created );
+			}
+			if ( fresh.isEmpty() ) {
+				page = fresh;
+				position = 0;
+				if ( posts == null || posts.length() < pageSize || boundaryTime < 0 ) {
+					close();
+					return;
+				}
+				// a page's worth of posts at the same second; step past them rather than ask for them again
+				boundaryIds = new HashSet<String>();
+				boundaryTime-- ;
+				fetch( new Date( boundaryTime * 1000 ) );
+				return;
+			}
+			// remember the posts at the new boundary, which the next page may return again
+			if ( oldest != boundaryTime ) {
+				boundaryIds = new HashSet<String>();
+				boundaryTime = oldest;
+			}
+			for ( JSONObject post : fresh ) {
+				if ( post.getLong( "created_time" ) == oldest ) {
+					boundaryIds.add( post.getString( "post_id" ) );
+				}
+			}
+		}
+		catch ( JSONException ex ) {
+			close();
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		page = fresh;
+		position = 0;
+		fetch( new Date( oldest * 1000 ) );
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.SortedMap;
+
+/**
+ * A CommunicationStrategy that can hand the response body to a {@link ResponseHandler} while it is still being read off the connection.
+ */
+public interface StreamingCommunicationStrategy extends CommunicationStrategy {
+
+	/**
+	 * Sends a post request to the specified URL, passing the response body to the handler.
+	 *
+	 * @param serverUrl
+	 *            Target server URL.
+	 * @param params
+	 *            Parameters to include in POST body.
+	 * @return whatever the handler returned.
+	 * @throws IOException
+	 *             Thrown on any communication-related error.
+	 * @throws FacebookException
+	 *             if the handler finds an error response
+	 */
+	public <T> T postRequest( URL serverUrl, SortedMap<String,String> params, ResponseHandler<T> handler ) throws IOException, FacebookException;
+
+}
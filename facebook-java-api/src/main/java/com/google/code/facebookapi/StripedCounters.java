@@ -0,0 +1,68 @@
+package com.google.code.facebookapi;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed set of long counters that many threads can add to without contending. Each counter is spread over several stripes, one of which is picked per thread, and
+ * the stripes are summed when read. Stripes are padded apart so that threads adding to different stripes don't share cache lines.
+ */
+// package-level access intentional (at least for now)
+final class StripedCounters {
+
+	// longs per 64 byte cache line
+	private static final int PAD = 8;
+	private static final int MAX_STRIPES = 16;
+
+	private final AtomicLongArray cells;
+	private final int stride;
+	private final int mask;
+
+	/**
+	 * @param width
+	 *            the number of counters
+	 */
+	StripedCounters( int width ) {
+		int stripes = 1;
+		int wanted = Math.min( MAX_STRIPES, Runtime.getRuntime().availableProcessors() * 2 );
+		while ( stripes < wanted ) {
+			stripes <<= 1;
+		}
+		this.stride = ( ( width + PAD - 1 ) / PAD + 1 ) * PAD;
+		this.mask = stripes - 1;
+		this.cells = new AtomicLongArray( stripes * stride );
+	}
+
+	private int stripe() {
+		long id = Thread.currentThread().getId();
+		// spread sequential thread ids over the stripes
+		return (int) ( ( id * 0x9E3779B97F4A7C15L ) >>> 40 ) & mask;
+	}
+
+	void add( int counter, long delta ) {
+		cells.addAndGet( stripe() * stride + counter, delta );
+	}
+
+	void increment( int counter ) {
+		cells.incrementAndGet( stripe() * stride + counter );
+	}
+
+	long sum( int counter ) {
+		long sum = 0;
+		for ( int i = counter; i < cells.length(); i += stride ) {
+			sum += cells.get( i );
+		}
+		return sum;
+	}
+
+	/**
+	 * Sums counters <code>from</code> (inclusive) to <code>from + out.length</code> into <code>out</code>.
+	 */
+	void sum( int from, long[] out ) {
+		for ( int s = 0; s < cells.length(); s += stride ) {
+			for ( int i = 0; i < out.length; i++ ) {
+				out[i] += cells.get( s + from + i );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.json.JSONException;
+
+/**
+ * Reads a response that is a flat list of ids, such as friends_get or friends_getAppUsers, straight into a {@link LongList}: a JSON array of numbers, or an XML
+ * root element with one child element per id. An empty list may come back as an empty object or element.
+ */
+// package-level access intentional (at least for now)
+class UidListHandler {
+
+	private static final ResponseHandler<LongList> JSON = new JsonResponseHandler<LongList>() {
+		@Override
+		protected LongList handle( JsonPullParser parser ) throws IOException, JSONException {
+			LongList out = new LongList( 256 );
+			if ( parser.peek() != JsonPullParser.Token.BEGIN_ARRAY ) {
+				parser.skipValue();
+				return out;
+			}
+			parser.beginArray();
+			while ( parser.hasNext() ) {
+				out.add( parser.nextLong() );
+			}
+			parser.endArray();
+			return out;
+		}
+	};
+
+	private static final ResponseHandler<LongList> XML = new XmlResponseHandler<LongList>() {
+		@Override
+		protected LongList handle( XMLStreamReader reader ) throws XMLStreamException {
+			LongList out = new LongList( 256 );
+			while ( reader.hasNext() ) {
+				int event = reader.next();
+				if ( event == XMLStreamConstants.START_ELEMENT ) {
+					out.add( Long.parseLong( reader.getElementText().trim() ) );
+				} else if ( event == XMLStreamConstants.END_ELEMENT ) {
+					// the end of the root element, as getElementText consumes each child's own
+					break;
+				}
+			}
+			return out;
+		}
+	};
+
+	private UidListHandler() {
+		// static only
+	}
+
+	public static ResponseHandler<LongList> forFormat( String format ) {
+		return "json".equals( format ) ? JSON : XML;
+	}
+
+}
@@ -1,20 +1,46 @@
 package com.google.code.facebookapi;
 
-import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
 
-import javax.xml.parsers.DocumentBuilder;
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 public class XmlHelper {
 
+	private static final DOMImplementation DOM;
+	static {
+		try {
+			DOM = DocumentBuilderFactory.newInstance().newDocumentBuilder().getDOMImplementation();
+		}
+		catch ( ParserConfigurationException ex ) {
+			throw new RuntimeException( "Trouble configuring XML Parser", ex );
+		}
+	}
+
+	// XMLInputFactory implementations may recycle readers internally, so each thread gets its own
+	private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE );
+			factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+			return factory;
+		}
+	};
+
 	public static String printDom( Node n, String prefix ) {
 		StringBuilder sb = new StringBuilder();
 		printDom( n, prefix, sb );
@@ -96,44 +122,293 @@ public class XmlHelper {
 		return 1 == extractInt( result );
 	}
 
+	/**
+	 * Parses a response into a Document, using a StAX reader rather than a DOM parser. Whitespace-only text nodes are never created, so the result is the same as
+	 * parsing, normalizing and then calling {@link #stripEmptyTextNodes(Node)}.
+	 * 
+	 * @param factory
+	 *            only consulted for whether the Document should be namespace aware
+	 */
 	public static Document parseCallResult( Object rawResponse, DocumentBuilderFactory factory ) throws FacebookException {
 		if ( rawResponse == null ) {
 			return null;
 		}
+		return parseCallResult( parseDocument( new StringReader( (String) rawResponse ), factory.isNamespaceAware() ) );
+	}
+
+	/**
+	 * Parses a response body straight off a stream into a Document.
+	 * 
+	 * @see #parseCallResult(Object, DocumentBuilderFactory)
+	 */
+	public static Document parseCallResult( InputStream in, DocumentBuilderFactory factory ) throws FacebookException {
+		XMLStreamReader reader = createReader( in );
 		try {
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			Document doc = builder.parse( new InputSource( new StringReader( (String) rawResponse ) ) );
-			doc.normalizeDocument();
-			stripEmptyTextNodes( doc );
-			return parseCallResult( doc );
+			return parseCallResult( buildDocument( reader, factory.isNamespaceAware() ) );
 		}
-		catch ( ParserConfigurationException ex ) {
-			throw new RuntimeException( "Trouble configuring XML Parser", ex );
+		catch ( XMLStreamException ex ) {
+			throw new RuntimeException( "Trouble parsing XML from facebook", ex );
+		}
+		finally {
+			close( reader );
 		}
-		catch ( SAXException ex ) {
+	}
+
+	/**
+	 * Parses XML into a Document without checking it for an error response.
+	 */
+	static Document parseDocument( Reader in, boolean namespaceAware ) {
+		XMLStreamReader reader = createReader( in );
+		try {
+			return buildDocument( reader, namespaceAware );
+		}
+		catch ( XMLStreamException ex ) {
 			throw new RuntimeException( "Trouble parsing XML from facebook", ex );
 		}
-		catch ( IOException ex ) {
+		finally {
+			close( reader );
+		}
+	}
+
+	private static Document buildDocument( XMLStreamReader reader, boolean namespaceAware ) throws XMLStreamException {
+		Document doc = DOM.createDocument( null, null, null );
+		Node current = doc;
+		while ( reader.hasNext() ) {
+			switch ( reader.next() ) {
+				case XMLStreamConstants.START_ELEMENT:
+					Element element = createElement( doc, reader, namespaceAware );
+					current.appendChild( element );
+					current = element;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					current = current.getParentNode();
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					if ( current != doc && !isBlank( reader ) ) {
+						current.appendChild( doc.createTextNode( reader.getText() ) );
+					}
+					break;
+				default:
+					// whitespace, comments and processing instructions are dropped
+			}
+		}
+		return doc;
+	}
+
+	private static Element createElement( Document doc, XMLStreamReader reader, boolean namespaceAware ) {
+		Element element;
+		if ( namespaceAware ) {
+			element = doc.createElementNS( reader.getNamespaceURI(), qualifiedName( reader.getPrefix(), reader.getLocalName() ) );
+		} else {
+			element = doc.createElement( qualifiedName( reader.getPrefix(), reader.getLocalName() ) );
+		}
+		// a DOM parser keeps namespace declarations as attributes, so do the same
+		int namespaces = reader.getNamespaceCount();
+		for ( int i = 0; i < namespaces; i++ ) {
+			String prefix = reader.getNamespacePrefix( i );
+			String name = qualifiedName( XMLConstants.XMLNS_ATTRIBUTE, prefix );
+			if ( prefix == null || prefix.length() == 0 ) {
+				name = XMLConstants.XMLNS_ATTRIBUTE;
+			}
+			if ( namespaceAware ) {
+				element.setAttributeNS( XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, reader.getNamespaceURI( i ) );
+			} else {
+				element.setAttribute( name, reader.getNamespaceURI( i ) );
+			}
+		}
+		int attributes = reader.getAttributeCount();
+		for ( int i = 0; i < attributes; i++ ) {
+			String name = qualifiedName( reader.getAttributePrefix( i ), reader.getAttributeLocalName( i ) );
+			if ( namespaceAware ) {
+				String uri = reader.getAttributeNamespace( i );
+				element.setAttributeNS( uri == null || uri.length() == 0 ? null : uri, name, reader.getAttributeValue( i ) );
+			} else {
+				element.setAttribute( name, reader.getAttributeValue( i ) );
+			}
+		}
+		return element;
+	}
+
+	private static String qualifiedName( String prefix, String localName ) {
+		if ( prefix == null || prefix.length() == 0 ) {
+			return localName;
+		}
+		return prefix + ":" + localName;
+	}
+
+	private static boolean isBlank( XMLStreamReader reader ) {
+		char[] text = reader.getTextCharacters();
+		int end = reader.getTextStart() + reader.getTextLength();
+		for ( int i = reader.getTextStart(); i < end; i++ ) {
+			if ( text[i] > ' ' ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the text of a response that consists of a single value, such as users_isAppUser or auth_createToken, without building a Document. The text is that of
+	 * the root element, as {@link #extractString(Node)} would return it for the parsed Document.
+	 * 
+	 * @return the text, or null if there was no response
+	 * @throws FacebookException
+	 *             if the response is an error
+	 */
+	public static String parseScalarResult( Object rawResponse ) throws FacebookException {
+		if ( rawResponse == null ) {
+			return null;
+		}
+		XMLStreamReader reader = createReader( new StringReader( (String) rawResponse ) );
+		try {
+			checkError( reader );
+			String text = null;
+			StringBuilder sb = null;
+			int depth = 1;
+			while ( depth > 0 ) {
+				switch ( reader.next() ) {
+					case XMLStreamConstants.START_ELEMENT:
+						depth++ ;
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						depth-- ;
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+						if ( isBlank( reader ) ) {
+							break;
+						}
+						if ( text == null ) {
+							text = reader.getText();
+						} else {
+							if ( sb == null ) {
+								sb = new StringBuilder( text );
+							}
+							sb.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+						}
+						break;
+					default:
+				}
+			}
+			if ( sb != null ) {
+				return sb.toString();
+			}
+			return text == null ? "" : text;
+		}
+		catch ( XMLStreamException ex ) {
 			throw new RuntimeException( "Trouble parsing XML from facebook", ex );
 		}
+		finally {
+			close( reader );
+		}
 	}
 
 	/**
-	 * Hack...since DOM reads newlines as textnodes we want to strip out those nodes to make it easier to use the tree.
+	 * Opens a StAX reader over a response body, positioned on the root element.
+	 * 
+	 * @throws FacebookException
+	 *             if the response is an error
+	 */
+	public static XMLStreamReader openCallResult( InputStream in ) throws FacebookException {
+		XMLStreamReader reader = createReader( in );
+		boolean ok = false;
+		try {
+			checkError( reader );
+			ok = true;
+			return reader;
+		}
+		catch ( XMLStreamException ex ) {
+			throw new RuntimeException( "Trouble parsing XML from facebook", ex );
+		}
+		finally {
+			if ( !ok ) {
+				close( reader );
+			}
+		}
+	}
+
+	static XMLStreamReader createReader( InputStream in ) {
+		try {
+			return INPUT_FACTORY.get().createXMLStreamReader( in );
+		}
+		catch ( XMLStreamException ex ) {
+			throw new RuntimeException( "Trouble parsing XML from facebook", ex );
+		}
+	}
+
+	static XMLStreamReader createReader( Reader in ) {
+		try {
+			return INPUT_FACTORY.get().createXMLStreamReader( in );
+		}
+		catch ( XMLStreamException ex ) {
+			throw new RuntimeException( "Trouble parsing XML from facebook", ex );
+		}
+	}
+
+	/**
+	 * Advances to the root element, and throws its contents as a FacebookException if it is an error_response.
+	 */
+	private static void checkError( XMLStreamReader reader ) throws XMLStreamException, FacebookException {
+		reader.nextTag();
+		if ( !IFacebookRestClient.ERROR_TAG.equals( reader.getLocalName() ) ) {
+			return;
+		}
+		int code = 0;
+		String message = null;
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+			String name = reader.getLocalName();
+			if ( "error_code".equals( name ) ) {
+				code = Integer.parseInt( reader.getElementText().trim() );
+			} else if ( "error_msg".equals( name ) ) {
+				message = reader.getElementText();
+			} else {
+				skipElement( reader );
+			}
+		}
+		throw new FacebookException( code, message );
+	}
+
+	/**
+	 * Skips past the end of the element the reader is positioned on.
+	 */
+	static void skipElement( XMLStreamReader reader ) throws XMLStreamException {
+		int depth = 1;
+		while ( depth > 0 ) {
+			int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT ) {
+				depth++ ;
+			} else if ( event == XMLStreamConstants.END_ELEMENT ) {
+				depth-- ;
+			}
+		}
+	}
+
+	static void close( XMLStreamReader reader ) {
+		try {
+			reader.close();
+		}
+		catch ( XMLStreamException ex ) {
+			// ignore
+		}
+	}
+
+	/**
+	 * Hack...since DOM reads newlines as textnodes we want to strip out those nodes to make it easier to use the tree. Documents from
+	 * {@link #parseCallResult(Object, DocumentBuilderFactory)} never contain them, so this is only needed for Documents parsed elsewhere.
 	 */
 	public static void stripEmptyTextNodes( Node n ) {
-		NodeList children = n.getChildNodes();
-		int length = children.getLength();
-		for ( int i = 0; i < length; i++ ) {
-			Node c = children.item( i );
-			if ( !c.hasChildNodes() && c.getNodeType() == Node.TEXT_NODE && c.getTextContent().trim().length() == 0 ) {
-				n.removeChild( c );
-				i-- ;
-				length-- ;
-				children = n.getChildNodes();
+		Node c = n.getFirstChild();
+		while ( c != null ) {
+			Node next = c.getNextSibling();
+			if ( c.getNodeType() == Node.TEXT_NODE ) {
+				if ( c.getNodeValue().trim().length() == 0 ) {
+					n.removeChild( c );
+				}
 			} else {
 				stripEmptyTextNodes( c );
 			}
+			c = next;
 		}
 	}
 
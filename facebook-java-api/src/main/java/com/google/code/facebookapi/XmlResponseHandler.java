@@ -0,0 +1,33 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A ResponseHandler for XML responses that is given a StAX reader over the body, positioned on the root element. Error responses have already been turned into a
+ * FacebookException by the time {@link #handle(XMLStreamReader)} is called.
+ *
+ * @param <T>
+ *            what the handler makes of the response
+ */
+public abstract class XmlResponseHandler<T> implements ResponseHandler<T> {
+
+	public final T handle( InputStream in ) throws IOException, FacebookException {
+		XMLStreamReader reader = XmlHelper.openCallResult( in );
+		try {
+			return handle( reader );
+		}
+		catch ( XMLStreamException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		finally {
+			XmlHelper.close( reader );
+		}
+	}
+
+	protected abstract T handle( XMLStreamReader reader ) throws IOException, XMLStreamException, FacebookException;
+
+}
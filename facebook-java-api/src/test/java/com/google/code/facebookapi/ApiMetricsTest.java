@@ -0,0 +1,185 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+public class ApiMetricsTest {
+
+	private Server server;
+	private URL url;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server( 0 );
+		server.setHandler( new AbstractHandler() {
+			public void handle( String target, HttpServletRequest request, HttpServletResponse response, int dispatch ) throws IOException, ServletException {
+				response.setContentType( "text/javascript;charset=utf-8" );
+				if ( request.getParameter( "session_key" ) == null ) {
+					response.getWriter().print( "{\"error_code\":102,\"error_msg\":\"Session key invalid or no longer valid\",\"request_args\":[]}" );
+				} else {
+					response.getWriter().print( "[1,2,3]" );
+				}
+				( (Request) request ).setHandled( true );
+			}
+		} );
+		server.start();
+		url = new URL( "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/restserver.php" );
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testBuckets() {
+		long previous = 0;
+		for ( long micros = 0; micros < 1000000; micros = micros * 3 / 2 + 1 ) {
+			int bucket = MethodMetricsSnapshot.bucket( micros );
+			assertTrue( micros < MethodMetricsSnapshot.bucketLimit( bucket ) );
+			assertTrue( bucket == 0 || micros >= MethodMetricsSnapshot.bucketLimit( bucket - 1 ) );
+			assertTrue( MethodMetricsSnapshot.bucketLimit( bucket ) > previous );
+			previous = MethodMetricsSnapshot.bucketLimit( bucket ) - 1;
+		}
+		assertEquals( MethodMetricsSnapshot.BUCKETS - 1, MethodMetricsSnapshot.bucket( Long.MAX_VALUE ) );
+	}
+
+	@Test
+	public void testPercentiles() {
+		MethodMetrics metrics = new MethodMetrics( "facebook.friends.get" );
+		for ( int i = 1; i <= 100; i++ ) {
+			metrics.record( i * 1000, 10, 20, false, 0 );
+		}
+		MethodMetricsSnapshot snapshot = metrics.snapshot();
+		assertEquals( 100, snapshot.getCalls() );
+		assertEquals( 50.5, snapshot.getMeanLatency(), 0.001 );
+		assertEquals( 100.0, snapshot.getMaxLatency(), 0.001 );
+		assertEquals( 50.0, snapshot.getLatencyPercentile( 50 ), 50.0 * 0.25 );
+		assertEquals( 99.0, snapshot.getLatencyPercentile( 99 ), 99.0 * 0.25 );
+		assertEquals( 2000, snapshot.getResponseBytes() );
+	}
+
+	@Test
+	public void testErrorCodes() {
+		assertEquals( 102, ApiMetrics.errorCode( "{\"error_code\":102,\"error_msg\":\"Session key invalid\"}" ) );
+		assertEquals( 4, ApiMetrics.errorCode( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<error_response xmlns=\"http://api.facebook.com/1.0/\">"
+				+ "<error_code>4</error_code><error_msg>Too many calls</error_msg></error_response>" ) );
+		assertEquals( 0, ApiMetrics.errorCode( "[1,2,3]" ) );
+		assertEquals( 0, ApiMetrics.errorCode( "{\"uid\":1}" ) );
+		assertEquals( 0, ApiMetrics.errorCode( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<friends_get_response><uid>1</uid></friends_get_response>" ) );
+	}
+
+	@Test
+	public void testClientRecordsCalls() throws Exception {
+		ApiMetrics metrics = new ApiMetrics();
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session" );
+		client.setServerUrl( url );
+		client.setMetrics( metrics );
+		for ( int i = 0; i < 3; i++ ) {
+			client.callMethod( FacebookMethod.FRIENDS_GET );
+		}
+		client.setCacheSessionKey( null );
+		client.callMethod( FacebookMethod.FRIENDS_GET );
+		client.setServerUrl( "http://localhost:1/restserver.php" );
+		try {
+			client.callMethod( FacebookMethod.FRIENDS_GET );
+			fail( "expected connection failure" );
+		}
+		catch ( RuntimeException expected ) {
+			// expected
+		}
+		MethodMetricsSnapshot snapshot = metrics.snapshot( FacebookMethod.FRIENDS_GET.methodName() );
+		assertEquals( 5, snapshot.getCalls() );
+		assertEquals( 1, snapshot.getFailures() );
+		assertEquals( 1, snapshot.getApiErrors() );
+		assertEquals( Collections.singletonMap( ErrorCode.SESSION_INVALID, 1L ), snapshot.getApiErrorsByCode() );
+		assertTrue( snapshot.getRequestBytes() > 0 );
+		assertTrue( snapshot.getResponseBytes() >= 3 * "[1,2,3]".length() );
+		assertNull( metrics.snapshot( FacebookMethod.USERS_GET_INFO.methodName() ) );
+	}
+
+	@Test
+	public void testSizesAreInBytes() throws Exception {
+		ApiMetrics metrics = new ApiMetrics();
+		SortedMap<String,String> params = new TreeMap<String,String>();
+		params.put( "message", "Zo\u00eb & \u65e5" );
+		params.put( "tags", null );
+		String response = "[\"Zo\u00eb \u65e5 \ud83d\ude00\"]";
+		metrics.record( FacebookMethod.STREAM_PUBLISH, System.nanoTime(), params, response );
+		metrics.recordFailure( FacebookMethod.STREAM_PUBLISH, System.nanoTime(), params );
+		MethodMetricsSnapshot snapshot = metrics.snapshot( FacebookMethod.STREAM_PUBLISH.methodName() );
+		assertEquals( 2, snapshot.getCalls() );
+		assertEquals( 2 * FormEncoder.forThread().params( params ).size(), snapshot.getRequestBytes() );
+		assertEquals( response.getBytes( "UTF-8" ).length, snapshot.getResponseBytes() );
+	}
+
+	@Test
+	public void testConcurrentRecording() throws Exception {
+		final MethodMetrics metrics = new MethodMetrics( "facebook.users.getInfo" );
+		ExecutorService executor = Executors.newFixedThreadPool( 8 );
+		for ( int t = 0; t < 8; t++ ) {
+			executor.execute( new Runnable() {
+				public void run() {
+					for ( int i = 0; i < 10000; i++ ) {
+						metrics.record( i % 500, 1, 2, i % 100 == 0, i % 100 == 1 ? ErrorCode.GAPI_EC_TOO_MANY_CALLS : 0 );
+					}
+				}
+			} );
+		}
+		executor.shutdown();
+		assertTrue( executor.awaitTermination( 30, TimeUnit.SECONDS ) );
+		MethodMetricsSnapshot snapshot = metrics.snapshot();
+		assertEquals( 80000, snapshot.getCalls() );
+		assertEquals( 80000, snapshot.getRequestBytes() );
+		assertEquals( 160000, snapshot.getResponseBytes() );
+		assertEquals( 800, snapshot.getFailures() );
+		assertEquals( Long.valueOf( 800 ), snapshot.getApiErrorsByCode().get( ErrorCode.GAPI_EC_TOO_MANY_CALLS ) );
+	}
+
+	@Test
+	public void testMBeans() throws Exception {
+		MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+		ApiMetrics metrics = new ApiMetrics();
+		metrics.getMethodMetrics( "facebook.friends.get" ).record( 1500, 10, 10, false, 0 );
+		metrics.registerMBeans( mbeans, "test" );
+		try {
+			metrics.getMethodMetrics( "facebook.users.getInfo" ).record( 2500, 10, 10, false, ErrorCode.API_EC_RATE );
+			ObjectName friends = new ObjectName( ApiMetrics.JMX_DOMAIN + ":type=ApiMetrics,name=\"test\",method=\"facebook.friends.get\"" );
+			ObjectName users = new ObjectName( ApiMetrics.JMX_DOMAIN + ":type=ApiMetrics,name=\"test\",method=\"facebook.users.getInfo\"" );
+			assertEquals( 1L, mbeans.getAttribute( friends, "Calls" ) );
+			assertEquals( 1L, mbeans.getAttribute( users, "ApiErrors" ) );
+			assertEquals( 1L, ( (Map<?,?>) mbeans.getAttribute( users, "ApiErrorsByCode" ) ).get( ErrorCode.API_EC_RATE ) );
+		}
+		finally {
+			metrics.unregisterMBeans();
+		}
+		assertTrue( mbeans.queryNames( new ObjectName( ApiMetrics.JMX_DOMAIN + ":type=ApiMetrics,name=\"test\",*" ), null ).isEmpty() );
+	}
+
+}
@@ -0,0 +1,182 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+public class BatchCoalescerTest {
+
+	private Server server;
+	private URL url;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger foreignCalls = new AtomicInteger();
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server( 0 );
+		server.setHandler( new AbstractHandler() {
+			public void handle( String target, HttpServletRequest request, HttpServletResponse response, int dispatch ) throws IOException, ServletException {
+				requests.incrementAndGet();
+				response.setContentType( "text/javascript;charset=utf-8" );
+				try {
+					if ( FacebookMethod.BATCH_RUN.methodName().equals( request.getParameter( "method" ) ) ) {
+						JSONArray feed = new JSONArray( request.getParameter( "method_feed" ) );
+						JSONArray out = new JSONArray();
+						String session = "session_key=" + request.getParameter( "session_key" ) + "&";
+						for ( int i = 0; i < feed.length(); i++ ) {
+							if ( ! ( "&" + feed.getString( i ) + "&" ).contains( "&" + session ) ) {
+								foreignCalls.incrementAndGet();
+							}
+							out.put( echo( feed.getString( i ) ) );
+						}
+						response.getWriter().print( out.toString() );
+					} else {
+						response.getWriter().print( new JSONObject().put( "uids", request.getParameter( "uids" ) ).toString() );
+					}
+				}
+				catch ( Exception ex ) {
+					throw new ServletException( ex );
+				}
+				( (Request) request ).setHandled( true );
+			}
+		} );
+		server.start();
+		url = new URL( "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/restserver.php" );
+	}
+
+	private static String echo( String encodedParams ) throws Exception {
+		for ( String pair : encodedParams.split( "&" ) ) {
+			if ( pair.startsWith( "uids=" ) ) {
+				return new JSONObject().put( "uids", URLDecoder.decode( pair.substring( 5 ), "UTF-8" ) ).toString();
+			}
+		}
+		return "{}";
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testConcurrentCallsShareBatches() throws Exception {
+		final ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret" );
+		client.setServerUrl( url );
+		BatchCoalescer coalescer = new BatchCoalescer( client, 50, null );
+		client.setBatchCoalescer( coalescer );
+		ExecutorService callers = Executors.newFixedThreadPool( 16 );
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for ( int i = 0; i < 100; i++ ) {
+				final String uid = Integer.toString( i );
+				results.add( callers.submit( new Callable<String>() {
+					public String call() throws Exception {
+						return client.callMethodAsync( FacebookMethod.USERS_GET_INFO, Pairs.newPair( "uids", uid ) ).get();
+					}
+				} ) );
+			}
+			for ( int i = 0; i < results.size(); i++ ) {
+				assertEquals( Integer.toString( i ), new JSONObject( results.get( i ).get() ).getString( "uids" ) );
+			}
+			assertEquals( 100, coalescer.getCallCount() );
+			assertEquals( coalescer.getBatchCount(), requests.get() );
+			assertTrue( "sent " + requests.get() + " requests", requests.get() <= 20 );
+		}
+		finally {
+			callers.shutdown();
+			coalescer.shutdown();
+		}
+	}
+
+	@Test
+	public void testWritesAreSentAlone() throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret" );
+		client.setServerUrl( url );
+		BatchCoalescer coalescer = new BatchCoalescer( client, 50, null );
+		client.setBatchCoalescer( coalescer );
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for ( int i = 0; i < 3; i++ ) {
+				results.add( client.callMethodAsync( FacebookMethod.STREAM_REMOVE, Pairs.newPair( "post_id", Integer.toString( i ) ) ) );
+			}
+			for ( Future<String> result : results ) {
+				result.get();
+			}
+			assertEquals( 0, coalescer.getCallCount() );
+			assertEquals( 3, requests.get() );
+		}
+		finally {
+			coalescer.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchesAreSignedAsTheirCalls() throws Exception {
+		final ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret" );
+		client.setServerUrl( url );
+		client.setShared( true );
+		BatchCoalescer coalescer = new BatchCoalescer( client, 50, null );
+		client.setBatchCoalescer( coalescer );
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for ( int i = 0; i < 10; i++ ) {
+				client.bindCallContext( new CallContext( "session-" + ( i % 2 ) ) );
+				results.add( client.callMethodAsync( FacebookMethod.USERS_GET_INFO, Pairs.newPair( "uids", Integer.toString( i ) ) ) );
+			}
+			for ( int i = 0; i < results.size(); i++ ) {
+				assertEquals( Integer.toString( i ), new JSONObject( results.get( i ).get() ).getString( "uids" ) );
+			}
+			assertEquals( 2, requests.get() );
+			assertEquals( 0, foreignCalls.get() );
+		}
+		finally {
+			client.bindCallContext( null );
+			coalescer.shutdown();
+		}
+	}
+
+	@Test
+	public void testLoneCallIsSentAsAPlainCall() throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret" );
+		client.setServerUrl( url );
+		ResponseCache cache = new ResponseCache( 10 );
+		cache.setTtl( FacebookMethod.USERS_GET_INFO, 60, TimeUnit.SECONDS );
+		client.setResponseCache( cache );
+		BatchCoalescer coalescer = new BatchCoalescer( client, 10, null );
+		client.setBatchCoalescer( coalescer );
+		try {
+			String first = client.callMethodAsync( FacebookMethod.USERS_GET_INFO, Pairs.newPair( "uids", "1" ) ).get();
+			assertEquals( 1, cache.size() );
+			assertEquals( first, client.callMethodAsync( FacebookMethod.USERS_GET_INFO, Pairs.newPair( "uids", "1" ) ).get() );
+			assertEquals( 1, requests.get() );
+		}
+		finally {
+			coalescer.shutdown();
+		}
+	}
+
+}
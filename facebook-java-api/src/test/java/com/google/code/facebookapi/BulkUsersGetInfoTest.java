@@ -0,0 +1,168 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import com.google.code.facebookapi.schema.User;
+
+public class BulkUsersGetInfoTest {
+
+	private static final List<ProfileField> FIELDS = Arrays.asList( ProfileField.NAME );
+
+	/**
+	 * Answers users_getInfo with one object per requested uid, except that uid 13 fails the request and uid 42 gets an error response.
+	 */
+	private static class EchoStrategy extends FakeStrategy {
+
+		@Override
+		protected String answer( SortedMap<String,String> params ) throws IOException {
+			String uids = params.get( "uids" );
+			List<String> ids = Arrays.asList( uids.split( "," ) );
+			if ( ids.contains( "13" ) ) {
+				throw new IOException( "connection reset" );
+			}
+			if ( ids.contains( "42" ) ) {
+				return "{\"error_code\":1,\"error_msg\":\"An unknown error occurred\",\"request_args\":[]}";
+			}
+			StringBuilder sb = new StringBuilder( "[" );
+			for ( String id : ids ) {
+				sb.append( sb.length() > 1 ? "," : "" ).append( "{\"uid\":" ).append( id ).append( "}" );
+			}
+			return sb.append( "]" ).toString();
+		}
+
+	}
+
+	private static List<Long> ids( int from, int to ) {
+		List<Long> ids = new ArrayList<Long>();
+		for ( long id = from; id < to; id++ ) {
+			ids.add( id );
+		}
+		return ids;
+	}
+
+	private static void checkChunks( BulkResponse response ) throws Exception {
+		assertEquals( 10, response.getChunkCount() );
+		int index = 0;
+		for ( BulkResponse.Chunk chunk : response ) {
+			assertEquals( index, chunk.getIndex() );
+			assertEquals( ids( 100 + index * 10, 110 + index * 10 ), chunk.getIds() );
+			JSONArray users = new JSONArray( chunk.getResponse() );
+			assertEquals( 10, users.length() );
+			assertEquals( 100 + index * 10, users.getJSONObject( 0 ).getLong( "uid" ) );
+			index++ ;
+		}
+		assertEquals( 10, index );
+		assertTrue( response.getFailures().isEmpty() );
+	}
+
+	@Test
+	public void testChunksInOrder() throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, new EchoStrategy() );
+		checkChunks( client.users_getInfoBulk( ids( 100, 200 ), FIELDS, 10, false ) );
+	}
+
+	@Test
+	public void testConcurrentChunks() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try {
+			ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, new EchoStrategy() );
+			client.setBatchExecutor( executor );
+			checkChunks( client.users_getInfoBulk( ids( 100, 200 ), FIELDS, 10, false ) );
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailuresAreReportedPerChunk() throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, new EchoStrategy() );
+		BulkResponse response = client.users_getInfoBulk( ids( 0, 50 ), FIELDS, 10, false );
+		List<BulkResponse.Chunk> failures = response.getFailures();
+		assertEquals( 2, failures.size() );
+		assertEquals( 1, failures.get( 0 ).getIndex() );
+		assertTrue( failures.get( 0 ).getFailure() instanceof IOException );
+		assertNull( failures.get( 0 ).getResponse() );
+		assertEquals( 4, failures.get( 1 ).getIndex() );
+		assertEquals( 1, ( (FacebookException) failures.get( 1 ).getFailure() ).getCode() );
+		assertEquals( 10, new JSONArray( response.getChunk( 0 ).getResponse() ).length() );
+	}
+
+	@Test
+	public void testUsersAcrossChunks() throws Exception {
+		FacebookJsonRestClient client = new FacebookJsonRestClient( new ExtensibleClient( "json", "apikey", "secret", "session", false, new EchoStrategy() ) );
+		Iterator<JSONObject> users = client.bulkUsers( client.users_getInfoBulk( ids( 0, 50 ), FIELDS, 10, false ) );
+		List<Long> uids = new ArrayList<Long>();
+		List<Exception> failures = new ArrayList<Exception>();
+		while ( users.hasNext() ) {
+			try {
+				uids.add( users.next().getLong( "uid" ) );
+			}
+			catch ( RuntimeException ex ) {
+				failures.add( ex );
+			}
+		}
+		// the failed chunks are reported in place, and the others still come through
+		List<Long> expected = ids( 0, 10 );
+		expected.addAll( ids( 20, 40 ) );
+		assertEquals( expected, uids );
+		assertEquals( 2, failures.size() );
+		assertTrue( failures.get( 0 ).getCause() instanceof IOException );
+		assertEquals( 1, ( (FacebookException) failures.get( 1 ).getCause() ).getCode() );
+	}
+
+	@Test
+	public void testBatchRunGroups() throws Exception {
+		FakeRestServer server = new FakeRestServer( LoadHarness.API_KEY, LoadHarness.SECRET );
+		server.start();
+		try {
+			ExtensibleClient client = new ExtensibleClient( "xml", LoadHarness.API_KEY, LoadHarness.SECRET, LoadHarness.SESSION_KEY );
+			client.setServerUrl( server.getUrl() );
+			BulkResponse response = client.users_getInfoBulk( ids( 0, 250 ), FIELDS, 10, true );
+			assertEquals( 25, response.getChunkCount() );
+			assertTrue( response.getFailures().isEmpty() );
+			assertTrue( response.getChunk( 24 ).getResponse().contains( "<users_getInfo_response" ) );
+			assertEquals( 2, server.getRequests() );
+			assertEquals( 25, server.getCalls() );
+
+			// each chunk of the canned response holds two users
+			Iterator<Element> elements = new FacebookXmlRestClient( client ).bulkUsers( client.users_getInfoBulk( ids( 0, 30 ), FIELDS, 10, true ) );
+			for ( int i = 0; i < 6; i++ ) {
+				assertEquals( "user", elements.next().getLocalName() );
+			}
+			assertFalse( elements.hasNext() );
+			Iterator<User> users = new FacebookJaxbRestClient( client ).bulkUsers( client.users_getInfoBulk( ids( 0, 30 ), FIELDS, 10, false ) );
+			for ( int i = 0; i < 3; i++ ) {
+				assertEquals( 500455733L, users.next().getUid().longValue() );
+				assertEquals( "Zo\u00eb M\u00fcller", users.next().getName() );
+			}
+			assertFalse( users.hasNext() );
+
+			server.setErrorRate( 1.0, ErrorCode.API_EC_SERVICE );
+			response = client.users_getInfoBulk( ids( 0, 30 ), FIELDS, 10, true );
+			assertEquals( 3, response.getFailures().size() );
+			assertEquals( ErrorCode.API_EC_SERVICE, ( (FacebookException) response.getChunk( 2 ).getFailure() ).getCode() );
+		}
+		finally {
+			server.stop();
+		}
+	}
+
+}
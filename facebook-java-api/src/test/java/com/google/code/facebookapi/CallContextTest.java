@@ -0,0 +1,167 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+public class CallContextTest {
+
+	private Server server;
+	private URL url;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server( 0 );
+		server.setHandler( new AbstractHandler() {
+			public void handle( String target, HttpServletRequest request, HttpServletResponse response, int dispatch ) throws IOException, ServletException {
+				response.setContentType( "text/javascript;charset=utf-8" );
+				try {
+					JSONObject out = new JSONObject();
+					out.put( "session_key", request.getParameter( "session_key" ) );
+					out.put( "call_as_apikey", request.getParameter( "call_as_apikey" ) );
+					response.getWriter().print( out.toString() );
+				}
+				catch ( Exception ex ) {
+					throw new ServletException( ex );
+				}
+				( (Request) request ).setHandled( true );
+			}
+		} );
+		server.start();
+		url = new URL( "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/restserver.php" );
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testSharedClientKeepsThreadsApart() throws Exception {
+		final ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret" );
+		client.setServerUrl( url );
+		client.setShared( true );
+		ExecutorService executor = Executors.newFixedThreadPool( 8 );
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for ( int i = 0; i < 100; i++ ) {
+				final String sessionKey = "session-" + i;
+				results.add( executor.submit( new Callable<String>() {
+					public String call() throws Exception {
+						CallContext context = new CallContext( sessionKey );
+						CallContext previous = client.bindCallContext( context );
+						try {
+							client.callMethod( FacebookMethod.FRIENDS_GET );
+							return new JSONObject( client.getRawResponse() ).getString( "session_key" );
+						}
+						finally {
+							client.bindCallContext( previous );
+						}
+					}
+				} ) );
+			}
+			for ( int i = 0; i < results.size(); i++ ) {
+				assertEquals( "session-" + i, results.get( i ).get() );
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSharedClientNeedsContext() throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret" );
+		client.setShared( true );
+		try {
+			client.callMethod( FacebookMethod.FRIENDS_GET );
+			fail( "expected IllegalStateException" );
+		}
+		catch ( IllegalStateException expected ) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testBoundContextOverridesClientState() throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "own-session" );
+		client.setServerUrl( url );
+		client.beginPermissionsMode( "other-app" );
+		CallContext context = new CallContext( "bound-session" );
+		assertNull( client.bindCallContext( context ) );
+		client.callMethod( FacebookMethod.FRIENDS_GET );
+		JSONObject response = new JSONObject( context.getRawResponse() );
+		assertEquals( "bound-session", response.getString( "session_key" ) );
+		assertEquals( false, response.has( "call_as_apikey" ) );
+		assertSame( context, client.bindCallContext( null ) );
+		assertEquals( "own-session", client.getCacheSessionKey() );
+		client.callMethod( FacebookMethod.FRIENDS_GET );
+		assertEquals( "other-app", new JSONObject( client.getRawResponse() ).getString( "call_as_apikey" ) );
+	}
+
+	@Test
+	public void testConcurrentBatchChunksUseCallersContext() throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret" );
+		client.setServerUrl( url );
+		client.setShared( true );
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		client.setBatchExecutor( executor );
+		client.bindCallContext( new CallContext( "batch-session" ) );
+		try {
+			client.beginBatch();
+			for ( int i = 0; i < 45; i++ ) {
+				client.callMethod( FacebookMethod.USERS_GET_INFO, Pairs.newPair( "uids", Integer.toString( i ) ) );
+			}
+			List<String> results = client.executeBatch( false );
+			assertEquals( 3, results.size() );
+			for ( String result : results ) {
+				assertEquals( "batch-session", new JSONObject( result ).getString( "session_key" ) );
+			}
+		}
+		finally {
+			client.bindCallContext( null );
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testSubclassFieldsAreTheClientsOwnContext() throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "own-session" ) {
+			{
+				// as a subclass written before contexts would
+				cacheSessionKey = "field-session";
+				permissionsApiKey = "other-app";
+			}
+		};
+		client.setServerUrl( url );
+		client.callMethod( FacebookMethod.FRIENDS_GET );
+		JSONObject response = new JSONObject( client.getRawResponse() );
+		assertEquals( "field-session", response.getString( "session_key" ) );
+		assertEquals( "other-app", response.getString( "call_as_apikey" ) );
+		assertEquals( "field-session", client.getCallContext().getSessionKey() );
+	}
+
+}
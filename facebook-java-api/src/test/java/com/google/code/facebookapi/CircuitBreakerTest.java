@@ -0,0 +1,286 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	/**
+	 * Fails every call while failing is set, and otherwise answers with an empty list.
+	 */
+	private static class FlakyStrategy extends FakeStrategy {
+
+		volatile boolean failing = true;
+
+		@Override
+		protected String answer( SortedMap<String,String> params ) throws IOException {
+			if ( failing ) {
+				throw new SocketTimeoutException( "Read timed out" );
+			}
+			return "[]";
+		}
+
+	}
+
+	/**
+	 * Fails every asynchronous call while failing is set.
+	 */
+	private static class FlakyAsyncStrategy extends FlakyStrategy implements AsyncCommunicationStrategy {
+
+		public Future<String> postRequestAsync( URL serverUrl, SortedMap<String,String> params ) {
+			try {
+				return FacebookFuture.completed( postRequest( serverUrl, params ) );
+			}
+			catch ( IOException ex ) {
+				return FacebookFuture.failed( ex );
+			}
+		}
+
+	}
+
+	private static CallRejectedException rejection( ExtensibleClient client, IFacebookMethod method ) throws FacebookException {
+		try {
+			client.callMethod( method );
+		}
+		catch ( RuntimeException ex ) {
+			if ( ex.getCause() instanceof CallRejectedException ) {
+				return (CallRejectedException) ex.getCause();
+			}
+		}
+		fail( method.methodName() + " was not rejected" );
+		return null;
+	}
+
+	@Test
+	public void testFamilyOf() {
+		assertEquals( "photos", CircuitBreaker.familyOf( FacebookMethod.PHOTOS_UPLOAD ) );
+		assertEquals( "photos", CircuitBreaker.familyOf( FacebookMethod.PHOTOS_GET ) );
+		assertEquals( "friends", CircuitBreaker.familyOf( FacebookMethod.FRIENDS_GET ) );
+		assertEquals( "fql", CircuitBreaker.familyOf( FacebookMethod.FQL_QUERY ) );
+	}
+
+	@Test
+	public void testCircuitOpensAndCloses() throws Exception {
+		FlakyStrategy strategy = new FlakyStrategy();
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setFailureThreshold( 3 );
+		breaker.setOpenTime( 100, TimeUnit.MILLISECONDS );
+		client.setCircuitBreaker( breaker );
+
+		for ( int i = 0; i < 3; i++ ) {
+			try {
+				client.callMethod( FacebookMethod.FRIENDS_GET );
+				fail();
+			}
+			catch ( RuntimeException ex ) {
+				assertTrue( ex.getCause() instanceof SocketTimeoutException );
+			}
+		}
+		MethodFamily friends = breaker.getFamily( "friends" );
+		assertEquals( MethodFamily.State.OPEN, friends.getCircuitState() );
+		assertEquals( 1, friends.getTimesOpened() );
+
+		// open: rejected without being sent, while other families carry on
+		CallRejectedException rejected = rejection( client, FacebookMethod.FRIENDS_GET_APP_USERS );
+		assertTrue( rejected.isCircuitOpen() );
+		assertEquals( "friends", rejected.getFamily() );
+		assertEquals( 3, strategy.requests.get() );
+		assertEquals( 1, friends.getRejectedOpen() );
+		strategy.failing = false;
+		client.callMethod( FacebookMethod.USERS_GET_LOGGED_IN_USER );
+		assertEquals( MethodFamily.State.CLOSED, breaker.getFamily( "users" ).getCircuitState() );
+
+		// after the open time a trial goes through, and closes the circuit
+		Thread.sleep( 150 );
+		client.callMethod( FacebookMethod.FRIENDS_GET );
+		assertEquals( MethodFamily.State.CLOSED, friends.getCircuitState() );
+		assertEquals( 1, friends.getTimesClosed() );
+		assertEquals( 0, friends.getConsecutiveFailures() );
+		assertEquals( 4, friends.getCalls() );
+		assertEquals( 3, friends.getFailures() );
+		assertTrue( friends.getLastStateChange() > 0 );
+	}
+
+	@Test
+	public void testFailedTrialReopens() throws Exception {
+		FlakyStrategy strategy = new FlakyStrategy();
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setFailureThreshold( 1 );
+		breaker.setOpenTime( 50, TimeUnit.MILLISECONDS );
+		client.setCircuitBreaker( breaker );
+
+		try {
+			client.callMethod( FacebookMethod.FRIENDS_GET );
+			fail();
+		}
+		catch ( RuntimeException ex ) {
+			// opens the circuit
+		}
+		// a rejected call is not worth retrying
+		RetryPolicy retry = new RetryPolicy();
+		client.setRetryPolicy( retry );
+		rejection( client, FacebookMethod.FRIENDS_GET );
+		assertEquals( 1, strategy.requests.get() );
+		assertEquals( 0, retry.getRetries() );
+		client.setRetryPolicy( null );
+
+		Thread.sleep( 80 );
+		try {
+			client.callMethod( FacebookMethod.FRIENDS_GET );
+			fail();
+		}
+		catch ( RuntimeException ex ) {
+			assertTrue( ex.getCause() instanceof SocketTimeoutException );
+		}
+		MethodFamily friends = breaker.getFamily( "friends" );
+		assertEquals( MethodFamily.State.OPEN, friends.getCircuitState() );
+		assertEquals( 2, friends.getTimesOpened() );
+		assertEquals( 0, friends.getTimesClosed() );
+	}
+
+	@Test
+	public void testRejectedCallTakesNoPermit() throws Exception {
+		FlakyStrategy strategy = new FlakyStrategy();
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setFailureThreshold( 1 );
+		client.setCircuitBreaker( breaker );
+		RateLimiter limiter = new RateLimiter( 1000, 1000 );
+		client.setRateLimiter( limiter );
+
+		try {
+			client.callMethod( FacebookMethod.FRIENDS_GET );
+			fail();
+		}
+		catch ( RuntimeException ex ) {
+			// opens the circuit
+		}
+		assertEquals( 1, limiter.getGranted() );
+		rejection( client, FacebookMethod.FRIENDS_GET );
+		rejection( client, FacebookMethod.FRIENDS_GET_APP_USERS );
+		assertEquals( 1, limiter.getGranted() );
+	}
+
+	@Test
+	public void testBulkheadRejectsWhenFull() throws Exception {
+		final CountDownLatch inFlight = new CountDownLatch( 1 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, new FlakyStrategy() {
+			@Override
+			protected String answer( SortedMap<String,String> params ) throws IOException {
+				if ( params.get( "method" ).equals( FacebookMethod.PHOTOS_GET.methodName() ) ) {
+					inFlight.countDown();
+					try {
+						release.await( 5, TimeUnit.SECONDS );
+					}
+					catch ( InterruptedException ex ) {
+						throw new IOException( "interrupted" );
+					}
+				}
+				return "[]";
+			}
+		} );
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setMaxConcurrent( "photos", 1 );
+		client.setCircuitBreaker( breaker );
+
+		Thread slow = new Thread() {
+			@Override
+			public void run() {
+				try {
+					client.callMethod( FacebookMethod.PHOTOS_GET );
+				}
+				catch ( FacebookException ex ) {
+					throw new RuntimeException( ex );
+				}
+			}
+		};
+		slow.start();
+		assertTrue( inFlight.await( 5, TimeUnit.SECONDS ) );
+
+		MethodFamily photos = breaker.getFamily( "photos" );
+		assertEquals( 1, photos.getActiveCalls() );
+		CallRejectedException rejected = rejection( client, FacebookMethod.PHOTOS_GET_ALBUMS );
+		assertFalse( rejected.isCircuitOpen() );
+		assertEquals( 1, photos.getRejectedFull() );
+		// a full family is not a failing one, and other families have room of their own
+		assertEquals( MethodFamily.State.CLOSED, photos.getCircuitState() );
+		client.callMethod( FacebookMethod.FRIENDS_GET );
+
+		release.countDown();
+		slow.join( 5000 );
+		assertEquals( 0, photos.getActiveCalls() );
+		client.callMethod( FacebookMethod.PHOTOS_GET_ALBUMS );
+		assertEquals( 2, photos.getCalls() );
+	}
+
+	@Test
+	public void testAsyncCallsOpenTheCircuit() throws Exception {
+		FlakyAsyncStrategy strategy = new FlakyAsyncStrategy();
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setFailureThreshold( 3 );
+		client.setCircuitBreaker( breaker );
+
+		for ( int i = 0; i < 3; i++ ) {
+			try {
+				client.callMethodAsync( FacebookMethod.FRIENDS_GET ).get();
+				fail();
+			}
+			catch ( ExecutionException ex ) {
+				assertTrue( ex.getCause() instanceof SocketTimeoutException );
+			}
+		}
+		MethodFamily friends = breaker.getFamily( "friends" );
+		assertEquals( MethodFamily.State.OPEN, friends.getCircuitState() );
+		assertEquals( 0, friends.getActiveCalls() );
+		try {
+			client.callMethodAsync( FacebookMethod.FRIENDS_GET ).get();
+			fail();
+		}
+		catch ( ExecutionException ex ) {
+			assertTrue( ex.getCause() instanceof CallRejectedException );
+		}
+		assertEquals( 3, strategy.requests.get() );
+	}
+
+	@Test
+	public void testRegisterMBeans() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.getFamily( "friends" );
+		breaker.registerMBeans( server, "test" );
+		try {
+			ObjectName friends = new ObjectName( ApiMetrics.JMX_DOMAIN + ":type=CircuitBreaker,name=\"test\",family=\"friends\"" );
+			assertEquals( "CLOSED", server.getAttribute( friends, "State" ) );
+			// families seen later are published as they appear
+			breaker.getFamily( "photos" );
+			ObjectName photos = new ObjectName( ApiMetrics.JMX_DOMAIN + ":type=CircuitBreaker,name=\"test\",family=\"photos\"" );
+			assertEquals( CircuitBreaker.DEFAULT_MAX_CONCURRENT, server.getAttribute( photos, "MaxConcurrent" ) );
+		}
+		finally {
+			breaker.unregisterMBeans();
+		}
+		assertTrue( server.queryNames( new ObjectName( ApiMetrics.JMX_DOMAIN + ":type=CircuitBreaker,*" ), null ).isEmpty() );
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+public class DefaultCommunicationStrategyUploadTest {
+
+	private Server server;
+	private URL url;
+	private String lastBody;
+	private String lastTransferEncoding;
+	private int lastContentLength;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server( 0 );
+		server.setHandler( new AbstractHandler() {
+			public void handle( String target, HttpServletRequest request, HttpServletResponse response, int dispatch ) throws IOException, ServletException {
+				lastTransferEncoding = request.getHeader( "Transfer-Encoding" );
+				lastContentLength = request.getContentLength();
+				lastBody = BasicClientHelper.toString( request.getInputStream() );
+				response.setStatus( HttpServletResponse.SC_OK );
+				response.getWriter().print( "ok" );
+				( (Request) request ).setHandled( true );
+			}
+		} );
+		server.start();
+		url = new URL( "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/restserver.php" );
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	private static SortedMap<String,String> params() {
+		SortedMap<String,String> params = new TreeMap<String,String>();
+		params.put( "method", "facebook.photos.upload" );
+		params.put( "caption", "caption" );
+		return params;
+	}
+
+	@Test
+	public void testFileChannelUploadIsFixedLength() throws Exception {
+		File file = File.createTempFile( "upload", ".jpg" );
+		file.deleteOnExit();
+		StringBuilder content = new StringBuilder();
+		for ( int i = 0; i < 20000; i++ ) {
+			content.append( (char) ( 'a' + i % 26 ) );
+		}
+		FileOutputStream fos = new FileOutputStream( file );
+		fos.write( content.toString().getBytes( "UTF-8" ) );
+		fos.close();
+
+		FileInputStream in = new FileInputStream( file );
+		try {
+			assertEquals( "ok", new DefaultCommunicationStrategy().postRequest( url, params(), "upload.jpg", in.getChannel() ) );
+		}
+		finally {
+			in.close();
+		}
+		assertEquals( null, lastTransferEncoding );
+		assertEquals( lastBody.length(), lastContentLength );
+		assertTrue( lastBody.indexOf( "filename=\"upload.jpg\"\r\n\r\n" + content + "\r\n" ) != -1 );
+	}
+
+	@Test
+	public void testInputStreamUploadIsBuffered() throws Exception {
+		assertEquals( "ok", new DefaultCommunicationStrategy().postRequest( url, params(), "upload.jpg", new ByteArrayInputStream( "imagedata".getBytes( "UTF-8" ) ) ) );
+		assertEquals( null, lastTransferEncoding );
+		assertEquals( lastBody.length(), lastContentLength );
+		assertTrue( lastBody.indexOf( "\r\n\r\nimagedata\r\n" ) != -1 );
+	}
+
+	@Test
+	public void testInputStreamUploadIsChunked() throws Exception {
+		DefaultCommunicationStrategy strategy = new DefaultCommunicationStrategy();
+		strategy.setChunkedUploads( true );
+		assertEquals( "ok", strategy.postRequest( url, params(), "upload.jpg", new ByteArrayInputStream( "imagedata".getBytes( "UTF-8" ) ) ) );
+		assertEquals( "chunked", lastTransferEncoding );
+		assertTrue( lastBody.indexOf( "name=\"caption\"\r\n\r\ncaption\r\n" ) != -1 );
+		assertTrue( lastBody.indexOf( "\r\n\r\nimagedata\r\n" ) != -1 );
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+public class ExecuteBatchTest {
+
+	private Server server;
+	private URL url;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server( 0 );
+		server.setHandler( new AbstractHandler() {
+			public void handle( String target, HttpServletRequest request, HttpServletResponse response, int dispatch ) throws IOException, ServletException {
+				int now = inFlight.incrementAndGet();
+				synchronized ( maxInFlight ) {
+					maxInFlight.set( Math.max( maxInFlight.get(), now ) );
+				}
+				try {
+					// finish later chunks first, to show that ordering doesn't depend on timing
+					JSONArray feed = new JSONArray( request.getParameter( "method_feed" ) );
+					Thread.sleep( 200 - 4 * feed.length() );
+				}
+				catch ( Exception ex ) {
+					throw new ServletException( ex );
+				}
+				finally {
+					inFlight.decrementAndGet();
+				}
+				response.setContentType( "text/javascript;charset=utf-8" );
+				response.getWriter().print( request.getParameter( "method_feed" ) );
+				( (Request) request ).setHandled( true );
+			}
+		} );
+		server.start();
+		url = new URL( "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/restserver.php" );
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	private List<String> runBatch( ExecutorService executor, int calls, boolean serial ) throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret" );
+		client.setServerUrl( url );
+		client.setBatchExecutor( executor );
+		client.beginBatch();
+		for ( int i = 0; i < calls; i++ ) {
+			client.callMethod( FacebookMethod.USERS_GET_INFO, Pairs.newPair( "uids", Integer.toString( i ) ) );
+		}
+		return client.executeBatch( serial );
+	}
+
+	private static void assertChunks( List<String> result, int calls ) throws Exception {
+		assertEquals( ( calls + ExtensibleClient.BATCH_LIMIT - 1 ) / ExtensibleClient.BATCH_LIMIT, result.size() );
+		int next = 0;
+		for ( String chunk : result ) {
+			JSONArray feed = new JSONArray( chunk );
+			for ( int i = 0; i < feed.length(); i++ ) {
+				assertTrue( feed.getString( i ).indexOf( "uids=" + next + "&" ) != -1 );
+				next++ ;
+			}
+		}
+		assertEquals( calls, next );
+	}
+
+	@Test
+	public void testSerialChunks() throws Exception {
+		assertChunks( runBatch( null, 45, false ), 45 );
+	}
+
+	@Test
+	public void testConcurrentChunksKeepOrder() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try {
+			assertChunks( runBatch( executor, 45, false ), 45 );
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSerialBatchIgnoresExecutor() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try {
+			assertChunks( runBatch( executor, 45, true ), 45 );
+			assertEquals( 1, maxInFlight.get() );
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+}
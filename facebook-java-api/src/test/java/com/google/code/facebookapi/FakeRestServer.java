@@ -0,0 +1,269 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+/**
+ * An embedded stand-in for restserver.php, for measuring and testing clients without a live Facebook session. It checks the api_key and sig of every call,
+ * answers with canned XML or JSON per method (batch_run is answered by running each call in the feed), and can be told to delay responses or to fail a share
+ * of them with an API error or an HTTP 500.
+ */
+public class FakeRestServer {
+
+	/**
+	 * The error code restserver.php answers a bad signature with.
+	 */
+	public static final int INCORRECT_SIGNATURE = 104;
+
+	private static final String NS = "xmlns=\"http://api.facebook.com/1.0/\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"";
+
+	private final String apiKey;
+	private final String secret;
+	private final Server server;
+	private final ConcurrentMap<String,String> xmlResponses = new ConcurrentHashMap<String,String>();
+	private final ConcurrentMap<String,String> jsonResponses = new ConcurrentHashMap<String,String>();
+
+	private volatile long latencyMillis;
+	private volatile long latencyJitterMillis;
+	private volatile double errorRate;
+	private volatile int errorCode = ErrorCode.API_EC_SERVICE;
+	private volatile double httpErrorRate;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong signatureFailures = new AtomicLong();
+	private final AtomicLong injectedErrors = new AtomicLong();
+
+	public FakeRestServer( String apiKey, String secret ) {
+		this.apiKey = apiKey;
+		this.secret = secret;
+		this.server = new Server( 0 );
+		server.setHandler( new AbstractHandler() {
+			public void handle( String target, HttpServletRequest request, HttpServletResponse response, int dispatch ) throws IOException, ServletException {
+				serve( request, response );
+				( (Request) request ).setHandled( true );
+			}
+		} );
+		respond( FacebookMethod.FRIENDS_GET.methodName(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<friends_get_response " + NS
+				+ " list=\"true\"><uid>500455733</uid><uid>683211456</uid><uid>100000412345678</uid></friends_get_response>",
+				"[500455733,683211456,100000412345678]" );
+		respond( FacebookMethod.USERS_GET_INFO.methodName(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<users_getInfo_response " + NS + " list=\"true\">"
+				+ "<user><uid>500455733</uid><first_name>Li</first_name><last_name>Rossi</last_name><name>Li Rossi</name><locale>ja_JP</locale></user>"
+				+ "<user><uid>683211456</uid><first_name>Zo\u00eb</first_name><last_name>M\u00fcller</last_name><name>Zo\u00eb M\u00fcller</name>"
+				+ "<locale>de_DE</locale></user></users_getInfo_response>", "[{\"uid\":500455733,\"first_name\":\"Li\",\"last_name\":\"Rossi\",\"name\":\"Li Rossi\","
+				+ "\"locale\":\"ja_JP\"},{\"uid\":683211456,\"first_name\":\"Zo\\u00eb\",\"last_name\":\"M\\u00fcller\",\"name\":\"Zo\\u00eb M\\u00fcller\","
+				+ "\"locale\":\"de_DE\"}]" );
+		respond( FacebookMethod.USERS_GET_LOGGED_IN_USER.methodName(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<users_getLoggedInUser_response " + NS
+				+ ">500455733</users_getLoggedInUser_response>", "500455733" );
+	}
+
+	/**
+	 * Sets the canned responses for a method, replacing any defaults. Either may be null if the method is only called in the other format.
+	 */
+	public void respond( String methodName, String xml, String json ) {
+		if ( xml != null ) {
+			xmlResponses.put( methodName, xml );
+		}
+		if ( json != null ) {
+			jsonResponses.put( methodName, json );
+		}
+	}
+
+	/**
+	 * Delays each request by <code>millis</code> plus a uniformly random extra of up to <code>jitterMillis</code>.
+	 */
+	public void setLatency( long millis, long jitterMillis ) {
+		this.latencyMillis = millis;
+		this.latencyJitterMillis = jitterMillis;
+	}
+
+	/**
+	 * Answers the given share of calls (including each call in a batch) with an error response carrying <code>errorCode</code>.
+	 */
+	public void setErrorRate( double rate, int errorCode ) {
+		this.errorRate = rate;
+		this.errorCode = errorCode;
+	}
+
+	/**
+	 * Answers the given share of requests with an HTTP 500 and no body.
+	 */
+	public void setHttpErrorRate( double rate ) {
+		this.httpErrorRate = rate;
+	}
+
+	public void start() throws Exception {
+		server.start();
+	}
+
+	public void stop() throws Exception {
+		server.stop();
+	}
+
+	public URL getUrl() {
+		try {
+			return new URL( "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/restserver.php" );
+		}
+		catch ( IOException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+	}
+
+	/**
+	 * @return the number of HTTP requests received
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of API calls answered, counting each call in a batch
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	public long getSignatureFailures() {
+		return signatureFailures.get();
+	}
+
+	public long getInjectedErrors() {
+		return injectedErrors.get();
+	}
+
+	private void serve( HttpServletRequest request, HttpServletResponse response ) throws IOException {
+		requests.incrementAndGet();
+		Random random = new Random();
+		long delay = latencyMillis + ( latencyJitterMillis > 0 ? (long) ( random.nextDouble() * latencyJitterMillis ) : 0 );
+		if ( delay > 0 ) {
+			try {
+				Thread.sleep( delay );
+			}
+			catch ( InterruptedException ex ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if ( httpErrorRate > 0 && random.nextDouble() < httpErrorRate ) {
+			response.sendError( HttpServletResponse.SC_INTERNAL_SERVER_ERROR );
+			return;
+		}
+		SortedMap<String,String> params = new TreeMap<String,String>();
+		for ( Object o : request.getParameterMap().entrySet() ) {
+			Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+			params.put( (String) e.getKey(), ( (String[]) e.getValue() )[0] );
+		}
+		boolean json = "json".equalsIgnoreCase( params.get( "format" ) );
+		response.setContentType( json ? "text/javascript;charset=utf-8" : "text/xml;charset=utf-8" );
+		response.getWriter().print( answer( params, random ) );
+	}
+
+	private String answer( SortedMap<String,String> params, Random random ) {
+		boolean json = "json".equalsIgnoreCase( params.get( "format" ) );
+		String sig = params.remove( "sig" );
+		if ( !apiKey.equals( params.get( "api_key" ) ) ) {
+			return error( json, ErrorCode.GEN_INVALID_PARAMETER, "Invalid API key", params );
+		}
+		if ( sig == null || !sig.equals( FacebookSignatureUtil.generateSignature( params, secret ) ) ) {
+			signatureFailures.incrementAndGet();
+			return error( json, INCORRECT_SIGNATURE, "Incorrect signature", params );
+		}
+		String method = params.get( "method" );
+		if ( FacebookMethod.BATCH_RUN.methodName().equals( method ) ) {
+			return batch( json, params, random );
+		}
+		calls.incrementAndGet();
+		if ( errorRate > 0 && random.nextDouble() < errorRate ) {
+			injectedErrors.incrementAndGet();
+			return error( json, errorCode, "Injected error", params );
+		}
+		String canned = json ? jsonResponses.get( method ) : xmlResponses.get( method );
+		if ( canned == null ) {
+			return error( json, ErrorCode.API_EC_METHOD, "Unknown method", params );
+		}
+		return canned;
+	}
+
+	/**
+	 * Runs each call of the feed as if it had been sent on its own, signature check included.
+	 */
+	private String batch( boolean json, SortedMap<String,String> params, Random random ) {
+		try {
+			JSONArray feed = new JSONArray( params.get( "method_feed" ) );
+			String[] results = new String[feed.length()];
+			for ( int i = 0; i < feed.length(); i++ ) {
+				results[i] = answer( decode( feed.getString( i ) ), random );
+			}
+			if ( json ) {
+				return new JSONArray( results ).toString();
+			}
+			StringBuilder sb = new StringBuilder( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<batch_run_response " ).append( NS ).append( " list=\"true\">" );
+			for ( String result : results ) {
+				sb.append( "<batch_run_response_elt>" ).append( StringEscapeUtils.escapeXml( result ) ).append( "</batch_run_response_elt>" );
+			}
+			return sb.append( "</batch_run_response>" ).toString();
+		}
+		catch ( JSONException ex ) {
+			return error( json, ErrorCode.GEN_INVALID_PARAMETER, "Invalid method_feed", params );
+		}
+	}
+
+	private static SortedMap<String,String> decode( String query ) {
+		SortedMap<String,String> out = new TreeMap<String,String>();
+		try {
+			for ( String pair : query.split( "&" ) ) {
+				int eq = pair.indexOf( '=' );
+				if ( eq > 0 ) {
+					out.put( URLDecoder.decode( pair.substring( 0, eq ), "UTF-8" ), URLDecoder.decode( pair.substring( eq + 1 ), "UTF-8" ) );
+				}
+			}
+		}
+		catch ( UnsupportedEncodingException ex ) {
+			throw BasicClientHelper.runtimeException( ex );
+		}
+		return out;
+	}
+
+	private static String error( boolean json, int code, String message, SortedMap<String,String> params ) {
+		if ( json ) {
+			try {
+				JSONArray args = new JSONArray();
+				for ( Map.Entry<String,String> e : params.entrySet() ) {
+					args.put( new JSONObject().put( "key", e.getKey() ).put( "value", e.getValue() ) );
+				}
+				return new JSONObject().put( "error_code", code ).put( "error_msg", message ).put( "request_args", args ).toString();
+			}
+			catch ( JSONException ex ) {
+				throw BasicClientHelper.runtimeException( ex );
+			}
+		}
+		StringBuilder sb = new StringBuilder( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<error_response " ).append( NS ).append( "><error_code>" ).append( code )
+				.append( "</error_code><error_msg>" ).append( StringEscapeUtils.escapeXml( message ) ).append( "</error_msg><request_args list=\"true\">" );
+		for ( Map.Entry<String,String> e : params.entrySet() ) {
+			sb.append( "<arg><key>" ).append( StringEscapeUtils.escapeXml( e.getKey() ) ).append( "</key><value>" ).append(
+					StringEscapeUtils.escapeXml( e.getValue() ) ).append( "</value></arg>" );
+		}
+		return sb.append( "</request_args></error_response>" ).toString();
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.google.code.facebookapi.schema.FriendsGetResponse;
+
+public class FakeRestServerTest {
+
+	private FakeRestServer server;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new FakeRestServer( LoadHarness.API_KEY, LoadHarness.SECRET );
+		server.start();
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testEachFlavor() throws Exception {
+		FacebookJsonRestClient json = (FacebookJsonRestClient) LoadHarness.newClient( LoadHarness.Flavor.JSON, server );
+		assertEquals( 3, ( (JSONArray) json.friends_get() ).length() );
+		FacebookXmlRestClient xml = (FacebookXmlRestClient) LoadHarness.newClient( LoadHarness.Flavor.XML, server );
+		Document doc = xml.friends_get();
+		assertEquals( 3, doc.getElementsByTagName( "uid" ).getLength() );
+		FacebookJaxbRestClient jaxb = (FacebookJaxbRestClient) LoadHarness.newClient( LoadHarness.Flavor.JAXB, server );
+		FriendsGetResponse friends = jaxb.friends_get();
+		assertEquals( Arrays.asList( 500455733L, 683211456L, 100000412345678L ), friends.getUid() );
+		assertEquals( 3, server.getCalls() );
+		assertEquals( 0, server.getSignatureFailures() );
+	}
+
+	@Test
+	public void testRejectsBadSignature() throws Exception {
+		FacebookJsonRestClient client = new FacebookJsonRestClient( LoadHarness.API_KEY, "wrongsecret", LoadHarness.SESSION_KEY );
+		client.setServerUrl( server.getUrl() );
+		try {
+			client.friends_get();
+			fail( "expected signature to be rejected" );
+		}
+		catch ( FacebookException ex ) {
+			assertEquals( FakeRestServer.INCORRECT_SIGNATURE, ex.getCode() );
+		}
+		assertEquals( 1, server.getSignatureFailures() );
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		FacebookJsonRestClient client = (FacebookJsonRestClient) LoadHarness.newClient( LoadHarness.Flavor.JSON, server );
+		client.beginBatch();
+		client.friends_get();
+		client.users_getInfo( Arrays.asList( 500455733L ), new HashSet<CharSequence>( Arrays.asList( "name" ) ) );
+		List<? extends Object> results = client.executeBatch( false );
+		assertEquals( 2, results.size() );
+		assertEquals( 3, ( (JSONArray) results.get( 0 ) ).length() );
+		assertEquals( "Li Rossi", ( (JSONArray) results.get( 1 ) ).getJSONObject( 0 ).getString( "name" ) );
+		assertEquals( 1, server.getRequests() );
+		assertEquals( 2, server.getCalls() );
+	}
+
+	@Test
+	public void testInjectedErrors() throws Exception {
+		server.setErrorRate( 1.0, ErrorCode.API_EC_RATE );
+		FacebookXmlRestClient client = (FacebookXmlRestClient) LoadHarness.newClient( LoadHarness.Flavor.XML, server );
+		try {
+			client.friends_get();
+			fail( "expected injected error" );
+		}
+		catch ( FacebookException ex ) {
+			assertEquals( ErrorCode.API_EC_RATE, ex.getCode() );
+		}
+		server.setErrorRate( 0, 0 );
+		server.setHttpErrorRate( 1.0 );
+		try {
+			client.friends_get();
+			fail( "expected HTTP error" );
+		}
+		catch ( RuntimeException expected ) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testLoadHarness() throws Exception {
+		server.setLatency( 1, 1 );
+		for ( LoadHarness.Flavor flavor : LoadHarness.Flavor.values() ) {
+			LoadHarness.Report report = LoadHarness.run( flavor, server, 2, 300 );
+			assertTrue( report.getCalls() > 0 );
+			assertEquals( 0, report.getErrors() );
+			assertTrue( report.getFriendsGet().getLatencyPercentile( 50 ) >= 1.0 );
+			assertEquals( report.getCalls(), report.getFriendsGet().getCalls() + report.getUsersGetInfo().getCalls() );
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.google.code.facebookapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A communication strategy that answers calls in the test itself, for tests that don't need the real connection {@link FakeRestServer} gives. Each call is
+ * answered from its parameters by {@link #answer(SortedMap)}; file uploads are not supported. Streamed calls fall back to reading the answer as a String.
+ */
+public abstract class FakeStrategy implements CommunicationStrategy {
+
+	/**
+	 * The number of requests made, including those that failed.
+	 */
+	final AtomicInteger requests = new AtomicInteger();
+
+	private int connectionTimeout;
+	private int readTimeout;
+
+	/**
+	 * @return the response to the call; throwing fails the request instead
+	 */
+	protected abstract String answer( SortedMap<String,String> params ) throws IOException;
+
+	public String postRequest( URL serverUrl, SortedMap<String,String> params ) throws IOException {
+		requests.incrementAndGet();
+		return answer( params );
+	}
+
+	public String postRequest( URL serverUrl, SortedMap<String,String> params, String fileName, InputStream fileStream ) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public int getConnectionTimeout() {
+		return connectionTimeout;
+	}
+
+	public void setConnectionTimeout( int connectionTimeout ) {
+		this.connectionTimeout = connectionTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout( int readTimeout ) {
+		this.readTimeout = readTimeout;
+	}
+
+}
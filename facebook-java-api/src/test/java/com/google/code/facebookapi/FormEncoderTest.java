@@ -0,0 +1,69 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class FormEncoderTest {
+
+	@Test
+	public void testMatchesUrlEncoder() throws Exception {
+		String[] samples = { "", "plain", "a b+c&d=e", "{\"name\":\"Zo\u00eb\",\"href\":\"http://www.facebook.com/?a=1&b=2\"}", "\u65e5\u672c\u8a9e",
+				"\ud83d\ude00 smile", "lone \ud83d surrogate", "trailing \ude00", "~!@#$%^&*()_+-=[]{}|;':\",./<>?`" };
+		for ( String s : samples ) {
+			assertEquals( s, URLEncoder.encode( s, "UTF-8" ), FormEncoder.encode( s ) );
+		}
+		Random random = new Random( 42 );
+		for ( int n = 0; n < 2000; n++ ) {
+			char[] chars = new char[random.nextInt( 40 )];
+			for ( int i = 0; i < chars.length; i++ ) {
+				// favour ASCII, but cover every range including surrogates
+				chars[i] = (char) ( random.nextBoolean() ? random.nextInt( 128 ) : random.nextInt( 0x10000 ) );
+			}
+			String s = new String( chars );
+			assertEquals( URLEncoder.encode( s, "UTF-8" ), FormEncoder.encode( s ) );
+			assertEquals( URLEncoder.encode( s, "UTF-8" ).length(), FormEncoder.encodedLength( s ) );
+		}
+	}
+
+	@Test
+	public void testUnescapedValueIsReturnedAsIs() {
+		String s = "500455733,683211456";
+		assertEquals( "500455733%2C683211456", FormEncoder.encode( s ) );
+		String plain = "abc.DEF-123_*";
+		assertSame( plain, FormEncoder.encode( plain ) );
+	}
+
+	@Test
+	public void testParams() throws Exception {
+		SortedMap<String,String> params = new TreeMap<String,String>();
+		params.put( "api_key", "0123" );
+		params.put( "method", "facebook.stream.publish" );
+		params.put( "message", "hello w\u00f6rld & all" );
+		params.put( "attachment", "{\"name\":\"x y\"}" );
+		String expected = BasicClientHelper.delimit( params.entrySet(), "&", "=", true ).toString();
+
+		FormEncoder encoder = FormEncoder.forThread().params( params );
+		assertEquals( expected, encoder.toString() );
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.writeTo( out );
+		assertEquals( expected, out.toString( "US-ASCII" ) );
+		assertEquals( expected.length(), encoder.size() );
+		assertEquals( encoder.size(), FormEncoder.encodedSize( params ) );
+
+		// a null value is sent as an empty one
+		params.put( "tags", null );
+		assertEquals( FormEncoder.forThread().params( params ).size(), FormEncoder.encodedSize( params ) );
+
+		// the thread's encoder starts empty each time
+		assertEquals( 0, FormEncoder.forThread().size() );
+	}
+
+}
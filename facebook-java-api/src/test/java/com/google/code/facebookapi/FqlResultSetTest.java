@@ -0,0 +1,112 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class FqlResultSetTest {
+
+	@Test
+	public void testColumns() throws Exception {
+		FqlResultSet rs = FqlResultSet.parse( "[{\"uid\":500455733,\"sex\":\"female\",\"name\":\"Li Rossi\",\"zip\":\"02134\"},"
+				+ "{\"uid\":100000412345678,\"sex\":\"female\",\"name\":\"Zo\\u00eb\",\"zip\":2134,\"affiliations\":[{\"nid\":1}]},"
+				+ "{\"uid\":683211456,\"sex\":null,\"name\":\"Sam\",\"zip\":\"n/a\"}]" );
+		assertEquals( 3, rs.getRowCount() );
+		assertEquals( Arrays.asList( "uid", "sex", "name", "zip", "affiliations" ), rs.getColumnNames() );
+
+		assertTrue( rs.isLongColumn( "uid" ) );
+		long[] uids = rs.getLongColumn( "uid" );
+		assertEquals( 3, uids.length );
+		assertEquals( 100000412345678L, uids[1] );
+		assertEquals( "683211456", rs.getString( 2, "uid" ) );
+
+		// repeated values share one String
+		assertFalse( rs.isLongColumn( "sex" ) );
+		assertSame( rs.getString( 0, "sex" ), rs.getString( 1, "sex" ) );
+		assertTrue( rs.isNull( 2, "sex" ) );
+		assertNull( rs.getString( 2, "sex" ) );
+		assertEquals( "Zo\u00eb", rs.getString( 1, "name" ) );
+
+		// a column mixing numbers and text keeps both as text
+		assertFalse( rs.isLongColumn( "zip" ) );
+		assertEquals( "02134", rs.getString( 0, "zip" ) );
+		assertEquals( "2134", rs.getString( 1, "zip" ) );
+
+		// nested values are kept as JSON, and missing ones are null
+		assertTrue( rs.isNull( 0, "affiliations" ) );
+		assertEquals( "[{\"nid\":1}]", rs.getString( 1, "affiliations" ) );
+		try {
+			rs.getLongColumn( "name" );
+			fail( "name is not numeric" );
+		}
+		catch ( IllegalArgumentException ex ) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMultiquery() throws Exception {
+		Map<String,FqlResultSet> results = FqlResultSet.parseMultiquery( "[{\"name\":\"friends\",\"fql_result_set\":[{\"uid2\":1},{\"uid2\":2},{\"uid2\":3}]},"
+				+ "{\"name\":\"names\",\"fql_result_set\":[{\"uid\":1,\"name\":\"A\"},{\"uid\":3,\"name\":\"C\"}]},{\"name\":\"none\",\"fql_result_set\":[]}]" );
+		assertEquals( Arrays.asList( "friends", "names", "none" ), Arrays.asList( results.keySet().toArray() ) );
+		assertEquals( 3, results.get( "friends" ).getLongColumn( "uid2" ).length );
+		assertEquals( 3, results.get( "names" ).getLong( 1, "uid" ) );
+		assertEquals( 0, results.get( "none" ).getRowCount() );
+	}
+
+	@Test
+	public void testErrorResponse() throws Exception {
+		try {
+			FqlResultSet.parse( "{\"error_code\":601,\"error_msg\":\"Parser error: unexpected end of query.\",\"request_args\":[]}" );
+			fail( "error not thrown" );
+		}
+		catch ( FacebookException ex ) {
+			assertEquals( 601, ex.getCode() );
+		}
+	}
+
+	@Test
+	public void testMultiqueryRequest() throws Exception {
+		FakeRestServer server = new FakeRestServer( LoadHarness.API_KEY, LoadHarness.SECRET );
+		server.respond( FacebookMethod.FQL_MULTIQUERY.methodName(), null,
+				"[{\"name\":\"me\",\"fql_result_set\":[{\"uid\":500455733}]},{\"name\":\"friends\",\"fql_result_set\":[{\"uid2\":683211456}]}]" );
+		server.start();
+		try {
+			FacebookXmlRestClient client = new FacebookXmlRestClient( LoadHarness.API_KEY, LoadHarness.SECRET, LoadHarness.SESSION_KEY );
+			client.setServerUrl( server.getUrl() );
+			Map<String,String> queries = new LinkedHashMap<String,String>();
+			queries.put( "me", "SELECT uid FROM user WHERE uid = me()" );
+			queries.put( "friends", "SELECT uid2 FROM friend WHERE uid1 IN (SELECT uid FROM #me)" );
+			Map<String,FqlResultSet> results = client.fql_multiqueryColumnar( queries );
+			assertEquals( 683211456L, results.get( "friends" ).getLong( 0, "uid2" ) );
+			assertEquals( 1, server.getRequests() );
+			assertEquals( 0, server.getSignatureFailures() );
+		}
+		finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testRefusedInBatchMode() throws Exception {
+		FacebookXmlRestClient client = new FacebookXmlRestClient( LoadHarness.API_KEY, LoadHarness.SECRET, LoadHarness.SESSION_KEY );
+		client.beginBatch();
+		try {
+			client.fql_queryColumnar( "SELECT uid FROM user WHERE uid = me()" );
+			fail( "queued in batch mode" );
+		}
+		catch ( FacebookException ex ) {
+			assertEquals( ErrorCode.GEN_INVALID_PARAMETER, ex.getCode() );
+		}
+	}
+
+}
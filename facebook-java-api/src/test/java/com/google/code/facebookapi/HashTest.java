@@ -2,6 +2,7 @@ package com.google.code.facebookapi;
 
 import static junit.framework.Assert.assertEquals;
 
+import java.security.MessageDigest;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -56,4 +57,27 @@ public class HashTest {
 		assertEquals( paramsA, paramsC );
 	}
 
+	@Test
+	public void test_SigNonAscii() throws Exception {
+		SortedMap<String,String> params = new TreeMap<String,String>();
+		params.put( "caption", "caf\u00e9 \u65e5\u672c \ud83d\ude00 \ud800" );
+		params.put( "empty", "" );
+		StringBuilder longValue = new StringBuilder();
+		for ( int i = 0; i < 1000; i++ ) {
+			longValue.append( "\u00e9x" );
+		}
+		params.put( "long", longValue.toString() );
+		String secret = "s\u00e9cret";
+
+		String base = FacebookSignatureUtil.generateBaseString( params ).append( secret ).toString();
+		MessageDigest md = MessageDigest.getInstance( "MD5" );
+		StringBuilder expected = new StringBuilder();
+		for ( byte b : md.digest( base.getBytes( "UTF-8" ) ) ) {
+			expected.append( Integer.toHexString( ( b & 0xf0 ) >>> 4 ) );
+			expected.append( Integer.toHexString( b & 0x0f ) );
+		}
+		assertEquals( expected.toString(), FacebookSignatureUtil.generateSignature( params, secret ) );
+		assertEquals( expected.toString(), FacebookSignatureUtil.generateMD5( base ) );
+	}
+
 }
@@ -0,0 +1,104 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.Test;
+
+import com.google.code.facebookapi.schema.FriendsGetResponse;
+
+public class JaxbUnmarshallerTest {
+
+	private static String friends( int n ) {
+		StringBuilder sb = new StringBuilder( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<friends_get_response xmlns=\"http://api.facebook.com/1.0/\""
+				+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" list=\"true\">" );
+		for ( int i = 0; i < n; i++ ) {
+			sb.append( "<uid>" ).append( 1000000000L + i ).append( "</uid>" );
+		}
+		return sb.append( "</friends_get_response>" ).toString();
+	}
+
+	@Test
+	public void testUnmarshallerReusedPerThread() throws Exception {
+		FacebookJaxbRestClient.initJaxbSupport();
+		final Unmarshaller mine = FacebookJaxbRestClientBase.getUnmarshaller();
+		assertSame( mine, FacebookJaxbRestClientBase.getUnmarshaller() );
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Unmarshaller other = executor.submit( new Callable<Unmarshaller>() {
+				public Unmarshaller call() {
+					return FacebookJaxbRestClientBase.getUnmarshaller();
+				}
+			} ).get();
+			assertNotSame( mine, other );
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSourcesAgree() throws Exception {
+		FacebookJaxbRestClient client = new FacebookJaxbRestClient( "apikey", "secret" );
+		String xml = friends( 50 );
+		FriendsGetResponse fromString = (FriendsGetResponse) client.parseCallResult( xml );
+		FriendsGetResponse fromStream = (FriendsGetResponse) client.getResponsePOJO( new ByteArrayInputStream( xml.getBytes( "UTF-8" ) ) );
+		XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader( new ByteArrayInputStream( xml.getBytes( "UTF-8" ) ) );
+		reader.nextTag();
+		FriendsGetResponse fromStax = (FriendsGetResponse) client.getResponsePOJO( reader );
+		assertEquals( 50, fromString.getUid().size() );
+		assertEquals( fromString.getUid(), fromStream.getUid() );
+		assertEquals( fromString.getUid(), fromStax.getUid() );
+	}
+
+	@Test
+	public void testConcurrentParsing() throws Exception {
+		final FacebookJaxbRestClient client = new FacebookJaxbRestClient( "apikey", "secret" );
+		ExecutorService executor = Executors.newFixedThreadPool( 8 );
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for ( int i = 0; i < 200; i++ ) {
+				final int n = i % 40;
+				results.add( executor.submit( new Callable<Integer>() {
+					public Integer call() throws Exception {
+						return ( (FriendsGetResponse) client.parseCallResult( friends( n ) ) ).getUid().size();
+					}
+				} ) );
+			}
+			for ( int i = 0; i < results.size(); i++ ) {
+				assertEquals( Integer.valueOf( i % 40 ), results.get( i ).get() );
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testErrorResponse() throws Exception {
+		FacebookJaxbRestClient client = new FacebookJaxbRestClient( "apikey", "secret" );
+		try {
+			client.parseCallResult( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<error_response xmlns=\"http://api.facebook.com/1.0/\">"
+					+ "<error_code>102</error_code><error_msg>Session key invalid</error_msg><request_args list=\"true\"/></error_response>" );
+			fail( "expected FacebookException" );
+		}
+		catch ( FacebookException ex ) {
+			assertEquals( ErrorCode.SESSION_INVALID, ex.getCode() );
+		}
+	}
+
+}
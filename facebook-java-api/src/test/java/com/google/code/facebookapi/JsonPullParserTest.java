@@ -0,0 +1,95 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class JsonPullParserTest {
+
+	private static InputStream stream( String s ) throws Exception {
+		return new ByteArrayInputStream( s.getBytes( "UTF-8" ) );
+	}
+
+	@Test
+	public void testReadValueMatchesJsonOrg() throws Exception {
+		String json = "[{\"uid\":123456789012,\"name\":\"Andr\\u00e9 \\\"A\\\"\",\"pic\":null,\"tags\":[\"a\",\"b\"],\"score\":1.5,\"app_user\":true},"
+				+ " {\"uid\":2, \"name\":\"\", \"nested\":{\"x\":[[],{}]}}]";
+		JsonPullParser parser = new JsonPullParser( new StringReader( json ) );
+		JSONArray expected = new JSONArray( json );
+		JSONArray actual = (JSONArray) parser.readValue();
+		assertEquals( JsonPullParser.Token.END_DOCUMENT, parser.peek() );
+		assertEquals( expected.length(), actual.length() );
+		for ( int i = 0; i < expected.length(); i++ ) {
+			JSONObject e = expected.getJSONObject( i );
+			JSONObject a = actual.getJSONObject( i );
+			assertEquals( e.length(), a.length() );
+			assertEquals( e.getLong( "uid" ), a.getLong( "uid" ) );
+			assertEquals( e.getString( "name" ), a.getString( "name" ) );
+		}
+		assertTrue( actual.getJSONObject( 0 ).isNull( "pic" ) );
+		assertEquals( 1.5, actual.getJSONObject( 0 ).getDouble( "score" ) );
+		assertTrue( actual.getJSONObject( 0 ).getBoolean( "app_user" ) );
+	}
+
+	@Test
+	public void testIncrementalArray() throws Exception {
+		StringBuilder json = new StringBuilder( "[" );
+		for ( int i = 0; i < 5000; i++ ) {
+			json.append( i == 0 ? "" : "," ).append( 1000000000L + i );
+		}
+		json.append( "]" );
+		JsonPullParser parser = JsonHelper.openCallResult( stream( json.toString() ) );
+		parser.beginArray();
+		long expected = 1000000000L;
+		while ( parser.hasNext() ) {
+			assertEquals( expected++, parser.nextLong() );
+		}
+		parser.endArray();
+		assertEquals( 1000005000L, expected );
+	}
+
+	@Test
+	public void testObjectAfterErrorCheck() throws Exception {
+		JsonPullParser parser = JsonHelper.openCallResult( stream( "{\"a\":1,\"b\":{\"c\":\"d\"}}" ) );
+		assertEquals( JsonPullParser.Token.BEGIN_OBJECT, parser.peek() );
+		assertEquals( 0, parser.getDepth() );
+		parser.beginObject();
+		assertEquals( "a", parser.nextName() );
+		assertEquals( 1, parser.nextInt() );
+		assertEquals( "b", parser.nextName() );
+		parser.skipValue();
+		assertFalse( parser.hasNext() );
+		parser.endObject();
+		assertEquals( JsonPullParser.Token.END_DOCUMENT, parser.peek() );
+	}
+
+	@Test
+	public void testErrorDetectedEarly() throws Exception {
+		try {
+			JsonHelper.openCallResult( stream( "{\"error_code\":102,\"error_msg\":\"Session key invalid\"}" ) );
+			fail( "expected FacebookException" );
+		}
+		catch ( FacebookException ex ) {
+			assertEquals( ErrorCode.SESSION_INVALID, ex.getCode() );
+			assertEquals( "Session key invalid", ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void testScalarResult() throws Exception {
+		JsonPullParser parser = JsonHelper.openCallResult( stream( "\"1234\"" ) );
+		assertEquals( 1234L, parser.nextLong() );
+		parser = JsonHelper.openCallResult( stream( "true" ) );
+		assertTrue( parser.nextBoolean() );
+	}
+
+}
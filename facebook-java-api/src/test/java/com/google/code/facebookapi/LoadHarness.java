@@ -0,0 +1,187 @@
+package com.google.code.facebookapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the Xml, Json and Jaxb clients against a {@link FakeRestServer} from several threads and reports calls per second and latency percentiles for each,
+ * as measured by {@link ApiMetrics}. Run <code>main</code> with optional arguments <code>threads seconds latencyMillis</code>.
+ */
+public class LoadHarness {
+
+	public static final String API_KEY = "0123456789abcdef0123456789abcdef";
+	public static final String SECRET = "fedcba9876543210fedcba9876543210";
+	public static final String SESSION_KEY = "2.AbCdEfGhIjKlMnOp_.3600.1255555555-123456789";
+
+	private static final List<Long> UIDS = Arrays.asList( 500455733L, 683211456L );
+	private static final Set<CharSequence> FIELDS = new HashSet<CharSequence>( Arrays.<CharSequence> asList( "uid", "first_name", "last_name", "name", "locale" ) );
+
+	public enum Flavor {
+		XML, JSON, JAXB
+	}
+
+	/**
+	 * The outcome of one run.
+	 */
+	public static class Report {
+
+		private final Flavor flavor;
+		private final long calls;
+		private final long errors;
+		private final long elapsedMillis;
+		private final MethodMetricsSnapshot friends;
+		private final MethodMetricsSnapshot users;
+
+		Report( Flavor flavor, long calls, long errors, long elapsedMillis, MethodMetricsSnapshot friends, MethodMetricsSnapshot users ) {
+			this.flavor = flavor;
+			this.calls = calls;
+			this.errors = errors;
+			this.elapsedMillis = elapsedMillis;
+			this.friends = friends;
+			this.users = users;
+		}
+
+		public Flavor getFlavor() {
+			return flavor;
+		}
+
+		public long getCalls() {
+			return calls;
+		}
+
+		/**
+		 * @return calls that threw, whether from an injected error or a failed request
+		 */
+		public long getErrors() {
+			return errors;
+		}
+
+		public double getCallsPerSecond() {
+			return calls * 1000.0 / Math.max( 1, elapsedMillis );
+		}
+
+		public MethodMetricsSnapshot getFriendsGet() {
+			return friends;
+		}
+
+		public MethodMetricsSnapshot getUsersGetInfo() {
+			return users;
+		}
+
+		@Override
+		public String toString() {
+			return String.format( "%-4s %9.1f calls/s  %d calls  %d errors%n  %s%n  %s", flavor, getCallsPerSecond(), calls, errors, line( friends ), line( users ) );
+		}
+
+		private static String line( MethodMetricsSnapshot s ) {
+			if ( s == null ) {
+				return "(not called)";
+			}
+			return String.format( "%-24s p50 %7.3f ms  p95 %7.3f ms  p99 %7.3f ms  max %7.3f ms", s.getMethodName(), s.getLatencyPercentile( 50 ), s
+					.getLatencyPercentile( 95 ), s.getLatencyPercentile( 99 ), s.getMaxLatency() );
+		}
+
+	}
+
+	/**
+	 * Makes alternating friends_get and users_getInfo calls from <code>threads</code> threads, each with its own client, for <code>millis</code>.
+	 */
+	public static Report run( final Flavor flavor, final FakeRestServer server, int threads, long millis ) throws InterruptedException {
+		final ApiMetrics metrics = new ApiMetrics();
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final long start = System.nanoTime();
+		final long deadline = start + TimeUnit.MILLISECONDS.toNanos( millis );
+		final CountDownLatch done = new CountDownLatch( threads );
+		for ( int t = 0; t < threads; t++ ) {
+			Thread thread = new Thread( "load-" + flavor + "-" + t ) {
+				@Override
+				public void run() {
+					try {
+						BaseAdapter client = newClient( flavor, server );
+						client.getClient().setMetrics( metrics );
+						for ( int i = 0; System.nanoTime() < deadline; i++ ) {
+							try {
+								call( flavor, client, i );
+							}
+							catch ( FacebookException ex ) {
+								errors.incrementAndGet();
+							}
+							catch ( RuntimeException ex ) {
+								errors.incrementAndGet();
+							}
+							calls.incrementAndGet();
+						}
+					}
+					finally {
+						done.countDown();
+					}
+				}
+			};
+			thread.start();
+		}
+		done.await();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+		return new Report( flavor, calls.get(), errors.get(), elapsed, metrics.snapshot( FacebookMethod.FRIENDS_GET.methodName() ), metrics
+				.snapshot( FacebookMethod.USERS_GET_INFO.methodName() ) );
+	}
+
+	static BaseAdapter newClient( Flavor flavor, FakeRestServer server ) {
+		BaseAdapter client;
+		switch ( flavor ) {
+			case XML:
+				client = new FacebookXmlRestClient( API_KEY, SECRET, SESSION_KEY );
+				break;
+			case JSON:
+				client = new FacebookJsonRestClient( API_KEY, SECRET, SESSION_KEY );
+				break;
+			default:
+				client = new FacebookJaxbRestClient( API_KEY, SECRET, SESSION_KEY );
+		}
+		client.setServerUrl( server.getUrl() );
+		return client;
+	}
+
+	private static Object call( Flavor flavor, BaseAdapter client, int i ) throws FacebookException {
+		boolean friends = ( i & 1 ) == 0;
+		switch ( flavor ) {
+			case XML:
+				return friends ? ( (FacebookXmlRestClient) client ).friends_get() : ( (FacebookXmlRestClient) client ).users_getInfo( UIDS, FIELDS );
+			case JSON:
+				return friends ? ( (FacebookJsonRestClient) client ).friends_get() : ( (FacebookJsonRestClient) client ).users_getInfo( UIDS, FIELDS );
+			default:
+				return friends ? ( (FacebookJaxbRestClient) client ).friends_get() : ( (FacebookJaxbRestClient) client ).users_getInfo( UIDS, FIELDS );
+		}
+	}
+
+	public static void main( String[] args ) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt( args[0] ) : 8;
+		long seconds = args.length > 1 ? Long.parseLong( args[1] ) : 10;
+		long latency = args.length > 2 ? Long.parseLong( args[2] ) : 0;
+		FakeRestServer server = new FakeRestServer( API_KEY, SECRET );
+		server.setLatency( latency, latency / 2 );
+		server.start();
+		try {
+			List<Report> reports = new ArrayList<Report>();
+			for ( Flavor flavor : Flavor.values() ) {
+				// warm up, then measure
+				run( flavor, server, threads, Math.min( 2000, seconds * 500 ) );
+				reports.add( run( flavor, server, threads, seconds * 1000 ) );
+			}
+			System.out.println( threads + " threads, " + seconds + "s per client, " + latency + "ms server latency" );
+			for ( Report report : reports ) {
+				System.out.println( report );
+			}
+		}
+		finally {
+			server.stop();
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+public class LongListTest {
+
+	@Test
+	public void testList() {
+		LongList list = new LongList( 2 );
+		for ( long id = 100; id > 0; id-- ) {
+			list.add( id * 1000000000L );
+		}
+		list.add( 5000000000L );
+		assertEquals( 101, list.size() );
+		assertEquals( 100000000000L, list.get( 0 ) );
+		assertTrue( list.contains( 7000000000L ) );
+		assertFalse( list.contains( 7L ) );
+
+		list.sortDistinct();
+		assertEquals( 100, list.size() );
+		assertEquals( 1000000000L, list.get( 0 ) );
+		assertTrue( list.contains( 5000000000L ) );
+		assertFalse( list.contains( 5000000001L ) );
+		assertEquals( Long.valueOf( 2000000000L ), list.asList().get( 1 ) );
+		assertEquals( 100, list.toArray().length );
+		assertEquals( LongList.of( 1, 2, 3 ), LongList.of( 1, 2, 3 ) );
+	}
+
+	@Test
+	public void testFriendsGetIds() throws Exception {
+		FakeRestServer server = new FakeRestServer( LoadHarness.API_KEY, LoadHarness.SECRET );
+		server.respond( FacebookMethod.FRIENDS_GET_APP_USERS.methodName(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<friends_getAppUsers_response xmlns=\"http://api.facebook.com/1.0/\" list=\"true\"/>", "{}" );
+		server.start();
+		try {
+			LongList expected = LongList.of( 500455733L, 683211456L, 100000412345678L );
+			for ( LoadHarness.Flavor flavor : LoadHarness.Flavor.values() ) {
+				BaseAdapter client = LoadHarness.newClient( flavor, server );
+				assertEquals( flavor.toString(), expected, client.friends_getIds() );
+				assertEquals( flavor.toString(), expected, client.friends_getIds( 500455733L ) );
+				assertEquals( flavor.toString(), 0, client.friends_getAppUsersIds().size() );
+			}
+			assertEquals( 0, server.getSignatureFailures() );
+		}
+		finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testAreFriendsArrays() throws Exception {
+		final String[] sent = new String[2];
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, new FakeStrategy() {
+			@Override
+			protected String answer( SortedMap<String,String> params ) throws IOException {
+				sent[0] = params.get( "uids1" );
+				sent[1] = params.get( "uids2" );
+				return "[{\"uid1\":1,\"uid2\":3,\"are_friends\":true},{\"uid1\":2,\"uid2\":4,\"are_friends\":false}]";
+			}
+		} );
+		client.friends_areFriends( new long[] { 1, 2 }, new long[] { 3, 4 } );
+		assertEquals( Arrays.asList( "1,2", "3,4" ), Arrays.asList( sent ) );
+	}
+
+}
@@ -0,0 +1,192 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+public class NioCommunicationStrategyTest {
+
+	private Server server;
+	private URL url;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server( 0 );
+		server.setHandler( new AbstractHandler() {
+			public void handle( String target, HttpServletRequest request, HttpServletResponse response, int dispatch ) throws IOException, ServletException {
+				String sleep = request.getParameter( "sleep" );
+				if ( sleep != null ) {
+					try {
+						Thread.sleep( Long.parseLong( sleep ) );
+					}
+					catch ( InterruptedException ex ) {
+						// ignore
+					}
+				}
+				response.setContentType( "text/javascript;charset=utf-8" );
+				response.setStatus( HttpServletResponse.SC_OK );
+				response.getWriter().print( "{\"method\":\"" + request.getParameter( "method" ) + "\",\"call_id\":\"" + request.getParameter( "call_id" ) + "\",\"host\":\""
+						+ request.getServerName() + "\"}" );
+				( (Request) request ).setHandled( true );
+			}
+		} );
+		server.start();
+		url = new URL( "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/restserver.php" );
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		NioCommunicationStrategy strategy = new NioCommunicationStrategy();
+		try {
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			for ( int i = 0; i < 20; i++ ) {
+				SortedMap<String,String> params = new TreeMap<String,String>();
+				params.put( "method", "facebook.users.getInfo" );
+				params.put( "call_id", Integer.toString( i ) );
+				params.put( "sleep", "50" );
+				futures.add( strategy.postRequestAsync( url, params ) );
+			}
+			for ( int i = 0; i < futures.size(); i++ ) {
+				JSONObject json = new JSONObject( futures.get( i ).get() );
+				assertEquals( Integer.toString( i ), json.getString( "call_id" ) );
+			}
+		}
+		finally {
+			strategy.shutdown();
+		}
+	}
+
+	@Test
+	public void testReadTimeout() throws Exception {
+		NioCommunicationStrategy strategy = new NioCommunicationStrategy( 1000, 100 );
+		try {
+			SortedMap<String,String> params = new TreeMap<String,String>();
+			params.put( "method", "facebook.friends.get" );
+			params.put( "sleep", "1000" );
+			strategy.postRequestAsync( url, params ).get();
+			fail( "expected a timeout" );
+		}
+		catch ( ExecutionException ex ) {
+			assertTrue( ex.getCause() instanceof SocketTimeoutException );
+		}
+		finally {
+			strategy.shutdown();
+		}
+	}
+
+	@Test
+	public void testClientCallMethodAsync() throws Exception {
+		NioCommunicationStrategy strategy = new NioCommunicationStrategy();
+		try {
+			FacebookJsonRestClient client = new FacebookJsonRestClient( new ExtensibleClient( "json", "apikey", "secret", null, false, strategy ) );
+			client.getClient().setServerUrl( url );
+			Future<JSONObject> future = client.callMethodAsync( JSONObject.class, FacebookMethod.USERS_GET_LOGGED_IN_USER );
+			assertEquals( "facebook.users.getLoggedInUser", future.get().getString( "method" ) );
+			assertEquals( null, client.getRawResponse() );
+		}
+		finally {
+			strategy.shutdown();
+		}
+	}
+
+	@Test
+	public void testRestartsAfterStopping() throws Exception {
+		NioCommunicationStrategy strategy = new NioCommunicationStrategy();
+		try {
+			SortedMap<String,String> params = new TreeMap<String,String>();
+			params.put( "method", "facebook.friends.get" );
+			params.put( "call_id", "1" );
+			strategy.postRequestAsync( url, params ).get();
+			strategy.shutdown();
+			params.put( "call_id", "2" );
+			assertEquals( "2", new JSONObject( strategy.postRequestAsync( url, params ).get( 5, TimeUnit.SECONDS ) ).getString( "call_id" ) );
+		}
+		finally {
+			strategy.shutdown();
+		}
+	}
+
+	@Test
+	public void testUnknownHostFailsAtOnce() throws Exception {
+		NioCommunicationStrategy strategy = new NioCommunicationStrategy();
+		try {
+			SortedMap<String,String> params = new TreeMap<String,String>();
+			params.put( "method", "facebook.friends.get" );
+			Future<String> future = strategy.postRequestAsync( new URL( "http://no-such-host.invalid/restserver.php" ), params );
+			assertTrue( future.isDone() );
+			future.get();
+			fail( "expected an unknown host" );
+		}
+		catch ( ExecutionException ex ) {
+			assertTrue( ex.getCause() instanceof UnknownHostException );
+		}
+		finally {
+			strategy.shutdown();
+		}
+	}
+
+	@Test
+	public void testHttpProxy() throws Exception {
+		final Proxy proxy = new Proxy( Proxy.Type.HTTP, InetSocketAddress.createUnresolved( "localhost", url.getPort() ) );
+		ProxySelector defaultSelector = ProxySelector.getDefault();
+		ProxySelector.setDefault( new ProxySelector() {
+			@Override
+			public List<Proxy> select( URI uri ) {
+				return Collections.singletonList( "api.facebook.invalid".equals( uri.getHost() ) ? proxy : Proxy.NO_PROXY );
+			}
+
+			@Override
+			public void connectFailed( URI uri, SocketAddress address, IOException ex ) {
+				// nothing to do
+			}
+		} );
+		NioCommunicationStrategy strategy = new NioCommunicationStrategy();
+		try {
+			SortedMap<String,String> params = new TreeMap<String,String>();
+			params.put( "method", "facebook.friends.get" );
+			// the test server stands in for the proxy, and answers for the host itself
+			String response = strategy.postRequestAsync( new URL( "http://api.facebook.invalid/restserver.php" ), params ).get( 5, TimeUnit.SECONDS );
+			assertEquals( "api.facebook.invalid", new JSONObject( response ).getString( "host" ) );
+		}
+		finally {
+			ProxySelector.setDefault( defaultSelector );
+			strategy.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class NotificationFanoutTest {
+
+	/**
+	 * Accepts every recipient of notifications_send but multiples of 7, and fails the request for a chunk holding 13 while <code>failing</code> is set.
+	 */
+	private static class NotifyStrategy extends FakeStrategy {
+
+		volatile boolean failing;
+
+		@Override
+		protected String answer( SortedMap<String,String> params ) throws IOException {
+			assertEquals( "app_to_user", params.get( "type" ) );
+			List<String> ids = Arrays.asList( params.get( "to_ids" ).split( "," ) );
+			if ( failing && ids.contains( "13" ) ) {
+				throw new IOException( "connection reset" );
+			}
+			StringBuilder sb = new StringBuilder();
+			for ( String id : ids ) {
+				if ( Long.parseLong( id ) % 7 != 0 ) {
+					sb.append( sb.length() > 0 ? "," : "" ).append( id );
+				}
+			}
+			return "\"" + sb + "\"";
+		}
+
+	}
+
+	private static List<Long> ids( int from, int to ) {
+		List<Long> ids = new ArrayList<Long>();
+		for ( long id = from; id < to; id++ ) {
+			ids.add( id );
+		}
+		return ids;
+	}
+
+	private static Set<Long> accepted( int from, int to ) {
+		Set<Long> out = new HashSet<Long>();
+		for ( long id : ids( from, to ) ) {
+			if ( id % 7 != 0 ) {
+				out.add( id );
+			}
+		}
+		return out;
+	}
+
+	private static File tempFile() throws IOException {
+		File file = File.createTempFile( "fanout", ".checkpoint" );
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void testFanOut() throws Exception {
+		NotifyStrategy strategy = new NotifyStrategy();
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		NotificationFanout fanout = new NotificationFanout( client, null );
+		fanout.setChunkSize( 10 );
+		final AtomicInteger progress = new AtomicInteger();
+		fanout.setProgressListener( new NotificationFanout.ProgressListener() {
+			public void chunkDone( BulkResponse.Chunk chunk, NotificationFanout.Result soFar ) {
+				assertFalse( chunk.isFailed() );
+				progress.incrementAndGet();
+			}
+		} );
+		NotificationFanout.Result result = fanout.send( ids( 0, 95 ), "hello", true );
+		assertTrue( result.isComplete() );
+		assertEquals( 10, result.getChunkCount() );
+		assertEquals( 10, result.getChunksDone() );
+		assertEquals( 10, progress.get() );
+		assertEquals( 10, strategy.requests.get() );
+		assertEquals( accepted( 0, 95 ), result.getAccepted() );
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() throws Exception {
+		File checkpoint = tempFile();
+		NotifyStrategy strategy = new NotifyStrategy();
+		strategy.failing = true;
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		NotificationFanout fanout = new NotificationFanout( client, checkpoint );
+		fanout.setChunkSize( 10 );
+
+		NotificationFanout.Result first = fanout.send( ids( 0, 100 ), "hello", true );
+		assertFalse( first.isComplete() );
+		assertEquals( 1, first.getFailures().size() );
+		assertEquals( 1, first.getFailures().get( 0 ).getIndex() );
+		assertTrue( first.getFailures().get( 0 ).getFailure() instanceof IOException );
+		Set<Long> expected = accepted( 0, 100 );
+		expected.removeAll( accepted( 10, 20 ) );
+		assertEquals( expected, first.getAccepted() );
+
+		// only the failed chunk is sent again
+		strategy.failing = false;
+		strategy.requests.set( 0 );
+		NotificationFanout.Result second = fanout.send( ids( 0, 100 ), "hello", true );
+		assertTrue( second.isComplete() );
+		assertEquals( 1, strategy.requests.get() );
+		assertEquals( 9, second.getChunksResumed() );
+		assertEquals( accepted( 0, 100 ), second.getAccepted() );
+
+		// and nothing once all are done
+		strategy.requests.set( 0 );
+		assertTrue( fanout.send( ids( 0, 100 ), "hello", true ).isComplete() );
+		assertEquals( 0, strategy.requests.get() );
+	}
+
+	@Test
+	public void testResumeFromTornCheckpoint() throws Exception {
+		File checkpoint = tempFile();
+		NotifyStrategy strategy = new NotifyStrategy();
+		strategy.failing = true;
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		NotificationFanout fanout = new NotificationFanout( client, checkpoint );
+		fanout.setChunkSize( 10 );
+		assertFalse( fanout.send( ids( 0, 100 ), "hello", true ).isComplete() );
+
+		// a crash while writing the last line leaves it unfinished
+		RandomAccessFile file = new RandomAccessFile( checkpoint, "rw" );
+		try {
+			file.setLength( file.length() - 4 );
+		}
+		finally {
+			file.close();
+		}
+
+		// the unfinished chunk is sent again with the failed one, and its line is not run into the next
+		strategy.failing = false;
+		strategy.requests.set( 0 );
+		NotificationFanout.Result second = fanout.send( ids( 0, 100 ), "hello", true );
+		assertTrue( second.isComplete() );
+		assertEquals( 2, strategy.requests.get() );
+		assertEquals( 8, second.getChunksResumed() );
+		assertEquals( accepted( 0, 100 ), second.getAccepted() );
+
+		strategy.requests.set( 0 );
+		NotificationFanout.Result third = fanout.send( ids( 0, 100 ), "hello", true );
+		assertEquals( 0, strategy.requests.get() );
+		assertEquals( 10, third.getChunksResumed() );
+	}
+
+	@Test
+	public void testUnreadableCheckpointLinesAreSkipped() throws Exception {
+		File checkpoint = tempFile();
+		NotifyStrategy strategy = new NotifyStrategy();
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		NotificationFanout fanout = new NotificationFanout( client, checkpoint );
+		fanout.setChunkSize( 10 );
+		fanout.send( ids( 0, 30 ), "hello", true );
+		Writer out = new OutputStreamWriter( new FileOutputStream( checkpoint, true ), "UTF-8" );
+		try {
+			out.write( "3 101,1024 201,202;\n" );
+			out.write( "x 1,2;\n" );
+		}
+		finally {
+			out.close();
+		}
+		strategy.requests.set( 0 );
+		NotificationFanout.Result result = fanout.send( ids( 0, 30 ), "hello", true );
+		assertTrue( result.isComplete() );
+		assertEquals( 0, strategy.requests.get() );
+		assertEquals( accepted( 0, 30 ), result.getAccepted() );
+	}
+
+	@Test
+	public void testCheckpointOfAnotherJob() throws Exception {
+		File checkpoint = tempFile();
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, new NotifyStrategy() );
+		NotificationFanout fanout = new NotificationFanout( client, checkpoint );
+		fanout.send( ids( 0, 30 ), "hello", true );
+		try {
+			fanout.send( ids( 0, 30 ), "goodbye", true );
+			fail( "resumed another job's checkpoint" );
+		}
+		catch ( IOException ex ) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRateBudget() throws Exception {
+		NotifyStrategy strategy = new NotifyStrategy();
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		NotificationFanout fanout = new NotificationFanout( client, null );
+		fanout.setChunkSize( 10 );
+		fanout.setThreads( 8 );
+		fanout.setRequestsPerSecond( 20 );
+		long start = System.nanoTime();
+		assertTrue( fanout.send( ids( 0, 60 ), "hello", true ).isComplete() );
+		// six requests spaced 50ms apart span at least 250ms
+		assertTrue( System.nanoTime() - start >= 240000000L );
+		assertEquals( 6, strategy.requests.get() );
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+public class PooledCommunicationStrategyTest {
+
+	private Server server;
+	private URL url;
+	private final Set<Integer> remotePorts = new HashSet<Integer>();
+	private final Set<String> hosts = new HashSet<String>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile long delay;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server( 0 );
+		server.setHandler( new AbstractHandler() {
+			public void handle( String target, HttpServletRequest request, HttpServletResponse response, int dispatch ) throws IOException, ServletException {
+				synchronized ( remotePorts ) {
+					remotePorts.add( request.getRemotePort() );
+					hosts.add( request.getServerName() );
+				}
+				if ( requests.incrementAndGet() > 1 && delay > 0 ) {
+					try {
+						Thread.sleep( delay );
+					}
+					catch ( InterruptedException ex ) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				response.setContentType( "text/plain;charset=utf-8" );
+				response.setStatus( "fail".equals( request.getParameter( "method" ) ) ? HttpServletResponse.SC_SERVICE_UNAVAILABLE : HttpServletResponse.SC_OK );
+				response.getWriter().print( "echo:" + request.getParameter( "method" ) );
+				( (Request) request ).setHandled( true );
+			}
+		} );
+		server.start();
+		url = new URL( "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/restserver.php" );
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	private static SortedMap<String,String> params( String method ) {
+		SortedMap<String,String> params = new TreeMap<String,String>();
+		params.put( "method", method );
+		return params;
+	}
+
+	@Test
+	public void testConnectionReuse() throws Exception {
+		PooledCommunicationStrategy strategy = new PooledCommunicationStrategy( 2 );
+		for ( int i = 0; i < 5; i++ ) {
+			SortedMap<String,String> params = params( "facebook.users.getInfo" );
+			params.put( "call_id", Integer.toString( i ) );
+			assertEquals( "echo:facebook.users.getInfo", strategy.postRequest( url, params ) );
+		}
+		assertEquals( 1, remotePorts.size() );
+		assertEquals( 0, strategy.getActive( url ) );
+		assertEquals( 0, strategy.getPending( url ) );
+	}
+
+	@Test
+	public void testReuseAfterErrorResponse() throws Exception {
+		PooledCommunicationStrategy strategy = new PooledCommunicationStrategy();
+		strategy.postRequest( url, params( "facebook.users.getInfo" ) );
+		try {
+			strategy.postRequest( url, params( "fail" ) );
+			fail( "expected an error response" );
+		}
+		catch ( IOException ex ) {
+			// expected
+		}
+		strategy.postRequest( url, params( "facebook.users.getInfo" ) );
+		assertEquals( 1, remotePorts.size() );
+	}
+
+	@Test
+	public void testNoResendAfterTimeout() throws Exception {
+		delay = 1000;
+		PooledCommunicationStrategy strategy = new PooledCommunicationStrategy();
+		strategy.setReadTimeout( 200 );
+		strategy.postRequest( url, params( "facebook.users.getInfo" ) );
+		try {
+			strategy.postRequest( url, params( "facebook.users.getInfo" ) );
+			fail( "expected a read timeout" );
+		}
+		catch ( SocketTimeoutException ex ) {
+			// expected
+		}
+		assertEquals( 2, requests.get() );
+		assertEquals( 0, strategy.getActive( url ) );
+	}
+
+	@Test
+	public void testProxy() throws Exception {
+		final Proxy proxy = new Proxy( Proxy.Type.HTTP, InetSocketAddress.createUnresolved( "localhost", url.getPort() ) );
+		ProxySelector defaultSelector = ProxySelector.getDefault();
+		ProxySelector.setDefault( new ProxySelector() {
+			@Override
+			public List<Proxy> select( URI uri ) {
+				return Collections.singletonList( "api.facebook.invalid".equals( uri.getHost() ) ? proxy : Proxy.NO_PROXY );
+			}
+
+			@Override
+			public void connectFailed( URI uri, SocketAddress address, IOException ex ) {
+				// nothing to do
+			}
+		} );
+		try {
+			PooledCommunicationStrategy strategy = new PooledCommunicationStrategy();
+			// the test server stands in for the proxy, and answers for the host itself
+			assertEquals( "echo:facebook.users.getInfo", strategy.postRequest( new URL( "http://api.facebook.invalid/restserver.php" ),
+					params( "facebook.users.getInfo" ) ) );
+			assertEquals( Collections.singleton( "api.facebook.invalid" ), hosts );
+		}
+		finally {
+			ProxySelector.setDefault( defaultSelector );
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	private static Map<String,String> params( String apiKey, String sessionKey ) {
+		Map<String,String> params = new TreeMap<String,String>();
+		params.put( "api_key", apiKey );
+		if ( sessionKey != null ) {
+			params.put( "session_key", sessionKey );
+		}
+		return params;
+	}
+
+	@Test
+	public void testBurstThenRate() throws Exception {
+		RateLimiter limiter = new RateLimiter( 20, 2 );
+		long start = System.nanoTime();
+		for ( int i = 0; i < 4; i++ ) {
+			limiter.acquire( params( "app", null ), RateLimiter.Priority.NORMAL );
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+		// two from the burst, then one every 50ms
+		assertTrue( "elapsed " + elapsed, elapsed >= 80 );
+		assertEquals( 4, limiter.getGranted() );
+		assertEquals( 2, limiter.getDelayed() );
+		assertEquals( 0, limiter.getQueueLength() );
+
+		// applications have budgets of their own
+		limiter.acquire( params( "other", null ), RateLimiter.Priority.NORMAL );
+		assertEquals( 2, limiter.getDelayed() );
+	}
+
+	@Test
+	public void testPriorityDecidesWhoGoesFirst() throws Exception {
+		RateLimiter limiter = new RateLimiter( 4, 1 );
+		limiter.acquire( params( "app", null ), RateLimiter.Priority.NORMAL );
+
+		final List<String> order = Collections.synchronizedList( new ArrayList<String>() );
+		final CountDownLatch done = new CountDownLatch( 4 );
+		String[] names = { "background-1", "normal", "background-2", "interactive" };
+		RateLimiter.Priority[] priorities = { RateLimiter.Priority.BACKGROUND, RateLimiter.Priority.NORMAL, RateLimiter.Priority.BACKGROUND,
+				RateLimiter.Priority.INTERACTIVE };
+		for ( int i = 0; i < names.length; i++ ) {
+			final String name = names[i];
+			FacebookFuture<Void> future = limiter.acquireAsync( params( "app", null ), priorities[i] );
+			assertFalse( future.isDone() );
+			future.addListener( new Runnable() {
+				public void run() {
+					order.add( name );
+					done.countDown();
+				}
+			} );
+		}
+		assertEquals( 4, limiter.getQueueLength() );
+		assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+		assertEquals( "[interactive, normal, background-1, background-2]", order.toString() );
+		assertTrue( limiter.getWaitMillis() > 0 );
+	}
+
+	@Test
+	public void testSessionsAreLimitedSeparately() throws Exception {
+		RateLimiter limiter = new RateLimiter( 1000, 1000 );
+		limiter.setSessionRate( 0.5, 1 );
+		limiter.acquire( params( "app", "a" ), RateLimiter.Priority.NORMAL );
+		FacebookFuture<Void> second = limiter.acquireAsync( params( "app", "a" ), RateLimiter.Priority.INTERACTIVE );
+		assertFalse( second.isDone() );
+
+		// another session isn't held up by the one waiting, whatever its priority
+		long start = System.nanoTime();
+		limiter.acquire( params( "app", "b" ), RateLimiter.Priority.BACKGROUND );
+		assertTrue( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) < 500 );
+		assertFalse( second.isDone() );
+
+		// giving up frees the place in the queue
+		second.cancel( false );
+		limiter.acquire( params( "app", "c" ), RateLimiter.Priority.NORMAL );
+		assertEquals( 0, limiter.getQueueLength() );
+		assertEquals( 3, limiter.getGranted() );
+	}
+
+	@Test
+	public void testClientCallsWait() throws Exception {
+		final List<String> sessions = new ArrayList<String>();
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, new FakeStrategy() {
+			@Override
+			protected String answer( SortedMap<String,String> params ) throws IOException {
+				sessions.add( params.get( "session_key" ) );
+				return "[]";
+			}
+		} );
+		RateLimiter limiter = new RateLimiter( 20, 1 );
+		client.setRateLimiter( limiter );
+		client.getCallContext().setPriority( RateLimiter.Priority.INTERACTIVE );
+		long start = System.nanoTime();
+		for ( int i = 0; i < 3; i++ ) {
+			client.callMethod( FacebookMethod.FRIENDS_GET );
+		}
+		assertTrue( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) >= 80 );
+		assertEquals( 3, limiter.getGranted() );
+		assertEquals( 3, sessions.size() );
+	}
+
+}
@@ -0,0 +1,193 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestCoalescerTest {
+
+	private static final int THREADS = 16;
+
+	private FakeRestServer server;
+	private ExecutorService executor;
+
+	@Before
+	public void start() throws Exception {
+		server = new FakeRestServer( LoadHarness.API_KEY, LoadHarness.SECRET );
+		server.setLatency( 300, 0 );
+		server.start();
+		executor = Executors.newFixedThreadPool( THREADS );
+	}
+
+	@After
+	public void stop() throws Exception {
+		executor.shutdownNow();
+		server.stop();
+	}
+
+	private List<Future<String>> callConcurrently( final ExtensibleClient client, final IFacebookMethod method ) {
+		final CountDownLatch go = new CountDownLatch( 1 );
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		for ( int i = 0; i < THREADS; i++ ) {
+			futures.add( executor.submit( new Callable<String>() {
+				public String call() throws Exception {
+					go.await();
+					return client.callMethod( method );
+				}
+			} ) );
+		}
+		go.countDown();
+		return futures;
+	}
+
+	private ExtensibleClient client( RequestCoalescer coalescer ) {
+		ExtensibleClient client = new ExtensibleClient( "json", LoadHarness.API_KEY, LoadHarness.SECRET, LoadHarness.SESSION_KEY );
+		client.setServerUrl( server.getUrl() );
+		client.setRequestCoalescer( coalescer );
+		return client;
+	}
+
+	@Test
+	public void testIdenticalReadsShareOneRequest() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		List<Future<String>> futures = callConcurrently( client( coalescer ), FacebookMethod.FRIENDS_GET );
+		for ( Future<String> future : futures ) {
+			assertEquals( "[500455733,683211456,100000412345678]", future.get() );
+		}
+		// threads that arrive after the response start a new request, but with a 300ms response that is rare
+		assertTrue( "calls: " + server.getCalls(), server.getCalls() <= 2 );
+		assertEquals( THREADS, coalescer.getRequests() + coalescer.getJoined() );
+		assertEquals( 0, coalescer.getInFlight() );
+	}
+
+	@Test
+	public void testWritesAreNotCoalesced() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		for ( Future<String> future : callConcurrently( client( coalescer ), FacebookMethod.USERS_SET_STATUS ) ) {
+			future.get();
+		}
+		assertEquals( THREADS, server.getCalls() );
+		assertEquals( 0, coalescer.getJoined() );
+	}
+
+	@Test
+	public void testFailureIsShared() throws Exception {
+		server.setHttpErrorRate( 1.0 );
+		RequestCoalescer coalescer = new RequestCoalescer();
+		int failures = 0;
+		for ( Future<String> future : callConcurrently( client( coalescer ), FacebookMethod.FRIENDS_GET ) ) {
+			try {
+				future.get();
+			}
+			catch ( ExecutionException ex ) {
+				failures++ ;
+			}
+		}
+		assertEquals( THREADS, failures );
+		assertTrue( server.getRequests() <= 2 );
+	}
+
+	@Test
+	public void testJoinersGetTheSendersFailure() throws Exception {
+		final RequestCoalescer coalescer = new RequestCoalescer();
+		final CountDownLatch started = new CountDownLatch( 1 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final SocketTimeoutException timeout = new SocketTimeoutException( "Read timed out" );
+		Future<String> sender = executor.submit( new Callable<String>() {
+			public String call() throws Exception {
+				return coalescer.execute( "key", new Callable<String>() {
+					public String call() throws Exception {
+						started.countDown();
+						release.await();
+						throw timeout;
+					}
+				} );
+			}
+		} );
+		started.await();
+		Future<String> joiner = executor.submit( new Callable<String>() {
+			public String call() throws Exception {
+				return coalescer.execute( "key", null );
+			}
+		} );
+		while ( coalescer.getJoined() == 0 ) {
+			Thread.sleep( 1 );
+		}
+		release.countDown();
+		try {
+			sender.get();
+			fail();
+		}
+		catch ( ExecutionException ex ) {
+			assertSame( timeout, ex.getCause() );
+		}
+		try {
+			joiner.get();
+			fail();
+		}
+		catch ( ExecutionException ex ) {
+			assertSame( timeout, ex.getCause() );
+		}
+		assertEquals( 1, coalescer.getRequests() );
+	}
+
+	@Test
+	public void testJoinerCanBeInterrupted() throws Exception {
+		final RequestCoalescer coalescer = new RequestCoalescer();
+		final CountDownLatch started = new CountDownLatch( 1 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		Future<String> sender = executor.submit( new Callable<String>() {
+			public String call() throws Exception {
+				return coalescer.execute( "key", new Callable<String>() {
+					public String call() throws Exception {
+						started.countDown();
+						release.await();
+						return "[]";
+					}
+				} );
+			}
+		} );
+		started.await();
+		final AtomicReference<Exception> thrown = new AtomicReference<Exception>();
+		Thread joiner = new Thread() {
+			@Override
+			public void run() {
+				try {
+					coalescer.execute( "key", null );
+				}
+				catch ( Exception ex ) {
+					thrown.set( ex );
+				}
+			}
+		};
+		joiner.start();
+		while ( coalescer.getJoined() == 0 ) {
+			Thread.sleep( 1 );
+		}
+		joiner.interrupt();
+		joiner.join( 5000 );
+		assertFalse( joiner.isAlive() );
+		assertTrue( String.valueOf( thrown.get() ), thrown.get() instanceof InterruptedIOException );
+		release.countDown();
+		assertEquals( "[]", sender.get() );
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class RequestParamsTest {
+
+	@Test
+	public void testBuildMatchesTreeMap() {
+		List<Pair<String,CharSequence>> args = new ArrayList<Pair<String,CharSequence>>();
+		args.add( Pairs.newPair( "uids", "1,2,3" ) );
+		args.add( Pairs.newPair( "fields", "name,pic" ) );
+		args.add( Pairs.newPair( "attachment", "{}" ) );
+		args.add( Pairs.newPair( "zeta", "z" ) );
+		RequestParams params = RequestParams.Builder.forThread().apiKey( "key" ).method( "facebook.users.getInfo" ).v( "1.0" ).format( "json" ).callId( "1" )
+				.sessionKey( "session" ).ss( true ).args( args ).build( true );
+
+		SortedMap<String,String> expected = new TreeMap<String,String>();
+		expected.put( "api_key", "key" );
+		expected.put( "method", "facebook.users.getInfo" );
+		expected.put( "v", "1.0" );
+		expected.put( "format", "json" );
+		expected.put( "call_id", "1" );
+		expected.put( "session_key", "session" );
+		expected.put( "ss", "1" );
+		for ( Pair<String,CharSequence> p : args ) {
+			expected.put( p.first, p.second.toString() );
+		}
+		assertEquals( expected, params );
+		assertEquals( new ArrayList<String>( expected.keySet() ), new ArrayList<String>( params.keySet() ) );
+		assertEquals( FacebookSignatureUtil.generateSignature( expected, "secret" ), FacebookSignatureUtil.generateSignature( params, "secret" ) );
+		assertEquals( FormEncoder.forThread().params( expected ).toString(), FormEncoder.forThread().params( params ).toString() );
+
+		// the builder starts empty each time
+		assertEquals( 0, RequestParams.Builder.forThread().build( true ).size() );
+	}
+
+	@Test
+	public void testOverrides() {
+		RequestParams.Builder builder = RequestParams.Builder.forThread().method( "facebook.fixed" ).v( "1.0" );
+		builder.arg( "method", "facebook.arg" ).arg( "a", "first" ).arg( "a", "second" );
+		RequestParams params = builder.build( true );
+		assertEquals( "facebook.arg", params.get( "method" ) );
+		assertEquals( "second", params.get( "a" ) );
+		assertEquals( 3, params.size() );
+
+		builder = RequestParams.Builder.forThread().method( "facebook.fixed" ).v( "1.0" );
+		builder.arg( "method", "facebook.arg" ).arg( "a", "first" ).arg( "a", "second" );
+		params = builder.build( false );
+		assertEquals( "facebook.fixed", params.get( "method" ) );
+		assertEquals( "second", params.get( "a" ) );
+		assertEquals( 3, params.size() );
+	}
+
+	@Test
+	public void testMapOperations() {
+		RequestParams params = RequestParams.Builder.forThread().apiKey( "key" ).v( "1.0" ).arg( "m", "x" ).build( true );
+		assertNull( params.put( "sig", "abc" ) );
+		assertNull( params.put( "0first", "0" ) );
+		assertNull( params.put( "zz", "last" ) );
+		assertEquals( "x", params.put( "m", "y" ) );
+		assertEquals( "0first", params.firstKey() );
+		assertEquals( "zz", params.lastKey() );
+		assertEquals( "abc", params.get( "sig" ) );
+		assertEquals( "abc", params.remove( "sig" ) );
+		assertFalse( params.containsKey( "sig" ) );
+		assertNull( params.get( 42 ) );
+
+		Iterator<Map.Entry<String,String>> it = params.entrySet().iterator();
+		while ( it.hasNext() ) {
+			Map.Entry<String,String> e = it.next();
+			if ( e.getKey().startsWith( "0" ) ) {
+				it.remove();
+			} else if ( e.getKey().equals( "m" ) ) {
+				e.setValue( "z" );
+			}
+		}
+		assertEquals( "[api_key, m, v, zz]", params.keySet().toString() );
+		assertEquals( "z", params.get( "m" ) );
+		assertTrue( params.headMap( "v" ).containsKey( "m" ) );
+		assertEquals( 2, params.tailMap( "v" ).size() );
+	}
+
+}
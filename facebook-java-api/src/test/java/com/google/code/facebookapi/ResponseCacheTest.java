@@ -0,0 +1,138 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResponseCacheTest {
+
+	private FakeRestServer server;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new FakeRestServer( LoadHarness.API_KEY, LoadHarness.SECRET );
+		server.start();
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	private static SortedMap<String,String> params( String callId, String sessionKey ) {
+		SortedMap<String,String> params = new TreeMap<String,String>();
+		params.put( "api_key", LoadHarness.API_KEY );
+		params.put( "call_id", callId );
+		params.put( "method", FacebookMethod.FRIENDS_GET.methodName() );
+		params.put( "session_key", sessionKey );
+		params.put( "sig", callId + "sig" );
+		return params;
+	}
+
+	@Test
+	public void testKeyIgnoresCallIdAndSig() {
+		String key = ResponseCache.key( FacebookMethod.FRIENDS_GET, params( "1", "a" ) );
+		assertEquals( key, ResponseCache.key( FacebookMethod.FRIENDS_GET, params( "2", "a" ) ) );
+		assertFalse( key.equals( ResponseCache.key( FacebookMethod.FRIENDS_GET, params( "1", "b" ) ) ) );
+		assertFalse( key.equals( ResponseCache.key( FacebookMethod.USERS_GET_INFO, params( "1", "a" ) ) ) );
+	}
+
+	@Test
+	public void testKeysOfRawValuesDontCollide() {
+		SortedMap<String,String> params = params( "1", "a" );
+		params.put( "uids", "1\0uids2=2" );
+		SortedMap<String,String> other = params( "1", "a" );
+		other.put( "uids", "1" );
+		other.put( "uids2", "2" );
+		assertFalse( ResponseCache.key( FacebookMethod.FRIENDS_GET, params ).equals( ResponseCache.key( FacebookMethod.FRIENDS_GET, other ) ) );
+		params.put( "uids", null );
+		other.remove( "uids2" );
+		other.put( "uids", "-" );
+		assertFalse( ResponseCache.key( FacebookMethod.FRIENDS_GET, params ).equals( ResponseCache.key( FacebookMethod.FRIENDS_GET, other ) ) );
+	}
+
+	@Test
+	public void testOnlyReadOnlyMethodsCanBeCached() {
+		ResponseCache cache = new ResponseCache( 10 );
+		cache.setTtl( FacebookMethod.FRIENDS_GET, 60, TimeUnit.SECONDS );
+		assertEquals( 60000, cache.getTtl( FacebookMethod.FRIENDS_GET ) );
+		try {
+			cache.setTtl( FacebookMethod.STREAM_PUBLISH, 60, TimeUnit.SECONDS );
+			fail( "writes must not be cacheable" );
+		}
+		catch ( IllegalArgumentException expected ) {
+			// expected
+		}
+		assertEquals( 0, cache.getTtl( FacebookMethod.STREAM_PUBLISH ) );
+	}
+
+	@Test
+	public void testClientUsesCache() throws Exception {
+		ResponseCache cache = ResponseCache.withDefaultTtls( 100 );
+		ExtensibleClient client = new ExtensibleClient( "json", LoadHarness.API_KEY, LoadHarness.SECRET, LoadHarness.SESSION_KEY );
+		client.setServerUrl( server.getUrl() );
+		client.setResponseCache( cache );
+		String first = client.callMethod( FacebookMethod.FRIENDS_GET );
+		assertEquals( first, client.callMethod( FacebookMethod.FRIENDS_GET ) );
+		assertEquals( 1, server.getCalls() );
+		assertEquals( 1, cache.getHits() );
+		assertEquals( 1, cache.getMisses() );
+
+		// other sessions don't share entries
+		client.setCacheSessionKey( "another-session" );
+		client.callMethod( FacebookMethod.FRIENDS_GET );
+		assertEquals( 2, server.getCalls() );
+
+		// methods without a TTL always go to the server
+		client.callMethod( FacebookMethod.USERS_GET_LOGGED_IN_USER );
+		client.callMethod( FacebookMethod.USERS_GET_LOGGED_IN_USER );
+		assertEquals( 4, server.getCalls() );
+		assertEquals( 2, cache.size() );
+	}
+
+	@Test
+	public void testErrorsAreNotCached() throws Exception {
+		ResponseCache cache = ResponseCache.withDefaultTtls( 100 );
+		ExtensibleClient client = new ExtensibleClient( "xml", LoadHarness.API_KEY, LoadHarness.SECRET, LoadHarness.SESSION_KEY );
+		client.setServerUrl( server.getUrl() );
+		client.setResponseCache( cache );
+		server.setErrorRate( 1.0, ErrorCode.API_EC_SERVICE );
+		client.callMethod( FacebookMethod.FRIENDS_GET );
+		server.setErrorRate( 0, 0 );
+		client.callMethod( FacebookMethod.FRIENDS_GET );
+		client.callMethod( FacebookMethod.FRIENDS_GET );
+		assertEquals( 2, server.getCalls() );
+		assertEquals( 1, cache.getHits() );
+	}
+
+	@Test
+	public void testExpiryAndEviction() throws Exception {
+		ResponseCache cache = new ResponseCache( 2 );
+		cache.setTtl( FacebookMethod.FRIENDS_GET, 50, TimeUnit.MILLISECONDS );
+		cache.put( FacebookMethod.FRIENDS_GET, "a", "[1]" );
+		assertEquals( "[1]", cache.get( "a" ) );
+		Thread.sleep( 60 );
+		assertNull( cache.get( "a" ) );
+		assertEquals( 1, cache.getExpirations() );
+
+		ResponseCache lru = new ResponseCache( 1 );
+		lru.setTtl( FacebookMethod.FRIENDS_GET, 60, TimeUnit.SECONDS );
+		lru.put( FacebookMethod.FRIENDS_GET, "a", "[1]" );
+		lru.put( FacebookMethod.FRIENDS_GET, "b", "[2]" );
+		assertNull( lru.get( "a" ) );
+		assertEquals( "[2]", lru.get( "b" ) );
+		assertEquals( 1, lru.getEvictions() );
+		assertTrue( lru.size() <= 1 );
+	}
+
+}
@@ -0,0 +1,206 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+	private static final String OK = "[1,2,3]";
+
+	private static String error( int code ) {
+		return "{\"error_code\":" + code + ",\"error_msg\":\"failed\"}";
+	}
+
+	/**
+	 * Answers each request with the next scripted response, or throws it if it is an IOException.
+	 */
+	private static class ScriptedStrategy extends FakeStrategy {
+
+		final LinkedList<Object> script = new LinkedList<Object>();
+
+		ScriptedStrategy( Object... responses ) {
+			script.addAll( Arrays.asList( responses ) );
+		}
+
+		@Override
+		protected String answer( SortedMap<String,String> params ) throws IOException {
+			Object next = script.size() > 1 ? script.removeFirst() : script.getFirst();
+			if ( next instanceof IOException ) {
+				throw (IOException) next;
+			}
+			return (String) next;
+		}
+
+	}
+
+	private static ExtensibleClient client( ScriptedStrategy strategy, RetryPolicy retry ) {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		client.setRetryPolicy( retry );
+		return client;
+	}
+
+	private static RetryPolicy noDelay() {
+		RetryPolicy retry = new RetryPolicy();
+		retry.setBackoff( 0, 0, TimeUnit.MILLISECONDS );
+		return retry;
+	}
+
+	@Test
+	public void testReadsRecoverFromTransientErrors() throws Exception {
+		RetryPolicy retry = noDelay();
+		ScriptedStrategy strategy = new ScriptedStrategy( error( ErrorCode.API_EC_SERVICE ), new SocketTimeoutException(), OK );
+		assertEquals( OK, client( strategy, retry ).callMethod( FacebookMethod.FRIENDS_GET ) );
+		assertEquals( 3, strategy.requests.get() );
+		assertEquals( 2, retry.getRetries() );
+		assertEquals( 1, retry.getRecovered() );
+		assertEquals( Long.valueOf( 1 ), retry.getRetriesByCode().get( ErrorCode.API_EC_SERVICE ) );
+		assertEquals( Long.valueOf( 1 ), retry.getRetriesByCode().get( 0 ) );
+
+		// errors that won't pass are returned at once
+		strategy = new ScriptedStrategy( error( ErrorCode.GEN_INVALID_PARAMETER ), OK );
+		assertEquals( error( ErrorCode.GEN_INVALID_PARAMETER ), client( strategy, retry ).callMethod( FacebookMethod.FRIENDS_GET ) );
+		assertEquals( 1, strategy.requests.get() );
+	}
+
+	@Test
+	public void testGivesUpAfterMaxAttempts() throws Exception {
+		RetryPolicy retry = noDelay();
+		retry.setMaxAttempts( 4 );
+		ScriptedStrategy strategy = new ScriptedStrategy( error( ErrorCode.API_EC_UNKNOWN ) );
+		assertEquals( error( ErrorCode.API_EC_UNKNOWN ), client( strategy, retry ).callMethod( FacebookMethod.FRIENDS_GET ) );
+		assertEquals( 4, strategy.requests.get() );
+		assertEquals( 1, retry.getExhausted() );
+		assertEquals( 0, retry.getRecovered() );
+
+		strategy = new ScriptedStrategy( new SocketTimeoutException() );
+		try {
+			client( strategy, retry ).callMethod( FacebookMethod.FRIENDS_GET );
+			fail( "the last failure should be thrown" );
+		}
+		catch ( RuntimeException expected ) {
+			assertTrue( expected.getCause() instanceof SocketTimeoutException );
+		}
+		assertEquals( 4, strategy.requests.get() );
+		assertEquals( 2, retry.getExhausted() );
+	}
+
+	@Test
+	public void testWritesAreOnlyRetriedWhenNotRun() throws Exception {
+		RetryPolicy retry = noDelay();
+		ScriptedStrategy strategy = new ScriptedStrategy( error( ErrorCode.API_EC_SERVICE ), OK );
+		assertEquals( error( ErrorCode.API_EC_SERVICE ), client( strategy, retry ).callMethod( FacebookMethod.STREAM_PUBLISH ) );
+		assertEquals( 1, strategy.requests.get() );
+		assertEquals( 1, retry.getNotIdempotent() );
+
+		strategy = new ScriptedStrategy( new SocketTimeoutException(), OK );
+		try {
+			client( strategy, retry ).callMethod( FacebookMethod.STREAM_PUBLISH );
+			fail( "a write that may have been run must not be resent" );
+		}
+		catch ( RuntimeException expected ) {
+			// expected
+		}
+		assertEquals( 1, strategy.requests.get() );
+
+		// refused for the rate limit, or never sent
+		strategy = new ScriptedStrategy( error( ErrorCode.GAPI_EC_TOO_MANY_CALLS ), new ConnectException(), OK );
+		assertEquals( OK, client( strategy, retry ).callMethod( FacebookMethod.STREAM_PUBLISH ) );
+		assertEquals( 3, strategy.requests.get() );
+
+		// unless declared idempotent
+		retry.setIdempotent( FacebookMethod.STREAM_PUBLISH, true );
+		strategy = new ScriptedStrategy( error( ErrorCode.API_EC_SERVICE ), OK );
+		assertEquals( OK, client( strategy, retry ).callMethod( FacebookMethod.STREAM_PUBLISH ) );
+		assertEquals( 2, strategy.requests.get() );
+	}
+
+	@Test
+	public void testEachAttemptIsRecorded() throws Exception {
+		ScriptedStrategy strategy = new ScriptedStrategy( new SocketTimeoutException(), error( ErrorCode.API_EC_SERVICE ), OK );
+		BasicClient client = new BasicClient( FacebookApiUrls.getDefaultServerUrl(), FacebookApiUrls.getDefaultHttpsServerUrl(), "apikey", "secret", false,
+				strategy );
+		ApiMetrics metrics = new ApiMetrics();
+		client.setMetrics( metrics );
+		client.setRetryPolicy( noDelay() );
+		assertEquals( OK, client.callMethod( "json", FacebookMethod.FRIENDS_GET, "session", Collections.<Pair<String,CharSequence>> emptyList(), null, null ) );
+		MethodMetricsSnapshot snapshot = metrics.snapshot( FacebookMethod.FRIENDS_GET.methodName() );
+		assertEquals( 3, snapshot.getCalls() );
+		assertEquals( 1, snapshot.getFailures() );
+		assertEquals( 1, snapshot.getApiErrors() );
+	}
+
+	/**
+	 * Remembers the call_id of every attempt, checking that each is signed.
+	 */
+	private static class CallIdStrategy extends ScriptedStrategy {
+
+		final List<Long> callIds = new ArrayList<Long>();
+
+		CallIdStrategy( Object... responses ) {
+			super( responses );
+		}
+
+		@Override
+		protected String answer( SortedMap<String,String> params ) throws IOException {
+			SortedMap<String,String> unsigned = new TreeMap<String,String>( params );
+			String sig = unsigned.remove( "sig" );
+			assertEquals( FacebookSignatureUtil.generateSignature( unsigned, "secret" ), sig );
+			callIds.add( Long.valueOf( params.get( "call_id" ) ) );
+			return super.answer( params );
+		}
+
+	}
+
+	@Test
+	public void testEachAttemptHasANewCallId() throws Exception {
+		CallIdStrategy strategy = new CallIdStrategy( new SocketTimeoutException(), error( ErrorCode.API_EC_SERVICE ), OK );
+		assertEquals( OK, client( strategy, noDelay() ).callMethod( FacebookMethod.FRIENDS_GET ) );
+		assertEquals( 3, strategy.callIds.size() );
+		assertTrue( strategy.callIds.get( 0 ) < strategy.callIds.get( 1 ) );
+		assertTrue( strategy.callIds.get( 1 ) < strategy.callIds.get( 2 ) );
+
+		strategy = new CallIdStrategy( new SocketTimeoutException(), OK );
+		BasicClient basic = new BasicClient( FacebookApiUrls.getDefaultServerUrl(), FacebookApiUrls.getDefaultHttpsServerUrl(), "apikey", "secret", false,
+				strategy );
+		basic.setRetryPolicy( noDelay() );
+		assertEquals( OK, basic.callMethod( "json", FacebookMethod.FRIENDS_GET, "session", Collections.<Pair<String,CharSequence>> emptyList(), null, null ) );
+		assertEquals( 2, strategy.callIds.size() );
+		assertTrue( strategy.callIds.get( 0 ) < strategy.callIds.get( 1 ) );
+	}
+
+	@Test
+	public void testBackoff() {
+		RetryPolicy retry = new RetryPolicy();
+		retry.setBackoff( 100, 400, TimeUnit.MILLISECONDS );
+		long first = 0;
+		long fourth = 0;
+		for ( int i = 0; i < 1000; i++ ) {
+			long delay = retry.backoff( 1 );
+			assertTrue( delay >= 0 && delay <= 100 );
+			first = Math.max( first, delay );
+			delay = retry.backoff( 4 );
+			assertTrue( delay >= 0 && delay <= 400 );
+			fourth = Math.max( fourth, delay );
+			assertTrue( retry.backoff( 100 ) <= 400 );
+		}
+		// jittered over the whole range
+		assertTrue( first > 50 );
+		assertTrue( fourth > 200 );
+	}
+
+}
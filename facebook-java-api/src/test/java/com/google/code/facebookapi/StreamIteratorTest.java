@@ -0,0 +1,122 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.util.SortedMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class StreamIteratorTest {
+
+	/**
+	 * A stream of <code>size</code> posts, newest first, where post i was created at 1000000 - i / perSecond, so every <code>perSecond</code> posts share a
+	 * second (three by default). Answers stream_get with the newest <code>limit</code> posts created at or before end_time.
+	 */
+	private static class StreamStrategy extends FakeStrategy {
+
+		final int size;
+		final int perSecond;
+		int failAt = -1;
+
+		StreamStrategy( int size ) {
+			this( size, 3 );
+		}
+
+		StreamStrategy( int size, int perSecond ) {
+			this.size = size;
+			this.perSecond = perSecond;
+		}
+
+		@Override
+		protected synchronized String answer( SortedMap<String,String> params ) throws IOException {
+			assertEquals( "json", params.get( "format" ) );
+			if ( requests.get() - 1 == failAt ) {
+				throw new IOException( "connection reset" );
+			}
+			long end = params.containsKey( "end_time" ) ? Long.parseLong( params.get( "end_time" ) ) : Long.MAX_VALUE;
+			int limit = Integer.parseInt( params.get( "limit" ) );
+			try {
+				JSONArray posts = new JSONArray();
+				for ( int i = 0; i < size && posts.length() < limit; i++ ) {
+					if ( created( i ) <= end ) {
+						posts.put( new JSONObject().put( "post_id", "1_" + i ).put( "created_time", created( i ) ) );
+					}
+				}
+				return posts.length() == 0 ? "[]" : new JSONObject().put( "posts", posts ).toString();
+			}
+			catch ( JSONException ex ) {
+				throw new RuntimeException( ex );
+			}
+		}
+
+		long created( int i ) {
+			return 1000000 - i / perSecond;
+		}
+
+	}
+
+	@Test
+	public void testWalksWholeStream() throws Exception {
+		StreamStrategy strategy = new StreamStrategy( 100 );
+		ExtensibleClient client = new ExtensibleClient( "xml", "apikey", "secret", "session", false, strategy );
+		StreamIterator it = client.stream_getIterator( null, null, null, null, 10, null );
+		int i = 0;
+		while ( it.hasNext() ) {
+			assertEquals( "1_" + i, it.next().getString( "post_id" ) );
+			i++ ;
+		}
+		assertEquals( 100, i );
+		assertFalse( it.hasNext() );
+		// pages overlap by the posts sharing their boundary second, and the last page is empty
+		assertTrue( it.getPages() > 10 );
+		assertEquals( it.getPages(), strategy.requests.get() );
+	}
+
+	@Test
+	public void testSecondFullerThanAPage() throws Exception {
+		StreamStrategy strategy = new StreamStrategy( 40, 15 );
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		StreamIterator it = client.stream_getIterator( null, null, null, null, 10, null );
+		StringBuilder seen = new StringBuilder();
+		while ( it.hasNext() ) {
+			seen.append( it.next().getString( "post_id" ).substring( 2 ) ).append( ' ' );
+		}
+		// each second holds 15 posts, of which only the newest 10 fit in a page; the walk steps on to the next second instead of stopping
+		assertEquals( "0 1 2 3 4 5 6 7 8 9 15 16 17 18 19 20 21 22 23 24 30 31 32 33 34 35 36 37 38 39 ", seen.toString() );
+	}
+
+	@Test
+	public void testEmptyStream() throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, new StreamStrategy( 0 ) );
+		StreamIterator it = client.stream_getIterator( null, null, null, null, 10, null );
+		assertFalse( it.hasNext() );
+		assertEquals( 1, it.getPages() );
+	}
+
+	@Test
+	public void testFailedPage() throws Exception {
+		StreamStrategy strategy = new StreamStrategy( 100 );
+		strategy.failAt = 1;
+		ExtensibleClient client = new ExtensibleClient( "json", "apikey", "secret", "session", false, strategy );
+		StreamIterator it = client.stream_getIterator( null, null, null, null, 10, null );
+		for ( int i = 0; i < 10; i++ ) {
+			it.next();
+		}
+		try {
+			it.hasNext();
+			fail( "second page should have failed" );
+		}
+		catch ( RuntimeException ex ) {
+			assertTrue( ex.getCause() instanceof IOException );
+		}
+		assertFalse( it.hasNext() );
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.google.code.facebookapi;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+public class XmlHelperTest {
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+	private static final String NS = " xmlns=\"http://api.facebook.com/1.0/\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"";
+
+	private static final String FRIENDS = HEADER + "<friends_get_response" + NS + " list=\"true\">\n  <uid>1240077</uid>\n  <uid>222333</uid>\n"
+			+ "  <uid>&#49;&lt;2</uid>\n</friends_get_response>";
+
+	private static final String ERROR = HEADER + "<error_response" + NS + ">\n  <error_code>102</error_code>\n  <error_msg>Session key invalid or no longer valid</error_msg>\n"
+			+ "  <request_args list=\"true\">\n    <arg><key>method</key><value>friends.get</value></arg>\n  </request_args>\n</error_response>";
+
+	private static DocumentBuilderFactory factory() {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware( true );
+		return factory;
+	}
+
+	@Test
+	public void testSameTreeAsDomParser() throws Exception {
+		Document expected = factory().newDocumentBuilder().parse( new InputSource( new StringReader( FRIENDS ) ) );
+		expected.normalizeDocument();
+		XmlHelper.stripEmptyTextNodes( expected );
+		Document actual = XmlHelper.parseCallResult( FRIENDS, factory() );
+		assertEquals( XmlHelper.printDom( expected, "" ), XmlHelper.printDom( actual, "" ) );
+		assertTrue( expected.getDocumentElement().isEqualNode( actual.getDocumentElement() ) );
+		NodeList uids = actual.getElementsByTagNameNS( "http://api.facebook.com/1.0/", "uid" );
+		assertEquals( 3, uids.getLength() );
+		assertEquals( "1<2", uids.item( 2 ).getTextContent() );
+		assertEquals( "true", actual.getDocumentElement().getAttribute( "list" ) );
+	}
+
+	@Test
+	public void testStreamedDocument() throws Exception {
+		Document doc = XmlHelper.parseCallResult( new ByteArrayInputStream( FRIENDS.getBytes( "UTF-8" ) ), factory() );
+		assertEquals( "friends_get_response", doc.getDocumentElement().getLocalName() );
+		assertEquals( 3, doc.getDocumentElement().getChildNodes().getLength() );
+	}
+
+	@Test
+	public void testScalars() throws Exception {
+		assertEquals( "1", XmlHelper.parseScalarResult( HEADER + "<users_isAppUser_response" + NS + ">1</users_isAppUser_response>" ) );
+		assertEquals( "3ea2f6d7b2", XmlHelper.parseScalarResult( HEADER + "<auth_createToken_response" + NS + ">3ea2f6d7b2</auth_createToken_response>" ) );
+		assertEquals( "", XmlHelper.parseScalarResult( HEADER + "<auth_createToken_response" + NS + "/>" ) );
+		assertNull( XmlHelper.parseScalarResult( null ) );
+		Document doc = XmlHelper.parseCallResult( HEADER + "<links_post_response" + NS + ">\n  1234567890123\n</links_post_response>", factory() );
+		assertEquals( XmlHelper.extractString( doc ), XmlHelper.parseScalarResult( HEADER + "<links_post_response" + NS + ">\n  1234567890123\n</links_post_response>" ) );
+	}
+
+	@Test
+	public void testExtensibleClientScalars() throws Exception {
+		ExtensibleClient client = new ExtensibleClient( "xml", "apikey", "secret" );
+		assertTrue( client.extractBoolean( HEADER + "<pages_isFan_response" + NS + ">1</pages_isFan_response>" ) );
+		assertFalse( client.extractBoolean( HEADER + "<pages_isFan_response" + NS + ">0</pages_isFan_response>" ) );
+		assertEquals( 42, client.extractInt( HEADER + "<admin_getAllocation_response" + NS + ">42</admin_getAllocation_response>" ) );
+		assertEquals( 1234567890123L, client.extractLong( HEADER + "<links_post_response" + NS + ">1234567890123</links_post_response>" ) );
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		try {
+			XmlHelper.parseScalarResult( ERROR );
+			fail( "expected FacebookException" );
+		}
+		catch ( FacebookException ex ) {
+			assertEquals( ErrorCode.SESSION_INVALID, ex.getCode() );
+			assertEquals( "Session key invalid or no longer valid", ex.getMessage() );
+		}
+		try {
+			XmlHelper.parseCallResult( ERROR, factory() );
+			fail( "expected FacebookException" );
+		}
+		catch ( FacebookException ex ) {
+			assertEquals( ErrorCode.SESSION_INVALID, ex.getCode() );
+			assertEquals( "Session key invalid or no longer valid", ex.getMessage() );
+		}
+	}
+
+	@Test
+	public void testStripEmptyTextNodes() throws Exception {
+		StringBuilder xml = new StringBuilder( "<users_getInfo_response>" );
+		for ( int i = 0; i < 20000; i++ ) {
+			xml.append( "\n  <user><uid>" ).append( i ).append( "</uid>\n  </user>" );
+		}
+		xml.append( "\n</users_getInfo_response>" );
+		Document doc = factory().newDocumentBuilder().parse( new InputSource( new StringReader( xml.toString() ) ) );
+		XmlHelper.stripEmptyTextNodes( doc );
+		NodeList users = doc.getDocumentElement().getChildNodes();
+		assertEquals( 20000, users.getLength() );
+		for ( Node user = doc.getDocumentElement().getFirstChild(); user != null; user = user.getNextSibling() ) {
+			assertEquals( 1, user.getChildNodes().getLength() );
+		}
+	}
+
+}